@@ -0,0 +1,47 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services;
+
+/**
+ * Thrown when an action isn't sent because the bulkhead it was assigned to already has as many actions in flight as it
+ * allows, and the action couldn't be queued, or waited too long in the queue.
+ */
+public class BulkheadFullException extends AciServiceException {
+
+    private static final long serialVersionUID = -3871630947318564106L;
+
+    /**
+     * The name of the bulkhead.
+     */
+    private final String bulkhead;
+
+    /**
+     * Constructs a new {@code BulkheadFullException} for the given bulkhead.
+     * @param bulkhead           The name of the bulkhead
+     * @param maxConcurrentCalls The number of actions the bulkhead allows in flight
+     */
+    public BulkheadFullException(final String bulkhead, final int maxConcurrentCalls) {
+        super("The bulkhead " + bulkhead + " is full, with " + maxConcurrentCalls + " actions in flight");
+        this.bulkhead = bulkhead;
+    }
+
+    /**
+     * @return The name of the bulkhead
+     */
+    public String getBulkhead() {
+        return bulkhead;
+    }
+
+}
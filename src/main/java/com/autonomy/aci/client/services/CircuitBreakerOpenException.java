@@ -0,0 +1,60 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services;
+
+/**
+ * Thrown when an action isn't sent because the circuit breaker for the ACI Server is open, i.e. the server has recently
+ * been failing or responding too slowly.
+ */
+public class CircuitBreakerOpenException extends AciServiceException {
+
+    private static final long serialVersionUID = -2203614815452283573L;
+
+    /**
+     * The host of the ACI Server.
+     */
+    private final String host;
+
+    /**
+     * The port of the ACI Server.
+     */
+    private final int port;
+
+    /**
+     * Constructs a new {@code CircuitBreakerOpenException} for the given ACI Server.
+     * @param host The host of the ACI Server
+     * @param port The port of the ACI Server
+     */
+    public CircuitBreakerOpenException(final String host, final int port) {
+        super("The circuit breaker for " + host + ':' + port + " is open");
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @return The host of the ACI Server
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return The port of the ACI Server
+     */
+    public int getPort() {
+        return port;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services;
+
+/**
+ * Thrown when an action is shed rather than sent because the ACI Server already has as many requests in flight as its
+ * adaptive concurrency limit allows, and the request couldn't be queued, or waited too long in the queue.
+ */
+public class ConcurrencyLimitExceededException extends AciServiceException {
+
+    private static final long serialVersionUID = 6409172385846718127L;
+
+    /**
+     * The host of the ACI Server.
+     */
+    private final String host;
+
+    /**
+     * The port of the ACI Server.
+     */
+    private final int port;
+
+    /**
+     * The concurrency limit when the request was shed.
+     */
+    private final int limit;
+
+    /**
+     * Constructs a new {@code ConcurrencyLimitExceededException} for the given ACI Server.
+     * @param host  The host of the ACI Server
+     * @param port  The port of the ACI Server
+     * @param limit The concurrency limit when the request was shed
+     */
+    public ConcurrencyLimitExceededException(final String host, final int port, final int limit) {
+        super("The concurrency limit of " + limit + " for " + host + ':' + port + " has been reached");
+        this.host = host;
+        this.port = port;
+        this.limit = limit;
+    }
+
+    /**
+     * @return The host of the ACI Server
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return The port of the ACI Server
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return The concurrency limit when the request was shed
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services;
+
+/**
+ * Thrown when an ACI request isn't sent, or its response isn't processed, because its
+ * {@link com.autonomy.aci.client.transport.Deadline} has passed, or when it times out waiting for a connection or the
+ * response at its deadline.
+ */
+public class DeadlineExceededException extends AciServiceException {
+
+    private static final long serialVersionUID = -4729131820516452079L;
+
+    /**
+     * The time that was allowed for the request, in milliseconds.
+     */
+    private final long timeout;
+
+    /**
+     * Constructs a new {@code DeadlineExceededException} for a request that was allowed the given time.
+     * @param timeout The time that was allowed for the request, in milliseconds
+     */
+    public DeadlineExceededException(final long timeout) {
+        super("The deadline of " + timeout + "ms for the ACI request has passed");
+        this.timeout = timeout;
+    }
+
+    /**
+     * Constructs a new {@code DeadlineExceededException} for a request that was allowed the given time and failed with
+     * the given cause, e.g. a <code>SocketTimeoutException</code>.
+     * @param timeout The time that was allowed for the request, in milliseconds
+     * @param cause   The exception that the request failed with at its deadline
+     */
+    public DeadlineExceededException(final long timeout, final Throwable cause) {
+        super("The deadline of " + timeout + "ms for the ACI request has passed", cause);
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return The time that was allowed for the request, in milliseconds
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+}
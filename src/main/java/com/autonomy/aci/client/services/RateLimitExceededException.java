@@ -0,0 +1,74 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services;
+
+/**
+ * Thrown when an action isn't sent because the rate limit for the ACI Server, or for the action on that server, has been
+ * reached and a permit wouldn't become available within the allowed wait.
+ */
+public class RateLimitExceededException extends AciServiceException {
+
+    private static final long serialVersionUID = 3178025316044627492L;
+
+    /**
+     * The host of the ACI Server.
+     */
+    private final String host;
+
+    /**
+     * The port of the ACI Server.
+     */
+    private final int port;
+
+    /**
+     * The action whose rate limit was reached, or <code>null</code> for the limit on the whole server.
+     */
+    private final String action;
+
+    /**
+     * Constructs a new {@code RateLimitExceededException} for the given ACI Server.
+     * @param host   The host of the ACI Server
+     * @param port   The port of the ACI Server
+     * @param action The action whose rate limit was reached, or <code>null</code> for the limit on the whole server
+     */
+    public RateLimitExceededException(final String host, final int port, final String action) {
+        super("The rate limit " + ((action == null) ? "" : "for " + action + ' ') + "on " + host + ':' + port + " has been reached");
+        this.host = host;
+        this.port = port;
+        this.action = action;
+    }
+
+    /**
+     * @return The host of the ACI Server
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return The port of the ACI Server
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return The action whose rate limit was reached, or <code>null</code> for the limit on the whole server
+     */
+    public String getAction() {
+        return action;
+    }
+
+}
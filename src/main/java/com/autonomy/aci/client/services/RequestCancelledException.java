@@ -0,0 +1,41 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services;
+
+/**
+ * Thrown when an ACI request is abandoned because its {@link com.autonomy.aci.client.transport.CancellationToken} was
+ * cancelled, whether before it was sent, while waiting for the response or while the response was being processed.
+ */
+public class RequestCancelledException extends AciServiceException {
+
+    private static final long serialVersionUID = 5529036613419706254L;
+
+    /**
+     * Constructs a new {@code RequestCancelledException}.
+     */
+    public RequestCancelledException() {
+        super("The ACI request was cancelled");
+    }
+
+    /**
+     * Constructs a new {@code RequestCancelledException} for a request that failed with the given cause after it was
+     * cancelled, e.g. because its connection was closed.
+     * @param cause The exception that the request failed with
+     */
+    public RequestCancelledException(final Throwable cause) {
+        super("The ACI request was cancelled", cause);
+    }
+
+}
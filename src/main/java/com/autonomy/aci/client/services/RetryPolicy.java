@@ -0,0 +1,47 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services;
+
+import com.autonomy.aci.client.transport.ActionParameter;
+
+import java.util.Set;
+
+/**
+ * Decides whether, and after how long, an ACI request that failed to reach the ACI Server should be sent again.
+ * <p>
+ * Only failures of the transport, i.e. an <code>IOException</code> or <code>AciHttpException</code> thrown by the
+ * <code>AciHttpClient</code>, are passed to the policy. Error responses from the ACI Server and failures processing the
+ * response are never retried.
+ */
+public interface RetryPolicy {
+
+    /**
+     * Called once for each request before it is first sent, e.g. so the policy can limit retries to a proportion of the
+     * requests made. Does nothing by default.
+     * @param parameters The parameters of the request
+     */
+    default void onRequest(final Set<? extends ActionParameter<?>> parameters) {
+    }
+
+    /**
+     * Decides whether to retry a failed request.
+     * @param parameters The parameters of the request
+     * @param exception  The exception thrown by the <code>AciHttpClient</code>
+     * @param retries    The number of times the request has already been retried
+     * @return The number of milliseconds to wait before retrying, or a negative number if the request shouldn't be retried
+     */
+    long getRetryDelay(Set<? extends ActionParameter<?>> parameters, Exception exception, int retries);
+
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A pool of identical ACI Servers, e.g. content or DAH replicas, that keeps track of how busy and how healthy each one is
+ * so that requests can be spread over them.
+ * <p>
+ * {@link #choose(Collection)} uses "power of two choices": it picks two servers at random and takes the one with the lower
+ * cost, where the cost is the server's exponentially weighted moving average (EWMA) latency multiplied by its number of
+ * in-flight requests. This avoids the herding you get when every caller picks the single least loaded server, while still
+ * steering most of the traffic away from slow or busy servers.
+ * <p>
+ * A server that fails <code>failureThreshold</code> times in a row is ejected from the pool for
+ * <code>ejectionTime</code> milliseconds, after which it is given traffic again. If every server has been ejected they're
+ * all treated as available, as there's nothing to be gained by failing requests without trying.
+ * <p>
+ * Callers report on each request through the chosen {@link Server}:
+ * <pre>
+ *   final long start = server.onStart();
+ *   try {
+ *       ...
+ *       server.onSuccess(start);
+ *   } catch (...) {
+ *       server.onFailure(start);
+ *   }
+ * </pre>
+ */
+public class AciServerPool {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AciServerPool.class);
+
+    /**
+     * Holds the servers in the pool.
+     */
+    private final List<Server> servers;
+
+    /**
+     * The source of time, in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    /**
+     * Holds value of property failureThreshold.
+     */
+    private volatile int failureThreshold = 3;
+
+    /**
+     * Holds value of property ejectionTime.
+     */
+    private volatile long ejectionTime = 30000L;
+
+    /**
+     * Holds value of property ewmaWeight.
+     */
+    private volatile double ewmaWeight = 0.2;
+
+    /**
+     * Creates a new instance of AciServerPool.
+     * @param serverDetails The connection details of the ACI Servers in the pool
+     * @throws IllegalArgumentException If <code>serverDetails</code> is empty or contains <code>null</code>
+     */
+    public AciServerPool(final Collection<AciServerDetails> serverDetails) {
+        this(serverDetails, System::nanoTime);
+    }
+
+    AciServerPool(final Collection<AciServerDetails> serverDetails, final LongSupplier nanoClock) {
+        Validate.notEmpty(serverDetails, "The pool must contain at least one ACI Server.");
+        Validate.noNullElements(serverDetails, "The pool must not contain null ACI Server details.");
+
+        final List<Server> servers = new ArrayList<>(serverDetails.size());
+        for (final AciServerDetails details : serverDetails) {
+            servers.add(new Server(details));
+        }
+
+        this.servers = Collections.unmodifiableList(servers);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Chooses a server to send a request to.
+     * @param excluded Servers that shouldn't be chosen, e.g. because they've already been tried for this request
+     * @return The chosen server, or <code>null</code> if every server has been excluded
+     */
+    public Server choose(final Collection<Server> excluded) {
+        LOGGER.trace("choose() called...");
+
+        final long now = nanoClock.getAsLong();
+
+        List<Server> candidates = new ArrayList<>(servers.size());
+        for (final Server server : servers) {
+            if (!excluded.contains(server) && !server.isEjected(now)) {
+                candidates.add(server);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            LOGGER.debug("No healthy ACI Servers available, considering ejected servers...");
+
+            candidates = new ArrayList<>(servers);
+            candidates.removeAll(excluded);
+        }
+
+        final int size = candidates.size();
+        if (size == 0) {
+            return null;
+        } else if (size == 1) {
+            return candidates.get(0);
+        }
+
+        // Power of two choices...
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        final Server a = candidates.get(first);
+        final Server b = candidates.get(second);
+        return (a.getCost() <= b.getCost()) ? a : b;
+    }
+
+    /**
+     * Returns the servers in the pool, in the order they were supplied.
+     * @return An unmodifiable list of the servers
+     */
+    public List<Server> getServers() {
+        return servers;
+    }
+
+    /**
+     * Getter for property failureThreshold.
+     * @return Value of property failureThreshold.
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * Sets the number of consecutive failures after which a server is ejected from the pool. The default is <code>3</code>.
+     * @param failureThreshold New value of property failureThreshold.
+     */
+    public void setFailureThreshold(final int failureThreshold) {
+        Validate.isTrue(failureThreshold > 0, "failureThreshold must be greater than zero.");
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Getter for property ejectionTime.
+     * @return Value of property ejectionTime.
+     */
+    public long getEjectionTime() {
+        return ejectionTime;
+    }
+
+    /**
+     * Sets how long, in milliseconds, an ejected server is kept out of the pool. The default is <code>30000</code>ms (30s).
+     * @param ejectionTime New value of property ejectionTime.
+     */
+    public void setEjectionTime(final long ejectionTime) {
+        Validate.isTrue(ejectionTime >= 0, "ejectionTime must not be negative.");
+        this.ejectionTime = ejectionTime;
+    }
+
+    /**
+     * Getter for property ewmaWeight.
+     * @return Value of property ewmaWeight.
+     */
+    public double getEwmaWeight() {
+        return ewmaWeight;
+    }
+
+    /**
+     * Sets the weight given to each new latency sample in the moving average, between <code>0</code> and <code>1</code>.
+     * Higher values react more quickly to a server slowing down. The default is <code>0.2</code>.
+     * @param ewmaWeight New value of property ewmaWeight.
+     */
+    public void setEwmaWeight(final double ewmaWeight) {
+        Validate.inclusiveBetween(0.0, 1.0, ewmaWeight, "ewmaWeight must be between 0 and 1.");
+        this.ewmaWeight = ewmaWeight;
+    }
+
+    /**
+     * A member of an <code>AciServerPool</code>.
+     */
+    public final class Server {
+
+        private final AciServerDetails serverDetails;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final AtomicLong latencyEwma = new AtomicLong(Double.doubleToLongBits(0.0));
+
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        private volatile long ejectedUntil;
+
+        private volatile boolean ejected;
+
+        private Server(final AciServerDetails serverDetails) {
+            this.serverDetails = serverDetails;
+        }
+
+        /**
+         * Records the start of a request to this server.
+         * @return The start time, to be passed to {@link #onSuccess(long)} or {@link #onFailure(long)}
+         */
+        public long onStart() {
+            inFlight.incrementAndGet();
+            return nanoClock.getAsLong();
+        }
+
+        /**
+         * Records a request that the server handled, including one that it answered with an ACI error.
+         * @param start The value returned by {@link #onStart()}
+         * @return The latency of the request in nanoseconds
+         */
+        public long onSuccess(final long start) {
+            final long latency = nanoClock.getAsLong() - start;
+            inFlight.decrementAndGet();
+            consecutiveFailures.set(0);
+            recordLatency(latency);
+            return latency;
+        }
+
+        /**
+         * Records a request that failed because the server couldn't be reached or didn't respond properly.
+         * @param start The value returned by {@link #onStart()}
+         */
+        public void onFailure(final long start) {
+            final long now = nanoClock.getAsLong();
+            inFlight.decrementAndGet();
+            recordLatency(now - start);
+
+            if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                consecutiveFailures.set(0);
+                ejectedUntil = now + TimeUnit.MILLISECONDS.toNanos(ejectionTime);
+                ejected = true;
+                LOGGER.warn("Ejecting {}:{} from the pool for {}ms after {} consecutive failures",
+                        serverDetails.getHost(), serverDetails.getPort(), ejectionTime, failureThreshold);
+            }
+        }
+
+        /**
+         * Records the end of a request without affecting the server's statistics, e.g. because it was abandoned.
+         */
+        public void onCancel() {
+            inFlight.decrementAndGet();
+        }
+
+        private void recordLatency(final long nanos) {
+            final double weight = ewmaWeight;
+            long current;
+            double updated;
+            do {
+                current = latencyEwma.get();
+                final double average = Double.longBitsToDouble(current);
+                updated = (average == 0.0) ? nanos : average + (weight * (nanos - average));
+            } while (!latencyEwma.compareAndSet(current, Double.doubleToLongBits(updated)));
+        }
+
+        private boolean isEjected(final long now) {
+            if (ejected && (now - ejectedUntil) >= 0) {
+                LOGGER.info("Returning {}:{} to the pool", serverDetails.getHost(), serverDetails.getPort());
+                ejected = false;
+            }
+            return ejected;
+        }
+
+        private double getCost() {
+            return (Double.longBitsToDouble(latencyEwma.get()) + 1.0) * (inFlight.get() + 1);
+        }
+
+        /**
+         * @return The connection details of the server
+         */
+        public AciServerDetails getServerDetails() {
+            return serverDetails;
+        }
+
+        /**
+         * @return The number of requests currently being sent to this server
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return The moving average of this server's latency in milliseconds, or <code>0</code> if it hasn't been used
+         */
+        public double getLatencyEwmaMillis() {
+            return Double.longBitsToDouble(latencyEwma.get()) / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        /**
+         * @return True if this server is currently ejected from the pool
+         */
+        public boolean isEjected() {
+            return isEjected(nanoClock.getAsLong());
+        }
+
+        @Override
+        public String toString() {
+            return serverDetails.getHost() + ':' + serverDetails.getPort();
+        }
+    }
+
+}
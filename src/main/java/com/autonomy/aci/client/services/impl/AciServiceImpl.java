@@ -22,7 +22,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of the <code>AciService</code> interface.
@@ -30,6 +32,14 @@ import java.util.Set;
  * This implementation of the <code>AciService</code> interface does no configuration of the <code>AciHttpClient</code> or
  * <code>AciServerDetails</code> objects that it uses. It expects all the configuration to have been done by the user before
  * passing them to this object. This configuration can be done in normal code, or via an IoC container like Spring.
+ * <p>
+ * By default a failure to communicate with the ACI Server is reported straight away. If a {@link RetryPolicy} is set,
+ * the request is sent again for as long as the policy allows.
+ * <p>
+ * If the parameters have a {@link Deadline}, the response isn't processed once it has passed, a retry that would end
+ * after it isn't attempted, and the failure is reported with a {@link DeadlineExceededException}. If they have a
+ * {@link CancellationToken}, cancelling it stops any retries and interrupts the thread while the <code>Processor</code>
+ * is running, and the failure is reported with a {@link RequestCancelledException}.
  */
 public class AciServiceImpl implements AciService {
 
@@ -53,6 +63,11 @@ public class AciServiceImpl implements AciService {
      */
     private AciServerDetails aciServerDetails;
 
+    /**
+     * Holds value of property retryPolicy.
+     */
+    private RetryPolicy retryPolicy;
+
     /**
      * Creates a new instance of AciServiceImpl.
      */
@@ -127,28 +142,137 @@ public class AciServiceImpl implements AciService {
 
         // This is so we can close the response and return the connection to the pool...
         AciResponseInputStream response = null;
+        final Deadline deadline = Deadline.of(parameters);
+        final CancellationToken cancellation = CancellationToken.of(parameters);
 
         try {
             LOGGER.debug("Sending the ACI parameters and server details to the AciHttpClient...");
 
-            // Execute the action and process the response...
-            response = aciHttpClient.executeAction(serverDetails, parameters);
-            return processor.process(response);
+            // Execute the action and process the response, unless it's no longer wanted...
+            response = sendAction(serverDetails, parameters, deadline, cancellation);
+            if (cancellation != null) {
+                cancellation.throwIfCancelled();
+            }
+            if ((deadline != null) && deadline.isExpired()) {
+                LOGGER.debug("Not processing the ACI response as its deadline has passed");
+                throw new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS));
+            }
+
+            if (cancellation == null) {
+                return processor.process(response);
+            }
+            final CancellationInterrupt interrupt = new CancellationInterrupt(cancellation);
+            try {
+                return processor.process(response);
+            } finally {
+                interrupt.close();
+            }
         } catch (final AciHttpException ahe) {
             LOGGER.trace("AciHttpException caught while executing the ACI action");
-            throw new AciServiceException(ahe);
+            throw wrap(ahe, deadline, cancellation);
         } catch (final IOException ioe) {
             LOGGER.trace("IOException caught while executing the ACI action");
-            throw new AciServiceException(ioe);
+            throw wrap(ioe, deadline, cancellation);
         } catch (final ProcessorException pe) {
             LOGGER.trace("ProcessorException caught while parsing ACI response");
-            throw new AciServiceException(pe);
+            throw wrap(pe, deadline, cancellation);
+        } catch (final AciServiceException ase) {
+            // e.g. a processor that gave up when it was interrupted...
+            if ((cancellation != null) && cancellation.isCancelled() && !(ase instanceof RequestCancelledException)) {
+                throw new RequestCancelledException(ase);
+            }
+            throw ase;
         } finally {
             // Close the response as the processor should have dealt with it...
             IOUtils.getInstance().closeQuietly(response);
         }
     }
 
+    /**
+     * Wraps an exception in an <code>AciServiceException</code>, a <code>RequestCancelledException</code> if the request
+     * has been cancelled, e.g. because its connection was closed under the processor, or a
+     * <code>DeadlineExceededException</code> if the request's deadline has passed, e.g. because the response timed out
+     * while being read.
+     */
+    private static AciServiceException wrap(final Exception exception, final Deadline deadline, final CancellationToken cancellation) {
+        if ((cancellation != null) && cancellation.isCancelled()) {
+            return new RequestCancelledException(exception);
+        }
+
+        return ((deadline != null) && deadline.isExpired())
+                ? new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS), exception)
+                : new AciServiceException(exception);
+    }
+
+    private AciResponseInputStream sendAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Deadline deadline, final CancellationToken cancellation) throws IOException, AciHttpException {
+        final RetryPolicy policy = retryPolicy;
+        if (policy == null) {
+            return aciHttpClient.executeAction(serverDetails, parameters);
+        }
+
+        policy.onRequest(parameters);
+
+        for (int retries = 0; ; retries++) {
+            try {
+                return aciHttpClient.executeAction(serverDetails, parameters);
+            } catch (final IOException | AciHttpException e) {
+                final long delay = policy.getRetryDelay(parameters, e, retries);
+                if (delay < 0) {
+                    throw e;
+                }
+                if ((deadline != null) && (deadline.getTimeRemaining(TimeUnit.MILLISECONDS) <= delay)) {
+                    LOGGER.debug("Not retrying the ACI request as its deadline would pass first");
+                    throw e;
+                }
+
+                if ((cancellation != null) && cancellation.isCancelled()) {
+                    throw e;
+                }
+
+                LOGGER.debug("Retrying the ACI request in {}ms after {}", delay, e.toString());
+                if (cancellation == null) {
+                    sleep(delay);
+                } else {
+                    final CancellationInterrupt interrupt = new CancellationInterrupt(cancellation);
+                    try {
+                        sleep(delay);
+                    } catch (final AciServiceException ase) {
+                        if (cancellation.isCancelled()) {
+                            throw new RequestCancelledException(ase.getCause());
+                        }
+                        throw ase;
+                    } finally {
+                        interrupt.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void sleep(final long delay) {
+        try {
+            Thread.sleep(delay);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new AciServiceException("Interrupted while waiting to retry the ACI request", ie);
+        }
+    }
+
+    /**
+     * Returns the value of the action parameter in lower case.
+     * @param parameters The parameters of an ACI request
+     * @return The action
+     * @throws IllegalArgumentException If there's no action parameter
+     */
+    static String getAction(final Set<? extends ActionParameter<?>> parameters) {
+        for (final ActionParameter<?> parameter : parameters) {
+            if (AciConstants.PARAM_ACTION.equalsIgnoreCase(parameter.getName())) {
+                return String.valueOf(parameter.getValue()).toLowerCase(Locale.ENGLISH);
+            }
+        }
+        throw new IllegalArgumentException("The parameter set must contain an action=xxx parameter.");
+    }
+
     /**
      * Getter for property aciHttpClient.
      * @return Value of property aciHttpClient.
@@ -181,4 +305,21 @@ public class AciServiceImpl implements AciService {
         this.aciServerDetails = aciServerDetails;
     }
 
+    /**
+     * Getter for property retryPolicy.
+     * @return Value of property retryPolicy.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return this.retryPolicy;
+    }
+
+    /**
+     * Sets the policy used to retry requests that fail to reach the ACI Server, e.g. an
+     * {@link ExponentialBackoffRetryPolicy}. The default is <code>null</code>, which means failures aren't retried.
+     * @param retryPolicy New value of property retryPolicy.
+     */
+    public void setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
 }
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.*;
+import com.autonomy.aci.client.transport.*;
+import com.autonomy.aci.client.util.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Implementation of the <code>AsyncAciService</code> interface.
+ * <p>
+ * Actions are sent with an <code>AsyncAciHttpClient</code>, so no thread is held while waiting for the ACI Server to
+ * respond. The response is then handed to the <code>Processor</code> on the configured <code>processorExecutor</code>,
+ * which defaults to the {@link ForkJoinPool#commonPool() common pool}, so that CPU heavy parsing doesn't run on the
+ * HTTP client's I/O threads. Failures are translated into <code>AciServiceException</code>s in the same way as
+ * {@link AciServiceImpl}, and the <code>AciResponseInputStream</code> is always closed once the processor has finished
+ * with it. A request with a {@link Deadline} that times out, or whose response arrives too late to be processed, fails
+ * with a {@link DeadlineExceededException}. Cancelling the returned future aborts the request. Cancelling the
+ * {@link CancellationToken} of the parameters does the same, interrupts the processor if it's running and fails the
+ * future with a {@link RequestCancelledException}.
+ * <p>
+ * Like {@link AciServiceImpl}, this implementation does no configuration of the objects that it uses. It expects all the
+ * configuration to have been done by the user before passing them to this object.
+ */
+public class AsyncAciServiceImpl implements AsyncAciService {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncAciServiceImpl.class);
+
+    /**
+     * Used to confirm that a passed in set of parameters contains an action=xxx parameter...
+     */
+    private static final AciParameter TEST_ACTION_PARAMETER = new AciParameter(AciConstants.PARAM_ACTION, null);
+
+    /**
+     * Holds value of property asyncAciHttpClient.
+     */
+    private AsyncAciHttpClient asyncAciHttpClient;
+
+    /**
+     * Holds value of property aciServerDetails.
+     */
+    private AciServerDetails aciServerDetails;
+
+    /**
+     * Holds value of property processorExecutor.
+     */
+    private Executor processorExecutor = ForkJoinPool.commonPool();
+
+    /**
+     * Creates a new instance of AsyncAciServiceImpl.
+     */
+    public AsyncAciServiceImpl() {
+        super();
+    }
+
+    /**
+     * Creates a new instance of AsyncAciServiceImpl.
+     * @param asyncAciHttpClient The configured <code>AsyncAciHttpClient</code> to use for communication
+     */
+    public AsyncAciServiceImpl(final AsyncAciHttpClient asyncAciHttpClient) {
+        this.asyncAciHttpClient = asyncAciHttpClient;
+    }
+
+    /**
+     * Creates a new instance of AsyncAciServiceImpl.
+     * @param asyncAciHttpClient The configured <code>AsyncAciHttpClient</code> to use for communication
+     * @param aciServerDetails   The details of the ACI Server to contact
+     */
+    public AsyncAciServiceImpl(final AsyncAciHttpClient asyncAciHttpClient, final AciServerDetails aciServerDetails) {
+        this.asyncAciHttpClient = asyncAciHttpClient;
+        this.aciServerDetails = aciServerDetails;
+    }
+
+    /**
+     * Creates a new instance of AsyncAciServiceImpl.
+     * @param asyncAciHttpClient The configured <code>AsyncAciHttpClient</code> to use for communication
+     * @param aciServerDetails   The details of the ACI Server to contact
+     * @param processorExecutor  The <code>Executor</code> to run response processors on
+     */
+    public AsyncAciServiceImpl(final AsyncAciHttpClient asyncAciHttpClient, final AciServerDetails aciServerDetails, final Executor processorExecutor) {
+        this.asyncAciHttpClient = asyncAciHttpClient;
+        this.aciServerDetails = aciServerDetails;
+        this.processorExecutor = processorExecutor;
+    }
+
+    /**
+     * Executes an ACI action and processes the response with the supplied <code>Processor</code>. This method relies on the
+     * ACI Server connection details being set via the {@link #setAciServerDetails(AciServerDetails)} method.
+     * @param parameters The parameters to use with the ACI command. This <strong>should</strong> include an {@code
+     *                   Action=<command>} parameter.
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return A <code>CompletableFuture</code> that will be completed with the ACI response encoded as an object of type
+     * <code>T</code>, or exceptionally with an <code>AciServiceException</code>
+     * @throws IllegalArgumentException If connection details haven't been set, or the <code>parameters</code> is
+     *                                  <code>null</code>, empty or missing an action parameter. Will also be thrown if
+     *                                  the <code>processor</code> is null.
+     */
+    @Override
+    public <T> CompletableFuture<T> executeActionAsync(final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeActionAsync() called...");
+
+        // Execute and return the result...
+        return executeActionAsync(aciServerDetails, parameters, processor);
+    }
+
+    /**
+     * Executes an ACI action and processes the response with the supplied <code>Processor</code>.
+     * @param serverDetails The connection details of the ACI Server to execute the action on
+     * @param parameters    The parameters to use with the ACI command. This <strong>should</strong> include an {@code
+     *                      Action=&lt;command&gt;} parameter
+     * @param processor     The <code>Processor</code> to use for converting the response stream into an object
+     * @return A <code>CompletableFuture</code> that will be completed with the ACI response encoded as an object of type
+     * <code>T</code>, or exceptionally with an <code>AciServiceException</code>
+     * @throws IllegalArgumentException If <code>serverDetails</code> is <code>null</code>, or the <code>parameters</code> is
+     *                                  <code>null</code>, empty or missing an action parameter. Will also be thrown if
+     *                                  the <code>processor</code> is null.
+     */
+    @Override
+    public <T> CompletableFuture<T> executeActionAsync(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeActionAsync() called...");
+
+        // Sanity check the HttpClient and executor...
+        Validate.notNull(asyncAciHttpClient, "An AsyncAciHttpClient implementation must be set before calling this method.");
+        Validate.notNull(processorExecutor, "A processor Executor must be set before calling this method.");
+
+        // Sanity check the method parameters...
+        Validate.notNull(serverDetails, "ACI Server connection details must be set before calling this method.");
+        Validate.notEmpty(parameters, "The parameter set must not be null or empty.");
+        Validate.isTrue(parameters.contains(TEST_ACTION_PARAMETER), "The parameter set must contain an action=xxx parameter.");
+        Validate.notNull(processor, "The processor must not be null.");
+
+        final CancellationToken cancellation = CancellationToken.of(parameters);
+        if ((cancellation != null) && cancellation.isCancelled()) {
+            final CompletableFuture<T> cancelled = new CompletableFuture<>();
+            cancelled.completeExceptionally(new RequestCancelledException());
+            return cancelled;
+        }
+
+        LOGGER.debug("Sending the ACI parameters and server details to the AsyncAciHttpClient...");
+        return processResponse(asyncAciHttpClient.executeActionAsync(serverDetails, parameters), processor, processorExecutor, Deadline.of(parameters), cancellation);
+    }
+
+    /**
+     * Processes a response once it has been received, running the <code>Processor</code> on the given executor and
+     * translating any failure into an <code>AciServiceException</code>. The response is always closed, and cancelling the
+     * returned future cancels the <code>response</code> future.
+     * @param <T>       Return type.
+     * @param response  The future response from an <code>AsyncAciHttpClient</code>
+     * @param processor The <code>Processor</code> to use for converting the response stream into an object
+     * @param executor  The <code>Executor</code> to run the processor on
+     * @return A <code>CompletableFuture</code> that will be completed with the processed response
+     */
+    static <T> CompletableFuture<T> processResponse(final CompletableFuture<AciResponseInputStream> response, final Processor<T> processor, final Executor executor) {
+        return processResponse(response, processor, executor, null, null);
+    }
+
+    /**
+     * Processes a response once it has been received, as {@link #processResponse(CompletableFuture, Processor, Executor)}
+     * does. A response that arrives after the deadline isn't processed, and a failure once the deadline has passed is
+     * reported as a <code>DeadlineExceededException</code>. If the token is cancelled, the returned future is completed
+     * with a <code>RequestCancelledException</code>, the <code>response</code> future is cancelled and the thread running
+     * the processor, if it has started, is interrupted.
+     * @param <T>          Return type.
+     * @param response     The future response from an <code>AsyncAciHttpClient</code>
+     * @param processor    The <code>Processor</code> to use for converting the response stream into an object
+     * @param executor     The <code>Executor</code> to run the processor on
+     * @param deadline     The deadline of the request, or <code>null</code>
+     * @param cancellation The token that cancels the request, or <code>null</code>
+     * @return A <code>CompletableFuture</code> that will be completed with the processed response
+     */
+    static <T> CompletableFuture<T> processResponse(final CompletableFuture<AciResponseInputStream> response, final Processor<T> processor, final Executor executor, final Deadline deadline, final CancellationToken cancellation) {
+        final CompletableFuture<T> result = response.handleAsync((aciResponse, throwable) -> {
+            if (throwable != null) {
+                if ((cancellation != null) && cancellation.isCancelled()) {
+                    throw new RequestCancelledException(throwable);
+                }
+                throw toAciServiceException(throwable, deadline);
+            }
+
+            if ((deadline != null) && deadline.isExpired()) {
+                LOGGER.debug("Not processing the ACI response as its deadline has passed");
+                IOUtils.getInstance().closeQuietly(aciResponse);
+                throw new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS));
+            }
+
+            if (cancellation == null) {
+                return process(aciResponse, processor);
+            }
+
+            // Record this thread, so that cancelling the token interrupts the processor...
+            final CancellationInterrupt interrupt = new CancellationInterrupt(cancellation);
+            try {
+                cancellation.throwIfCancelled();
+                return process(aciResponse, processor);
+            } catch (final AciServiceException ase) {
+                if (cancellation.isCancelled() && !(ase instanceof RequestCancelledException)) {
+                    throw new RequestCancelledException(ase.getCause());
+                }
+                throw ase;
+            } finally {
+                interrupt.close();
+            }
+        }, executor);
+
+        // If the caller gives up on the result, abort the request. The processor won't run for a cancelled result, so any
+        // response that has already been received has to be closed here instead...
+        result.whenComplete((value, throwable) -> {
+            if ((throwable != null) && (result.isCancelled() || ((cancellation != null) && cancellation.isCancelled()))) {
+                LOGGER.debug("Result cancelled, cancelling the ACI request...");
+                response.cancel(true);
+                response.thenAccept(aciResponse -> IOUtils.getInstance().closeQuietly(aciResponse));
+            }
+        });
+
+        if (cancellation != null) {
+            final CancellationToken.Registration registration = cancellation.onCancel(() -> result.completeExceptionally(new RequestCancelledException()));
+            result.whenComplete((value, throwable) -> registration.close());
+        }
+
+        return result;
+    }
+
+    private static <T> T process(final AciResponseInputStream aciResponse, final Processor<T> processor) {
+        try {
+            return processor.process(aciResponse);
+        } catch (final ProcessorException pe) {
+            LOGGER.trace("ProcessorException caught while parsing ACI response");
+            throw new AciServiceException(pe);
+        } finally {
+            // Close the response as the processor should have dealt with it...
+            IOUtils.getInstance().closeQuietly(aciResponse);
+        }
+    }
+
+    /**
+     * Translates the failure of an <code>AsyncAciHttpClient</code> future in the same way as
+     * {@link AciServiceImpl#executeAction(AciServerDetails, Set, Processor)}.
+     * @param throwable The reason the future failed
+     * @return The exception to complete the result with
+     */
+    static RuntimeException toAciServiceException(final Throwable throwable) {
+        return toAciServiceException(throwable, null);
+    }
+
+    /**
+     * Translates the failure of an <code>AsyncAciHttpClient</code> future in the same way as
+     * {@link AciServiceImpl#executeAction(AciServerDetails, Set, Processor)}, including reporting a failure once the
+     * deadline has passed as a <code>DeadlineExceededException</code>.
+     * @param throwable The reason the future failed
+     * @param deadline  The deadline of the request, or <code>null</code>
+     * @return The exception to complete the result with
+     */
+    static RuntimeException toAciServiceException(final Throwable throwable, final Deadline deadline) {
+        final Throwable cause = ((throwable instanceof CompletionException) && (throwable.getCause() != null))
+                ? throwable.getCause()
+                : throwable;
+
+        if (cause instanceof AciHttpException) {
+            LOGGER.trace("AciHttpException caught while executing the ACI action");
+            return wrap(cause, deadline);
+        } else if (cause instanceof IOException) {
+            LOGGER.trace("IOException caught while executing the ACI action");
+            return wrap(cause, deadline);
+        } else if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        } else {
+            return new AciServiceException(cause);
+        }
+    }
+
+    private static AciServiceException wrap(final Throwable cause, final Deadline deadline) {
+        return ((deadline != null) && deadline.isExpired())
+                ? new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS), cause)
+                : new AciServiceException(cause);
+    }
+
+    /**
+     * Getter for property asyncAciHttpClient.
+     * @return Value of property asyncAciHttpClient.
+     */
+    public AsyncAciHttpClient getAsyncAciHttpClient() {
+        return this.asyncAciHttpClient;
+    }
+
+    /**
+     * Setter for property asyncAciHttpClient.
+     * @param asyncAciHttpClient New value of property asyncAciHttpClient.
+     */
+    public void setAsyncAciHttpClient(final AsyncAciHttpClient asyncAciHttpClient) {
+        this.asyncAciHttpClient = asyncAciHttpClient;
+    }
+
+    /**
+     * Getter for property aciServerDetails.
+     * @return Value of property aciServerDetails.
+     */
+    public AciServerDetails getAciServerDetails() {
+        return this.aciServerDetails;
+    }
+
+    /**
+     * Setter for property aciServerDetails.
+     * @param aciServerDetails New value of property aciServerDetails.
+     */
+    public void setAciServerDetails(final AciServerDetails aciServerDetails) {
+        this.aciServerDetails = aciServerDetails;
+    }
+
+    /**
+     * Getter for property processorExecutor.
+     * @return Value of property processorExecutor.
+     */
+    public Executor getProcessorExecutor() {
+        return this.processorExecutor;
+    }
+
+    /**
+     * Setter for property processorExecutor. This is the <code>Executor</code> that response processors are run on.
+     * @param processorExecutor New value of property processorExecutor.
+     */
+    public void setProcessorExecutor(final Executor processorExecutor) {
+        this.processorExecutor = processorExecutor;
+    }
+
+}
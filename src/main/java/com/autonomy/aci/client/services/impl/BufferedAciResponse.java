@@ -0,0 +1,175 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import org.apache.commons.lang3.Validate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * An ACI response that has been read into memory, so that it can be given to any number of <code>Processor</code>s. Use
+ * {@link BufferedResponseProcessor} to create one and {@link #newInputStream()} to replay it.
+ * <p>
+ * The status code, content type, content encoding and headers are copied from the original response. The body can be
+ * held deflate compressed, see {@link #compress()}, in which case it's decompressed as it's read.
+ */
+public final class BufferedAciResponse {
+
+    private final byte[] content;
+
+    private final boolean compressed;
+
+    private final int contentLength;
+
+    private final int statusCode;
+
+    private final String contentType;
+
+    private final String contentEncoding;
+
+    private final Map<String, String> headers;
+
+    /**
+     * Creates a new instance of BufferedAciResponse.
+     * @param content The body of the response, which is not copied
+     * @param source  The response the body was read from
+     */
+    public BufferedAciResponse(final byte[] content, final AciResponseInputStream source) {
+        Validate.notNull(content, "content must not be null");
+        Validate.notNull(source, "source must not be null");
+
+        final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final Map<String, String> sourceHeaders = source.getHeaders();
+        if (sourceHeaders != null) {
+            headers.putAll(sourceHeaders);
+        }
+
+        this.content = content;
+        this.compressed = false;
+        this.contentLength = content.length;
+        this.statusCode = source.getStatusCode();
+        this.contentType = source.getContentType();
+        this.contentEncoding = source.getContentEncoding();
+        this.headers = Collections.unmodifiableMap(headers);
+    }
+
+    private BufferedAciResponse(final BufferedAciResponse that, final byte[] compressedContent) {
+        this.content = compressedContent;
+        this.compressed = true;
+        this.contentLength = that.contentLength;
+        this.statusCode = that.statusCode;
+        this.contentType = that.contentType;
+        this.contentEncoding = that.contentEncoding;
+        this.headers = that.headers;
+    }
+
+    /**
+     * Returns a copy of this response with the body deflate compressed, to save memory when it's kept for a while.
+     * @return The compressed copy, or this response if it's already compressed or compressing doesn't make it smaller
+     */
+    public BufferedAciResponse compress() {
+        if (compressed) {
+            return this;
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(32, content.length / 4));
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (final DeflaterOutputStream deflated = new DeflaterOutputStream(bytes, deflater)) {
+            deflated.write(content);
+        } catch (final IOException ioe) {
+            // Can't happen writing to memory...
+            throw new IllegalStateException(ioe);
+        } finally {
+            deflater.end();
+        }
+
+        return (bytes.size() < content.length) ? new BufferedAciResponse(this, bytes.toByteArray()) : this;
+    }
+
+    /**
+     * @return A new stream over the response, positioned at the start of the body
+     */
+    public AciResponseInputStream newInputStream() {
+        final InputStream body = new ByteArrayInputStream(content);
+        return new StoredAciResponseInputStream(compressed ? new InflaterInputStream(body) : body, statusCode, contentType, contentEncoding, contentLength, headers);
+    }
+
+    /**
+     * @return The size of the body in bytes
+     */
+    public int getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return The number of bytes used to hold the body, which is less than the content length if it's compressed
+     */
+    public int getStoredLength() {
+        return content.length;
+    }
+
+    /**
+     * @return The body as it's held, i.e. compressed if {@link #isCompressed()}, which must not be modified
+     */
+    byte[] getStoredContent() {
+        return content;
+    }
+
+    /**
+     * @return True if the body is held compressed
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return The status code of the response
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return The content type of the response
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return The content encoding of the response
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * @return The headers of the response, keyed case insensitively
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+}
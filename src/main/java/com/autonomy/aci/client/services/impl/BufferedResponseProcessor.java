@@ -0,0 +1,51 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.services.ProcessorException;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Reads an ACI response into a {@link BufferedAciResponse}, so that it can be processed more than once. Like
+ * {@link ByteArrayProcessor}, this processor doesn't check the response for errors, that's left to the processors the
+ * buffered response is replayed to.
+ */
+public class BufferedResponseProcessor implements Processor<BufferedAciResponse> {
+
+    private static final long serialVersionUID = 3409472236412863551L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BufferedResponseProcessor.class);
+
+    @Override
+    public BufferedAciResponse process(final AciResponseInputStream inputStream) {
+        LOGGER.trace("process() called...");
+
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            IOUtils.getInstance().copy(inputStream, outputStream);
+            return new BufferedAciResponse(outputStream.toByteArray(), inputStream);
+        } catch (final IOException ioe) {
+            throw new ProcessorException("Unable to buffer the ACI response.", ioe);
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.BulkheadFullException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A named partition of concurrency used by {@link BulkheadAciService}. At most <code>maxConcurrentCalls</code> actions
+ * assigned to the bulkhead are in flight at once; up to <code>maxQueueSize</code> more wait, in order, for up to
+ * <code>maxWaitTime</code> milliseconds, and any others are rejected with a {@link BulkheadFullException}.
+ * <p>
+ * An action with a {@link Deadline} waits no longer than its deadline, and then fails with a
+ * {@link DeadlineExceededException}. One whose {@link CancellationToken} is cancelled while it waits stops waiting and
+ * fails with a {@link RequestCancelledException}.
+ */
+public class Bulkhead {
+
+    /**
+     * The default value of property maxWaitTime.
+     */
+    public static final long DEFAULT_MAX_WAIT_TIME = 1000L;
+
+    /**
+     * Holds value of property name.
+     */
+    private final String name;
+
+    /**
+     * Holds value of property maxConcurrentCalls.
+     */
+    private final int maxConcurrentCalls;
+
+    /**
+     * Holds value of property maxQueueSize.
+     */
+    private final int maxQueueSize;
+
+    /**
+     * Holds value of property maxWaitTime.
+     */
+    private final long maxWaitTime;
+
+    private final Semaphore permits;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Creates a new instance of Bulkhead that lets as many actions queue as can be in flight, waiting for up to
+     * {@value #DEFAULT_MAX_WAIT_TIME} milliseconds.
+     * @param name               The name of the bulkhead
+     * @param maxConcurrentCalls The number of actions that can be in flight at once
+     */
+    public Bulkhead(final String name, final int maxConcurrentCalls) {
+        this(name, maxConcurrentCalls, maxConcurrentCalls, DEFAULT_MAX_WAIT_TIME);
+    }
+
+    /**
+     * Creates a new instance of Bulkhead.
+     * @param name               The name of the bulkhead
+     * @param maxConcurrentCalls The number of actions that can be in flight at once
+     * @param maxQueueSize       The number of actions that can wait for a permit, <code>0</code> to reject an action as
+     *                           soon as the bulkhead is full
+     * @param maxWaitTime        How long, in milliseconds, an action waits for a permit before it's rejected
+     * @throws IllegalArgumentException If <code>name</code> is blank or any of the limits are out of range
+     */
+    public Bulkhead(final String name, final int maxConcurrentCalls, final int maxQueueSize, final long maxWaitTime) {
+        Validate.isTrue(StringUtils.isNotBlank(name), "name must not be blank.");
+        Validate.isTrue(maxConcurrentCalls > 0, "maxConcurrentCalls must be greater than zero.");
+        Validate.isTrue(maxQueueSize >= 0, "maxQueueSize must not be negative.");
+        Validate.isTrue(maxWaitTime >= 0, "maxWaitTime must not be negative.");
+
+        this.name = name;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.maxQueueSize = maxQueueSize;
+        this.maxWaitTime = maxWaitTime;
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+    }
+
+    /**
+     * Waits for a permit to send an action, which must be given back with {@link #release()}.
+     * @throws BulkheadFullException If the bulkhead is full and the action can't wait, or waited too long
+     * @throws AciServiceException   If the caller was interrupted while waiting for a permit
+     */
+    public void acquire() {
+        acquire(null, null);
+    }
+
+    /**
+     * Waits for a permit to send an action, for no longer than its deadline allows. The permit must be given back with
+     * {@link #release()}.
+     * @param deadline     The deadline of the action, or <code>null</code>
+     * @param cancellation The cancellation token of the action, or <code>null</code>
+     * @throws BulkheadFullException     If the bulkhead is full and the action can't wait, or waited too long
+     * @throws DeadlineExceededException If the deadline passed before a permit was available
+     * @throws RequestCancelledException If the action was cancelled before a permit was available
+     * @throws AciServiceException       If the caller was interrupted while waiting for a permit
+     */
+    public void acquire(final Deadline deadline, final CancellationToken cancellation) {
+        if (cancellation == null) {
+            acquire(deadline);
+            return;
+        }
+
+        // Cancelling interrupts the wait, which takes the caller out of the semaphore's queue...
+        cancellation.throwIfCancelled();
+        final CancellationInterrupt interrupt = new CancellationInterrupt(cancellation);
+        try {
+            acquire(deadline);
+        } catch (final AciServiceException ase) {
+            if (cancellation.isCancelled() && !(ase instanceof RequestCancelledException)) {
+                throw new RequestCancelledException(ase.getCause());
+            }
+            throw ase;
+        } finally {
+            interrupt.close();
+        }
+    }
+
+    private void acquire(final Deadline deadline) {
+        final long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitTime);
+        final long remainingNanos = (deadline == null) ? Long.MAX_VALUE : deadline.getTimeRemaining(TimeUnit.NANOSECONDS);
+        if (remainingNanos == 0) {
+            throw new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS));
+        }
+
+        try {
+            // A timed tryAcquire respects the fairness of the semaphore where the untimed one doesn't...
+            if (permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+
+            if ((maxQueueSize > 0) && (permits.getQueueLength() < maxQueueSize)) {
+                if (permits.tryAcquire(Math.min(maxWaitNanos, remainingNanos), TimeUnit.NANOSECONDS)) {
+                    return;
+                }
+                if (remainingNanos <= maxWaitNanos) {
+                    // It was the deadline, rather than the bulkhead, that stopped the wait...
+                    throw new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS));
+                }
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new AciServiceException("Interrupted while waiting to send the ACI request", ie);
+        }
+
+        rejectedCount.incrementAndGet();
+        throw new BulkheadFullException(name, maxConcurrentCalls);
+    }
+
+    /**
+     * Gives back a permit obtained with {@link #acquire()}.
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Getter for property name.
+     * @return Value of property name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Getter for property maxConcurrentCalls.
+     * @return Value of property maxConcurrentCalls.
+     */
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    /**
+     * Getter for property maxQueueSize.
+     * @return Value of property maxQueueSize.
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * Getter for property maxWaitTime.
+     * @return Value of property maxWaitTime.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * Returns the number of actions that are currently in flight.
+     * @return The number of permits currently held
+     */
+    public int getActiveCalls() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+
+    /**
+     * Returns an estimate of the number of actions waiting for a permit.
+     * @return The number of waiting actions
+     */
+    public int getQueuedCalls() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return The number of actions that have been rejected
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return name + '[' + getActiveCalls() + '/' + maxConcurrentCalls + ']';
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.BulkheadFullException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An {@link AciService} that isolates classes of actions from each other with {@link Bulkhead}s, so that a burst of
+ * slow actions, e.g. <code>DREADDDATA</code> uploads or large <code>GetQueryTagValues</code>, uses up its own permits and
+ * not those of cheap actions like <code>Query</code> and <code>GetContent</code>.
+ * <p>
+ * Each action is assigned to a bulkhead by its {@link BulkheadClassifier}, if one is set and it returns a name, or else
+ * by the name of the action, and any action that isn't assigned goes to the default bulkhead. The permit is held until
+ * the delegate has processed the response, and a full bulkhead rejects actions with a {@link BulkheadFullException}.
+ * An action waits for a permit no longer than its {@link Deadline}, and stops waiting if its {@link CancellationToken}
+ * is cancelled.
+ * <p>
+ * The bulkheads only isolate the callers; the connections to each ACI Server still come from the pool of the delegate's
+ * <code>HttpClient</code>. To stop one class holding connections another needs, the sum of the
+ * <code>maxConcurrentCalls</code> of the bulkheads used with a server should be no more than
+ * <code>maxConnectionsPerRoute</code> on {@link com.autonomy.aci.client.transport.impl.HttpClient5Factory}.
+ * <pre>
+ *   final BulkheadAciService service = new BulkheadAciService(aciService, new Bulkhead("interactive", 16));
+ *   service.assign(new Bulkhead("indexing", 2, 8, 30000), "DREADDDATA", "DREREPLACE");
+ *   service.assign(new Bulkhead("reporting", 2), "GetQueryTagValues");
+ * </pre>
+ */
+public class BulkheadAciService implements AciService {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkheadAciService.class);
+
+    /**
+     * Holds the decorated service.
+     */
+    private final AciService aciService;
+
+    /**
+     * Holds value of property defaultBulkhead.
+     */
+    private final Bulkhead defaultBulkhead;
+
+    /**
+     * Holds the bulkheads, keyed on their names.
+     */
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * Holds the bulkheads, keyed on the lower case names of the actions assigned to them.
+     */
+    private final Map<String, Bulkhead> actionBulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * Holds value of property classifier.
+     */
+    private volatile BulkheadClassifier classifier;
+
+    /**
+     * Creates a new instance of BulkheadAciService.
+     * @param aciService      The <code>AciService</code> that actually executes the actions, usually an
+     *                        <code>AciServiceImpl</code>
+     * @param defaultBulkhead The bulkhead for actions that aren't assigned to another one
+     * @throws NullPointerException If either argument is <code>null</code>
+     */
+    public BulkheadAciService(final AciService aciService, final Bulkhead defaultBulkhead) {
+        this.aciService = Validate.notNull(aciService, "The AciService must not be null.");
+        this.defaultBulkhead = Validate.notNull(defaultBulkhead, "The default Bulkhead must not be null.");
+        bulkheads.put(defaultBulkhead.getName(), defaultBulkhead);
+    }
+
+    /**
+     * Adds a bulkhead, so it can be chosen by the classifier, and assigns actions to it.
+     * @param bulkhead The bulkhead
+     * @param actions  The names of the actions to assign to it, ignoring case
+     * @throws IllegalArgumentException If a different bulkhead with the same name has already been added
+     */
+    public void assign(final Bulkhead bulkhead, final String... actions) {
+        Validate.notNull(bulkhead, "Bulkhead must not be null");
+
+        final Bulkhead existing = bulkheads.putIfAbsent(bulkhead.getName(), bulkhead);
+        Validate.isTrue((existing == null) || (existing == bulkhead), "A different bulkhead called %s has already been added.", bulkhead.getName());
+
+        for (final String action : actions) {
+            actionBulkheads.put(action.toLowerCase(Locale.ENGLISH), bulkhead);
+        }
+    }
+
+    /**
+     * Assigns actions to bulkheads, e.g. when configured by an IoC container. Bulkheads shared by several actions should
+     * be the same instance.
+     * @param actionBulkheads The bulkheads, keyed on the names of the actions assigned to them
+     */
+    public void setActionBulkheads(final Map<String, Bulkhead> actionBulkheads) {
+        for (final Map.Entry<String, Bulkhead> entry : actionBulkheads.entrySet()) {
+            assign(entry.getValue(), entry.getKey());
+        }
+    }
+
+    /**
+     * Executes an ACI action on the calling thread once its bulkhead has a permit.
+     * @param parameters The parameters to use with the ACI command
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws BulkheadFullException     If the action's bulkhead is full
+     * @throws DeadlineExceededException If the action's deadline passed while it waited for a permit
+     * @throws RequestCancelledException If the action was cancelled while it waited for a permit
+     */
+    @Override
+    public <T> T executeAction(final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        final Bulkhead bulkhead = getBulkhead(null, parameters);
+        bulkhead.acquire(Deadline.of(parameters), CancellationToken.of(parameters));
+        try {
+            return aciService.executeAction(parameters, processor);
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Executes an ACI action on the calling thread once its bulkhead has a permit.
+     * @param serverDetails The connection details of the ACI Server to execute the action on
+     * @param parameters    The parameters to use with the ACI command
+     * @param processor     The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws BulkheadFullException     If the action's bulkhead is full
+     * @throws DeadlineExceededException If the action's deadline passed while it waited for a permit
+     * @throws RequestCancelledException If the action was cancelled while it waited for a permit
+     */
+    @Override
+    public <T> T executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        final Bulkhead bulkhead = getBulkhead(serverDetails, parameters);
+        bulkhead.acquire(Deadline.of(parameters), CancellationToken.of(parameters));
+        try {
+            return aciService.executeAction(serverDetails, parameters, processor);
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Returns the bulkhead an action is assigned to.
+     * @param serverDetails The ACI Server the action is being sent to, or <code>null</code> for the default server
+     * @param parameters    The parameters of the action
+     * @return The bulkhead
+     * @throws IllegalArgumentException If the classifier chose a bulkhead that hasn't been added, or there's no action
+     *                                  parameter
+     */
+    public Bulkhead getBulkhead(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) {
+        final BulkheadClassifier currentClassifier = classifier;
+        if (currentClassifier != null) {
+            final String name = currentClassifier.classify(serverDetails, parameters);
+            if (name != null) {
+                final Bulkhead bulkhead = bulkheads.get(name);
+                Validate.isTrue(bulkhead != null, "There's no bulkhead called %s.", name);
+                return bulkhead;
+            }
+        }
+
+        final Bulkhead bulkhead = actionBulkheads.get(AciServiceImpl.getAction(parameters));
+        return (bulkhead == null) ? defaultBulkhead : bulkhead;
+    }
+
+    /**
+     * @return Every bulkhead, including the default one
+     */
+    public Collection<Bulkhead> getBulkheads() {
+        return Collections.unmodifiableCollection(new ArrayList<>(bulkheads.values()));
+    }
+
+    /**
+     * Getter for property aciService.
+     * @return Value of property aciService.
+     */
+    public AciService getAciService() {
+        return aciService;
+    }
+
+    /**
+     * Getter for property defaultBulkhead.
+     * @return Value of property defaultBulkhead.
+     */
+    public Bulkhead getDefaultBulkhead() {
+        return defaultBulkhead;
+    }
+
+    /**
+     * Getter for property classifier.
+     * @return Value of property classifier.
+     */
+    public BulkheadClassifier getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * Sets the classifier that can choose an action's bulkhead by something other than its name. The bulkheads it chooses
+     * must have been added with {@link #assign(Bulkhead, String...)}. The default is <code>null</code>.
+     * @param classifier New value of property classifier.
+     */
+    public void setClassifier(final BulkheadClassifier classifier) {
+        this.classifier = classifier;
+    }
+
+}
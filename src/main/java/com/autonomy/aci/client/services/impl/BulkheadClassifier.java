@@ -0,0 +1,38 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+
+import java.util.Set;
+
+/**
+ * Chooses the bulkhead for an action from something other than its name, e.g. a parameter that marks requests from
+ * batch jobs, for a {@link BulkheadAciService}.
+ */
+@FunctionalInterface
+public interface BulkheadClassifier {
+
+    /**
+     * Chooses the bulkhead for an action.
+     * @param serverDetails The ACI Server the action is being sent to, or <code>null</code> if it's going to the default
+     *                      server of the decorated service
+     * @param parameters    The parameters of the action
+     * @return The name of the bulkhead, or <code>null</code> to choose it by the name of the action
+     */
+    String classify(AciServerDetails serverDetails, Set<? extends ActionParameter<?>> parameters);
+
+}
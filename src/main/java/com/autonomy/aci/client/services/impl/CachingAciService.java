@@ -0,0 +1,473 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * An {@link AciService} that keeps the responses to read only actions in memory, so that repeating a request within
+ * the action's time to live doesn't go to the ACI Server.
+ * <p>
+ * Responses are keyed on the ACI Server and the request's parameters, with parameter names and the action compared case
+ * insensitively and all other values compared exactly. Only actions with an entry in <code>timeToLives</code> are
+ * cached, and only if every parameter is an <code>AciParameter</code>. The raw response is cached, as a
+ * {@link BufferedAciResponse}, and replayed to the <code>Processor</code> of each request, so different processors can
+ * share an entry. ACI error responses aren't cached.
+ * <p>
+ * The cache holds at most <code>maxSize</code> bytes of responses, evicting the least recently used entries to make
+ * room. With <code>compress</code> set, responses of at least <code>compressionThreshold</code> bytes are held deflate
+ * compressed, which trades some CPU on every hit for a cache that holds several times as many XML responses.
+ * <p>
+ * A {@link DiskResponseCache} can be set as a second tier. Responses are then written to disk as well as memory, and
+ * a request that misses in memory is answered from disk if possible, so the cache isn't empty after a restart.
+ * Responses found on disk are read straight from the disk cache rather than being copied back into memory.
+ * <p>
+ * This class doesn't stop identical requests that miss at the same time all going to the ACI Server; to do that, wrap
+ * a {@link CoalescingAciService} with this one.
+ */
+public class CachingAciService implements AciService {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingAciService.class);
+
+    /**
+     * The actions cached by default, with their times to live in milliseconds.
+     */
+    public static final Map<String, Long> DEFAULT_TIME_TO_LIVES;
+
+    static {
+        final Map<String, Long> timeToLives = new TreeMap<>();
+        timeToLives.put("getquerytagvalues", 60000L);
+        timeToLives.put("getstatus", 5000L);
+        timeToLives.put("getversion", 300000L);
+        timeToLives.put("query", 30000L);
+        timeToLives.put("suggest", 30000L);
+        timeToLives.put("suggestontext", 30000L);
+        DEFAULT_TIME_TO_LIVES = Collections.unmodifiableMap(timeToLives);
+    }
+
+    /**
+     * How far into a response to look for the ACI error marker.
+     */
+    private static final int ERROR_SCAN_LENGTH = 512;
+
+    private static final String ERROR_MARKER = "<response>ERROR</response>";
+
+    /**
+     * A rough allowance for the memory used by each entry, on top of its key and response.
+     */
+    private static final long ENTRY_OVERHEAD = 256L;
+
+    private static final BufferedResponseProcessor BUFFERED_RESPONSE_PROCESSOR = new BufferedResponseProcessor();
+
+    private final AciService aciService;
+
+    private final LongSupplier nanoClock;
+
+    /**
+     * The cached entries in access order, guarded by this map's monitor.
+     */
+    private final LinkedHashMap<RequestKey, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    private long size;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private final AtomicLong diskHitCount = new AtomicLong();
+
+    /**
+     * Holds value of property timeToLives.
+     */
+    private volatile Map<String, Long> timeToLives = DEFAULT_TIME_TO_LIVES;
+
+    /**
+     * Holds value of property maxSize.
+     */
+    private volatile long maxSize = 64L * 1024 * 1024;
+
+    /**
+     * Holds value of property compress.
+     */
+    private volatile boolean compress;
+
+    /**
+     * Holds value of property compressionThreshold.
+     */
+    private volatile int compressionThreshold = 1024;
+
+    /**
+     * Holds value of property diskCache.
+     */
+    private volatile DiskResponseCache diskCache;
+
+    /**
+     * Creates a new instance of CachingAciService.
+     * @param aciService The service to send requests that miss the cache with
+     * @throws NullPointerException If <code>aciService</code> is <code>null</code>
+     */
+    public CachingAciService(final AciService aciService) {
+        this(aciService, System::nanoTime);
+    }
+
+    CachingAciService(final AciService aciService, final LongSupplier nanoClock) {
+        this.aciService = Validate.notNull(aciService, "AciService must not be null");
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Executes an ACI action on the ACI Server configured on the decorated service, unless the response is cached.
+     * @param parameters The parameters to use with the ACI command
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException If an error occurred during the communication with the ACI Server, processing the
+     *                             response or if the response contained an error
+     */
+    @Override
+    public <T> T executeAction(final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+        return execute(null, parameters, processor);
+    }
+
+    /**
+     * Executes an ACI action on the given ACI Server, unless the response is cached.
+     * @param serverDetails The connection details of the ACI Server to execute the action on
+     * @param parameters    The parameters to use with the ACI command
+     * @param processor     The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException If an error occurred during the communication with the ACI Server, processing the
+     *                             response or if the response contained an error
+     */
+    @Override
+    public <T> T executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        Validate.notNull(serverDetails, "ACI Server connection details must be set before calling this method.");
+        return execute(serverDetails, parameters, processor);
+    }
+
+    private <T> T execute(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        Validate.notEmpty(parameters, "The parameter set must not be null or empty.");
+        Validate.notNull(processor, "The processor must not be null.");
+
+        final Map<String, Long> timeToLives = this.timeToLives;
+        final RequestKey key = RequestKey.create(serverDetails, parameters, timeToLives.keySet());
+        if (key == null) {
+            return (serverDetails == null)
+                    ? aciService.executeAction(parameters, processor)
+                    : aciService.executeAction(serverDetails, parameters, processor);
+        }
+
+        final BufferedAciResponse cached = get(key);
+        if (cached != null) {
+            LOGGER.debug("Using cached response for {}", key.getAction());
+            hitCount.incrementAndGet();
+            return CoalescingAciService.process(cached.newInputStream(), processor);
+        }
+
+        final DiskResponseCache diskCache = this.diskCache;
+        if (diskCache != null) {
+            final AciResponseInputStream stored = diskCache.get(key);
+            if (stored != null) {
+                LOGGER.debug("Using response for {} from the disk cache", key.getAction());
+                diskHitCount.incrementAndGet();
+                return CoalescingAciService.process(stored, processor);
+            }
+        }
+
+        missCount.incrementAndGet();
+
+        final BufferedAciResponse response = (serverDetails == null)
+                ? aciService.executeAction(parameters, BUFFERED_RESPONSE_PROCESSOR)
+                : aciService.executeAction(serverDetails, parameters, BUFFERED_RESPONSE_PROCESSOR);
+
+        // Process before caching, so that a processor that rejects the response stops it being cached...
+        final T result = CoalescingAciService.process(response.newInputStream(), processor);
+
+        if (!isError(response)) {
+            final BufferedAciResponse stored = (compress && (response.getContentLength() >= compressionThreshold)) ? response.compress() : response;
+            final long timeToLive = timeToLives.get(key.getAction());
+            put(key, stored, TimeUnit.MILLISECONDS.toNanos(timeToLive));
+
+            if (diskCache != null) {
+                diskCache.put(key, stored, timeToLive);
+            }
+        }
+
+        return result;
+    }
+
+    private BufferedAciResponse get(final RequestKey key) {
+        synchronized (entries) {
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+
+            if ((nanoClock.getAsLong() - entry.expiresAt) >= 0) {
+                remove(key, entry);
+                return null;
+            }
+
+            return entry.response;
+        }
+    }
+
+    private void put(final RequestKey key, final BufferedAciResponse response, final long timeToLiveNanos) {
+        final long entrySize = key.getEstimatedSize() + response.getStoredLength() + ENTRY_OVERHEAD;
+        final long maxSize = this.maxSize;
+        if (entrySize > maxSize) {
+            LOGGER.debug("Not caching a response of {} bytes as it's bigger than the cache", entrySize);
+            return;
+        }
+
+        synchronized (entries) {
+            final Entry previous = entries.put(key, new Entry(response, entrySize, nanoClock.getAsLong() + timeToLiveNanos));
+            if (previous != null) {
+                size -= previous.size;
+            }
+            size += entrySize;
+
+            evict(maxSize);
+        }
+    }
+
+    private void evict(final long maxSize) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while ((size > maxSize) && iterator.hasNext()) {
+            size -= iterator.next().size;
+            iterator.remove();
+            evictionCount.incrementAndGet();
+        }
+    }
+
+    private void remove(final RequestKey key, final Entry entry) {
+        entries.remove(key);
+        size -= entry.size;
+    }
+
+    /**
+     * ACI errors are returned with a 200 status code, so look for the response element near the start.
+     */
+    private static boolean isError(final BufferedAciResponse response) {
+        try (final InputStream inputStream = response.newInputStream()) {
+            final byte[] start = new byte[ERROR_SCAN_LENGTH];
+            int length = 0;
+            int read;
+            while ((length < start.length) && ((read = inputStream.read(start, length, start.length - length)) > 0)) {
+                length += read;
+            }
+
+            // The marker is ASCII, so decoding as ISO-8859-1 finds it in any ASCII compatible encoding...
+            return new String(start, 0, length, StandardCharsets.ISO_8859_1).contains(ERROR_MARKER);
+        } catch (final IOException ioe) {
+            return true;
+        }
+    }
+
+    /**
+     * Removes every entry from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * @return The number of responses in the cache, including any that have expired but not yet been removed
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @return The estimated memory used by the cache, in bytes
+     */
+    public long getSize() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    /**
+     * @return The number of requests answered from the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return The number of requests that missed in memory and were answered from the disk cache
+     */
+    public long getDiskHitCount() {
+        return diskHitCount.get();
+    }
+
+    /**
+     * @return The number of cacheable requests that had to be sent to the ACI Server
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return The number of entries removed to keep the cache within <code>maxSize</code>
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Getter for property timeToLives.
+     * @return Value of property timeToLives, keyed on the action in lower case.
+     */
+    public Map<String, Long> getTimeToLives() {
+        return timeToLives;
+    }
+
+    /**
+     * Sets the actions to cache, which are matched case insensitively, and how long, in milliseconds, to keep their
+     * responses. The default is {@link #DEFAULT_TIME_TO_LIVES}.
+     * @param timeToLives New value of property timeToLives.
+     */
+    public void setTimeToLives(final Map<String, Long> timeToLives) {
+        Validate.notNull(timeToLives, "timeToLives must not be null.");
+
+        final Map<String, Long> actions = new TreeMap<>();
+        for (final Map.Entry<String, Long> timeToLive : timeToLives.entrySet()) {
+            Validate.isTrue((timeToLive.getValue() != null) && (timeToLive.getValue() > 0), "The time to live for %s must be greater than zero.", timeToLive.getKey());
+            actions.put(timeToLive.getKey().toLowerCase(Locale.ENGLISH), timeToLive.getValue());
+        }
+        this.timeToLives = Collections.unmodifiableMap(actions);
+    }
+
+    /**
+     * Getter for property maxSize.
+     * @return Value of property maxSize.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the most memory, in bytes, the cache should use. The default is <code>67108864</code> (64MB).
+     * @param maxSize New value of property maxSize.
+     */
+    public void setMaxSize(final long maxSize) {
+        Validate.isTrue(maxSize > 0, "maxSize must be greater than zero.");
+        this.maxSize = maxSize;
+
+        synchronized (entries) {
+            evict(maxSize);
+        }
+    }
+
+    /**
+     * Getter for property compress.
+     * @return Value of property compress.
+     */
+    public boolean isCompress() {
+        return compress;
+    }
+
+    /**
+     * Sets whether responses are held deflate compressed. The default is <code>false</code>.
+     * @param compress New value of property compress.
+     */
+    public void setCompress(final boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Getter for property compressionThreshold.
+     * @return Value of property compressionThreshold.
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the size, in bytes, below which responses aren't worth compressing. The default is <code>1024</code>.
+     * @param compressionThreshold New value of property compressionThreshold.
+     */
+    public void setCompressionThreshold(final int compressionThreshold) {
+        Validate.isTrue(compressionThreshold >= 0, "compressionThreshold must not be negative.");
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Getter for property diskCache.
+     * @return Value of property diskCache.
+     */
+    public DiskResponseCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Sets the cache to use as a second tier, behind the in-memory cache. The default is <code>null</code>, i.e. no disk
+     * cache. Closing the disk cache is left to the caller.
+     * @param diskCache New value of property diskCache.
+     */
+    public void setDiskCache(final DiskResponseCache diskCache) {
+        this.diskCache = diskCache;
+    }
+
+    private static final class Entry {
+
+        private final BufferedAciResponse response;
+
+        private final long size;
+
+        private final long expiresAt;
+
+        private Entry(final BufferedAciResponse response, final long size, final long expiresAt) {
+            this.response = response;
+            this.size = size;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
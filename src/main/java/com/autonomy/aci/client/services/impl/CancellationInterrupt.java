@@ -0,0 +1,47 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.transport.CancellationToken;
+
+/**
+ * Interrupts the thread that created it if the request is cancelled, until it's closed, and then clears the interrupt
+ * it caused, so that it doesn't leak out to the caller. Close it in a <code>finally</code> block on the same thread.
+ */
+final class CancellationInterrupt {
+
+    private final CancellationToken.Registration registration;
+
+    private volatile boolean interrupted;
+
+    CancellationInterrupt(final CancellationToken cancellation) {
+        final Thread thread = Thread.currentThread();
+        registration = cancellation.onCancel(() -> {
+            interrupted = true;
+            thread.interrupt();
+        });
+    }
+
+    /**
+     * Stops interrupting the thread on cancellation, and clears any interrupt already caused.
+     */
+    void close() {
+        registration.close();
+        if (interrupted) {
+            Thread.interrupted();
+        }
+    }
+
+}
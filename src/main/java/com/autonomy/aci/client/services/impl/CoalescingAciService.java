@@ -0,0 +1,292 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.services.ProcessorException;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import com.autonomy.aci.client.util.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * An {@link AciService} that sends identical concurrent requests to the ACI Server only once.
+ * <p>
+ * Two requests are identical if they're for the same <code>AciServerDetails</code> and have the same parameters, with
+ * parameter names and the action compared case insensitively and all other values compared exactly. While a request is
+ * in flight, identical requests wait for it rather than being sent themselves. The response is read into memory once,
+ * as a {@link BufferedAciResponse}, and replayed to each caller's <code>Processor</code>, so each caller still gets
+ * its own result and its own <code>AciErrorException</code> if the response is an error. If the request fails, every
+ * caller waiting for it gets the same exception.
+ * <p>
+ * Only the <code>coalescedActions</code>, which should only read from the ACI Server, are coalesced, and only if every
+ * parameter is an <code>AciParameter</code>. Responses aren't kept once the request completes; a request made
+ * afterwards is sent to the ACI Server as normal.
+ * <p>
+ * A request with a {@link Deadline} waits for an identical request no longer than its deadline, and then fails with a
+ * {@link DeadlineExceededException}. Likewise, cancelling a request's {@link CancellationToken} stops it waiting, and it
+ * fails with a {@link RequestCancelledException}; the identical request carries on for the others. A request with a
+ * deadline or cancellation token is never shared with other requests itself, as they'd then fail with it; if there's no
+ * identical request in flight it's sent to the ACI Server as normal.
+ */
+public class CoalescingAciService implements AciService {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingAciService.class);
+
+    /**
+     * The actions coalesced by default, all of which only read from the ACI Server.
+     */
+    public static final Set<String> DEFAULT_COALESCED_ACTIONS = Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(
+            "getquerytagvalues", "getstatus", "getversion", "query", "suggest", "suggestontext"
+    )));
+
+    private static final BufferedResponseProcessor BUFFERED_RESPONSE_PROCESSOR = new BufferedResponseProcessor();
+
+    private final AciService aciService;
+
+    private final ConcurrentMap<RequestKey, CompletableFuture<BufferedAciResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedRequests = new AtomicLong();
+
+    /**
+     * Holds value of property coalescedActions.
+     */
+    private volatile Set<String> coalescedActions = DEFAULT_COALESCED_ACTIONS;
+
+    /**
+     * Creates a new instance of CoalescingAciService.
+     * @param aciService The service to send requests with
+     * @throws NullPointerException If <code>aciService</code> is <code>null</code>
+     */
+    public CoalescingAciService(final AciService aciService) {
+        this.aciService = Validate.notNull(aciService, "AciService must not be null");
+    }
+
+    /**
+     * Executes an ACI action on the ACI Server configured on the decorated service, sharing the response with any
+     * identical request already in flight.
+     * @param parameters The parameters to use with the ACI command
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException If an error occurred during the communication with the ACI Server, processing the
+     *                             response or if the response contained an error
+     */
+    @Override
+    public <T> T executeAction(final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+        return execute(null, parameters, processor);
+    }
+
+    /**
+     * Executes an ACI action on the given ACI Server, sharing the response with any identical request already in flight.
+     * @param serverDetails The connection details of the ACI Server to execute the action on
+     * @param parameters    The parameters to use with the ACI command
+     * @param processor     The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException If an error occurred during the communication with the ACI Server, processing the
+     *                             response or if the response contained an error
+     */
+    @Override
+    public <T> T executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        Validate.notNull(serverDetails, "ACI Server connection details must be set before calling this method.");
+        return execute(serverDetails, parameters, processor);
+    }
+
+    private <T> T execute(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        Validate.notEmpty(parameters, "The parameter set must not be null or empty.");
+        Validate.notNull(processor, "The processor must not be null.");
+
+        final RequestKey key = RequestKey.create(serverDetails, parameters, coalescedActions);
+        if (key == null) {
+            return (serverDetails == null)
+                    ? aciService.executeAction(parameters, processor)
+                    : aciService.executeAction(serverDetails, parameters, processor);
+        }
+
+        final Deadline deadline = Deadline.of(parameters);
+        final CancellationToken cancellation = CancellationToken.of(parameters);
+        if ((deadline != null) || (cancellation != null)) {
+            final CompletableFuture<BufferedAciResponse> existing = inFlight.get(key);
+            if (existing == null) {
+                return (serverDetails == null)
+                        ? aciService.executeAction(parameters, processor)
+                        : aciService.executeAction(serverDetails, parameters, processor);
+            }
+
+            LOGGER.debug("Waiting for an identical ACI request that is already in flight...");
+            coalescedRequests.incrementAndGet();
+            return process(await(existing, deadline, cancellation).newInputStream(), processor);
+        }
+
+        final CompletableFuture<BufferedAciResponse> request = new CompletableFuture<>();
+        final CompletableFuture<BufferedAciResponse> existing = inFlight.putIfAbsent(key, request);
+
+        final BufferedAciResponse response;
+        if (existing == null) {
+            try {
+                response = (serverDetails == null)
+                        ? aciService.executeAction(parameters, BUFFERED_RESPONSE_PROCESSOR)
+                        : aciService.executeAction(serverDetails, parameters, BUFFERED_RESPONSE_PROCESSOR);
+                request.complete(response);
+            } catch (final RuntimeException | Error e) {
+                request.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, request);
+            }
+        } else {
+            LOGGER.debug("Waiting for an identical ACI request that is already in flight...");
+            coalescedRequests.incrementAndGet();
+            response = await(existing, null);
+        }
+
+        return process(response.newInputStream(), processor);
+    }
+
+    /**
+     * Gives a replayed response to a processor and closes it, handling errors as <code>AciServiceImpl</code> does.
+     * @param inputStream The replayed response
+     * @param processor   The processor
+     * @return The result of the processor
+     */
+    static <T> T process(final AciResponseInputStream inputStream, final Processor<T> processor) {
+        try {
+            return processor.process(inputStream);
+        } catch (final ProcessorException pe) {
+            LOGGER.trace("ProcessorException caught while parsing ACI response");
+            throw new AciServiceException(pe);
+        } finally {
+            IOUtils.getInstance().closeQuietly(inputStream);
+        }
+    }
+
+    /**
+     * Waits for the response of an identical request, for no longer than the caller's deadline, and until the caller's
+     * cancellation token is cancelled.
+     * @param request      The identical request
+     * @param deadline     The caller's deadline, or <code>null</code>
+     * @param cancellation The caller's cancellation token, or <code>null</code>
+     * @return The response
+     */
+    private static BufferedAciResponse await(final CompletableFuture<BufferedAciResponse> request, final Deadline deadline, final CancellationToken cancellation) {
+        if (cancellation == null) {
+            return await(request, deadline);
+        }
+
+        // Wait on a future of the caller's own, so that cancelling it leaves the identical request alone...
+        final CompletableFuture<BufferedAciResponse> wait = request.thenApply(Function.identity());
+        final CancellationToken.Registration registration = cancellation.onCancel(() -> wait.completeExceptionally(new RequestCancelledException()));
+        try {
+            return await(wait, deadline);
+        } finally {
+            registration.close();
+        }
+    }
+
+    /**
+     * Waits for the response of an identical request, for no longer than the caller's deadline.
+     * @param request  The identical request
+     * @param deadline The caller's deadline, or <code>null</code> to wait until the request completes
+     * @return The response
+     */
+    private static BufferedAciResponse await(final CompletableFuture<BufferedAciResponse> request, final Deadline deadline) {
+        try {
+            return (deadline == null)
+                    ? request.get()
+                    : request.get(deadline.getTimeRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException te) {
+            LOGGER.debug("Stopped waiting for an identical ACI request as the deadline has passed");
+            throw new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS), te);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new AciServiceException("Interrupted while waiting for an identical ACI request", ie);
+        } catch (final ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AciServiceException(cause);
+        }
+    }
+
+    /**
+     * @return The number of requests currently in flight that identical requests could share
+     */
+    public int getInFlightRequests() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return The number of requests that have shared the response of an identical request, rather than being sent
+     */
+    public long getCoalescedRequests() {
+        return coalescedRequests.get();
+    }
+
+    /**
+     * Getter for property coalescedActions.
+     * @return Value of property coalescedActions, in lower case.
+     */
+    public Set<String> getCoalescedActions() {
+        return coalescedActions;
+    }
+
+    /**
+     * Sets the actions that can be coalesced, which are matched case insensitively. The default is
+     * {@link #DEFAULT_COALESCED_ACTIONS}.
+     * @param coalescedActions New value of property coalescedActions.
+     */
+    public void setCoalescedActions(final Collection<String> coalescedActions) {
+        Validate.notNull(coalescedActions, "coalescedActions must not be null.");
+
+        final Set<String> actions = new TreeSet<>();
+        for (final String action : coalescedActions) {
+            actions.add(action.toLowerCase(Locale.ENGLISH));
+        }
+        this.coalescedActions = Collections.unmodifiableSet(actions);
+    }
+
+}
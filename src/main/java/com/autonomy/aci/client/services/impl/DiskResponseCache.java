@@ -0,0 +1,961 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A second tier for {@link CachingAciService} that keeps responses on disk, so that they survive a restart.
+ * <p>
+ * Responses are appended to segment files of <code>segmentSize</code> bytes, which are memory mapped. Hits are read
+ * straight from the mapped segment, without copying the response onto the heap. When the active segment is full a new
+ * one is started, and the oldest segments are deleted to keep the total within <code>maxDiskSize</code>. Each record
+ * carries a checksum, so a record that was only partly written when the process stopped is ignored when the cache is
+ * reopened.
+ * <p>
+ * The index of the cache is held in memory and rebuilt by reading the segments when the cache is opened. Replacing or
+ * expiring an entry leaves dead space in its segment; a background task periodically rewrites the live entries of any
+ * segment that is less than <code>compactionThreshold</code> live to the active segment and deletes it. Compaction, and
+ * flushing a full segment to disk, happen without holding the lock that lookups take, so neither holds up a hit.
+ * <p>
+ * Only one <code>DiskResponseCache</code> can use a directory at a time. Entries for requests to an ACI Server that
+ * uses an <code>EncryptionCodec</code> aren't stored, as the codec can't be written into the key. Entries for requests
+ * sent to a service's default ACI Server are keyed without the server, so the directory shouldn't be shared by
+ * services configured for different servers.
+ */
+public class DiskResponseCache implements Closeable {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiskResponseCache.class);
+
+    /**
+     * The default limit on the size of the cache on disk, 1GB.
+     */
+    public static final long DEFAULT_MAX_DISK_SIZE = 1024L * 1024 * 1024;
+
+    /**
+     * The default size of each segment file, 64MB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final int MIN_SEGMENT_SIZE = 4096;
+
+    private static final int MAGIC = 0xAC1CAC4E;
+
+    /**
+     * Each record starts with the magic number and the length of the rest of the record.
+     */
+    private static final int RECORD_HEADER_LENGTH = 8;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String LOCK_FILE = "cache.lock";
+
+    private final File directory;
+
+    private final long maxDiskSize;
+
+    private final int segmentSize;
+
+    private final LongSupplier clock;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock directoryLock;
+
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * Guards the segments, the index and the state of each segment. It's only held briefly, never while copying a
+     * response or writing a segment to disk.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Makes compactions run one at a time.
+     */
+    private final ReentrantLock compactionLock = new ReentrantLock();
+
+    /**
+     * The segments, oldest first; the last is the one being written to.
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private final Map<String, Entry> index = new HashMap<>();
+
+    /**
+     * Segments that have been filled since they were last written to disk.
+     */
+    private final List<Segment> rolledSegments = new ArrayList<>();
+
+    private long nextSegmentId;
+
+    private boolean closed;
+
+    /**
+     * Holds value of property compactionThreshold.
+     */
+    private volatile double compactionThreshold = 0.5;
+
+    /**
+     * Opens, or creates, a cache with the default size limits.
+     * @param directory The directory to keep the cache in
+     * @throws IOException If the directory can't be created or read, or is already in use
+     */
+    public DiskResponseCache(final File directory) throws IOException {
+        this(directory, DEFAULT_MAX_DISK_SIZE, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens, or creates, a cache.
+     * @param directory   The directory to keep the cache in
+     * @param maxDiskSize The most disk space, in bytes, to use, which must allow for at least two segments
+     * @param segmentSize The size of each segment file in bytes, which limits the size of the largest response that can
+     *                    be stored
+     * @throws IOException If the directory can't be created or read, or is already in use
+     */
+    public DiskResponseCache(final File directory, final long maxDiskSize, final int segmentSize) throws IOException {
+        this(directory, maxDiskSize, segmentSize, System::currentTimeMillis, TimeUnit.MINUTES.toMillis(1));
+    }
+
+    DiskResponseCache(final File directory, final long maxDiskSize, final int segmentSize, final LongSupplier clock, final long compactionInterval) throws IOException {
+        Validate.notNull(directory, "directory must not be null");
+        Validate.isTrue(segmentSize >= MIN_SEGMENT_SIZE, "segmentSize must be at least %d.", MIN_SEGMENT_SIZE);
+        Validate.isTrue(maxDiskSize >= 2L * segmentSize, "maxDiskSize must be at least twice segmentSize.");
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create the cache directory " + directory);
+        }
+
+        this.directory = directory;
+        this.maxDiskSize = maxDiskSize;
+        this.segmentSize = segmentSize;
+        this.clock = clock;
+
+        lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock = null;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (final OverlappingFileLockException ofle) {
+            // Locked by this JVM...
+        }
+
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException("The cache directory " + directory + " is already in use");
+        }
+        directoryLock = fileLock;
+
+        try {
+            load();
+        } catch (final IOException | RuntimeException e) {
+            directoryLock.release();
+            lockChannel.close();
+            throw e;
+        }
+        forceRolledSegments();
+
+        if (compactionInterval > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "aci-disk-cache-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactor.scheduleWithFixedDelay(this::compact, compactionInterval, compactionInterval, TimeUnit.MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+    }
+
+    private void load() throws IOException {
+        final File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            throw new IOException("Unable to list the cache directory " + directory);
+        }
+        Arrays.sort(files, Comparator.comparingLong(DiskResponseCache::getSegmentId));
+
+        final long now = clock.getAsLong();
+        for (final File file : files) {
+            if (getSegmentId(file) < 0) {
+                continue;
+            }
+
+            final Segment segment = Segment.open(file, getSegmentId(file), 0);
+            segments.addLast(segment);
+            nextSegmentId = segment.id + 1;
+
+            int position = 0;
+            int recordLength;
+            while ((recordLength = getRecordLength(segment, position)) > 0) {
+                final Entry entry = read(segment, position, true);
+                if (entry == null) {
+                    // A damaged record is skipped if it's followed by others, which happens if compaction was stopped
+                    // while copying, and written over if it's the last...
+                    if (getRecordLength(segment, position + recordLength) <= 0) {
+                        break;
+                    }
+                } else if (entry.expiresAt > now) {
+                    index(entry);
+                }
+                position += recordLength;
+            }
+            segment.writePosition = position;
+        }
+
+        LOGGER.debug("Loaded {} cached responses from {} segments in {}", index.size(), segments.size(), directory);
+
+        if (segments.isEmpty() || (segments.getLast().getCapacity() < segmentSize)) {
+            roll();
+        } else {
+            evictToFit();
+        }
+    }
+
+    private static long getSegmentId(final File file) {
+        final String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (final NumberFormatException nfe) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Looks up a response.
+     * @param key The key of the request
+     * @return A stream over the response, backed by the mapped segment, or <code>null</code> if there's no unexpired entry
+     */
+    AciResponseInputStream get(final RequestKey key) {
+        final String canonicalKey = key.toCanonicalString();
+        if (canonicalKey == null) {
+            return null;
+        }
+
+        final Entry entry;
+        final ByteBuffer body;
+        lock.lock();
+        try {
+            entry = closed ? null : index.get(canonicalKey);
+            if (entry == null) {
+                return null;
+            }
+
+            if (entry.expiresAt <= clock.getAsLong()) {
+                remove(entry);
+                return null;
+            }
+
+            body = slice(entry.segment, entry.bodyOffset, entry.bodyLength);
+        } finally {
+            lock.unlock();
+        }
+
+        final InputStream inputStream = new ByteBufferInputStream(body);
+        return new StoredAciResponseInputStream(
+                entry.compressed ? new InflaterInputStream(inputStream) : inputStream,
+                entry.statusCode,
+                entry.contentType,
+                entry.contentEncoding,
+                entry.contentLength,
+                entry.headers
+        );
+    }
+
+    /**
+     * Stores a response, replacing any existing entry for the same request.
+     * @param key             The key of the request
+     * @param response        The response
+     * @param timeToLiveMillis How long the entry should be kept
+     */
+    void put(final RequestKey key, final BufferedAciResponse response, final long timeToLiveMillis) {
+        final String canonicalKey = key.toCanonicalString();
+        if (canonicalKey == null) {
+            return;
+        }
+
+        final ByteBuffer record = encode(canonicalKey, response, clock.getAsLong() + timeToLiveMillis);
+        if (record.remaining() > segmentSize) {
+            LOGGER.debug("Not caching a response of {} bytes on disk as it's bigger than a segment", record.remaining());
+            return;
+        }
+
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            index(append(record));
+        } catch (final IOException ioe) {
+            LOGGER.warn("Unable to write to the disk cache in " + directory, ioe);
+        } finally {
+            lock.unlock();
+        }
+
+        forceRolledSegments();
+    }
+
+    /**
+     * Rewrites the live entries of segments that are mostly dead space, and deletes the segments. This is called
+     * periodically in the background, but can be called at any time.
+     * <p>
+     * Room for the entries is reserved in the active segment while holding the lock, but they're copied into it without
+     * the lock, and only replace the originals in the index once they've been copied, so lookups carry on as normal.
+     */
+    public void compact() {
+        LOGGER.trace("compact() called...");
+
+        compactionLock.lock();
+        try {
+            final List<Segment> compacted = new ArrayList<>();
+            final List<Entry> live = new ArrayList<>();
+
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+
+                final long now = clock.getAsLong();
+                final List<Entry> expired = new ArrayList<>();
+                for (final Entry entry : index.values()) {
+                    if (entry.expiresAt <= now) {
+                        expired.add(entry);
+                    }
+                }
+                for (final Entry entry : expired) {
+                    remove(entry);
+                }
+
+                for (final Segment segment : segments) {
+                    if ((segment != segments.getLast()) && ((double) segment.liveBytes < (compactionThreshold * segment.writePosition))) {
+                        compacted.add(segment);
+                    }
+                }
+                for (final Entry entry : index.values()) {
+                    if (compacted.contains(entry.segment)) {
+                        live.add(entry);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (compacted.isEmpty()) {
+                return;
+            }
+
+            LOGGER.debug("Compacting {} segments, moving {} live entries", compacted.size(), live.size());
+
+            int next = 0;
+            while (next < live.size()) {
+                final int moved = move(live.subList(next, live.size()));
+                if (moved < 0) {
+                    return;
+                }
+                next += moved;
+            }
+
+            lock.lock();
+            try {
+                // Starting a new segment while moving the entries may already have evicted some of these...
+                for (final Segment segment : compacted) {
+                    if (!closed && segments.contains(segment)) {
+                        delete(segment);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            compactionLock.unlock();
+            forceRolledSegments();
+        }
+    }
+
+    /**
+     * Copies as many of the entries as fit into the active segment, and indexes the copies of those that haven't been
+     * replaced, expired or evicted in the meantime.
+     * @return The number of entries copied, or <code>-1</code> if the cache was closed or couldn't be written to
+     */
+    private int move(final List<Entry> entries) {
+        final Segment target;
+        final int offset;
+        int count = 0;
+
+        lock.lock();
+        try {
+            if (closed) {
+                return -1;
+            }
+
+            Segment active = segments.getLast();
+            if ((active.getCapacity() - active.writePosition) < entries.get(0).recordLength) {
+                active = roll();
+            }
+
+            // Reserve the room, writing the record headers so that loading can find its way past the records if the
+            // process stops before they've been copied...
+            target = active;
+            offset = active.writePosition;
+            while ((count < entries.size()) && ((active.getCapacity() - active.writePosition) >= entries.get(count).recordLength)) {
+                final Entry entry = entries.get(count++);
+                active.buffer.putInt(active.writePosition, MAGIC);
+                active.buffer.putInt(active.writePosition + 4, entry.recordLength - RECORD_HEADER_LENGTH);
+                active.writePosition += entry.recordLength;
+            }
+        } catch (final IOException ioe) {
+            LOGGER.warn("Unable to compact the disk cache in " + directory, ioe);
+            return -1;
+        } finally {
+            lock.unlock();
+        }
+
+        final List<Entry> copies = new ArrayList<>(count);
+        int position = offset;
+        for (final Entry entry : entries.subList(0, count)) {
+            final ByteBuffer buffer = target.buffer.duplicate();
+            buffer.position(position + RECORD_HEADER_LENGTH);
+            buffer.put(slice(entry.segment, entry.recordOffset + RECORD_HEADER_LENGTH, entry.recordLength - RECORD_HEADER_LENGTH));
+            copies.add(read(target, position, false));
+            position += entry.recordLength;
+        }
+
+        final boolean filled;
+        lock.lock();
+        try {
+            for (int ii = 0; ii < count; ii++) {
+                final Entry entry = entries.get(ii);
+                if (!closed && segments.contains(target) && (index.get(entry.key) == entry)) {
+                    index(copies.get(ii));
+                }
+            }
+            filled = closed || (segments.peekLast() != target);
+        } finally {
+            lock.unlock();
+        }
+
+        // The segment may have been written to disk when it filled up, before the copies were made...
+        if (filled) {
+            target.buffer.force();
+        }
+
+        return count;
+    }
+
+    /**
+     * Appends a record to the active segment, starting a new one if it won't fit. Must hold the lock, and call
+     * {@link #forceRolledSegments()} once it's released.
+     */
+    private Entry append(final ByteBuffer record) throws IOException {
+        final int length = record.remaining();
+
+        Segment active = segments.getLast();
+        if ((active.getCapacity() - active.writePosition) < length) {
+            active = roll();
+        }
+
+        final int offset = active.writePosition;
+        final ByteBuffer target = active.buffer.duplicate();
+        target.position(offset);
+        target.put(record);
+        active.writePosition += length;
+
+        return read(active, offset, false);
+    }
+
+    private Segment roll() throws IOException {
+        if (!segments.isEmpty()) {
+            rolledSegments.add(segments.getLast());
+        }
+
+        final long id = nextSegmentId++;
+        final Segment segment = Segment.open(new File(directory, String.format("%s%012d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)), id, segmentSize);
+        segments.addLast(segment);
+        evictToFit();
+        return segment;
+    }
+
+    /**
+     * Writes the segments that have filled up to disk. Mustn't hold the lock.
+     */
+    private void forceRolledSegments() {
+        final List<Segment> rolled;
+        lock.lock();
+        try {
+            if (rolledSegments.isEmpty()) {
+                return;
+            }
+            rolled = new ArrayList<>(rolledSegments);
+            rolledSegments.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        for (final Segment segment : rolled) {
+            segment.buffer.force();
+        }
+    }
+
+    private void evictToFit() {
+        while ((segments.size() > 1) && (getDiskSizeLocked() > maxDiskSize)) {
+            final Segment oldest = segments.getFirst();
+            LOGGER.debug("Evicting segment {} to keep the disk cache within {} bytes", oldest.id, maxDiskSize);
+            delete(oldest);
+        }
+    }
+
+    private void delete(final Segment segment) {
+        segments.remove(segment);
+
+        final Iterator<Entry> iterator = index.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().segment == segment) {
+                iterator.remove();
+            }
+        }
+
+        // Streams already handed out keep reading from the mapping, which outlives the file...
+        if (!segment.file.delete()) {
+            LOGGER.warn("Unable to delete cache segment {}", segment.file);
+        }
+    }
+
+    private void index(final Entry entry) {
+        final Entry previous = index.put(entry.key, entry);
+        if (previous != null) {
+            previous.segment.liveBytes -= previous.recordLength;
+        }
+        entry.segment.liveBytes += entry.recordLength;
+    }
+
+    private void remove(final Entry entry) {
+        if (index.remove(entry.key, entry)) {
+            entry.segment.liveBytes -= entry.recordLength;
+        }
+    }
+
+    private static ByteBuffer slice(final Segment segment, final int offset, final int length) {
+        final ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset);
+        buffer.limit(offset + length);
+        return buffer.slice();
+    }
+
+    private static ByteBuffer encode(final String key, final BufferedAciResponse response, final long expiresAt) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final byte[] contentType = toBytes(response.getContentType());
+        final byte[] contentEncoding = toBytes(response.getContentEncoding());
+        final byte[] content = response.getStoredContent();
+
+        final List<byte[]> headers = new ArrayList<>();
+        int headersLength = 0;
+        for (final Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+            final byte[] name = toBytes(header.getKey());
+            final byte[] value = toBytes(header.getValue());
+            headers.add(name);
+            headers.add(value);
+            headersLength += 8 + length(name) + length(value);
+        }
+
+        // expiresAt, key, status, content type, content encoding, headers, compressed, content length, body, CRC...
+        final int length = 8 + 4 + keyBytes.length + 4 + 4 + length(contentType) + 4 + length(contentEncoding)
+                + 4 + headersLength + 1 + 4 + 4 + content.length + 4;
+
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + length);
+        record.putInt(MAGIC);
+        record.putInt(length);
+        record.putLong(expiresAt);
+        putBytes(record, keyBytes);
+        record.putInt(response.getStatusCode());
+        putBytes(record, contentType);
+        putBytes(record, contentEncoding);
+        record.putInt(headers.size() / 2);
+        for (final byte[] bytes : headers) {
+            putBytes(record, bytes);
+        }
+        record.put((byte) (response.isCompressed() ? 1 : 0));
+        record.putInt(response.getContentLength());
+        putBytes(record, content);
+
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_LENGTH, length - 4);
+        record.putInt((int) crc.getValue());
+
+        record.flip();
+        return record;
+    }
+
+    /**
+     * Reads the record at the given offset.
+     * @return The entry, or <code>null</code> if there isn't a complete, valid, record at the offset
+     */
+    private static Entry read(final Segment segment, final int offset, final boolean verify) {
+        final int recordLength = getRecordLength(segment, offset);
+        if (recordLength <= 0) {
+            return null;
+        }
+
+        final int length = recordLength - RECORD_HEADER_LENGTH;
+        final ByteBuffer record = slice(segment, offset + RECORD_HEADER_LENGTH, length);
+        if (verify) {
+            final ByteBuffer checked = record.duplicate();
+            checked.limit(length - 4);
+            final CRC32 crc = new CRC32();
+            crc.update(checked);
+            if ((int) crc.getValue() != record.getInt(length - 4)) {
+                return null;
+            }
+        }
+
+        final long expiresAt = record.getLong();
+        final String key = getString(record);
+        final int statusCode = record.getInt();
+        final String contentType = getString(record);
+        final String contentEncoding = getString(record);
+
+        final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        final int headerCount = record.getInt();
+        for (int ii = 0; ii < headerCount; ii++) {
+            headers.put(getString(record), getString(record));
+        }
+
+        final boolean compressed = record.get() != 0;
+        final int contentLength = record.getInt();
+        final int bodyLength = record.getInt();
+        final int bodyOffset = offset + RECORD_HEADER_LENGTH + record.position();
+
+        return new Entry(key, segment, offset, RECORD_HEADER_LENGTH + length, bodyOffset, bodyLength, expiresAt,
+                statusCode, contentType, contentEncoding, Collections.unmodifiableMap(headers), compressed, contentLength);
+    }
+
+    /**
+     * @return The length of the record at the given offset, including its header, or <code>0</code> if there isn't a
+     * record header there
+     */
+    private static int getRecordLength(final Segment segment, final int offset) {
+        final ByteBuffer buffer = segment.buffer;
+        if ((offset + RECORD_HEADER_LENGTH > segment.getCapacity()) || (buffer.getInt(offset) != MAGIC)) {
+            return 0;
+        }
+
+        final int length = buffer.getInt(offset + 4);
+        if ((length < 4) || (length > segment.getCapacity() - offset - RECORD_HEADER_LENGTH)) {
+            return 0;
+        }
+        return RECORD_HEADER_LENGTH + length;
+    }
+
+    private static byte[] toBytes(final String value) {
+        return (value == null) ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(final byte[] bytes) {
+        return (bytes == null) ? 0 : bytes.length;
+    }
+
+    private static void putBytes(final ByteBuffer buffer, final byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long getDiskSizeLocked() {
+        long size = 0;
+        for (final Segment segment : segments) {
+            size += segment.getCapacity();
+        }
+        return size;
+    }
+
+    /**
+     * @return The number of responses in the cache, including any that have expired but not yet been removed
+     */
+    public int getEntryCount() {
+        lock.lock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The disk space used by the segment files, in bytes
+     */
+    public long getDiskSize() {
+        lock.lock();
+        try {
+            return getDiskSizeLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of segment files
+     */
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Getter for property compactionThreshold.
+     * @return Value of property compactionThreshold.
+     */
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Sets the proportion of a segment that must still be live for it to be left alone by compaction, between
+     * <code>0</code> and <code>1</code>. The default is <code>0.5</code>.
+     * @param compactionThreshold New value of property compactionThreshold.
+     */
+    public void setCompactionThreshold(final double compactionThreshold) {
+        Validate.inclusiveBetween(0.0, 1.0, compactionThreshold, "compactionThreshold must be between 0 and 1.");
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Stops background compaction, writes any changes to disk and releases the directory. Streams that have already been
+     * returned can still be read.
+     * @throws IOException If the directory lock can't be released
+     */
+    @Override
+    public void close() throws IOException {
+        LOGGER.trace("close() called...");
+
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+
+        final List<Segment> unwritten;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            unwritten = new ArrayList<>(rolledSegments);
+            if (!segments.isEmpty()) {
+                unwritten.add(segments.getLast());
+            }
+            rolledSegments.clear();
+            segments.clear();
+            index.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        for (final Segment segment : unwritten) {
+            segment.buffer.force();
+        }
+
+        try {
+            directoryLock.release();
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    /**
+     * A segment file and its mapping. The file is only open while it's being mapped.
+     */
+    private static final class Segment {
+
+        private final long id;
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        private int writePosition;
+
+        private long liveBytes;
+
+        private Segment(final long id, final File file, final MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        /**
+         * @param size The size to create the file with, or <code>0</code> to map an existing file at its current size
+         */
+        private static Segment open(final File file, final long id, final int size) throws IOException {
+            try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final long length = (size == 0) ? Math.min(channel.size(), Integer.MAX_VALUE) : size;
+                return new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+            }
+        }
+
+        private int getCapacity() {
+            return buffer.capacity();
+        }
+    }
+
+    /**
+     * Where a response is held on disk, along with the details of the HTTP response.
+     */
+    private static final class Entry {
+
+        private final String key;
+
+        private final Segment segment;
+
+        private final int recordOffset;
+
+        private final int recordLength;
+
+        private final int bodyOffset;
+
+        private final int bodyLength;
+
+        private final long expiresAt;
+
+        private final int statusCode;
+
+        private final String contentType;
+
+        private final String contentEncoding;
+
+        private final Map<String, String> headers;
+
+        private final boolean compressed;
+
+        private final int contentLength;
+
+        private Entry(final String key, final Segment segment, final int recordOffset, final int recordLength,
+                      final int bodyOffset, final int bodyLength, final long expiresAt, final int statusCode,
+                      final String contentType, final String contentEncoding, final Map<String, String> headers,
+                      final boolean compressed, final int contentLength) {
+            this.key = key;
+            this.segment = segment;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+            this.expiresAt = expiresAt;
+            this.statusCode = statusCode;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.headers = headers;
+            this.compressed = compressed;
+            this.contentLength = contentLength;
+        }
+    }
+
+    /**
+     * Reads from a <code>ByteBuffer</code>, which here is a slice of a mapped segment.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int count = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.RetryPolicy;
+import com.autonomy.aci.client.transport.ActionParameter;
+import org.apache.commons.lang3.Validate;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link RetryPolicy} that retries transient transport failures with exponential backoff and "full jitter", i.e. the
+ * delay before retry <code>n</code> is a random time between zero and
+ * <code>min(maxBackoff, initialBackoff * backoffMultiplier<sup>n</sup>)</code>, so that clients that failed together
+ * don't retry together.
+ * <p>
+ * A request is only retried if all of its parameters are {@link ActionParameter#isRepeatable() repeatable} and:
+ * <ul>
+ * <li>the connection couldn't be established, in which case the ACI Server never saw the request, or</li>
+ * <li>its action is one of the <code>idempotentActions</code> and the failure was an <code>IOException</code> that might
+ * be transient, e.g. a connection reset or read timeout. Unknown hosts, SSL failures and interrupts are not retried.</li>
+ * </ul>
+ * An <code>AciHttpException</code> signals a protocol error, which sending the same request again won't fix.
+ * <p>
+ * To stop retries adding to the load on an ACI Server that is already struggling, retries are limited by a budget: each
+ * request adds <code>retryBudgetRatio</code> to the budget, up to <code>maxRetryBudget</code>, and each retry takes one
+ * from it. By default this allows a burst of 10 retries and then one retry for every ten requests.
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExponentialBackoffRetryPolicy.class);
+
+    /**
+     * The actions retried by default, all of which only read from the ACI Server.
+     */
+    public static final Set<String> DEFAULT_IDEMPOTENT_ACTIONS = Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(
+            "getcontent", "getquerytagvalues", "getstatus", "getversion", "query", "suggest", "suggestontext"
+    )));
+
+    /**
+     * The budget is held in thousandths of a retry so that fractional ratios can be added atomically.
+     */
+    private static final long BUDGET_SCALE = 1000L;
+
+    /**
+     * Holds the remaining retry budget.
+     */
+    private final AtomicLong retryBudget;
+
+    /**
+     * Holds value of property maxRetries.
+     */
+    private int maxRetries = 2;
+
+    /**
+     * Holds value of property initialBackoff.
+     */
+    private long initialBackoff = 100L;
+
+    /**
+     * Holds value of property maxBackoff.
+     */
+    private long maxBackoff = 2000L;
+
+    /**
+     * Holds value of property backoffMultiplier.
+     */
+    private double backoffMultiplier = 2.0;
+
+    /**
+     * Holds value of property idempotentActions.
+     */
+    private volatile Set<String> idempotentActions = DEFAULT_IDEMPOTENT_ACTIONS;
+
+    /**
+     * Holds value of property retryBudgetRatio.
+     */
+    private double retryBudgetRatio = 0.1;
+
+    /**
+     * Holds value of property maxRetryBudget.
+     */
+    private int maxRetryBudget = 10;
+
+    /**
+     * Creates a new instance of ExponentialBackoffRetryPolicy.
+     */
+    public ExponentialBackoffRetryPolicy() {
+        retryBudget = new AtomicLong(maxRetryBudget * BUDGET_SCALE);
+    }
+
+    @Override
+    public void onRequest(final Set<? extends ActionParameter<?>> parameters) {
+        final long deposit = (long) (retryBudgetRatio * BUDGET_SCALE);
+        final long max = maxRetryBudget * BUDGET_SCALE;
+        retryBudget.accumulateAndGet(deposit, (budget, amount) -> Math.min(max, budget + amount));
+    }
+
+    @Override
+    public long getRetryDelay(final Set<? extends ActionParameter<?>> parameters, final Exception exception, final int retries) {
+        LOGGER.trace("getRetryDelay() called...");
+
+        if ((retries >= maxRetries) || !isRetryable(parameters, exception)) {
+            return -1L;
+        }
+
+        if (retryBudget.getAndUpdate(budget -> (budget >= BUDGET_SCALE) ? budget - BUDGET_SCALE : budget) < BUDGET_SCALE) {
+            LOGGER.debug("Not retrying as the retry budget has been used up");
+            return -1L;
+        }
+
+        final double backoff = Math.min(maxBackoff, initialBackoff * Math.pow(backoffMultiplier, retries));
+        return ThreadLocalRandom.current().nextLong((long) backoff + 1);
+    }
+
+    /**
+     * Decides whether a request can be retried after the given failure, ignoring the number of retries and the budget.
+     * @param parameters The parameters of the request
+     * @param exception  The exception thrown by the <code>AciHttpClient</code>
+     * @return True if the request can be sent again
+     */
+    protected boolean isRetryable(final Set<? extends ActionParameter<?>> parameters, final Exception exception) {
+        if (!LoadBalancingAciService.isRepeatable(parameters) || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+
+        if ((exception instanceof ConnectException) || (exception instanceof ConnectTimeoutException)) {
+            // The request never reached the server, so it's safe whatever the action...
+            return true;
+        }
+
+        if (!(exception instanceof IOException) || !idempotentActions.contains(AciServiceImpl.getAction(parameters))) {
+            return false;
+        }
+
+        return !((exception instanceof UnknownHostException)
+                || (exception instanceof SSLException)
+                || ((exception instanceof InterruptedIOException) && !(exception instanceof SocketTimeoutException)));
+    }
+
+    /**
+     * @return The number of retries that can currently be made before the budget is used up
+     */
+    public double getRetryBudget() {
+        return (double) retryBudget.get() / BUDGET_SCALE;
+    }
+
+    /**
+     * Getter for property maxRetries.
+     * @return Value of property maxRetries.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the maximum number of times a request is retried. The default is <code>2</code>.
+     * @param maxRetries New value of property maxRetries.
+     */
+    public void setMaxRetries(final int maxRetries) {
+        Validate.isTrue(maxRetries >= 0, "maxRetries must not be negative.");
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Getter for property initialBackoff.
+     * @return Value of property initialBackoff.
+     */
+    public long getInitialBackoff() {
+        return initialBackoff;
+    }
+
+    /**
+     * Sets the maximum delay, in milliseconds, before the first retry. The default is <code>100</code>ms.
+     * @param initialBackoff New value of property initialBackoff.
+     */
+    public void setInitialBackoff(final long initialBackoff) {
+        Validate.isTrue(initialBackoff >= 0, "initialBackoff must not be negative.");
+        this.initialBackoff = initialBackoff;
+    }
+
+    /**
+     * Getter for property maxBackoff.
+     * @return Value of property maxBackoff.
+     */
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    /**
+     * Sets the cap, in milliseconds, on the delay before any retry. The default is <code>2000</code>ms (2s).
+     * @param maxBackoff New value of property maxBackoff.
+     */
+    public void setMaxBackoff(final long maxBackoff) {
+        Validate.isTrue(maxBackoff >= 0, "maxBackoff must not be negative.");
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Getter for property backoffMultiplier.
+     * @return Value of property backoffMultiplier.
+     */
+    public double getBackoffMultiplier() {
+        return backoffMultiplier;
+    }
+
+    /**
+     * Sets the factor the maximum delay grows by with each retry. The default is <code>2</code>.
+     * @param backoffMultiplier New value of property backoffMultiplier.
+     */
+    public void setBackoffMultiplier(final double backoffMultiplier) {
+        Validate.isTrue(backoffMultiplier >= 1.0, "backoffMultiplier must be at least 1.");
+        this.backoffMultiplier = backoffMultiplier;
+    }
+
+    /**
+     * Getter for property idempotentActions.
+     * @return Value of property idempotentActions, in lower case.
+     */
+    public Set<String> getIdempotentActions() {
+        return idempotentActions;
+    }
+
+    /**
+     * Sets the actions that are safe to send more than once, which are matched case insensitively. The default is
+     * {@link #DEFAULT_IDEMPOTENT_ACTIONS}.
+     * @param idempotentActions New value of property idempotentActions.
+     */
+    public void setIdempotentActions(final Collection<String> idempotentActions) {
+        Validate.notNull(idempotentActions, "idempotentActions must not be null.");
+
+        final Set<String> actions = new TreeSet<>();
+        for (final String action : idempotentActions) {
+            actions.add(action.toLowerCase(Locale.ENGLISH));
+        }
+        this.idempotentActions = Collections.unmodifiableSet(actions);
+    }
+
+    /**
+     * Getter for property retryBudgetRatio.
+     * @return Value of property retryBudgetRatio.
+     */
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    /**
+     * Sets the number of retries each request adds to the budget. The default is <code>0.1</code>, i.e. one retry for
+     * every ten requests.
+     * @param retryBudgetRatio New value of property retryBudgetRatio.
+     */
+    public void setRetryBudgetRatio(final double retryBudgetRatio) {
+        Validate.inclusiveBetween(0.0, 1.0, retryBudgetRatio, "retryBudgetRatio must be between 0 and 1.");
+        this.retryBudgetRatio = retryBudgetRatio;
+    }
+
+    /**
+     * Getter for property maxRetryBudget.
+     * @return Value of property maxRetryBudget.
+     */
+    public int getMaxRetryBudget() {
+        return maxRetryBudget;
+    }
+
+    /**
+     * Sets the most retries the budget can hold, which is also the budget it starts with. The default is <code>10</code>.
+     * @param maxRetryBudget New value of property maxRetryBudget.
+     */
+    public void setMaxRetryBudget(final int maxRetryBudget) {
+        Validate.isTrue(maxRetryBudget >= 0, "maxRetryBudget must not be negative.");
+        this.maxRetryBudget = maxRetryBudget;
+        retryBudget.set(maxRetryBudget * BUDGET_SCALE);
+    }
+
+}
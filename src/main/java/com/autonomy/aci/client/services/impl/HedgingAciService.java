@@ -0,0 +1,543 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.AsyncAciService;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.AsyncAciHttpClient;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import com.autonomy.aci.client.util.IOUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends actions to a pool of identical ACI Servers and, for idempotent actions, sends a second "hedge" request to another
+ * server when the first is taking longer than usual. Whichever response arrives first is used and the other exchange is
+ * aborted, which cuts the tail latency caused by one replica being slow at a time.
+ * <p>
+ * The hedge delay is the <code>hedgePercentile</code> (by default the 95th) of the recent latency of the same action,
+ * so normally only about one request in twenty is hedged. No hedge is sent until <code>minSamples</code> latencies have
+ * been recorded for the action. If the first attempt fails outright the hedge is sent straight away. Only actions named
+ * in <code>hedgedActions</code> are hedged, and only when every parameter is repeatable, as hedging sends the same
+ * parameters twice; everything else is sent to a single server chosen by the {@link AciServerPool}.
+ * <p>
+ * The <code>AsyncAciHttpClient</code> buffers each response, so "first response" here means the first complete response
+ * rather than the first response headers. Timers are run on a single daemon thread unless a
+ * <code>ScheduledExecutorService</code> is supplied; {@link #close()} shuts down the one created by this class.
+ * Cancelling the returned future, or the {@link CancellationToken} of the parameters, aborts every exchange that's still
+ * running. The {@link Deadline} of the parameters bounds every exchange, including the hedge.
+ */
+public class HedgingAciService implements AciService, AsyncAciService, Closeable {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HedgingAciService.class);
+
+    /**
+     * Used to confirm that a passed in set of parameters contains an action=xxx parameter...
+     */
+    private static final AciParameter TEST_ACTION_PARAMETER = new AciParameter(AciConstants.PARAM_ACTION, null);
+
+    /**
+     * The actions hedged by default, all of which only read from the ACI Server.
+     */
+    public static final Set<String> DEFAULT_HEDGED_ACTIONS = Collections.unmodifiableSet(new TreeSet<>(Arrays.asList(
+            "getcontent", "getquerytagvalues", "getstatus", "query", "suggest", "suggestontext"
+    )));
+
+    private final AsyncAciHttpClient asyncAciHttpClient;
+
+    private final AciServerPool serverPool;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final boolean ownsScheduler;
+
+    private final ConcurrentMap<String, LatencyRecorder> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * Holds value of property processorExecutor.
+     */
+    private Executor processorExecutor = ForkJoinPool.commonPool();
+
+    /**
+     * Holds value of property hedgedActions.
+     */
+    private Set<String> hedgedActions = DEFAULT_HEDGED_ACTIONS;
+
+    /**
+     * Holds value of property hedgePercentile.
+     */
+    private double hedgePercentile = 95.0;
+
+    /**
+     * Holds value of property minSamples.
+     */
+    private int minSamples = 20;
+
+    /**
+     * Creates a new instance of HedgingAciService.
+     * @param asyncAciHttpClient The configured <code>AsyncAciHttpClient</code> to use for communication
+     * @param serverPool         The pool of ACI Servers to send the actions to
+     */
+    public HedgingAciService(final AsyncAciHttpClient asyncAciHttpClient, final AciServerPool serverPool) {
+        this(asyncAciHttpClient, serverPool, Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "aci-hedging-timer");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * Creates a new instance of HedgingAciService. The scheduler isn't shut down when this service is closed.
+     * @param asyncAciHttpClient The configured <code>AsyncAciHttpClient</code> to use for communication
+     * @param serverPool         The pool of ACI Servers to send the actions to
+     * @param scheduler          The scheduler used to send hedge requests
+     */
+    public HedgingAciService(final AsyncAciHttpClient asyncAciHttpClient, final AciServerPool serverPool, final ScheduledExecutorService scheduler) {
+        this(asyncAciHttpClient, serverPool, scheduler, false);
+    }
+
+    private HedgingAciService(final AsyncAciHttpClient asyncAciHttpClient, final AciServerPool serverPool, final ScheduledExecutorService scheduler, final boolean ownsScheduler) {
+        Validate.notNull(asyncAciHttpClient, "The AsyncAciHttpClient must not be null.");
+        Validate.notNull(serverPool, "The server pool must not be null.");
+        Validate.notNull(scheduler, "The scheduler must not be null.");
+
+        this.asyncAciHttpClient = asyncAciHttpClient;
+        this.serverPool = serverPool;
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+    }
+
+    /**
+     * Executes an ACI action on the pool, hedging it if it's idempotent, and waits for the processed response.
+     * @param parameters The parameters to use with the ACI command
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws com.autonomy.aci.client.services.AciServiceException If every attempt failed, processing the response failed
+     *                                                              or the response contained an error
+     */
+    @Override
+    public <T> T executeAction(final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        return join(executeActionAsync(parameters, processor));
+    }
+
+    /**
+     * Executes an ACI action on the given server, without hedging, and waits for the processed response.
+     * @param serverDetails The connection details of the ACI Server to execute the action on
+     * @param parameters    The parameters to use with the ACI command
+     * @param processor     The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws com.autonomy.aci.client.services.AciServiceException If an error occurred during the communication with the
+     *                                                              ACI Server, processing the response or if the response
+     *                                                              contained an error
+     */
+    @Override
+    public <T> T executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        return join(executeActionAsync(serverDetails, parameters, processor));
+    }
+
+    /**
+     * Executes an ACI action on the pool, hedging it if it's idempotent.
+     * @param parameters The parameters to use with the ACI command
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return A <code>CompletableFuture</code> that will be completed with the ACI response encoded as an object of type
+     * <code>T</code>
+     */
+    @Override
+    public <T> CompletableFuture<T> executeActionAsync(final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeActionAsync() called...");
+
+        validate(parameters, processor);
+
+        final String action = AciServiceImpl.getAction(parameters);
+        final LatencyRecorder recorder = latencies.computeIfAbsent(action, key -> new LatencyRecorder(1024));
+        final boolean hedgeable = hedgedActions.contains(action) && LoadBalancingAciService.isRepeatable(parameters);
+
+        final HedgedExchange exchange = new HedgedExchange(parameters, recorder, hedgeable);
+        exchange.start();
+
+        return AsyncAciServiceImpl.processResponse(exchange.response, processor, processorExecutor, Deadline.of(parameters), CancellationToken.of(parameters));
+    }
+
+    /**
+     * Executes an ACI action on the given server, without hedging.
+     * @param serverDetails The connection details of the ACI Server to execute the action on
+     * @param parameters    The parameters to use with the ACI command
+     * @param processor     The <code>Processor</code> to use for converting the response stream into an object
+     * @return A <code>CompletableFuture</code> that will be completed with the ACI response encoded as an object of type
+     * <code>T</code>
+     */
+    @Override
+    public <T> CompletableFuture<T> executeActionAsync(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeActionAsync() called...");
+
+        Validate.notNull(serverDetails, "ACI Server connection details must be set before calling this method.");
+        validate(parameters, processor);
+
+        return AsyncAciServiceImpl.processResponse(asyncAciHttpClient.executeActionAsync(serverDetails, parameters), processor, processorExecutor, Deadline.of(parameters), CancellationToken.of(parameters));
+    }
+
+    private void validate(final Set<? extends ActionParameter<?>> parameters, final Processor<?> processor) {
+        Validate.notEmpty(parameters, "The parameter set must not be null or empty.");
+        Validate.isTrue(parameters.contains(TEST_ACTION_PARAMETER), "The parameter set must contain an action=xxx parameter.");
+        Validate.notNull(processor, "The processor must not be null.");
+    }
+
+    private static <T> T join(final CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException ce) {
+            throw AsyncAciServiceImpl.toAciServiceException(ce);
+        }
+    }
+
+    /**
+     * Returns the current hedge delay for an action.
+     * @param action The name of the action
+     * @return The delay in milliseconds, or <code>-1</code> if not enough latencies have been recorded for the action
+     */
+    public long getHedgeDelay(final String action) {
+        final LatencyRecorder recorder = latencies.get(action.toLowerCase(Locale.ENGLISH));
+        final long delay = getHedgeDelayNanos(recorder);
+        return (delay < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+    }
+
+    private long getHedgeDelayNanos(final LatencyRecorder recorder) {
+        return ((recorder == null) || (recorder.getCount() < minSamples)) ? -1 : recorder.percentile(hedgePercentile);
+    }
+
+    /**
+     * Shuts down the scheduler if it was created by this service.
+     */
+    @Override
+    public void close() {
+        if (ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Getter for property serverPool.
+     * @return Value of property serverPool.
+     */
+    public AciServerPool getServerPool() {
+        return serverPool;
+    }
+
+    /**
+     * Getter for property processorExecutor.
+     * @return Value of property processorExecutor.
+     */
+    public Executor getProcessorExecutor() {
+        return processorExecutor;
+    }
+
+    /**
+     * Setter for property processorExecutor. This is the <code>Executor</code> that response processors are run on.
+     * @param processorExecutor New value of property processorExecutor.
+     */
+    public void setProcessorExecutor(final Executor processorExecutor) {
+        Validate.notNull(processorExecutor, "The processor Executor must not be null.");
+        this.processorExecutor = processorExecutor;
+    }
+
+    /**
+     * Getter for property hedgedActions.
+     * @return Value of property hedgedActions.
+     */
+    public Set<String> getHedgedActions() {
+        return hedgedActions;
+    }
+
+    /**
+     * Sets the names of the actions that are safe to send twice, and so can be hedged. Names are case insensitive. The
+     * default is {@link #DEFAULT_HEDGED_ACTIONS}; an empty set disables hedging.
+     * @param hedgedActions New value of property hedgedActions.
+     */
+    public void setHedgedActions(final Collection<String> hedgedActions) {
+        final Set<String> actions = new TreeSet<>();
+        for (final String action : hedgedActions) {
+            actions.add(action.toLowerCase(Locale.ENGLISH));
+        }
+        this.hedgedActions = Collections.unmodifiableSet(actions);
+    }
+
+    /**
+     * Getter for property hedgePercentile.
+     * @return Value of property hedgePercentile.
+     */
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * Sets the percentile of an action's recent latency after which a hedge request is sent. The default is
+     * <code>95</code>.
+     * @param hedgePercentile New value of property hedgePercentile.
+     */
+    public void setHedgePercentile(final double hedgePercentile) {
+        Validate.inclusiveBetween(0.0, 100.0, hedgePercentile, "hedgePercentile must be between 0 and 100.");
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * Getter for property minSamples.
+     * @return Value of property minSamples.
+     */
+    public int getMinSamples() {
+        return minSamples;
+    }
+
+    /**
+     * Sets the number of latencies that must be recorded for an action before it's hedged after a delay. The default is
+     * <code>20</code>.
+     * @param minSamples New value of property minSamples.
+     */
+    public void setMinSamples(final int minSamples) {
+        Validate.isTrue(minSamples > 0, "minSamples must be greater than zero.");
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * A single attempt at sending the action to one server.
+     */
+    private static final class Attempt {
+
+        private final AciServerPool.Server server;
+
+        private final long start;
+
+        private CompletableFuture<AciResponseInputStream> future;
+
+        private Attempt(final AciServerPool.Server server, final long start) {
+            this.server = server;
+            this.start = start;
+        }
+    }
+
+    /**
+     * Tracks the attempts made for one action and completes <code>response</code> with the first successful one.
+     */
+    private final class HedgedExchange {
+
+        private final CompletableFuture<AciResponseInputStream> response = new CompletableFuture<>();
+
+        private final Set<? extends ActionParameter<?>> parameters;
+
+        private final LatencyRecorder recorder;
+
+        private final boolean hedgeable;
+
+        private final List<Attempt> attempts = new ArrayList<>(2);
+
+        private int outstanding;
+
+        private boolean hedged;
+
+        private boolean done;
+
+        private ScheduledFuture<?> hedgeTimer;
+
+        private HedgedExchange(final Set<? extends ActionParameter<?>> parameters, final LatencyRecorder recorder, final boolean hedgeable) {
+            this.parameters = parameters;
+            this.recorder = recorder;
+            this.hedgeable = hedgeable && (serverPool.getServers().size() > 1);
+        }
+
+        private void start() {
+            // If the caller gives up, abort everything that's still running...
+            response.whenComplete((value, throwable) -> {
+                if (response.isCancelled()) {
+                    cancelAll(null);
+                }
+            });
+
+            send();
+
+            final long delay = hedgeable ? getHedgeDelayNanos(recorder) : -1;
+            if (delay >= 0) {
+                synchronized (this) {
+                    if (!done && !hedged) {
+                        hedgeTimer = scheduler.schedule(this::hedge, delay, TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (done || hedged) {
+                    return;
+                }
+                hedged = true;
+            }
+
+            LOGGER.debug("No response within the hedge delay, sending a hedge request...");
+            send();
+        }
+
+        private void send() {
+            final Attempt attempt;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+
+                final List<AciServerPool.Server> tried = new ArrayList<>(attempts.size());
+                for (final Attempt previous : attempts) {
+                    tried.add(previous.server);
+                }
+
+                final AciServerPool.Server server = serverPool.choose(tried);
+                if (server == null) {
+                    return;
+                }
+
+                attempt = new Attempt(server, server.onStart());
+                attempts.add(attempt);
+                outstanding++;
+            }
+
+            CompletableFuture<AciResponseInputStream> future;
+            try {
+                future = asyncAciHttpClient.executeActionAsync(attempt.server.getServerDetails(), parameters);
+            } catch (final RuntimeException re) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(re);
+            }
+
+            final boolean abandoned;
+            synchronized (this) {
+                attempt.future = future;
+                abandoned = done;
+            }
+            if (abandoned) {
+                // Another attempt won while this one was being sent...
+                future.cancel(true);
+            }
+            future.whenComplete((aciResponse, throwable) -> onComplete(attempt, aciResponse, throwable));
+        }
+
+        private void onComplete(final Attempt attempt, final AciResponseInputStream aciResponse, final Throwable throwable) {
+            boolean won = false;
+            long latency = 0;
+            boolean sendHedge = false;
+            boolean failed = false;
+
+            synchronized (this) {
+                outstanding--;
+
+                if (throwable == null) {
+                    latency = attempt.server.onSuccess(attempt.start);
+                    if (!done) {
+                        done = true;
+                        won = true;
+                    }
+                } else if (attempt.future.isCancelled()) {
+                    attempt.server.onCancel();
+                } else {
+                    attempt.server.onFailure(attempt.start);
+                    if (!done) {
+                        if (hedgeable && !hedged) {
+                            hedged = true;
+                            sendHedge = true;
+                        } else if (outstanding == 0) {
+                            done = true;
+                            failed = true;
+                        }
+                    }
+                }
+            }
+
+            if (won) {
+                recorder.record(latency);
+                cancelAll(attempt);
+                if (!response.complete(aciResponse)) {
+                    IOUtils.getInstance().closeQuietly(aciResponse);
+                }
+            } else if (throwable == null) {
+                // Lost the race...
+                IOUtils.getInstance().closeQuietly(aciResponse);
+            } else if (sendHedge) {
+                LOGGER.debug("First attempt failed, sending a hedge request...");
+                send();
+                synchronized (this) {
+                    if (!done && (outstanding == 0)) {
+                        done = true;
+                        failed = true;
+                    }
+                }
+            }
+
+            if (failed) {
+                response.completeExceptionally(throwable);
+            }
+        }
+
+        private void cancelAll(final Attempt winner) {
+            final List<CompletableFuture<AciResponseInputStream>> losers = new ArrayList<>(attempts.size());
+            synchronized (this) {
+                done = true;
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel(false);
+                }
+                for (final Attempt attempt : attempts) {
+                    if ((attempt != winner) && (attempt.future != null)) {
+                        losers.add(attempt.future);
+                    }
+                }
+            }
+
+            for (final CompletableFuture<AciResponseInputStream> loser : losers) {
+                loser.cancel(true);
+            }
+        }
+    }
+
+}
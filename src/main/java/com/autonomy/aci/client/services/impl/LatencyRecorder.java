@@ -0,0 +1,89 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the most recent latency samples in a fixed size ring buffer so that percentiles of the recent latency can be
+ * estimated. Once there are enough samples, percentiles are recalculated at most once every
+ * {@value #RECALCULATE_INTERVAL} samples, so reading them is cheap enough to do on every request.
+ */
+class LatencyRecorder {
+
+    private static final int RECALCULATE_INTERVAL = 64;
+
+    private final AtomicLongArray samples;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private volatile long[] sorted = new long[0];
+
+    private volatile long sortedAt;
+
+    /**
+     * @param capacity The number of samples to keep, rounded up to a power of two
+     */
+    LatencyRecorder(final int capacity) {
+        samples = new AtomicLongArray(Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1);
+    }
+
+    /**
+     * Records a sample.
+     * @param nanos The latency in nanoseconds
+     */
+    void record(final long nanos) {
+        final long index = count.getAndIncrement();
+        samples.set((int) (index & (samples.length() - 1)), nanos);
+    }
+
+    /**
+     * @return The number of samples recorded so far, including those that have since been overwritten
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Estimates a percentile of the recent samples.
+     * @param percentile The percentile, between <code>0</code> and <code>100</code>
+     * @return The latency in nanoseconds, or <code>-1</code> if nothing has been recorded
+     */
+    long percentile(final double percentile) {
+        final long current = count.get();
+        long[] values = sorted;
+        final long sortedCount = sortedAt;
+        if (current - sortedCount >= Math.min(RECALCULATE_INTERVAL, Math.max(1L, sortedCount / 4))) {
+            final int size = (int) Math.min(current, samples.length());
+            values = new long[size];
+            for (int ii = 0; ii < size; ii++) {
+                values[ii] = samples.get(ii);
+            }
+            Arrays.sort(values);
+            sorted = values;
+            sortedAt = current;
+        }
+
+        if (values.length == 0) {
+            return -1;
+        }
+
+        final int rank = (int) Math.ceil((percentile / 100.0) * values.length);
+        return values[Math.min(Math.max(rank - 1, 0), values.length - 1)];
+    }
+
+}
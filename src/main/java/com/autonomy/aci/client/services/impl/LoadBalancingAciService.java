@@ -0,0 +1,223 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.CircuitBreakerOpenException;
+import com.autonomy.aci.client.services.ConcurrencyLimitExceededException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.services.RateLimitExceededException;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciHttpClient;
+import com.autonomy.aci.client.transport.AciHttpException;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An <code>AciServiceImpl</code> that spreads actions over a pool of identical ACI Servers rather than sending them all
+ * to a single one.
+ * <p>
+ * Each call to {@link #executeAction(Set, Processor)} is routed to a server chosen by the {@link AciServerPool}, which
+ * prefers servers with fewer in-flight requests and lower recent latency, and temporarily ejects servers that keep
+ * failing. If the chosen server can't be reached or doesn't return a successful HTTP response, the action is sent to
+ * another server, up to <code>maxFailovers</code> times. Failover only happens when every parameter
+ * {@link ActionParameter#isRepeatable() is repeatable}; errors returned by the ACI Server itself, and errors processing
+ * the response, are never retried.
+ * <p>
+ * An action that a decorating <code>AciHttpClient</code> rejects without sending it, because the server's circuit breaker
+ * is open or its concurrency or rate limit has been reached, is sent to another server without counting against the
+ * one that rejected it.
+ * <p>
+ * Calls to {@link #executeAction(AciServerDetails, Set, Processor)} still go to the given server, and the
+ * <code>aciServerDetails</code> property inherited from <code>AciServiceImpl</code> is ignored. If a
+ * <code>retryPolicy</code> is set, its retries are made against the chosen server before failing over to another one.
+ */
+public class LoadBalancingAciService extends AciServiceImpl {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadBalancingAciService.class);
+
+    /**
+     * Holds value of property serverPool.
+     */
+    private final AciServerPool serverPool;
+
+    /**
+     * Holds value of property maxFailovers.
+     */
+    private int maxFailovers = 2;
+
+    /**
+     * Creates a new instance of LoadBalancingAciService.
+     * @param aciHttpClient The configured <code>AciHttpClient</code> to use for communication
+     * @param serverDetails The connection details of the ACI Servers to spread the actions over
+     */
+    public LoadBalancingAciService(final AciHttpClient aciHttpClient, final Collection<AciServerDetails> serverDetails) {
+        this(aciHttpClient, new AciServerPool(serverDetails));
+    }
+
+    /**
+     * Creates a new instance of LoadBalancingAciService.
+     * @param aciHttpClient The configured <code>AciHttpClient</code> to use for communication
+     * @param serverPool    The pool of ACI Servers to spread the actions over
+     */
+    public LoadBalancingAciService(final AciHttpClient aciHttpClient, final AciServerPool serverPool) {
+        super(aciHttpClient);
+
+        Validate.notNull(serverPool, "The server pool must not be null.");
+        this.serverPool = serverPool;
+    }
+
+    /**
+     * Executes an ACI action on one of the servers in the pool, failing over to the others if necessary, and processes the
+     * response with the supplied <code>Processor</code>.
+     * @param parameters The parameters to use with the ACI command. This <strong>should</strong> include an {@code
+     *                   Action=<command>} parameter.
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException      If an error occurred during the communication with the last ACI Server tried,
+     *                                  processing the response or if the response contained an error
+     * @throws IllegalArgumentException If the <code>parameters</code> is <code>null</code>, empty or missing an action
+     *                                  parameter. Will also be thrown in the <code>processor</code> is null.
+     */
+    @Override
+    public <T> T executeAction(final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        final List<AciServerPool.Server> attempted = new ArrayList<>(maxFailovers + 1);
+
+        while (true) {
+            final AciServerPool.Server server = serverPool.choose(attempted);
+            attempted.add(server);
+
+            LOGGER.debug("Sending the ACI action to {}...", server);
+
+            final long start = server.onStart();
+            try {
+                final T result = executeAction(server.getServerDetails(), parameters, processor);
+                server.onSuccess(start);
+                return result;
+            } catch (final AciServiceException ase) {
+                if (!isTransportFailure(ase)) {
+                    if ((ase instanceof DeadlineExceededException) || (ase instanceof RequestCancelledException)) {
+                        // Given up on before the server could answer...
+                        server.onCancel();
+                    } else {
+                        // The server responded, so it's healthy even if the action wasn't...
+                        server.onSuccess(start);
+                    }
+                    throw ase;
+                }
+
+                // A rejected action was never sent, so it says nothing about the server and can be sent elsewhere...
+                final boolean rejected = isRejected(ase);
+                if (rejected) {
+                    server.onCancel();
+                } else {
+                    server.onFailure(start);
+                }
+
+                // There's no time left to try another server...
+                if ((ase instanceof DeadlineExceededException) || (attempted.size() > maxFailovers) || (attempted.size() >= serverPool.getServers().size()) || !(rejected || isRepeatable(parameters))) {
+                    throw ase;
+                }
+
+                LOGGER.debug("Failed to execute the ACI action on {}, failing over...", server, ase);
+            } catch (final RuntimeException re) {
+                server.onCancel();
+                throw re;
+            }
+        }
+    }
+
+    /**
+     * Determines whether an exception thrown by {@link AciServiceImpl#executeAction(AciServerDetails, Set, Processor)}
+     * means the server couldn't be reached or didn't send a successful response, including a request that timed out at
+     * its deadline, or that the action was {@link #isRejected(AciServiceException) rejected} without being sent, so
+     * another server should be tried.
+     * @param exception The exception to check
+     * @return <code>true</code> if the action should be sent to another server
+     */
+    static boolean isTransportFailure(final AciServiceException exception) {
+        return isRejected(exception)
+                || (((exception.getClass() == AciServiceException.class) || (exception instanceof DeadlineExceededException))
+                && ((exception.getCause() instanceof AciHttpException) || (exception.getCause() instanceof IOException)));
+    }
+
+    /**
+     * Determines whether an exception means a decorating <code>AciHttpClient</code> failed the action fast, without
+     * sending it to the server.
+     * @param exception The exception to check
+     * @return <code>true</code> if the server's circuit breaker, concurrency limit or rate limit rejected the action
+     */
+    static boolean isRejected(final AciServiceException exception) {
+        return (exception instanceof CircuitBreakerOpenException)
+                || (exception instanceof ConcurrencyLimitExceededException)
+                || (exception instanceof RateLimitExceededException);
+    }
+
+    /**
+     * Determines whether the parameters can safely be sent again.
+     * @param parameters The parameters to check
+     * @return <code>true</code> if every parameter is repeatable
+     */
+    static boolean isRepeatable(final Set<? extends ActionParameter<?>> parameters) {
+        for (final ActionParameter<?> parameter : parameters) {
+            if (!parameter.isRepeatable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Getter for property serverPool.
+     * @return Value of property serverPool.
+     */
+    public AciServerPool getServerPool() {
+        return serverPool;
+    }
+
+    /**
+     * Getter for property maxFailovers.
+     * @return Value of property maxFailovers.
+     */
+    public int getMaxFailovers() {
+        return maxFailovers;
+    }
+
+    /**
+     * Sets the maximum number of other servers an action is sent to if the first server fails. The default is
+     * <code>2</code>; <code>0</code> disables failover.
+     * @param maxFailovers New value of property maxFailovers.
+     */
+    public void setMaxFailovers(final int maxFailovers) {
+        Validate.isTrue(maxFailovers >= 0, "maxFailovers must not be negative.");
+        this.maxFailovers = maxFailovers;
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Identifies an ACI request by its server and canonicalised parameters, so that identical requests can share a
+ * response. Parameter names and the action are compared case insensitively and all other values are compared exactly.
+ */
+final class RequestKey {
+
+    private static final String ACTION = AciConstants.PARAM_ACTION.toLowerCase(Locale.ENGLISH);
+
+    private final AciServerDetails serverDetails;
+
+    private final Map<String, String> parameters;
+
+    private final int hashCode;
+
+    private RequestKey(final AciServerDetails serverDetails, final Map<String, String> parameters) {
+        this.serverDetails = serverDetails;
+        this.parameters = parameters;
+        this.hashCode = (31 * ((serverDetails == null) ? 0 : serverDetails.hashCode())) + parameters.hashCode();
+    }
+
+    /**
+     * Creates the key for a request.
+     * @param serverDetails The ACI Server the request is for, or <code>null</code> for the service's default server
+     * @param parameters    The parameters of the request
+     * @param actions       The actions, in lower case, that can share a response
+     * @return The key, or <code>null</code> if the request's action isn't one of <code>actions</code> or it has a
+     * parameter that isn't an <code>AciParameter</code>
+     */
+    static RequestKey create(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Set<String> actions) {
+        final Map<String, String> values = new TreeMap<>();
+        for (final ActionParameter<?> parameter : parameters) {
+            if (!(parameter instanceof AciParameter)) {
+                return null;
+            }
+
+            final String name = parameter.getName().toLowerCase(Locale.ENGLISH);
+            final String value = ((AciParameter) parameter).getValue();
+            values.put(name, ACTION.equals(name) && (value != null) ? value.toLowerCase(Locale.ENGLISH) : value);
+        }
+
+        if (!actions.contains(values.get(ACTION))) {
+            return null;
+        }
+
+        // Copy the server details, as they're mutable...
+        return new RequestKey((serverDetails == null) ? null : new AciServerDetails(serverDetails), values);
+    }
+
+    /**
+     * @return The action, in lower case
+     */
+    String getAction() {
+        return parameters.get(ACTION);
+    }
+
+    /**
+     * Returns a string that identifies the request, and that stays the same across restarts so it can be stored.
+     * @return The canonical form of the key, or <code>null</code> if the server details use an <code>EncryptionCodec</code>,
+     * which can't be represented
+     */
+    String toCanonicalString() {
+        final StringBuilder builder = new StringBuilder();
+        if (serverDetails != null) {
+            if (serverDetails.getEncryptionCodec() != null) {
+                return null;
+            }
+
+            append(builder, String.valueOf(serverDetails.getProtocol()));
+            append(builder, serverDetails.getHost());
+            append(builder, String.valueOf(serverDetails.getPort()));
+            append(builder, serverDetails.getPath());
+            append(builder, serverDetails.getCharsetName());
+        }
+
+        builder.append('|');
+        for (final Map.Entry<String, String> parameter : parameters.entrySet()) {
+            append(builder, parameter.getKey());
+            append(builder, parameter.getValue());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Length prefixes each value, so that no choice of values can make two different keys look the same.
+     */
+    private static void append(final StringBuilder builder, final String value) {
+        if (value == null) {
+            builder.append("-1:");
+        } else {
+            builder.append(value.length()).append(':').append(value);
+        }
+    }
+
+    /**
+     * @return A rough estimate of the memory used by the parameters, in bytes
+     */
+    long getEstimatedSize() {
+        long size = 0;
+        for (final Map.Entry<String, String> parameter : parameters.entrySet()) {
+            size += 2L * (parameter.getKey().length() + ((parameter.getValue() == null) ? 0 : parameter.getValue().length()));
+        }
+        return size;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        } else if (!(obj instanceof RequestKey)) {
+            return false;
+        }
+
+        final RequestKey that = (RequestKey) obj;
+        return (hashCode == that.hashCode)
+                && ((serverDetails == null) ? (that.serverDetails == null) : serverDetails.equals(that.serverDetails))
+                && parameters.equals(that.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+}
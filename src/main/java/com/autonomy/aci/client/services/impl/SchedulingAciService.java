@@ -0,0 +1,596 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * An {@link AciService} that queues actions in front of the decorated service and dispatches them, at most
+ * <code>maxConcurrentRequests</code> at a time, by priority and then by each tenant's weighted share, so that batch jobs
+ * can't push interactive requests to the back of the connection pool's queue.
+ * <p>
+ * Queued actions of a higher {@link RequestPriority} are always dispatched first, except that an action of a lower
+ * priority that has waited for <code>starvationThreshold</code> milliseconds is dispatched next, so background work
+ * still progresses under sustained interactive load. Within a priority, each tenant gets a share of the dispatches in
+ * proportion to its weight (start-time fair queuing), and a tenant's own actions are dispatched in the order they
+ * arrived.
+ * <p>
+ * The priority and tenant of an action are either passed explicitly or chosen by the {@link SchedulingClassifier}; with
+ * neither, actions are {@link RequestPriority#NORMAL} and belong to {@link #DEFAULT_TENANT}. As with
+ * {@link VirtualThreadAciService}, <code>maxConcurrentRequests</code> should be no larger than the number of connections
+ * the delegate can open, otherwise actions queue in the connection pool where they can't be reordered.
+ * <p>
+ * An action with a {@link Deadline} waits in the queue no longer than its deadline, and then fails with a
+ * {@link DeadlineExceededException} without being sent. One whose {@link CancellationToken} is cancelled while it's
+ * queued leaves the queue and fails with a {@link RequestCancelledException}.
+ */
+public class SchedulingAciService implements AciService {
+
+    /**
+     * The tenant of actions that don't have one.
+     */
+    public static final String DEFAULT_TENANT = "default";
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchedulingAciService.class);
+
+    private static final RequestPriority[] PRIORITIES = RequestPriority.values();
+
+    /**
+     * Holds the decorated service.
+     */
+    private final AciService aciService;
+
+    /**
+     * Holds value of property maxConcurrentRequests.
+     */
+    private final int maxConcurrentRequests;
+
+    /**
+     * The source of time, in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<RequestPriority, PriorityClass> classes = new EnumMap<>(RequestPriority.class);
+
+    /**
+     * Holds the weights of the tenants that don't have the default weight of <code>1</code>.
+     */
+    private final Map<String, Integer> tenantWeights = new ConcurrentHashMap<>();
+
+    /**
+     * The number of queued actions of each tenant.
+     */
+    private final Map<String, Integer> tenantDepths = new HashMap<>();
+
+    private int active;
+
+    private long sequence;
+
+    private long promotedCount;
+
+    /**
+     * Holds value of property starvationThreshold.
+     */
+    private volatile long starvationThreshold = 5000L;
+
+    /**
+     * Holds value of property classifier.
+     */
+    private volatile SchedulingClassifier classifier;
+
+    /**
+     * Creates a new instance of SchedulingAciService.
+     * @param aciService            The <code>AciService</code> that actually executes the actions, usually an
+     *                              <code>AciServiceImpl</code>
+     * @param maxConcurrentRequests The maximum number of actions that can be in flight at once
+     */
+    public SchedulingAciService(final AciService aciService, final int maxConcurrentRequests) {
+        this(aciService, maxConcurrentRequests, System::nanoTime);
+    }
+
+    SchedulingAciService(final AciService aciService, final int maxConcurrentRequests, final LongSupplier nanoClock) {
+        Validate.notNull(aciService, "The AciService must not be null.");
+        Validate.isTrue(maxConcurrentRequests > 0, "maxConcurrentRequests must be greater than zero.");
+
+        this.aciService = aciService;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.nanoClock = nanoClock;
+
+        for (final RequestPriority priority : PRIORITIES) {
+            classes.put(priority, new PriorityClass());
+        }
+    }
+
+    /**
+     * Executes an ACI action, with the priority and tenant chosen by the classifier, once it's been dispatched.
+     * @param parameters The parameters to use with the ACI command
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException If the caller was interrupted while queued, or the delegate failed
+     * @throws DeadlineExceededException If the action's deadline passed while it was queued
+     * @throws RequestCancelledException If the action was cancelled while it was queued
+     */
+    @Override
+    public <T> T executeAction(final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        final SchedulingClassifier currentClassifier = classifier;
+        return (currentClassifier == null)
+                ? executeAction(RequestPriority.NORMAL, DEFAULT_TENANT, parameters, processor)
+                : executeAction(currentClassifier.getPriority(null, parameters), currentClassifier.getTenant(null, parameters), parameters, processor);
+    }
+
+    /**
+     * Executes an ACI action, with the priority and tenant chosen by the classifier, once it's been dispatched.
+     * @param serverDetails The connection details of the ACI Server to execute the action on
+     * @param parameters    The parameters to use with the ACI command
+     * @param processor     The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException If the caller was interrupted while queued, or the delegate failed
+     * @throws DeadlineExceededException If the action's deadline passed while it was queued
+     * @throws RequestCancelledException If the action was cancelled while it was queued
+     */
+    @Override
+    public <T> T executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        final SchedulingClassifier currentClassifier = classifier;
+        return (currentClassifier == null)
+                ? executeAction(serverDetails, RequestPriority.NORMAL, DEFAULT_TENANT, parameters, processor)
+                : executeAction(serverDetails, currentClassifier.getPriority(serverDetails, parameters), currentClassifier.getTenant(serverDetails, parameters), parameters, processor);
+    }
+
+    /**
+     * Executes an ACI action once it's been dispatched.
+     * @param priority   The priority of the action, <code>null</code> for {@link RequestPriority#NORMAL}
+     * @param tenant     The tenant of the action, <code>null</code> for {@link #DEFAULT_TENANT}
+     * @param parameters The parameters to use with the ACI command
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException If the caller was interrupted while queued, or the delegate failed
+     * @throws DeadlineExceededException If the action's deadline passed while it was queued
+     * @throws RequestCancelledException If the action was cancelled while it was queued
+     */
+    public <T> T executeAction(final RequestPriority priority, final String tenant, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        awaitDispatch(priority, tenant, parameters);
+        try {
+            return aciService.executeAction(parameters, processor);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Executes an ACI action once it's been dispatched.
+     * @param serverDetails The connection details of the ACI Server to execute the action on
+     * @param priority      The priority of the action, <code>null</code> for {@link RequestPriority#NORMAL}
+     * @param tenant        The tenant of the action, <code>null</code> for {@link #DEFAULT_TENANT}
+     * @param parameters    The parameters to use with the ACI command
+     * @param processor     The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException If the caller was interrupted while queued, or the delegate failed
+     * @throws DeadlineExceededException If the action's deadline passed while it was queued
+     * @throws RequestCancelledException If the action was cancelled while it was queued
+     */
+    public <T> T executeAction(final AciServerDetails serverDetails, final RequestPriority priority, final String tenant, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        awaitDispatch(priority, tenant, parameters);
+        try {
+            return aciService.executeAction(serverDetails, parameters, processor);
+        } finally {
+            release();
+        }
+    }
+
+    private void awaitDispatch(final RequestPriority priority, final String tenant, final Set<? extends ActionParameter<?>> parameters) {
+        final CancellationToken cancellation = CancellationToken.of(parameters);
+        if (cancellation == null) {
+            awaitDispatch(priority, tenant, Deadline.of(parameters));
+            return;
+        }
+
+        // Cancelling interrupts the wait, which takes the action out of the queue...
+        cancellation.throwIfCancelled();
+        final CancellationInterrupt interrupt = new CancellationInterrupt(cancellation);
+        try {
+            awaitDispatch(priority, tenant, Deadline.of(parameters));
+        } catch (final AciServiceException ase) {
+            if (cancellation.isCancelled() && !(ase instanceof RequestCancelledException)) {
+                LOGGER.debug("Giving up on a queued {} action for {} as it was cancelled", priority, tenant);
+                throw new RequestCancelledException(ase.getCause());
+            }
+            throw ase;
+        } finally {
+            interrupt.close();
+        }
+    }
+
+    private void awaitDispatch(final RequestPriority priority, final String tenant, final Deadline deadline) {
+        if ((deadline != null) && deadline.isExpired()) {
+            throw new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS));
+        }
+
+        final Ticket ticket;
+
+        lock.lock();
+        try {
+            if ((active < maxConcurrentRequests) && (getQueueDepthLocked() == 0)) {
+                active++;
+                return;
+            }
+
+            ticket = enqueue((priority == null) ? RequestPriority.NORMAL : priority, (tenant == null) ? DEFAULT_TENANT : tenant);
+            try {
+                while (!ticket.dispatched) {
+                    if (deadline == null) {
+                        ticket.condition.await();
+                        continue;
+                    }
+
+                    final long remaining = deadline.getTimeRemaining(TimeUnit.NANOSECONDS);
+                    if (remaining == 0) {
+                        remove(ticket);
+                        LOGGER.debug("Giving up on a queued {} action for {} as its deadline has passed", ticket.priority, ticket.tenant);
+                        throw new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS));
+                    }
+                    ticket.condition.awaitNanos(remaining);
+                }
+            } catch (final InterruptedException ie) {
+                if (ticket.dispatched) {
+                    releaseLocked();
+                } else {
+                    remove(ticket);
+                }
+                Thread.currentThread().interrupt();
+                throw new AciServiceException("Interrupted while waiting to send the ACI request", ie);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        LOGGER.debug("Dispatched a {} action for {} after {}ms", ticket.priority, ticket.tenant, TimeUnit.NANOSECONDS.toMillis(nanoClock.getAsLong() - ticket.enqueuedAt));
+    }
+
+    private Ticket enqueue(final RequestPriority priority, final String tenant) {
+        final PriorityClass priorityClass = classes.get(priority);
+
+        // A tenant's next action starts where its last one finished, or now if it's been idle...
+        final double start = Math.max(priorityClass.virtualTime, priorityClass.finishTags.getOrDefault(tenant, 0.0));
+        final double finish = start + (1.0 / getTenantWeight(tenant));
+        priorityClass.finishTags.put(tenant, finish);
+
+        final Ticket ticket = new Ticket(priority, tenant, start, sequence++, nanoClock.getAsLong(), lock.newCondition());
+        priorityClass.queue.add(ticket);
+        priorityClass.arrivals.add(ticket);
+        priorityClass.tenantDepths.merge(tenant, 1, Integer::sum);
+        tenantDepths.merge(tenant, 1, Integer::sum);
+        return ticket;
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            releaseLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseLocked() {
+        active--;
+        while ((active < maxConcurrentRequests) && (getQueueDepthLocked() > 0)) {
+            final Ticket ticket = next();
+            remove(ticket);
+            classes.get(ticket.priority).virtualTime = ticket.startTag;
+            ticket.dispatched = true;
+            active++;
+            ticket.condition.signal();
+        }
+    }
+
+    private Ticket next() {
+        // The longest waiting action of a lower priority that's starving goes first...
+        final long now = nanoClock.getAsLong();
+        final long threshold = TimeUnit.MILLISECONDS.toNanos(starvationThreshold);
+        Ticket starving = null;
+        for (int ii = 1; ii < PRIORITIES.length; ii++) {
+            final NavigableSet<Ticket> arrivals = classes.get(PRIORITIES[ii]).arrivals;
+            final Ticket oldest = arrivals.isEmpty() ? null : arrivals.first();
+            if ((oldest != null) && ((now - oldest.enqueuedAt) >= threshold) && ((starving == null) || (oldest.enqueuedAt < starving.enqueuedAt))) {
+                starving = oldest;
+            }
+        }
+
+        if ((starving != null) && hasHigherPriorityWaiting(starving.priority)) {
+            promotedCount++;
+            LOGGER.debug("Dispatching a {} action for {} ahead of higher priority actions, as it has waited {}ms", starving.priority, starving.tenant, TimeUnit.NANOSECONDS.toMillis(now - starving.enqueuedAt));
+            return starving;
+        }
+
+        for (final RequestPriority priority : PRIORITIES) {
+            final NavigableSet<Ticket> queue = classes.get(priority).queue;
+            if (!queue.isEmpty()) {
+                return queue.first();
+            }
+        }
+        throw new IllegalStateException("There are no queued actions.");
+    }
+
+    private boolean hasHigherPriorityWaiting(final RequestPriority priority) {
+        for (int ii = 0; ii < priority.ordinal(); ii++) {
+            if (!classes.get(PRIORITIES[ii]).queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void remove(final Ticket ticket) {
+        final PriorityClass priorityClass = classes.get(ticket.priority);
+        priorityClass.queue.remove(ticket);
+        priorityClass.arrivals.remove(ticket);
+
+        // A tenant with nothing queued starts again from the virtual time, so its finish tag can go...
+        if (priorityClass.tenantDepths.merge(ticket.tenant, -1, Integer::sum) == 0) {
+            priorityClass.tenantDepths.remove(ticket.tenant);
+            priorityClass.finishTags.remove(ticket.tenant);
+        }
+        if (tenantDepths.merge(ticket.tenant, -1, Integer::sum) == 0) {
+            tenantDepths.remove(ticket.tenant);
+        }
+    }
+
+    private int getQueueDepthLocked() {
+        int depth = 0;
+        for (final PriorityClass priorityClass : classes.values()) {
+            depth += priorityClass.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Sets the weight of a tenant, which is its share of the dispatches relative to the other tenants with actions of
+     * the same priority queued. Tenants have a weight of <code>1</code> by default.
+     * @param tenant The tenant
+     * @param weight The weight
+     * @throws IllegalArgumentException If <code>weight</code> isn't positive
+     */
+    public void setTenantWeight(final String tenant, final int weight) {
+        Validate.notNull(tenant, "tenant must not be null");
+        Validate.isTrue(weight > 0, "weight must be greater than zero.");
+        tenantWeights.put(tenant, weight);
+    }
+
+    /**
+     * Sets the weights of several tenants, e.g. when configured by an IoC container.
+     * @param tenantWeights The weights, keyed on the tenants
+     */
+    public void setTenantWeights(final Map<String, Integer> tenantWeights) {
+        for (final Map.Entry<String, Integer> entry : tenantWeights.entrySet()) {
+            setTenantWeight(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @param tenant The tenant
+     * @return The weight of the tenant
+     */
+    public int getTenantWeight(final String tenant) {
+        return tenantWeights.getOrDefault(tenant, 1);
+    }
+
+    /**
+     * Getter for property aciService.
+     * @return Value of property aciService.
+     */
+    public AciService getAciService() {
+        return aciService;
+    }
+
+    /**
+     * Getter for property maxConcurrentRequests.
+     * @return Value of property maxConcurrentRequests.
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Getter for property starvationThreshold.
+     * @return Value of property starvationThreshold.
+     */
+    public long getStarvationThreshold() {
+        return starvationThreshold;
+    }
+
+    /**
+     * Sets how long, in milliseconds, an action of a lower priority can wait before it's dispatched ahead of those with
+     * a higher priority. The default is <code>5000</code>ms (5s).
+     * @param starvationThreshold New value of property starvationThreshold.
+     */
+    public void setStarvationThreshold(final long starvationThreshold) {
+        Validate.isTrue(starvationThreshold > 0, "starvationThreshold must be greater than zero.");
+        this.starvationThreshold = starvationThreshold;
+    }
+
+    /**
+     * Getter for property classifier.
+     * @return Value of property classifier.
+     */
+    public SchedulingClassifier getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * Sets the classifier that chooses the priority and tenant of actions sent through the <code>AciService</code>
+     * methods. The default is <code>null</code>, which makes them all {@link RequestPriority#NORMAL} actions of the
+     * {@link #DEFAULT_TENANT}.
+     * @param classifier New value of property classifier.
+     */
+    public void setClassifier(final SchedulingClassifier classifier) {
+        this.classifier = classifier;
+    }
+
+    /**
+     * @return The number of actions that are currently in flight
+     */
+    public int getActiveRequests() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of actions waiting to be dispatched
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return getQueueDepthLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param priority The priority
+     * @return The number of actions of the priority waiting to be dispatched
+     */
+    public int getQueueDepth(final RequestPriority priority) {
+        lock.lock();
+        try {
+            return classes.get(priority).queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of actions of each tenant waiting to be dispatched, for the tenants that have any
+     */
+    public Map<String, Integer> getTenantQueueDepths() {
+        lock.lock();
+        try {
+            return new HashMap<>(tenantDepths);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of actions that have been dispatched ahead of higher priority ones because they were starving
+     */
+    public long getPromotedCount() {
+        lock.lock();
+        try {
+            return promotedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The queued actions of one priority.
+     */
+    private static final class PriorityClass {
+
+        /**
+         * Ordered by start tag, so each tenant gets its weighted share. Sets rather than queues, so that an action that
+         * leaves early is removed in logarithmic time.
+         */
+        private final NavigableSet<Ticket> queue = new TreeSet<>(Comparator.comparingDouble((Ticket ticket) -> ticket.startTag).thenComparingLong(ticket -> ticket.sequence));
+
+        /**
+         * Ordered by arrival, to find the longest waiting action.
+         */
+        private final NavigableSet<Ticket> arrivals = new TreeSet<>(Comparator.comparingLong((Ticket ticket) -> ticket.sequence));
+
+        /**
+         * The finish tag of the last action queued by each tenant with actions queued.
+         */
+        private final Map<String, Double> finishTags = new HashMap<>();
+
+        /**
+         * The number of actions queued by each tenant with actions queued.
+         */
+        private final Map<String, Integer> tenantDepths = new HashMap<>();
+
+        /**
+         * The start tag of the last action dispatched.
+         */
+        private double virtualTime;
+    }
+
+    /**
+     * A queued action.
+     */
+    private static final class Ticket {
+
+        private final RequestPriority priority;
+
+        private final String tenant;
+
+        private final double startTag;
+
+        private final long sequence;
+
+        private final long enqueuedAt;
+
+        private final Condition condition;
+
+        private boolean dispatched;
+
+        private Ticket(final RequestPriority priority, final String tenant, final double startTag, final long sequence, final long enqueuedAt, final Condition condition) {
+            this.priority = priority;
+            this.tenant = tenant;
+            this.startTag = startTag;
+            this.sequence = sequence;
+            this.enqueuedAt = enqueuedAt;
+            this.condition = condition;
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+
+import java.util.Set;
+
+/**
+ * Chooses the priority and tenant of the actions sent through the {@link com.autonomy.aci.client.services.AciService}
+ * methods of a {@link SchedulingAciService}.
+ */
+@FunctionalInterface
+public interface SchedulingClassifier {
+
+    /**
+     * Chooses the priority of an action.
+     * @param serverDetails The ACI Server the action is being sent to, or <code>null</code> if it's going to the default
+     *                      server of the decorated service
+     * @param parameters    The parameters of the action
+     * @return The priority, or <code>null</code> for {@link RequestPriority#NORMAL}
+     */
+    RequestPriority getPriority(AciServerDetails serverDetails, Set<? extends ActionParameter<?>> parameters);
+
+    /**
+     * Chooses the tenant of an action, whose share of the capacity is set by its weight. Returns
+     * {@link SchedulingAciService#DEFAULT_TENANT} by default.
+     * @param serverDetails The ACI Server the action is being sent to, or <code>null</code> if it's going to the default
+     *                      server of the decorated service
+     * @param parameters    The parameters of the action
+     * @return The tenant, or <code>null</code> for the default tenant
+     */
+    default String getTenant(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) {
+        return SchedulingAciService.DEFAULT_TENANT;
+    }
+
+}
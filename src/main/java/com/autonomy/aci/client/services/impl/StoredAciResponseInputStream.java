@@ -0,0 +1,84 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * An <code>AciResponseInputStream</code> over a response that has been kept, in memory or on disk, along with the
+ * details of the original HTTP response.
+ */
+final class StoredAciResponseInputStream extends AciResponseInputStream {
+
+    private final int statusCode;
+
+    private final String contentType;
+
+    private final String contentEncoding;
+
+    private final long contentLength;
+
+    private final Map<String, String> headers;
+
+    StoredAciResponseInputStream(
+            final InputStream body,
+            final int statusCode,
+            final String contentType,
+            final String contentEncoding,
+            final long contentLength,
+            final Map<String, String> headers
+    ) {
+        super(body);
+        this.statusCode = statusCode;
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+        this.contentLength = contentLength;
+        this.headers = headers;
+    }
+
+    @Override
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String getHeader(final String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.AsyncAciService;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An <code>AciService</code> that runs each action in its own thread, by default a JDK 21 virtual thread, and limits how
+ * many actions can be in flight at once.
+ * <p>
+ * The blocking request path of {@link AciServiceImpl} and
+ * {@link com.autonomy.aci.client.transport.impl.AciHttpClientImpl} doesn't hold any monitors while waiting on the
+ * network, HttpClient 5's connection pool parks waiters on a <code>ReentrantLock</code>, so virtual threads calling
+ * through it unmount from their carrier rather than pinning it. What virtual threads don't do is limit themselves: ten
+ * thousand callers would all queue on the connection pool and most of them would hit the socket timeout before they got
+ * a connection. This class therefore puts a fair <code>Semaphore</code> in front of the delegate, sized by
+ * <code>maxConcurrentRequests</code>, so that callers wait cheaply for a permit instead.
+ * <p>
+ * <code>maxConcurrentRequests</code> should be no larger than the number of connections the delegate's
+ * <code>HttpClient</code> can actually open to the servers being used, i.e. <code>maxConnectionsPerRoute</code> on
+ * {@link com.autonomy.aci.client.transport.impl.HttpClient5Factory} when talking to a single ACI Server, or
+ * <code>maxTotalConnections</code> when spreading load over several.
+ * <p>
+ * An action with a {@link Deadline} waits for a permit no longer than its deadline, and then fails with a
+ * {@link DeadlineExceededException} without being sent. One whose {@link CancellationToken} is cancelled while it waits
+ * stops waiting and fails with a {@link RequestCancelledException}.
+ * <p>
+ * Synchronous calls are gated and run on the calling thread, which is the right thing when the caller is already a
+ * virtual thread. Asynchronous calls are submitted to the executor. If no executor is supplied, one is created with
+ * <code>Executors.newVirtualThreadPerTaskExecutor()</code> when running on JDK 21 or later, falling back to a cached
+ * thread pool otherwise; that executor is shut down by {@link #close()}.
+ */
+public class VirtualThreadAciService implements AciService, AsyncAciService, Closeable {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualThreadAciService.class);
+
+    /**
+     * The default value of property maxConcurrentRequests, matching the default <code>maxConnectionsPerRoute</code> of
+     * <code>HttpClient5Factory</code>, so that actions sent to a single ACI Server wait for a permit rather than for a
+     * pooled connection.
+     */
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    /**
+     * Holds value of property aciService.
+     */
+    private final AciService aciService;
+
+    /**
+     * Holds value of property executorService.
+     */
+    private final ExecutorService executorService;
+
+    /**
+     * Whether we created the executor and so should shut it down.
+     */
+    private final boolean ownsExecutorService;
+
+    /**
+     * Holds value of property maxConcurrentRequests.
+     */
+    private final int maxConcurrentRequests;
+
+    /**
+     * Gates the number of requests that can be in flight at once.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Creates a new instance of VirtualThreadAciService that allows {@value #DEFAULT_MAX_CONCURRENT_REQUESTS} concurrent
+     * requests, which suits a delegate using an <code>HttpClient</code> from <code>HttpClient5Factory</code>'s defaults.
+     * If the connection pool has been made larger, use {@link #VirtualThreadAciService(AciService, int)} instead.
+     * @param aciService The <code>AciService</code> that actually executes the actions, usually an <code>AciServiceImpl</code>
+     */
+    public VirtualThreadAciService(final AciService aciService) {
+        this(aciService, DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * Creates a new instance of VirtualThreadAciService.
+     * @param aciService            The <code>AciService</code> that actually executes the actions, usually an
+     *                              <code>AciServiceImpl</code>
+     * @param maxConcurrentRequests The maximum number of requests that can be in flight at once
+     */
+    public VirtualThreadAciService(final AciService aciService, final int maxConcurrentRequests) {
+        this(aciService, maxConcurrentRequests, newVirtualThreadPerTaskExecutor(), true);
+    }
+
+    /**
+     * Creates a new instance of VirtualThreadAciService that uses the supplied executor for asynchronous requests. The
+     * executor isn't shut down when this service is closed.
+     * @param aciService            The <code>AciService</code> that actually executes the actions, usually an
+     *                              <code>AciServiceImpl</code>
+     * @param maxConcurrentRequests The maximum number of requests that can be in flight at once
+     * @param executorService       The executor to run asynchronous requests on
+     */
+    public VirtualThreadAciService(final AciService aciService, final int maxConcurrentRequests, final ExecutorService executorService) {
+        this(aciService, maxConcurrentRequests, executorService, false);
+    }
+
+    private VirtualThreadAciService(final AciService aciService, final int maxConcurrentRequests, final ExecutorService executorService, final boolean ownsExecutorService) {
+        Validate.notNull(aciService, "The AciService must not be null.");
+        Validate.notNull(executorService, "The ExecutorService must not be null.");
+        Validate.isTrue(maxConcurrentRequests > 0, "maxConcurrentRequests must be greater than zero.");
+
+        this.aciService = aciService;
+        this.executorService = executorService;
+        this.ownsExecutorService = ownsExecutorService;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.permits = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task when running on JDK 21 or later. On earlier JDKs
+     * this returns a cached thread pool, which behaves the same way apart from the cost of each thread.
+     * @return A thread per task <code>ExecutorService</code>
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException roe) {
+            LOGGER.debug("Virtual threads aren't available, falling back to a cached thread pool...");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Executes an ACI action on the calling thread once a permit is available.
+     * @param parameters The parameters to use with the ACI command
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException If the caller was interrupted while waiting for a permit, or the delegate failed
+     * @throws DeadlineExceededException If the action's deadline passed while it was waiting for a permit
+     * @throws RequestCancelledException If the action was cancelled while it was waiting for a permit
+     */
+    @Override
+    public <T> T executeAction(final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        acquirePermit(parameters);
+        try {
+            return aciService.executeAction(parameters, processor);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Executes an ACI action on the calling thread once a permit is available.
+     * @param serverDetails The connection details of the ACI Server to execute the action on
+     * @param parameters    The parameters to use with the ACI command
+     * @param processor     The <code>Processor</code> to use for converting the response stream into an object
+     * @return The ACI response encoded as an object of type <code>T</code>
+     * @throws AciServiceException If the caller was interrupted while waiting for a permit, or the delegate failed
+     * @throws DeadlineExceededException If the action's deadline passed while it was waiting for a permit
+     * @throws RequestCancelledException If the action was cancelled while it was waiting for a permit
+     */
+    @Override
+    public <T> T executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeAction() called...");
+
+        acquirePermit(parameters);
+        try {
+            return aciService.executeAction(serverDetails, parameters, processor);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Executes an ACI action on a thread from the executor.
+     * @param parameters The parameters to use with the ACI command
+     * @param processor  The <code>Processor</code> to use for converting the response stream into an object
+     * @return A <code>CompletableFuture</code> that will be completed with the ACI response encoded as an object of type
+     * <code>T</code>
+     */
+    @Override
+    public <T> CompletableFuture<T> executeActionAsync(final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeActionAsync() called...");
+
+        return CompletableFuture.supplyAsync(() -> executeAction(parameters, processor), executorService);
+    }
+
+    /**
+     * Executes an ACI action on a thread from the executor.
+     * @param serverDetails The connection details of the ACI Server to execute the action on
+     * @param parameters    The parameters to use with the ACI command
+     * @param processor     The <code>Processor</code> to use for converting the response stream into an object
+     * @return A <code>CompletableFuture</code> that will be completed with the ACI response encoded as an object of type
+     * <code>T</code>
+     */
+    @Override
+    public <T> CompletableFuture<T> executeActionAsync(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final Processor<T> processor) {
+        LOGGER.trace("executeActionAsync() called...");
+
+        return CompletableFuture.supplyAsync(() -> executeAction(serverDetails, parameters, processor), executorService);
+    }
+
+    private void acquirePermit(final Set<? extends ActionParameter<?>> parameters) {
+        final CancellationToken cancellation = CancellationToken.of(parameters);
+        if (cancellation == null) {
+            acquirePermit(Deadline.of(parameters));
+            return;
+        }
+
+        // Cancelling interrupts the wait, which takes the caller out of the semaphore's queue...
+        cancellation.throwIfCancelled();
+        final CancellationInterrupt interrupt = new CancellationInterrupt(cancellation);
+        try {
+            acquirePermit(Deadline.of(parameters));
+        } catch (final AciServiceException ase) {
+            if (cancellation.isCancelled() && !(ase instanceof RequestCancelledException)) {
+                LOGGER.debug("Giving up waiting to send the ACI request as it was cancelled");
+                throw new RequestCancelledException(ase.getCause());
+            }
+            throw ase;
+        } finally {
+            interrupt.close();
+        }
+    }
+
+    private void acquirePermit(final Deadline deadline) {
+        try {
+            if (deadline == null) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(deadline.getTimeRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS)) {
+                LOGGER.debug("Giving up waiting to send the ACI request as its deadline has passed");
+                throw new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS));
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new AciServiceException("Interrupted while waiting to send the ACI request", ie);
+        }
+    }
+
+    /**
+     * Shuts down the executor if it was created by this service.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutorService) {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Getter for property aciService.
+     * @return Value of property aciService.
+     */
+    public AciService getAciService() {
+        return aciService;
+    }
+
+    /**
+     * Getter for property executorService.
+     * @return Value of property executorService.
+     */
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * Getter for property maxConcurrentRequests.
+     * @return Value of property maxConcurrentRequests.
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Returns the number of requests that are currently in flight.
+     * @return The number of permits currently held
+     */
+    public int getActiveRequests() {
+        return maxConcurrentRequests - permits.availablePermits();
+    }
+
+    /**
+     * Returns an estimate of the number of callers waiting for a permit.
+     * @return The number of waiting callers
+     */
+    public int getQueuedRequests() {
+        return permits.getQueueLength();
+    }
+
+}
@@ -44,6 +44,11 @@ public class AciParameter implements Serializable, ActionParameter<String> {
      */
     private String value;
 
+    /**
+     * The lower case name, computed when it's first needed.
+     */
+    private transient String canonicalName;
+
     /**
      * Creates a new instance of AciParameter.
      */
@@ -101,7 +106,7 @@ public class AciParameter implements Serializable, ActionParameter<String> {
             final AciParameter that = (AciParameter) obj;
 
             // Check the name of this parameter with the passed in parameter...
-            returnValue = this.name.toLowerCase(Locale.ENGLISH).equals(that.name.toLowerCase(Locale.ENGLISH));
+            returnValue = this.getCanonicalName().equals(that.getCanonicalName());
         }
 
         return returnValue;
@@ -113,7 +118,7 @@ public class AciParameter implements Serializable, ActionParameter<String> {
      */
     @Override
     public int hashCode() {
-        return name.toLowerCase(Locale.ENGLISH).hashCode();
+        return getCanonicalName().hashCode();
     }
 
     /**
@@ -124,6 +129,16 @@ public class AciParameter implements Serializable, ActionParameter<String> {
         return this.name;
     }
 
+    @Override
+    public String getCanonicalName() {
+        String lowerCaseName = canonicalName;
+        if (lowerCaseName == null) {
+            lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+            canonicalName = lowerCaseName;
+        }
+        return lowerCaseName;
+    }
+
     /**
      * Setter for property name.
      * @param name New value of property name
@@ -134,6 +149,7 @@ public class AciParameter implements Serializable, ActionParameter<String> {
             throw new IllegalArgumentException("Parameter names cannot be null.");
         }
         this.name = name;
+        this.canonicalName = null;
     }
 
     /**
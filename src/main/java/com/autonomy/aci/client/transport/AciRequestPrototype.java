@@ -0,0 +1,95 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.net.URIBuilder;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * The parts of every HTTP request to an ACI Server that only depend on its {@link AciServerDetails}: the target host, the
+ * base URI with its path already percent-encoded, and the resolved character set. It's compiled once per set of details
+ * by {@link AciServerDetails#getRequestPrototype()}, so building a request only has to encode the parameters and append
+ * them to the path or write them to the body.
+ * <p>
+ * Instances are immutable and so can be shared between threads.
+ */
+public final class AciRequestPrototype {
+
+    private final HttpHost httpHost;
+
+    private final URI baseUri;
+
+    private final String encodedPath;
+
+    private final Charset charset;
+
+    AciRequestPrototype(final AciServerDetails serverDetails) throws URISyntaxException {
+        this.baseUri = new URIBuilder()
+                .setScheme(serverDetails.getProtocol().toString().toLowerCase(Locale.ENGLISH))
+                .setHost(serverDetails.getHost())
+                .setPort(serverDetails.getPort())
+                .setPath(serverDetails.getPath())
+                .build();
+
+        // HttpCore sends an empty path as '/', so do the same when appending a query string to it...
+        final String rawPath = baseUri.getRawPath();
+        this.encodedPath = ((rawPath == null) || rawPath.isEmpty()) ? "/" : rawPath;
+        this.httpHost = HttpHost.create(baseUri);
+        this.charset = Charset.forName(serverDetails.getCharsetName());
+    }
+
+    /**
+     * @return The scheme, host and port of the ACI Server
+     */
+    public HttpHost getHttpHost() {
+        return httpHost;
+    }
+
+    /**
+     * @return The URI of the ACI Server, without a query string
+     */
+    public URI getBaseUri() {
+        return baseUri;
+    }
+
+    /**
+     * @return The percent-encoded path to send requests to, which is at least <code>/</code>
+     */
+    public String getEncodedPath() {
+        return encodedPath;
+    }
+
+    /**
+     * Appends an already encoded query string to the path.
+     * @param encodedQuery The encoded query string, without a leading <code>?</code>
+     * @return The path and query string for the request line
+     */
+    public String getEncodedPath(final String encodedQuery) {
+        return encodedQuery.isEmpty() ? encodedPath : encodedPath + '?' + encodedQuery;
+    }
+
+    /**
+     * @return The character set that parameters are sent in
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+}
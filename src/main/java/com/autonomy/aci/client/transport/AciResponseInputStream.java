@@ -16,6 +16,8 @@ package com.autonomy.aci.client.transport;
 
 import java.io.FilterInputStream;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * Provides a wrapper around the actual ACI response <code>InputStream</code> and propagates the content type of the HTTP
@@ -42,6 +44,15 @@ public abstract class AciResponseInputStream extends FilterInputStream {
 
     public abstract String getHeader(String name);
 
+    /**
+     * Return the headers of the HTTP response, e.g. so that they can be kept with a copy of the response. Where a header
+     * appears more than once, the first value is returned, as with {@link #getHeader(String)}.
+     * @return The headers, keyed case insensitively on their names, or an empty map if they're not available
+     */
+    public Map<String, String> getHeaders() {
+        return Collections.emptyMap();
+    }
+
     public abstract String getContentEncoding();
 
     public abstract long getContentLength();
@@ -21,6 +21,7 @@ import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
 import java.io.Serializable;
+import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.charset.UnsupportedCharsetException;
 
@@ -73,6 +74,11 @@ public class AciServerDetails implements Serializable {
      */
     private EncryptionCodec encryptionCodec;
 
+    /**
+     * The compiled request prototype, which is discarded whenever a property it depends on changes.
+     */
+    private transient volatile AciRequestPrototype requestPrototype;
+
     /**
      * Default constructor
      */
@@ -92,6 +98,7 @@ public class AciServerDetails implements Serializable {
 
         this.host = host;
         this.port = port;
+        this.requestPrototype = null;
     }
 
     /**
@@ -109,6 +116,7 @@ public class AciServerDetails implements Serializable {
         this.protocol = protocol;
         this.host = host;
         this.port = port;
+        this.requestPrototype = null;
     }
 
     /**
@@ -134,6 +142,7 @@ public class AciServerDetails implements Serializable {
         this.path = that.path;
         this.charsetName = that.charsetName;
         this.encryptionCodec = that.encryptionCodec;
+        this.requestPrototype = that.requestPrototype;
     }
 
     @Override
@@ -191,6 +200,7 @@ public class AciServerDetails implements Serializable {
     public void setProtocol(final TransportProtocol protocol) {
         Validate.notNull(protocol, "protocol must not be null, it must be set to a value");
         this.protocol = protocol;
+        this.requestPrototype = null;
     }
 
     /**
@@ -208,6 +218,7 @@ public class AciServerDetails implements Serializable {
     public void setHost(final String host) {
         Validate.notNull(host, "host must not be null, it must be set to a value");
         this.host = host;
+        this.requestPrototype = null;
     }
 
     /**
@@ -227,6 +238,7 @@ public class AciServerDetails implements Serializable {
     public void setPort(final int port) {
         Validate.isTrue((port >= 0) && (port <= 65536), "port is out of range, it should be between 0 and 65536.");
         this.port = port;
+        this.requestPrototype = null;
     }
 
     /**
@@ -255,11 +267,27 @@ public class AciServerDetails implements Serializable {
     public void setCharsetName(final String charsetName) {
         if (Charset.isSupported(charsetName)) {
             this.charsetName = charsetName;
+            this.requestPrototype = null;
         } else {
             throw new UnsupportedCharsetException("No support for, " + charsetName + ", is available in this instance of the JVM");
         }
     }
 
+    /**
+     * Returns the parts of a HTTP request to this ACI Server that don't depend on the action being sent, compiling them
+     * the first time they're needed and again after any of the connection details have changed.
+     * @return The request prototype for this ACI Server
+     * @throws URISyntaxException If the host or path can't be made into a valid URI
+     */
+    public AciRequestPrototype getRequestPrototype() throws URISyntaxException {
+        AciRequestPrototype prototype = requestPrototype;
+        if (prototype == null) {
+            prototype = new AciRequestPrototype(this);
+            requestPrototype = prototype;
+        }
+        return prototype;
+    }
+
     public EncryptionCodec getEncryptionCodec() {
         return encryptionCodec;
     }
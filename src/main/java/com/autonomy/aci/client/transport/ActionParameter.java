@@ -3,6 +3,7 @@ package com.autonomy.aci.client.transport;
 import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
 
 import java.nio.charset.Charset;
+import java.util.Locale;
 
 /**
  * Interface representing an ACI parameter to be sent as part of an ACI request.
@@ -16,6 +17,16 @@ public interface ActionParameter<T> {
      */
     String getName();
 
+    /**
+     * Returns the name in the form used to compare parameters, ACI parameter names being case insensitive.
+     * Implementations should cache this, as it's used by <code>equals</code> and <code>hashCode</code> and to index
+     * parameters by name.
+     * @return The parameter name, in lower case
+     */
+    default String getCanonicalName() {
+        return getName().toLowerCase(Locale.ENGLISH);
+    }
+
     /**
      * @return The parameter value
      */
@@ -34,4 +45,13 @@ public interface ActionParameter<T> {
      */
     boolean requiresPostRequest();
 
+    /**
+     * Whether the parameter can be sent more than once, e.g. when failing over to another ACI Server. Parameters backed by
+     * a stream that can only be read once should return false.
+     * @return True if the parameter can be sent again, the default
+     */
+    default boolean isRepeatable() {
+        return true;
+    }
+
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.hc.client5.http.entity.mime.AbstractContentBody;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.core5.http.ContentType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * {@link ActionParameter} for content that's already in a {@link ByteBuffer} and should be uploaded, e.g. a document
+ * read or generated by the application.
+ * <p>
+ * The bytes between the buffer's position and limit when the parameter is created are sent, and later changes to the
+ * buffer's position and limit have no effect. The content itself isn't copied, so it mustn't be changed until the action
+ * has been sent. Heap buffers are written to the connection directly from their backing array. The multipart entity
+ * has a <code>Content-Length</code> rather than being sent chunked, and the parameter is repeatable so the action can
+ * be retried or failed over.
+ */
+public class ByteBufferActionParameter implements ActionParameter<ByteBuffer> {
+
+    /**
+     * The size of the blocks a direct buffer is copied in.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final String name;
+    private final String canonicalName;
+    private final ByteBuffer value;
+    private final ContentType contentType;
+
+    /**
+     * Creates a ByteBufferActionParameter that uploads the content as <code>application/octet-stream</code>.
+     * @param name The name of the parameter
+     * @param value The content to upload
+     * @throws IllegalArgumentException If <code>name</code> is <code>null</code> or blank
+     * @throws NullPointerException If <code>value</code> is <code>null</code>
+     */
+    public ByteBufferActionParameter(final String name, final ByteBuffer value) {
+        this(name, value, ContentType.APPLICATION_OCTET_STREAM);
+    }
+
+    /**
+     * Creates a ByteBufferActionParameter.
+     * @param name The name of the parameter
+     * @param value The content to upload
+     * @param contentType The content type of the content
+     * @throws IllegalArgumentException If <code>name</code> is <code>null</code> or blank
+     * @throws NullPointerException If <code>value</code> or <code>contentType</code> is <code>null</code>
+     */
+    public ByteBufferActionParameter(final String name, final ByteBuffer value, final ContentType contentType) {
+        if(StringUtils.isBlank(name)) {
+            throw new IllegalArgumentException("Parameter names cannot be null.");
+        }
+
+        this.name = name;
+        this.canonicalName = name.toLowerCase(Locale.ENGLISH);
+        this.value = Validate.notNull(value, "ByteBuffer must not be null").duplicate();
+        this.contentType = Validate.notNull(contentType, "ContentType must not be null");
+    }
+
+    /**
+     * @return The name of the parameter
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getCanonicalName() {
+        return canonicalName;
+    }
+
+    /**
+     * @return A read-only view of the content to upload, with its own position and limit
+     */
+    @Override
+    public ByteBuffer getValue() {
+        return value.asReadOnlyBuffer();
+    }
+
+    @Override
+    public void addToEntity(final MultipartEntityBuilder builder, final Charset charset) {
+        builder.addPart(name, new ByteBufferContentBody(value, contentType));
+    }
+
+    /**
+     * Always returns true as buffers are always sent in multipart post requests
+     *
+     * @return True
+     */
+    @Override
+    public boolean requiresPostRequest() {
+        return true;
+    }
+
+    /**
+     * Always returns true as the buffer can be written any number of times
+     *
+     * @return True
+     */
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * A {@code ByteBufferActionParameter} is deemed to be equal to another if the name of the parameter is the same. This means
+     * that you will be unable to add another parameter with the same name to the {@code Set} to be sent when an action
+     * is executed, if one of the same name already exists in the {@code Set}.
+     * @param obj the reference object with which to compare
+     * @return {@code true} if this object is the same as the obj argument; {@code false} otherwise
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        boolean returnValue = false;
+
+        if (this == obj) {
+            returnValue = true;
+        } else if (obj instanceof ByteBufferActionParameter) {
+            final ByteBufferActionParameter that = (ByteBufferActionParameter) obj;
+
+            // Check the name of this parameter with the passed in parameter...
+            returnValue = this.canonicalName.equals(that.canonicalName);
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Returns a hash code value for the object.
+     * @return a hash code value for this object
+     */
+    @Override
+    public int hashCode() {
+        return canonicalName.hashCode();
+    }
+
+    /**
+     * A multipart body of known length that writes a heap buffer straight from its backing array.
+     */
+    private static final class ByteBufferContentBody extends AbstractContentBody {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferContentBody(final ByteBuffer buffer, final ContentType contentType) {
+            super(contentType);
+            this.buffer = buffer;
+        }
+
+        @Override
+        public String getFilename() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void writeTo(final OutputStream out) throws IOException {
+            if(buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                return;
+            }
+
+            // Each write gets its own view, so concurrent or repeated sends don't disturb each other...
+            final ByteBuffer content = buffer.duplicate();
+            final byte[] block = new byte[Math.min(BLOCK_SIZE, Math.max(content.remaining(), 1))];
+            while(content.hasRemaining()) {
+                final int length = Math.min(block.length, content.remaining());
+                content.get(block, 0, length);
+                out.write(block, 0, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.util.ActionParameters;
+import com.autonomy.aci.client.util.BoundActionParameters;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets an ACI request be abandoned once it has started, e.g. when the user that asked for it has navigated away. The token
+ * is set on the request's parameters with {@link ActionParameters#setCancellationToken(CancellationToken)} and
+ * {@link #cancel()} can then be called from any thread: a request that hasn't been sent isn't, an HTTP exchange that's in
+ * progress is aborted and its connection discarded, and a <code>Processor</code> that's reading the response is
+ * interrupted. The request then fails with a {@link RequestCancelledException}.
+ * <p>
+ * The parts of a request register what they need to do to stop with {@link #onCancel(Runnable)}, and deregister when
+ * they've finished. A token can be shared by several requests that should be cancelled together, but can't be reset.
+ * Its lock is a <code>ReentrantLock</code> rather than a monitor, so virtual threads using it aren't pinned.
+ */
+public final class CancellationToken {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CancellationToken.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * What to do on cancellation, guarded by <code>lock</code>.
+     */
+    private final List<Runnable> actions = new ArrayList<>(2);
+
+    private volatile boolean cancelled;
+
+    /**
+     * Returns the cancellation token of a request's parameters.
+     * @param parameters The parameters of an ACI request
+     * @return The token, or <code>null</code> if the request can't be cancelled
+     */
+    public static CancellationToken of(final Collection<? extends ActionParameter<?>> parameters) {
+        if (parameters instanceof ActionParameters) {
+            return ((ActionParameters) parameters).getCancellationToken();
+        }
+        return (parameters instanceof BoundActionParameters) ? ((BoundActionParameters) parameters).getCancellationToken() : null;
+    }
+
+    /**
+     * Cancels every request using this token. Does nothing if the token has already been cancelled.
+     */
+    public void cancel() {
+        lock.lock();
+        try {
+            if (cancelled) {
+                return;
+            }
+
+            LOGGER.debug("Cancelling the ACI request...");
+            cancelled = true;
+
+            // Run the actions while holding the lock, so that once a registration is closed its action can't still be
+            // running, e.g. about to interrupt a thread that has moved on. Iterate over a copy, as an action can close
+            // its own or another registration on this thread...
+            final List<Runnable> toRun = new ArrayList<>(actions);
+            actions.clear();
+            for (final Runnable action : toRun) {
+                run(action);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registers an action to run when the token is cancelled, e.g. to abort an HTTP exchange. If the token has already been
+     * cancelled the action is run straight away.
+     * @param action The action, which should return quickly and not block
+     * @return The registration, to be closed once the action is no longer needed
+     */
+    public Registration onCancel(final Runnable action) {
+        Validate.notNull(action, "action must not be null");
+
+        lock.lock();
+        try {
+            if (!cancelled) {
+                actions.add(action);
+                return () -> remove(action);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        run(action);
+        return () -> {};
+    }
+
+    /**
+     * Cancels this token if the future is cancelled, e.g. the future of a task that calls
+     * <code>AciService.executeAction</code>, so <code>Future.cancel</code> aborts the request as well.
+     * @param future The future
+     */
+    public void cancelWith(final CompletableFuture<?> future) {
+        future.whenComplete((result, throwable) -> {
+            if (future.isCancelled()) {
+                cancel();
+            }
+        });
+    }
+
+    /**
+     * @return <code>true</code> if the token has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throws a <code>RequestCancelledException</code> if the token has been cancelled, e.g. before starting the next
+     * step of a request.
+     * @throws RequestCancelledException If the token has been cancelled
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new RequestCancelledException();
+        }
+    }
+
+    private void remove(final Runnable action) {
+        lock.lock();
+        try {
+            actions.remove(action);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void run(final Runnable action) {
+        try {
+            action.run();
+        } catch (final RuntimeException e) {
+            LOGGER.warn("Unable to cancel part of the ACI request", e);
+        }
+    }
+
+    /**
+     * An action registered with {@link #onCancel(Runnable)}. Closing it deregisters the action, after which it won't run.
+     */
+    @FunctionalInterface
+    public interface Registration extends AutoCloseable {
+
+        /**
+         * Deregisters the action.
+         */
+        @Override
+        void close();
+
+    }
+
+}
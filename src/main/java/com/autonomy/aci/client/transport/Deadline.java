@@ -0,0 +1,113 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import com.autonomy.aci.client.util.ActionParameters;
+import com.autonomy.aci.client.util.BoundActionParameters;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The point in time by which an ACI request must have completed, set on the request's parameters with
+ * {@link ActionParameters#setDeadline(Deadline)}. A request with a deadline isn't sent once the deadline has passed, has
+ * its connection lease, connect and response timeouts cut to the time remaining, and isn't processed if the deadline
+ * passes while waiting for the response, so a 200ms autocomplete request and a 60s export can share an
+ * <code>HttpClient</code>.
+ * <p>
+ * A deadline is measured from when it's created, so the same instance should be used for every attempt at, or part of,
+ * one logical request. Instances are immutable and so can be shared between threads.
+ */
+public final class Deadline {
+
+    private final LongSupplier nanoClock;
+
+    private final long timeoutNanos;
+
+    private final long expiresAt;
+
+    private Deadline(final long timeoutNanos, final LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.timeoutNanos = timeoutNanos;
+        this.expiresAt = nanoClock.getAsLong() + timeoutNanos;
+    }
+
+    /**
+     * Creates a deadline that expires after the timeout.
+     * @param timeout The time allowed for the request
+     * @param unit    The unit of <code>timeout</code>
+     * @return The deadline
+     * @throws IllegalArgumentException If <code>timeout</code> is negative
+     */
+    public static Deadline after(final long timeout, final TimeUnit unit) {
+        return after(timeout, unit, System::nanoTime);
+    }
+
+    static Deadline after(final long timeout, final TimeUnit unit, final LongSupplier nanoClock) {
+        Validate.isTrue(timeout >= 0, "timeout must not be negative.");
+        return new Deadline(unit.toNanos(timeout), nanoClock);
+    }
+
+    /**
+     * Returns the deadline of a request's parameters.
+     * @param parameters The parameters of an ACI request
+     * @return The deadline, or <code>null</code> if the request doesn't have one
+     */
+    public static Deadline of(final Collection<? extends ActionParameter<?>> parameters) {
+        if (parameters instanceof ActionParameters) {
+            return ((ActionParameters) parameters).getDeadline();
+        }
+        return (parameters instanceof BoundActionParameters) ? ((BoundActionParameters) parameters).getDeadline() : null;
+    }
+
+    /**
+     * @return <code>true</code> if the deadline has passed
+     */
+    public boolean isExpired() {
+        return (nanoClock.getAsLong() - expiresAt) >= 0;
+    }
+
+    /**
+     * Returns the time left until the deadline, rounding up so that a timeout of that length won't end before the
+     * deadline.
+     * @param unit The unit to return the time in
+     * @return The time remaining, which is <code>0</code> once the deadline has passed
+     */
+    public long getTimeRemaining(final TimeUnit unit) {
+        final long remaining = expiresAt - nanoClock.getAsLong();
+        if (remaining <= 0) {
+            return 0;
+        }
+
+        final long converted = unit.convert(remaining, TimeUnit.NANOSECONDS);
+        return (unit.toNanos(converted) < remaining) ? converted + 1 : converted;
+    }
+
+    /**
+     * @param unit The unit to return the timeout in
+     * @return The time that was allowed for the request when the deadline was created
+     */
+    public long getTimeout(final TimeUnit unit) {
+        return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{timeout=" + getTimeout(TimeUnit.MILLISECONDS) + "ms, remaining=" + getTimeRemaining(TimeUnit.MILLISECONDS) + "ms}";
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.hc.client5.http.entity.mime.AbstractContentBody;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.core5.http.ContentType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * {@link ActionParameter} for a file that should be uploaded, e.g. a document sent to CFS or DIH.
+ * <p>
+ * Unlike an {@link InputStreamActionParameter}, the size of the file is known when the request is built, so the
+ * multipart entity has a <code>Content-Length</code> rather than being sent chunked, and the file is read in large
+ * blocks straight into the connection. The file is opened afresh each time the request is sent, so the parameter is
+ * repeatable and the action can be retried or failed over.
+ */
+public class FileActionParameter implements ActionParameter<Path> {
+
+    /**
+     * The size of the blocks the file is read in.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final String name;
+    private final String canonicalName;
+    private final Path value;
+    private final ContentType contentType;
+
+    /**
+     * Creates a FileActionParameter that uploads the file as <code>application/octet-stream</code>.
+     * @param name The name of the parameter
+     * @param value The file to upload
+     * @throws IllegalArgumentException If <code>name</code> is <code>null</code> or blank
+     * @throws NullPointerException If <code>value</code> is <code>null</code>
+     */
+    public FileActionParameter(final String name, final Path value) {
+        this(name, value, ContentType.APPLICATION_OCTET_STREAM);
+    }
+
+    /**
+     * Creates a FileActionParameter.
+     * @param name The name of the parameter
+     * @param value The file to upload
+     * @param contentType The content type of the file
+     * @throws IllegalArgumentException If <code>name</code> is <code>null</code> or blank
+     * @throws NullPointerException If <code>value</code> or <code>contentType</code> is <code>null</code>
+     */
+    public FileActionParameter(final String name, final Path value, final ContentType contentType) {
+        if(StringUtils.isBlank(name)) {
+            throw new IllegalArgumentException("Parameter names cannot be null.");
+        }
+
+        this.name = name;
+        this.canonicalName = name.toLowerCase(Locale.ENGLISH);
+        this.value = Validate.notNull(value, "Path must not be null");
+        this.contentType = Validate.notNull(contentType, "ContentType must not be null");
+    }
+
+    /**
+     * @return The name of the parameter
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getCanonicalName() {
+        return canonicalName;
+    }
+
+    /**
+     * @return The file to upload
+     */
+    @Override
+    public Path getValue() {
+        return value;
+    }
+
+    /**
+     * Adds the file to the entity. The size of the file is read now, and the request fails if the file has changed size
+     * by the time it's sent.
+     * @param builder The builder to add the file to
+     * @param charset The charset of the request, which isn't used
+     * @throws UncheckedIOException If the size of the file can't be read
+     */
+    @Override
+    public void addToEntity(final MultipartEntityBuilder builder, final Charset charset) {
+        final long length;
+        try {
+            length = Files.size(value);
+        } catch(final IOException e) {
+            throw new UncheckedIOException("Unable to read the size of " + value, e);
+        }
+
+        builder.addPart(name, new FileContentBody(value, length, contentType));
+    }
+
+    /**
+     * Always returns true as files are always sent in multipart post requests
+     *
+     * @return True
+     */
+    @Override
+    public boolean requiresPostRequest() {
+        return true;
+    }
+
+    /**
+     * Always returns true as the file is read again each time the request is sent
+     *
+     * @return True
+     */
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * A {@code FileActionParameter} is deemed to be equal to another if the name of the parameter is the same. This means
+     * that you will be unable to add another parameter with the same name to the {@code Set} to be sent when an action
+     * is executed, if one of the same name already exists in the {@code Set}.
+     * @param obj the reference object with which to compare
+     * @return {@code true} if this object is the same as the obj argument; {@code false} otherwise
+     */
+    @Override
+    public boolean equals(final Object obj) {
+        boolean returnValue = false;
+
+        if (this == obj) {
+            returnValue = true;
+        } else if (obj instanceof FileActionParameter) {
+            final FileActionParameter that = (FileActionParameter) obj;
+
+            // Check the name of this parameter with the passed in parameter...
+            returnValue = this.canonicalName.equals(that.canonicalName);
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Returns a hash code value for the object.
+     * @return a hash code value for this object
+     */
+    @Override
+    public int hashCode() {
+        return canonicalName.hashCode();
+    }
+
+    /**
+     * A multipart body of known length that reads the file in large blocks, so writes to the connection bypass its
+     * session buffer rather than being copied through it.
+     */
+    private static final class FileContentBody extends AbstractContentBody {
+
+        private final Path path;
+        private final long length;
+
+        private FileContentBody(final Path path, final long length, final ContentType contentType) {
+            super(contentType);
+            this.path = path;
+            this.length = length;
+        }
+
+        @Override
+        public String getFilename() {
+            final Path fileName = path.getFileName();
+            return (fileName == null) ? null : fileName.toString();
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public void writeTo(final OutputStream out) throws IOException {
+            try(final InputStream in = Files.newInputStream(path)) {
+                final byte[] block = new byte[(int) Math.min(BLOCK_SIZE, Math.max(length, 1))];
+                long remaining = length;
+
+                while(remaining > 0) {
+                    final int read = in.read(block, 0, (int) Math.min(block.length, remaining));
+                    if(read < 0) {
+                        throw new IOException(path + " is shorter than the " + length + " bytes it was when the request was built");
+                    }
+
+                    out.write(block, 0, read);
+                    remaining -= read;
+                }
+
+                if(in.read() >= 0) {
+                    throw new IOException(path + " is longer than the " + length + " bytes it was when the request was built");
+                }
+            }
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package com.autonomy.aci.client.transport;
 
+import com.autonomy.aci.client.util.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
@@ -12,11 +17,17 @@ import java.util.Locale;
 /**
  * {@link ActionParameter} for a sequence of {@link InputStream}s that should be uploaded under a single parameter name.
  * For example, training images to be sent to ImageServer.
+ * <p>
+ * A parameter created with a constructor streams its values straight into the request, so it can only be sent once and
+ * the action can't be retried or failed over. Use {@link #buffer(String, List)} to read the streams into memory first if
+ * the action needs to be sent again.
  */
 public class InputStreamActionParameter implements ActionParameter<List<InputStream>> {
 
     private final String name;
+    private final String canonicalName;
     private final List<InputStream> value;
+    private final List<byte[]> buffered;
 
     /**
      * Creates an InputStreamActionParameter representing a single stream
@@ -38,7 +49,53 @@ public class InputStreamActionParameter implements ActionParameter<List<InputStr
         }
 
         this.name = name;
+        this.canonicalName = name.toLowerCase(Locale.ENGLISH);
         this.value = value;
+        this.buffered = null;
+    }
+
+    private InputStreamActionParameter(final String name, final List<InputStream> value, final List<byte[]> buffered) {
+        this.name = name;
+        this.canonicalName = name.toLowerCase(Locale.ENGLISH);
+        this.value = value;
+        this.buffered = buffered;
+    }
+
+    /**
+     * Creates a repeatable InputStreamActionParameter by reading a single stream into memory. The stream is closed.
+     * @param name The name of the parameter
+     * @param value The stream representing the value of the parameter
+     * @return A parameter that can be sent more than once
+     * @throws IOException If the stream can't be read
+     */
+    public static InputStreamActionParameter buffer(final String name, final InputStream value) throws IOException {
+        return buffer(name, Collections.singletonList(value));
+    }
+
+    /**
+     * Creates a repeatable InputStreamActionParameter by reading multiple streams into memory. The streams are closed.
+     * @param name The name of the parameter
+     * @param value The streams representing the value of the parameter
+     * @return A parameter that can be sent more than once
+     * @throws IOException If a stream can't be read
+     */
+    public static InputStreamActionParameter buffer(final String name, final List<InputStream> value) throws IOException {
+        if(StringUtils.isBlank(name)) {
+            throw new IllegalArgumentException("Parameter names cannot be null.");
+        }
+
+        final List<byte[]> buffered = new ArrayList<>(value.size());
+        for(final InputStream inputStream : value) {
+            try {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                IOUtils.getInstance().copy(inputStream, bytes);
+                buffered.add(bytes.toByteArray());
+            } finally {
+                IOUtils.getInstance().closeQuietly(inputStream);
+            }
+        }
+
+        return new InputStreamActionParameter(name, null, Collections.unmodifiableList(buffered));
     }
 
     /**
@@ -49,18 +106,37 @@ public class InputStreamActionParameter implements ActionParameter<List<InputStr
         return name;
     }
 
+    @Override
+    public String getCanonicalName() {
+        return canonicalName;
+    }
+
     /**
-     * @return The stream values of the parameter
+     * @return The stream values of the parameter. For a buffered parameter, new streams are returned by each call.
      */
     @Override
     public List<InputStream> getValue() {
-        return value;
+        if(buffered == null) {
+            return value;
+        }
+
+        final List<InputStream> streams = new ArrayList<>(buffered.size());
+        for(final byte[] bytes : buffered) {
+            streams.add(new ByteArrayInputStream(bytes));
+        }
+        return streams;
     }
 
     @Override
     public void addToEntity(final MultipartEntityBuilder builder, final Charset charset) {
-        for(final InputStream inputStream : value) {
-            builder.addBinaryBody(name, inputStream);
+        if(buffered == null) {
+            for(final InputStream inputStream : value) {
+                builder.addBinaryBody(name, inputStream);
+            }
+        } else {
+            for(final byte[] bytes : buffered) {
+                builder.addBinaryBody(name, bytes);
+            }
         }
     }
 
@@ -74,6 +150,16 @@ public class InputStreamActionParameter implements ActionParameter<List<InputStr
         return true;
     }
 
+    /**
+     * Returns false unless the parameter was created by {@link #buffer(String, List)}, as streams can only be read once
+     *
+     * @return True if the streams have been buffered
+     */
+    @Override
+    public boolean isRepeatable() {
+        return buffered != null;
+    }
+
     /**
      * An {@code InputStreamActionParameter} is deemed to be equal to another if the name of the parameter is the same. This means
      * that you will be unable to add another parameter with the same name to the {@code Set} to be sent when an action
@@ -91,7 +177,7 @@ public class InputStreamActionParameter implements ActionParameter<List<InputStr
             final InputStreamActionParameter that = (InputStreamActionParameter) obj;
 
             // Check the name of this parameter with the passed in parameter...
-            returnValue = this.name.toLowerCase(Locale.ENGLISH).equals(that.name.toLowerCase(Locale.ENGLISH));
+            returnValue = this.canonicalName.equals(that.canonicalName);
         }
 
         return returnValue;
@@ -103,6 +189,6 @@ public class InputStreamActionParameter implements ActionParameter<List<InputStr
      */
     @Override
     public int hashCode() {
-        return name.toLowerCase(Locale.ENGLISH).hashCode();
+        return canonicalName.hashCode();
     }
 }
@@ -17,12 +17,15 @@ package com.autonomy.aci.client.transport.gss;
 import com.autonomy.aci.client.services.AciConstants;
 import com.autonomy.aci.client.services.AciErrorException;
 import com.autonomy.aci.client.services.ProcessorException;
+import com.autonomy.aci.client.services.RequestCancelledException;
 import com.autonomy.aci.client.services.impl.AbstractStAXProcessor;
 import com.autonomy.aci.client.services.impl.ErrorProcessor;
 import com.autonomy.aci.client.transport.AciHttpException;
 import com.autonomy.aci.client.transport.AciResponseInputStream;
 import com.autonomy.aci.client.transport.AciServerDetails;
 import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
 import com.autonomy.aci.client.transport.impl.AciHttpClientImpl;
 import com.autonomy.aci.client.util.ActionParameters;
 import com.autonomy.aci.client.util.IOUtils;
@@ -45,6 +48,9 @@ import java.util.Set;
  * Implementation of the <code>AciHttpClient</code> interface for use with ACI servers that are secured via GSS-API. It
  * sets up a <code>GSSContext</code> before passing the parameters and connection details to the <code>AciHttpClientImpl</code>
  * super class to execute the actual action.
+ * <p>
+ * If the parameters have a {@link CancellationToken}, it's checked before each step of the context establishment loop
+ * and used for each token exchange with the ACI Server, so cancelling it abandons the handshake as well as the action.
  */
 public class GssAciHttpClientImpl extends AciHttpClientImpl {
 
@@ -56,9 +62,10 @@ public class GssAciHttpClientImpl extends AciHttpClientImpl {
         super(httpClient);
     }
 
-    private GSSContext getGSSContext(final GssAciServerDetails serverDetails) throws AciHttpException, IOException {
+    private GSSContext getGSSContext(final GssAciServerDetails serverDetails, final Deadline deadline, final CancellationToken cancellation) throws AciHttpException, IOException {
         LOGGER.trace("getGSSContext() called...");
 
+        GSSContext context = null;
         try {
             LOGGER.debug("Setting up to try and create a GSSContext...");
 
@@ -71,7 +78,7 @@ public class GssAciHttpClientImpl extends AciHttpClientImpl {
             final GSSName serverName = manager.createName(serverDetails.getServiceName(), krb5PrincipalNameType);
 
             // Set up the context...
-            final GSSContext context = manager.createContext(serverName, krb5Mechanism, null, GSSContext.DEFAULT_LIFETIME);
+            context = manager.createContext(serverName, krb5Mechanism, null, GSSContext.DEFAULT_LIFETIME);
             context.requestConf(true);
             context.requestMutualAuth(true);
             context.requestReplayDet(true);
@@ -81,6 +88,10 @@ public class GssAciHttpClientImpl extends AciHttpClientImpl {
             byte[] token = EMPTY_BYTE_ARRAY;
 
             while (!context.isEstablished()) {
+                if (cancellation != null) {
+                    cancellation.throwIfCancelled();
+                }
+
                 // token is ignored on the first call
                 token = context.initSecContext(token, 0, token.length);
 
@@ -92,6 +103,8 @@ public class GssAciHttpClientImpl extends AciHttpClientImpl {
                     parameters.add(AciConstants.PARAM_ACTION, "GSS");
                     // org.apache.hc.client5.http.utils.Base64;
                     parameters.add("gssServiceName", new String(Base64.encodeBase64(token), "UTF-8"));
+                    parameters.setDeadline(deadline);
+                    parameters.setCancellationToken(cancellation);
 
                     // Execute the action and process the response...
                     final AciResponseInputStream response = super.executeAction(serverDetails, parameters);
@@ -112,17 +125,36 @@ public class GssAciHttpClientImpl extends AciHttpClientImpl {
 
             // Return the context...
             return context;
+        } catch (final RequestCancelledException rce) {
+            LOGGER.debug("GSSContext establishment cancelled...");
+            disposeQuietly(context);
+            throw rce;
         } catch (final GSSException gsse) {
             throw new AciHttpException("Unable to establish a GSSContext.", gsse);
         } catch (final UnsupportedEncodingException uee) {
             throw new AciHttpException("Unable to establish a GSSContext due to an unsupported encoding.", uee);
         } catch (final ProcessorException pe) {
+            if ((cancellation != null) && cancellation.isCancelled()) {
+                // The connection was closed under the processor...
+                disposeQuietly(context);
+                throw new RequestCancelledException(pe);
+            }
             throw new AciHttpException("Unable to parse the context response.", pe);
         } catch (final AciErrorException aee) {
             throw new AciHttpException("Unable to establish a GSSContext with the ACI Server.", aee);
         }
     }
 
+    private static void disposeQuietly(final GSSContext context) {
+        if (context != null) {
+            try {
+                context.dispose();
+            } catch (final GSSException gsse) {
+                LOGGER.debug("Unable to dispose of the GSSContext", gsse);
+            }
+        }
+    }
+
     /**
      * Sets up a <code>GSSContext</code> for communicating with the GSS-API protected ACI server and then sends the
      * action. The <code>serverDetails</code> are copied and a <code>GssEncryptionCodec</code> set on the copy that has the
@@ -146,7 +178,7 @@ public class GssAciHttpClientImpl extends AciHttpClientImpl {
         Validate.isTrue(StringUtils.isNotBlank(((GssAciServerDetails) serverDetails).getServiceName()), "No serviceName set in serverDetails.");
 
         // Create the GSSContext...
-        final GSSContext gssContext = getGSSContext((GssAciServerDetails) serverDetails);
+        final GSSContext gssContext = getGSSContext((GssAciServerDetails) serverDetails, Deadline.of(parameters), CancellationToken.of(parameters));
 
         LOGGER.debug("Copying ACI server details and adding a GssEncryptionCodec...");
 
@@ -14,34 +14,26 @@
 
 package com.autonomy.aci.client.transport.impl;
 
-import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.RequestCancelledException;
 import com.autonomy.aci.client.transport.*;
-import com.autonomy.aci.client.util.ActionParameters;
-import com.autonomy.aci.client.util.EncryptionCodecUtils;
 import org.apache.commons.lang3.Validate;
 import org.apache.hc.client5.http.ClientProtocolException;
 import org.apache.hc.client5.http.classic.HttpClient;
-import org.apache.hc.client5.http.classic.methods.HttpGet;
-import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
-import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.client5.http.config.Configurable;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
 import org.apache.hc.core5.http.*;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
-import org.apache.hc.core5.http.io.entity.StringEntity;
-import org.apache.hc.core5.http.message.BasicNameValuePair;
-import org.apache.hc.core5.net.URIBuilder;
-import org.apache.hc.core5.net.WWWFormCodec;
+import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.charset.Charset;
-import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of the {@link com.autonomy.aci.client.transport.AciHttpClient} interface that provides the actual HTTP
@@ -54,6 +46,19 @@ import java.util.stream.Stream;
  * to this object. This configuration can be done in normal code, via the
  * {@link com.autonomy.aci.client.transport.impl.HttpClient5Factory}, or via an IoC container like
  * <a href="http://www.springsource.org/">Spring</a>.
+ * <p>
+ * The one exception is a request with a {@link Deadline}, which is sent with its own <code>RequestConfig</code>, based on
+ * the default <code>RequestConfig</code> of the <code>HttpClient</code>, or the
+ * {@link #setRequestConfig(RequestConfig) requestConfig} property if it's set, whose connection lease, connect and
+ * response timeouts are no longer than the time left until the deadline. A request whose deadline has already passed isn't sent,
+ * and fails with a {@link DeadlineExceededException}. One that times out at its deadline fails with the
+ * <code>InterruptedIOException</code> from the <code>HttpClient</code>, like any other timeout, so that decorators count
+ * it as a failure of the ACI Server; <code>AciServiceImpl</code> then reports it as a
+ * <code>DeadlineExceededException</code>.
+ * <p>
+ * A request with a {@link CancellationToken} isn't sent if the token has already been cancelled, and cancelling it later
+ * aborts the HTTP exchange, discarding the connection, until the response stream is closed. The request then fails with
+ * a {@link RequestCancelledException}.
  * @see <a href="http://hc.apache.org/">Apache HttpComponents</a>
  */
 public class AciHttpClientImpl implements AciHttpClient {
@@ -75,271 +80,165 @@ public class AciHttpClientImpl implements AciHttpClient {
     private boolean usePostMethod;
 
     /**
-     * Creates a new instance of AciHttpClientImpl.
-     * @param httpClient The {@code HttpClient} to use
+     * Holds value of property requestConfig.
      */
-    public AciHttpClientImpl(final HttpClient httpClient) {
-        this.httpClient = httpClient;
-    }
+    private RequestConfig requestConfig;
 
     /**
-     * Turns the {@code parameters} and {@code serverDetails} into either an HTTP GET or POST request.
-     * @param serverDetails The details of the ACI server the request will be sent to
-     * @param parameters    The parameters to send with the ACI action.
-     * @return A HTTP GET or POST request that can be used to execute the ACI action
-     * @throws EncryptionCodecException     If something went wrong encrypting the parameters
-     * @throws URISyntaxException           If something went wrong creating the URI to send the action to
-     * @throws UnsupportedEncodingException If there was a problem working with the parameters in the specified
-     *                                      character encoding
+     * Builds the HTTP requests that are sent to the ACI server.
      */
-    private HttpUriRequest constructHttpRequest(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) throws EncryptionCodecException, URISyntaxException, UnsupportedEncodingException {
-        LOGGER.trace("constructHttpMethod() called...");
-
-        final boolean hasPostParameter = parameters.stream()
-                .anyMatch(ActionParameter::requiresPostRequest);
-        final boolean encrypt = serverDetails.getEncryptionCodec() != null;
-
-        if (hasPostParameter) {
-            // OEM multipart is done by encrypting the querystring with at least 1 param (in this case the action),
-            // and not encrypting the body
-            final List<ActionParameter<?>> orderedParams = orderParams(parameters);
-            final List<ActionParameter<?>> urlParams = orderedParams.subList(0, 1);
-            final Collection<? extends ActionParameter<?>> encryptedUrlParams = encrypt ?
-                    createEncryptedParameters(serverDetails, urlParams) : urlParams;
-            final List<ActionParameter<?>> bodyParams = orderedParams.stream().skip(1).collect(Collectors.toList());
-            return createMultipartMethod(serverDetails, encryptedUrlParams, bodyParams);
-        } else {
-            final Set<? extends ActionParameter<?>> encryptedParams = encrypt ?
-                    createEncryptedParameters(serverDetails, parameters) : parameters;
-            if (usePostMethod) {
-                return createPostMethod(serverDetails, encryptedParams);
-            } else {
-                return createGetMethod(serverDetails, encryptedParams);
-            }
-        }
-    }
+    private final AciHttpRequestFactory requestFactory = new AciHttpRequestFactory();
 
     /**
-     * Takes the passed in set of parameters and encrypts them.
-     * @param serverDetails The details of the ACI server the request will be sent to
-     * @param parameters    The parameters to send with the ACI action.
-     * @return A set of encrypted parameters
-     * @throws EncryptionCodecException if something went wrong encrypting the parameters
-     */
-    private Set<? extends ActionParameter<?>> createEncryptedParameters(final AciServerDetails serverDetails, final Collection<? extends ActionParameter<?>> parameters) throws EncryptionCodecException {
-        LOGGER.trace("createEncryptedParameters() called...");
-
-        // Generate the query String and put it through the codec...
-        final String data = EncryptionCodecUtils.getInstance().encrypt(
-                serverDetails.getEncryptionCodec(),
-                wwwFormEncodeParams(orderParams(parameters), serverDetails.getCharsetName()),
-                serverDetails.getCharsetName()
-        );
-
-        // Create the parameters for an encrypted action...
-        return new ActionParameters(
-                new AciParameter(AciConstants.PARAM_ACTION, AciConstants.ACTION_ENCRYPTED),
-                new AciParameter(AciConstants.PARAM_DATA, data)
-        );
-    }
-
-    /**
-     * Create a {@code GetMethod} and adds the ACI parameters to the query string.
-     * @param serverDetails The details of the ACI server the request will be sent to
-     * @param parameters    The parameters to send with the ACI action.
-     * @return a {@code HttpGet} that is ready to execute the ACI action.
-     * @throws URISyntaxException If there was a problem construction the request URI from the <code>serverDetails</code>
-     *                            and <code>parameters</code>
+     * Creates a new instance of AciHttpClientImpl.
+     * @param httpClient The {@code HttpClient} to use
      */
-    private HttpUriRequest createGetMethod(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) throws URISyntaxException {
-        LOGGER.trace("createGetMethod() called...");
-
-        // Create the URI to use...
-        final URI uri = new URIBuilder()
-                .setScheme(serverDetails.getProtocol().toString().toLowerCase(Locale.ENGLISH))
-                .setHost(serverDetails.getHost())
-                .setPort(serverDetails.getPort())
-                .setPath(serverDetails.getPath())
-                .setParameters(paramsToNVP(orderParams(parameters)))
-                .build();
-
-        // Return the constructed get method...
-        return new HttpGet(uri);
+    public AciHttpClientImpl(final HttpClient httpClient) {
+        this.httpClient = httpClient;
     }
 
     /**
-     * Create multipart POST request.
-     *
-     * @param serverDetails
-     * @param urlParams Parameters to send in the URL querystring
-     * @param bodyParams Parameters to send in multipart body
-     * @return Built request
-     * @throws UnsupportedEncodingException
-     * @throws URISyntaxException
+     * Execute an ACI action on the specific ACI server.
+     * @param serverDetails Details of the ACI server to send the action to
+     * @param parameters    The parameters to send with the ACI action
+     * @return An <code>AciResponseInputStream</code> containing the ACI response
+     * @throws IOException               If an I/O (transport) error occurs. Some transport exceptions can be recovered from
+     * @throws AciHttpException          If a protocol exception occurs. Usually protocol exceptions cannot be recovered from
+     * @throws IllegalArgumentException  if the <code>httpClient</code> property is <code>null</code> or <code>parameters</code> is <code>null</code>
+     * @throws DeadlineExceededException If the request has a deadline that passed before it was sent
+     * @throws RequestCancelledException If the request has a cancellation token that was cancelled before the response
+     *                                   was received
      */
-    private HttpUriRequest createMultipartMethod(
-            final AciServerDetails serverDetails,
-            final Collection<? extends ActionParameter<?>> urlParams,
-            final Collection<? extends ActionParameter<?>> bodyParams
-    ) throws URISyntaxException, UnsupportedEncodingException {
-        LOGGER.trace("createMultipartMethod() called...");
-
-        final URI uri = new URIBuilder()
-                .setScheme(serverDetails.getProtocol().toString().toLowerCase(Locale.ENGLISH))
-                .setHost(serverDetails.getHost())
-                .setPort(serverDetails.getPort())
-                .setPath(serverDetails.getPath())
-                .setParameters(paramsToNVP(urlParams))
-                .build();
-
-        final HttpPost method = new HttpPost(uri);
+    @Override
+    public AciResponseInputStream executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) throws IOException, AciHttpException {
+        LOGGER.trace("executeAction() called...");
 
-        final Charset charset = Charset.forName(serverDetails.getCharsetName());
-        final MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create();
-        multipartEntityBuilder.setCharset(charset);
-        bodyParams.forEach(parameter -> parameter.addToEntity(multipartEntityBuilder, charset));
-        method.setEntity(multipartEntityBuilder.build());
+        Validate.notEmpty(parameters, "The parameter set must not be null or empty.");
 
-        return method;
-    }
+        LOGGER.debug("Executing action on {}:{}/{}...", serverDetails.getHost(), serverDetails.getPort(), serverDetails.getPath());
+        try {
+            Validate.notNull(httpClient, "You must set the HttpClient instance to use before using this class.");
 
-    /**
-     * Create form-urlencoded POST request.
-     *
-     * @param serverDetails
-     * @param parameters Parameters to send in form-urlencoded body
-     * @return Built request
-     * @throws UnsupportedEncodingException
-     * @throws URISyntaxException
-     */
-    private HttpUriRequest createPostMethod(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) throws URISyntaxException, UnsupportedEncodingException {
-        LOGGER.trace("createPostMethod() called...");
-
-        final URI uri = new URIBuilder()
-                .setScheme(serverDetails.getProtocol().toString().toLowerCase(Locale.ENGLISH))
-                .setHost(serverDetails.getHost())
-                .setPort(serverDetails.getPort())
-                .setPath(serverDetails.getPath())
-                .build();
+            final CancellationToken cancellation = CancellationToken.of(parameters);
+            if (cancellation != null) {
+                cancellation.throwIfCancelled();
+            }
 
-        final HttpPost method = new HttpPost(uri);
+            final Deadline deadline = Deadline.of(parameters);
+            final HttpClientContext context = (deadline == null) ? null : createContext(deadline);
 
-        method.setEntity(new StringEntity(
-                    wwwFormEncodeParams(orderParams(parameters), serverDetails.getCharsetName()),
-                    ContentType.TEXT_PLAIN));
+            final HttpUriRequest request = requestFactory.constructHttpRequest(serverDetails, parameters, usePostMethod);
+            if (cancellation == null) {
+                return readResponse(serverDetails, httpClient.executeOpen(null, request, context));
+            }
 
-        return method;
+            // Abort the exchange if the request is cancelled before the response has been read...
+            final CancellationToken.Registration registration = cancellation.onCancel(request::abort);
+            try {
+                final AciResponseInputStreamImpl response = readResponse(serverDetails, httpClient.executeOpen(null, request, context));
+                response.setCloseAction(registration::close);
+                return response;
+            } catch (final IOException | AciHttpException | RuntimeException e) {
+                registration.close();
+                if (cancellation.isCancelled() && !(e instanceof RequestCancelledException)) {
+                    throw new RequestCancelledException(e);
+                }
+                throw e;
+            }
+        } catch (final ClientProtocolException cpe) {
+            throw new AciHttpException("A HTTP protocol Exception has been caught while trying to execute the ACI request.", cpe);
+        } catch (final EncryptionCodecException ece) {
+            throw new AciHttpException("Unable to send the ACI request due to an encryption failure.", ece);
+        } catch (final URISyntaxException urise) {
+            throw new AciHttpException("Unable to construct the URI required to send the ACI request.", urise);
+        }
     }
 
-    /**
-     * @param parameters ACI request parameters
-     * @return Parameters ordered so that the action comes first
-     * @throws IllegalArgumentException When there is no action
-     */
-    private List<ActionParameter<?>> orderParams(final Collection<? extends ActionParameter<?>> parameters) {
-        LOGGER.trace("orderParams() called...");
-
-        // Just incase, remove the allowed null entry...
-        parameters.remove(null);
-
-        final List<ActionParameter<?>> ordered = new ArrayList<>(parameters.size());
+    private static AciResponseInputStreamImpl readResponse(final AciServerDetails serverDetails, final ClassicHttpResponse response) throws IOException, AciHttpException {
+        final int statusCode = response.getCode();
+        LOGGER.debug("Executed method and got status code - {}...", statusCode);
 
-        ActionParameter<?> actionParam = null;
+        // Treat anything other than a 2xx status code as an error...
+        if ((statusCode < 200) || (statusCode >= 300)) {
+            // close the connection so it can be reused
+            EntityUtils.consume(response.getEntity());
 
-        for (final ActionParameter<?> parameter : parameters) {
-            if (AciConstants.PARAM_ACTION.equalsIgnoreCase(parameter.getName())) {
-                actionParam = parameter;
-            } else {
-                ordered.add(parameter);
-            }
+            throw new AciHttpException(
+                    "The server returned a status code, " + statusCode +
+                            ", that wasn't in the 2xx Success range.");
         }
 
-        // Ensure that the action=XXX parameter is the first thing in the list...
-        Validate.isTrue(actionParam != null, "No 'action' parameter found in parameter set, please set one before trying to execute an ACI request.");
-        ordered.add(0, actionParam);
-
-        return ordered;
+        return createResponseInputStream(serverDetails, response);
     }
 
     /**
-     * Converts a sequence of string parameters into a a sequence of {@code NameValuePair} objects suitable for use
-     * in both POST and GET requests.  Order is preserved.
-     *
-     * @param parameters
-     * @return Pairs
+     * Creates the context for a request with a deadline, with a <code>RequestConfig</code> whose timeouts are no longer
+     * than the time left.
+     * @param deadline The deadline of the request
+     * @return The context
+     * @throws DeadlineExceededException If the deadline has already passed
      */
-    private List<NameValuePair> paramsToNVP(final Collection<? extends ActionParameter<?>> parameters) {
-        LOGGER.trace("paramsToNameValuePair() called...");
-        return parameters.stream().flatMap(parameter -> {
-            final Object value = parameter.getValue();
-            if (value instanceof String) {
-                return Stream.of(new BasicNameValuePair(parameter.getName(), (String) value));
-            } else {
-                return Stream.of();
-            }
-        }).collect(Collectors.toList());
+    HttpClientContext createContext(final Deadline deadline) {
+        return createContext((requestConfig == null) ? getDefaultRequestConfig(httpClient) : requestConfig, deadline);
     }
 
     /**
-     * Encodes a sequence of parameters to form-urlencoded request body, preserving order.
-     *
-     * @param parameters
-     * @param charsetName
-     * @return Request body
+     * Returns the default <code>RequestConfig</code> of a client, which is replaced for requests with a deadline.
+     * @param client The client, e.g. one created by {@link HttpClient5Factory}
+     * @return The client's default configuration, or <code>RequestConfig.DEFAULT</code> if it doesn't expose it
      */
-    private String wwwFormEncodeParams(final List<? extends ActionParameter<?>> parameters, final String charsetName) {
-        return WWWFormCodec.format(paramsToNVP(parameters), Charset.forName(charsetName));
+    static RequestConfig getDefaultRequestConfig(final Object client) {
+        final RequestConfig config = (client instanceof Configurable) ? ((Configurable) client).getConfig() : null;
+        return (config == null) ? RequestConfig.DEFAULT : config;
     }
 
     /**
-     * Execute an ACI action on the specific ACI server.
-     * @param serverDetails Details of the ACI server to send the action to
-     * @param parameters    The parameters to send with the ACI action
-     * @return An <code>AciResponseInputStream</code> containing the ACI response
-     * @throws IOException              If an I/O (transport) error occurs. Some transport exceptions can be recovered from
-     * @throws AciHttpException         If a protocol exception occurs. Usually protocol exceptions cannot be recovered from
-     * @throws IllegalArgumentException if the <code>httpClient</code> property is <code>null</code> or <code>parameters</code> is <code>null</code>
+     * Creates the context for a request with a deadline, with a copy of <code>baseConfig</code> whose timeouts are no
+     * longer than the time left.
+     * @param baseConfig The configuration the request would otherwise be sent with
+     * @param deadline   The deadline of the request
+     * @return The context
+     * @throws DeadlineExceededException If the deadline has already passed
      */
-    @Override
-    public AciResponseInputStream executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) throws IOException, AciHttpException {
-        LOGGER.trace("executeAction() called...");
-
-        Validate.notEmpty(parameters, "The parameter set must not be null or empty.");
-
-        LOGGER.debug("Executing action on {}:{}/{}...", serverDetails.getHost(), serverDetails.getPort(), serverDetails.getPath());
-        try {
-            Validate.notNull(httpClient, "You must set the HttpClient instance to use before using this class.");
-
-            final HttpUriRequest request = constructHttpRequest(serverDetails, parameters);
-            final ClassicHttpResponse response = httpClient.executeOpen(null, request, null);
-            final int statusCode = response.getCode();
-            LOGGER.debug("Executed method and got status code - {}...", statusCode);
+    static HttpClientContext createContext(final RequestConfig baseConfig, final Deadline deadline) {
+        final long remaining = deadline.getTimeRemaining(TimeUnit.MILLISECONDS);
+        if (remaining == 0) {
+            LOGGER.debug("Not sending the request as its deadline has passed");
+            throw new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS));
+        }
 
-            // Treat anything other than a 2xx status code as an error...
-            if ((statusCode < 200) || (statusCode >= 300)) {
-                // close the connection so it can be reused
-                EntityUtils.consume(response.getEntity());
+        final Timeout timeout = Timeout.ofMilliseconds(remaining);
+        @SuppressWarnings("deprecation")
+        final RequestConfig config = RequestConfig.copy(baseConfig)
+                .setConnectionRequestTimeout(min(baseConfig.getConnectionRequestTimeout(), timeout))
+                .setConnectTimeout(min(baseConfig.getConnectTimeout(), timeout))
+                .setResponseTimeout(min(baseConfig.getResponseTimeout(), timeout))
+                .build();
 
-                throw new AciHttpException(
-                        "The server returned a status code, " + statusCode +
-                                ", that wasn't in the 2xx Success range.");
-            }
+        final HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(config);
+        return context;
+    }
 
-            // Decorate the InputStream so we can release the HTTP connection once the stream's been read...
-            return decryptResponse(serverDetails.getEncryptionCodec(), response)
-                    ? new DecryptingAciResponseInputStreamImpl(serverDetails, response)
-                    : new AciResponseInputStreamImpl(response);
+    private static Timeout min(final Timeout configured, final Timeout remaining) {
+        return ((configured == null) || configured.isDisabled() || (configured.compareTo(remaining) > 0)) ? remaining : configured;
+    }
 
-        } catch (final ClientProtocolException cpe) {
-            throw new AciHttpException("A HTTP protocol Exception has been caught while trying to execute the ACI request.", cpe);
-        } catch (final EncryptionCodecException ece) {
-            throw new AciHttpException("Unable to send the ACI request due to an encryption failure.", ece);
-        } catch (final URISyntaxException urise) {
-            throw new AciHttpException("Unable to construct the URI required to send the ACI request.", urise);
-        }
+    /**
+     * Decorates the response's <code>InputStream</code> so the HTTP connection can be released once the stream's been
+     * read, decrypting the response if it was encrypted.
+     * @param serverDetails The details of the ACI server the response came from
+     * @param response      The successful HTTP response
+     * @return An <code>AciResponseInputStream</code> containing the ACI response
+     * @throws IOException If an I/O error occurs reading, or decrypting, the response
+     */
+    static AciResponseInputStreamImpl createResponseInputStream(final AciServerDetails serverDetails, final ClassicHttpResponse response) throws IOException {
+        return decryptResponse(serverDetails.getEncryptionCodec(), response)
+                ? new DecryptingAciResponseInputStreamImpl(serverDetails, response)
+                : new AciResponseInputStreamImpl(response);
     }
 
-    private boolean decryptResponse(final EncryptionCodec encryptionCodec, final HttpResponse response) {
+    static boolean decryptResponse(final EncryptionCodec encryptionCodec, final HttpResponse response) {
         LOGGER.trace("decryptResponse() called...");
 
         // If there is no encryptionCodec then we don't need to check the headers...
@@ -379,4 +278,23 @@ public class AciHttpClientImpl implements AciHttpClient {
         this.usePostMethod = usePostMethod;
     }
 
+    /**
+     * Getter for property requestConfig.
+     * @return Value of property requestConfig
+     */
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
+    }
+
+    /**
+     * Sets the configuration that the <code>RequestConfig</code> of a request with a deadline is based on. It should
+     * match the default <code>RequestConfig</code> of the <code>HttpClient</code>, as it replaces it for those requests.
+     * The default is <code>null</code>, which uses the default of the <code>HttpClient</code> when it exposes it, as
+     * those created by {@link HttpClient5Factory} do, and <code>RequestConfig.DEFAULT</code> otherwise.
+     * @param requestConfig New value of property requestConfig
+     */
+    public void setRequestConfig(final RequestConfig requestConfig) {
+        this.requestConfig = requestConfig;
+    }
+
 }
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.transport.*;
+import com.autonomy.aci.client.util.ActionParameters;
+import com.autonomy.aci.client.util.ActionTemplate;
+import com.autonomy.aci.client.util.BoundActionParameters;
+import com.autonomy.aci.client.util.EncryptionCodecUtils;
+import org.apache.commons.lang3.Validate;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Turns a set of ACI parameters and the details of the ACI server they're to be sent to into a HTTP request. This is
+ * shared by the blocking and non-blocking {@code AciHttpClient} implementations so that both send exactly the same
+ * <code>GET</code>, <code>POST</code>, multipart and encrypted requests.
+ */
+final class AciHttpRequestFactory {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AciHttpRequestFactory.class);
+
+    /**
+     * Turns the {@code parameters} and {@code serverDetails} into either an HTTP GET or POST request.
+     * @param serverDetails The details of the ACI server the request will be sent to
+     * @param parameters    The parameters to send with the ACI action.
+     * @param usePostMethod Whether non-multipart requests should be sent with the HTTP <code>POST</code> method
+     * @return A HTTP GET or POST request that can be used to execute the ACI action
+     * @throws EncryptionCodecException     If something went wrong encrypting the parameters
+     * @throws URISyntaxException           If something went wrong creating the URI to send the action to
+     * @throws UnsupportedEncodingException If there was a problem working with the parameters in the specified
+     *                                      character encoding
+     */
+    HttpUriRequest constructHttpRequest(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters, final boolean usePostMethod) throws EncryptionCodecException, URISyntaxException, UnsupportedEncodingException {
+        LOGGER.trace("constructHttpMethod() called...");
+
+        if (parameters instanceof BoundActionParameters) {
+            return createTemplateMethod(serverDetails, (BoundActionParameters) parameters, usePostMethod);
+        }
+
+        boolean hasPostParameter = false;
+        for (final ActionParameter<?> parameter : parameters) {
+            if ((parameter != null) && parameter.requiresPostRequest()) {
+                hasPostParameter = true;
+                break;
+            }
+        }
+        final boolean encrypt = serverDetails.getEncryptionCodec() != null;
+
+        if (hasPostParameter) {
+            // OEM multipart is done by encrypting the querystring with at least 1 param (in this case the action),
+            // and not encrypting the body
+            final List<ActionParameter<?>> orderedParams = orderParams(parameters);
+            final List<ActionParameter<?>> urlParams = orderedParams.subList(0, 1);
+            final Collection<? extends ActionParameter<?>> encryptedUrlParams = encrypt ?
+                    createEncryptedParameters(serverDetails, urlParams) : urlParams;
+            final List<ActionParameter<?>> bodyParams = orderedParams.stream().skip(1).collect(Collectors.toList());
+            return createMultipartMethod(serverDetails, encryptedUrlParams, bodyParams);
+        } else {
+            final Set<? extends ActionParameter<?>> encryptedParams = encrypt ?
+                    createEncryptedParameters(serverDetails, parameters) : parameters;
+            if (usePostMethod) {
+                return createPostMethod(serverDetails, encryptedParams);
+            } else {
+                return createGetMethod(serverDetails, encryptedParams);
+            }
+        }
+    }
+
+    /**
+     * Creates a request for parameters bound to an {@link ActionTemplate}. The fixed parameters are encoded once per
+     * template, and cached on it, so only the bound parameters are encoded here. Encrypted requests are sent in the same
+     * way as any other, just without having to encode the fixed parameters before encrypting them.
+     * @param serverDetails The details of the ACI server the request will be sent to
+     * @param parameters    The parameters to send with the ACI action
+     * @param usePostMethod Whether the request should be sent with the HTTP <code>POST</code> method
+     * @return A HTTP GET or POST request that can be used to execute the ACI action
+     * @throws EncryptionCodecException If something went wrong encrypting the parameters
+     * @throws URISyntaxException       If something went wrong creating the URI to send the action to
+     */
+    HttpUriRequest createTemplateMethod(final AciServerDetails serverDetails, final BoundActionParameters parameters, final boolean usePostMethod) throws EncryptionCodecException, URISyntaxException {
+        LOGGER.trace("createTemplateMethod() called...");
+
+        final ActionTemplate template = parameters.getTemplate();
+        final AciRequestPrototype prototype = serverDetails.getRequestPrototype();
+
+        if (serverDetails.getEncryptionCodec() != null) {
+            final Charset charset = prototype.getCharset();
+            final Set<? extends ActionParameter<?>> encryptedParams = createEncryptedParameters(serverDetails, ActionParameterEncoder.get().encodeForm(
+                    template.getEncodedForm(charset, (fixed, fixedCharset) -> ActionParameterEncoder.get().encodeForm(fixed, fixedCharset)),
+                    parameters.getBoundParameters(),
+                    charset));
+            return usePostMethod ? createPostMethod(serverDetails, encryptedParams) : createGetMethod(serverDetails, encryptedParams);
+        }
+
+        if (usePostMethod) {
+            final Charset charset = prototype.getCharset();
+            final HttpPost method = new HttpPost(prototype.getBaseUri());
+            method.setEntity(new ByteArrayEntity(
+                    ActionParameterEncoder.get().encodeFormBody(
+                            template.getEncodedForm(charset, (fixed, fixedCharset) -> ActionParameterEncoder.get().encodeForm(fixed, fixedCharset)),
+                            parameters.getBoundParameters(),
+                            charset),
+                    ContentType.TEXT_PLAIN));
+            return method;
+        }
+
+        final HttpGet method = new HttpGet(prototype.getBaseUri());
+        method.setPath(ActionParameterEncoder.get().encodePath(
+                prototype.getEncodedPath(),
+                template.getEncodedQuery(fixed -> ActionParameterEncoder.get().encodeQuery(fixed)),
+                parameters.getBoundParameters()));
+        return method;
+    }
+
+    /**
+     * Takes the passed in set of parameters and encrypts them.
+     * @param serverDetails The details of the ACI server the request will be sent to
+     * @param parameters    The parameters to send with the ACI action.
+     * @return A set of encrypted parameters
+     * @throws EncryptionCodecException if something went wrong encrypting the parameters
+     * @throws URISyntaxException       If the request prototype for the <code>serverDetails</code> couldn't be built
+     */
+    Set<? extends ActionParameter<?>> createEncryptedParameters(final AciServerDetails serverDetails, final Collection<? extends ActionParameter<?>> parameters) throws EncryptionCodecException, URISyntaxException {
+        LOGGER.trace("createEncryptedParameters() called...");
+
+        // Generate the query String and put it through the codec...
+        return createEncryptedParameters(serverDetails, ActionParameterEncoder.get().encodeForm(parameters, serverDetails.getRequestPrototype().getCharset()));
+    }
+
+    private Set<? extends ActionParameter<?>> createEncryptedParameters(final AciServerDetails serverDetails, final String queryString) throws EncryptionCodecException {
+        final String data = EncryptionCodecUtils.getInstance().encrypt(
+                serverDetails.getEncryptionCodec(),
+                queryString,
+                serverDetails.getCharsetName()
+        );
+
+        // Create the parameters for an encrypted action...
+        return new ActionParameters(
+                new AciParameter(AciConstants.PARAM_ACTION, AciConstants.ACTION_ENCRYPTED),
+                new AciParameter(AciConstants.PARAM_DATA, data)
+        );
+    }
+
+    /**
+     * Create a {@code GetMethod} and adds the ACI parameters to the query string.
+     * @param serverDetails The details of the ACI server the request will be sent to
+     * @param parameters    The parameters to send with the ACI action.
+     * @return a {@code HttpGet} that is ready to execute the ACI action.
+     * @throws URISyntaxException If there was a problem construction the request URI from the <code>serverDetails</code>
+     *                            and <code>parameters</code>
+     */
+    HttpUriRequest createGetMethod(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) throws URISyntaxException {
+        LOGGER.trace("createGetMethod() called...");
+
+        final AciRequestPrototype prototype = serverDetails.getRequestPrototype();
+        final HttpGet method = new HttpGet(prototype.getBaseUri());
+        method.setPath(ActionParameterEncoder.get().encodePath(prototype.getEncodedPath(), parameters));
+
+        // Return the constructed get method...
+        return method;
+    }
+
+    /**
+     * Create multipart POST request.
+     *
+     * @param serverDetails The details of the ACI server the request will be sent to
+     * @param urlParams Parameters to send in the URL querystring
+     * @param bodyParams Parameters to send in multipart body
+     * @return Built request
+     * @throws URISyntaxException If there was a problem construction the request URI from the <code>serverDetails</code>
+     *                            and <code>urlParams</code>
+     */
+    HttpUriRequest createMultipartMethod(
+            final AciServerDetails serverDetails,
+            final Collection<? extends ActionParameter<?>> urlParams,
+            final Collection<? extends ActionParameter<?>> bodyParams
+    ) throws URISyntaxException {
+        LOGGER.trace("createMultipartMethod() called...");
+
+        final AciRequestPrototype prototype = serverDetails.getRequestPrototype();
+        final HttpPost method = new HttpPost(prototype.getBaseUri());
+        method.setPath(ActionParameterEncoder.get().encodePath(prototype.getEncodedPath(), urlParams));
+
+        final Charset charset = prototype.getCharset();
+        final MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create();
+        multipartEntityBuilder.setCharset(charset);
+        bodyParams.forEach(parameter -> parameter.addToEntity(multipartEntityBuilder, charset));
+        method.setEntity(multipartEntityBuilder.build());
+
+        return method;
+    }
+
+    /**
+     * Create form-urlencoded POST request.
+     *
+     * @param serverDetails The details of the ACI server the request will be sent to
+     * @param parameters Parameters to send in form-urlencoded body
+     * @return Built request
+     * @throws URISyntaxException If there was a problem construction the request URI from the <code>serverDetails</code>
+     */
+    HttpUriRequest createPostMethod(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) throws URISyntaxException {
+        LOGGER.trace("createPostMethod() called...");
+
+        final AciRequestPrototype prototype = serverDetails.getRequestPrototype();
+        final HttpPost method = new HttpPost(prototype.getBaseUri());
+
+        method.setEntity(new ByteArrayEntity(
+                    ActionParameterEncoder.get().encodeFormBody(parameters, prototype.getCharset()),
+                    ContentType.TEXT_PLAIN));
+
+        return method;
+    }
+
+    /**
+     * @param parameters ACI request parameters
+     * @return Parameters ordered so that the action comes first
+     * @throws IllegalArgumentException When there is no action
+     */
+    List<ActionParameter<?>> orderParams(final Collection<? extends ActionParameter<?>> parameters) {
+        LOGGER.trace("orderParams() called...");
+
+        // Just incase, remove the allowed null entry...
+        parameters.remove(null);
+
+        final List<ActionParameter<?>> ordered = new ArrayList<>(parameters.size());
+
+        ActionParameter<?> actionParam = null;
+
+        for (final ActionParameter<?> parameter : parameters) {
+            if (AciConstants.PARAM_ACTION.equalsIgnoreCase(parameter.getName())) {
+                actionParam = parameter;
+            } else {
+                ordered.add(parameter);
+            }
+        }
+
+        // Ensure that the action=XXX parameter is the first thing in the list...
+        Validate.isTrue(actionParam != null, "No 'action' parameter found in parameter set, please set one before trying to execute an ACI request.");
+        ordered.add(0, actionParam);
+
+        return ordered;
+    }
+
+}
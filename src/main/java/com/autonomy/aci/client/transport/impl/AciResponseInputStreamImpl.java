@@ -22,6 +22,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * This {@code AciResponseInputStream} implementation provides the ability to release a {@code HttpClient} connection
@@ -41,6 +44,11 @@ public class AciResponseInputStreamImpl extends AciResponseInputStream {
 
     private final ClassicHttpResponse response;
 
+    /**
+     * Run once the connection has been released, if set.
+     */
+    private Runnable closeAction;
+
     /**
      * Creates a new instance of AciResponseInputStreamImpl.
      * @param response An {@code HttpResponse} that contains the ACI response as an {@code InputStream}
@@ -72,6 +80,15 @@ public class AciResponseInputStreamImpl extends AciResponseInputStream {
         return getHeaderValue(response.getFirstHeader(name));
     }
 
+    @Override
+    public Map<String, String> getHeaders() {
+        final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (final Header header : response.getHeaders()) {
+            headers.putIfAbsent(header.getName(), header.getValue());
+        }
+        return Collections.unmodifiableMap(headers);
+    }
+
     @Override
     public String getContentEncoding() {
         return response.getEntity().getContentEncoding();
@@ -101,8 +118,18 @@ public class AciResponseInputStreamImpl extends AciResponseInputStream {
             super.close();
         } finally {
             LOGGER.debug("Releasing the HTTP Connection...");
-            EntityUtils.consume(response.getEntity());
+            try {
+                EntityUtils.consume(response.getEntity());
+            } finally {
+                if (closeAction != null) {
+                    closeAction.run();
+                }
+            }
         }
     }
 
+    void setCloseAction(final Runnable closeAction) {
+        this.closeAction = closeAction;
+    }
+
 }
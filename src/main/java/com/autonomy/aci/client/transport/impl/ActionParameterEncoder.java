@@ -0,0 +1,332 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.transport.ActionParameter;
+import org.apache.commons.lang3.Validate;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Percent-encodes ACI parameters into a query string or a form-urlencoded body, with the <code>action</code> parameter
+ * first, without building any intermediate lists, name/value pairs or strings. Everything is written into buffers that
+ * are reused by the next request on the same thread, so the only garbage left by a request is the final path or body.
+ * <p>
+ * The output is the same as {@code URIBuilder} produces for a query string and {@code WWWFormCodec} for a form body:
+ * only <code>ALPHA / DIGIT / "-" / "." / "_" / "~"</code> are left as they are, and spaces are encoded as
+ * <code>%20</code> in a query string and <code>+</code> in a form body. Parameters whose value isn't a
+ * <code>String</code>, i.e. those that have to be sent in a multipart body, are skipped.
+ * <p>
+ * Instances aren't thread safe, use {@link #get()} to get the one for the current thread. Each virtual thread gets its own
+ * instance, so the buffers are only reused when requests are made from a pool of platform threads.
+ */
+final class ActionParameterEncoder {
+
+    /**
+     * Buffers that have grown beyond this many characters, e.g. for a very long <code>Text</code> parameter, aren't kept
+     * for the next request.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final int INITIAL_CAPACITY = 512;
+
+    /**
+     * The number of characters of a non-ASCII run that are passed to the <code>CharsetEncoder</code> at once.
+     */
+    private static final int CHUNK_SIZE = 64;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static final ThreadLocal<ActionParameterEncoder> INSTANCES = ThreadLocal.withInitial(ActionParameterEncoder::new);
+
+    private final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+
+    private StringBuilder builder = new StringBuilder(INITIAL_CAPACITY);
+
+    private ByteBuffer bytes;
+
+    private Charset charset;
+
+    private CharsetEncoder encoder;
+
+    private boolean asciiCompatible;
+
+    private ActionParameterEncoder() {
+    }
+
+    /**
+     * @return The encoder for the current thread
+     */
+    static ActionParameterEncoder get() {
+        return INSTANCES.get();
+    }
+
+    /**
+     * Appends the parameters to an already encoded path as a UTF-8 query string.
+     * @param encodedPath The percent-encoded path
+     * @param parameters  The parameters, which must include an <code>action</code> parameter
+     * @return The path and query string for the request line
+     * @throws IllegalArgumentException If there is no <code>action</code> parameter
+     */
+    String encodePath(final String encodedPath, final Collection<? extends ActionParameter<?>> parameters) {
+        reset(StandardCharsets.UTF_8);
+        builder.append(encodedPath).append('?');
+        final int queryStart = builder.length();
+
+        appendParameters(parameters, false);
+
+        if (builder.length() == queryStart) {
+            // Don't leave a trailing '?'...
+            builder.setLength(queryStart - 1);
+        }
+        return release();
+    }
+
+    /**
+     * Encodes the parameters as a form-urlencoded string.
+     * @param parameters The parameters, which must include an <code>action</code> parameter
+     * @param charset    The character encoding to use
+     * @return The encoded parameters
+     * @throws IllegalArgumentException If there is no <code>action</code> parameter
+     */
+    String encodeForm(final Collection<? extends ActionParameter<?>> parameters, final Charset charset) {
+        reset(charset);
+        appendParameters(parameters, true);
+        return release();
+    }
+
+    /**
+     * Encodes the parameters as a form-urlencoded body, without creating a <code>String</code> first.
+     * @param parameters The parameters, which must include an <code>action</code> parameter
+     * @param charset    The character encoding to use
+     * @return The encoded parameters, which are always ASCII
+     * @throws IllegalArgumentException If there is no <code>action</code> parameter
+     */
+    byte[] encodeFormBody(final Collection<? extends ActionParameter<?>> parameters, final Charset charset) {
+        reset(charset);
+        appendParameters(parameters, true);
+        return toBody();
+    }
+
+    /**
+     * Encodes the parameters as a UTF-8 query string.
+     * @param parameters The parameters, which must include an <code>action</code> parameter
+     * @return The query string, without a leading <code>?</code>
+     * @throws IllegalArgumentException If there is no <code>action</code> parameter
+     */
+    String encodeQuery(final Collection<? extends ActionParameter<?>> parameters) {
+        reset(StandardCharsets.UTF_8);
+        appendParameters(parameters, false);
+        return release();
+    }
+
+    /**
+     * Appends already encoded parameters and then more parameters to an already encoded path as a UTF-8 query string.
+     * @param encodedPath       The percent-encoded path
+     * @param encodedParameters The percent-encoded parameters, starting with the action
+     * @param parameters        The other parameters
+     * @return The path and query string for the request line
+     */
+    String encodePath(final String encodedPath, final String encodedParameters, final Collection<? extends ActionParameter<?>> parameters) {
+        reset(StandardCharsets.UTF_8);
+        builder.append(encodedPath).append('?');
+        appendParameters(encodedParameters, parameters, false);
+        return release();
+    }
+
+    /**
+     * Encodes already encoded parameters followed by more parameters as a form-urlencoded string.
+     * @param encodedParameters The form-urlencoded parameters, starting with the action
+     * @param parameters        The other parameters
+     * @param charset           The character encoding to use
+     * @return The encoded parameters
+     */
+    String encodeForm(final String encodedParameters, final Collection<? extends ActionParameter<?>> parameters, final Charset charset) {
+        reset(charset);
+        appendParameters(encodedParameters, parameters, true);
+        return release();
+    }
+
+    /**
+     * Encodes already encoded parameters followed by more parameters as a form-urlencoded body.
+     * @param encodedParameters The form-urlencoded parameters, starting with the action
+     * @param parameters        The other parameters
+     * @param charset           The character encoding to use
+     * @return The encoded parameters, which are always ASCII
+     */
+    byte[] encodeFormBody(final String encodedParameters, final Collection<? extends ActionParameter<?>> parameters, final Charset charset) {
+        reset(charset);
+        appendParameters(encodedParameters, parameters, true);
+        return toBody();
+    }
+
+    private void reset(final Charset charset) {
+        builder.setLength(0);
+
+        if (!charset.equals(this.charset)) {
+            this.charset = charset;
+            this.asciiCompatible = StandardCharsets.UTF_8.equals(charset)
+                    || StandardCharsets.ISO_8859_1.equals(charset)
+                    || StandardCharsets.US_ASCII.equals(charset);
+            // Replace unmappable characters in the same way as Charset.encode() does...
+            this.encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.bytes = ByteBuffer.allocate((int) Math.ceil(CHUNK_SIZE * encoder.maxBytesPerChar()) + 16);
+        }
+    }
+
+    private byte[] toBody() {
+        final int length = builder.length();
+        final byte[] body = new byte[length];
+        for (int ii = 0; ii < length; ii++) {
+            body[ii] = (byte) builder.charAt(ii);
+        }
+
+        trim();
+        return body;
+    }
+
+    private String release() {
+        final String encoded = builder.toString();
+        trim();
+        return encoded;
+    }
+
+    private void trim() {
+        if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+            builder = new StringBuilder(INITIAL_CAPACITY);
+        }
+    }
+
+    private void appendParameters(final Collection<? extends ActionParameter<?>> parameters, final boolean blankAsPlus) {
+        ActionParameter<?> action = null;
+        for (final ActionParameter<?> parameter : parameters) {
+            if ((parameter != null) && AciConstants.PARAM_ACTION.equalsIgnoreCase(parameter.getName())) {
+                action = parameter;
+                break;
+            }
+        }
+        Validate.isTrue(action != null, "No 'action' parameter found in parameter set, please set one before trying to execute an ACI request.");
+
+        // Ensure that the action=XXX parameter is the first thing in the query string...
+        final int start = builder.length();
+        appendParameter(action, start, blankAsPlus);
+        for (final ActionParameter<?> parameter : parameters) {
+            if ((parameter != null) && (parameter != action)) {
+                appendParameter(parameter, start, blankAsPlus);
+            }
+        }
+    }
+
+    private void appendParameters(final String encodedParameters, final Collection<? extends ActionParameter<?>> parameters, final boolean blankAsPlus) {
+        final int start = builder.length();
+        builder.append(encodedParameters);
+        for (final ActionParameter<?> parameter : parameters) {
+            appendParameter(parameter, start, blankAsPlus);
+        }
+    }
+
+    private void appendParameter(final ActionParameter<?> parameter, final int start, final boolean blankAsPlus) {
+        final Object value = parameter.getValue();
+        if (value instanceof String) {
+            if (builder.length() > start) {
+                builder.append('&');
+            }
+            appendEncoded(parameter.getName(), blankAsPlus);
+            builder.append('=');
+            appendEncoded((String) value, blankAsPlus);
+        }
+    }
+
+    private void appendEncoded(final String content, final boolean blankAsPlus) {
+        if (!asciiCompatible) {
+            appendEncodedRun(content, 0, content.length(), blankAsPlus);
+            return;
+        }
+
+        // ASCII characters are the same single byte in each of the compatible charsets, so only runs of other characters
+        // need to go through the CharsetEncoder...
+        final int length = content.length();
+        int ii = 0;
+        while (ii < length) {
+            final char c = content.charAt(ii);
+            if (c < 0x80) {
+                appendByte((byte) c, blankAsPlus);
+                ii++;
+            } else {
+                int end = ii + 1;
+                while ((end < length) && (content.charAt(end) >= 0x80)) {
+                    end++;
+                }
+                appendEncodedRun(content, ii, end, blankAsPlus);
+                ii = end;
+            }
+        }
+    }
+
+    private void appendEncodedRun(final String content, final int start, final int end, final boolean blankAsPlus) {
+        encoder.reset();
+
+        int position = start;
+        while (position < end) {
+            int count = Math.min(CHUNK_SIZE, end - position);
+            if ((position + count < end) && Character.isHighSurrogate(content.charAt(position + count - 1)) && (count > 1)) {
+                // Keep surrogate pairs in the same chunk...
+                count--;
+            }
+
+            chars.clear();
+            for (int ii = 0; ii < count; ii++) {
+                chars.put(content.charAt(position + ii));
+            }
+            chars.flip();
+            position += count;
+
+            final boolean endOfInput = position >= end;
+            bytes.clear();
+            encoder.encode(chars, bytes, endOfInput);
+            if (endOfInput) {
+                encoder.flush(bytes);
+            }
+            bytes.flip();
+
+            while (bytes.hasRemaining()) {
+                appendByte(bytes.get(), blankAsPlus);
+            }
+        }
+    }
+
+    private void appendByte(final byte b, final boolean blankAsPlus) {
+        if (((b >= 'a') && (b <= 'z')) || ((b >= 'A') && (b <= 'Z')) || ((b >= '0') && (b <= '9'))
+                || (b == '-') || (b == '.') || (b == '_') || (b == '~')) {
+            builder.append((char) b);
+        } else if (blankAsPlus && (b == ' ')) {
+            builder.append('+');
+        } else {
+            builder.append('%')
+                    .append(HEX_DIGITS[(b >> 4) & 0x0F])
+                    .append(HEX_DIGITS[b & 0x0F]);
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * The adaptive concurrency limit for a single ACI Server, created and used by {@link ConcurrencyLimitingAciHttpClient}.
+ * <p>
+ * The limit follows the gradient between the long term average round trip time and the latest one. While the server
+ * responds as quickly as it usually does the gradient is <code>1</code> and the limit grows by
+ * <code>queueAllowance</code>; as the server slows down and requests start queuing inside it, the gradient falls
+ * towards <code>0.5</code> and the limit shrinks with it. Each new limit is smoothed with the previous one, and a
+ * failed request reduces the limit by <code>backoffRatio</code>. The limit only grows while the server is being used
+ * to at least half of it, so a quiet period doesn't leave it unrealistically high.
+ * <p>
+ * Requests over the limit wait, in order, for up to <code>maxQueueTime</code>, and are shed if the wait would be longer
+ * or there are already <code>maxQueueSize</code> requests waiting.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    /**
+     * The number of samples the long term average round trip time is taken over.
+     */
+    private static final int LONG_WINDOW = 600;
+
+    /**
+     * The number of samples that are simply averaged before the long term average starts decaying.
+     */
+    private static final int WARM_UP_SAMPLES = 10;
+
+    private final AciServerDetails serverDetails;
+
+    private final LongSupplier nanoClock;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double rttTolerance;
+
+    private final double smoothing;
+
+    private final double backoffRatio;
+
+    private final int queueAllowance;
+
+    private final long maxQueueTimeNanos;
+
+    private final int maxQueueSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The requests waiting for a permit, oldest first.
+     */
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    private double limit;
+
+    private int inFlight;
+
+    private double longRtt;
+
+    private int samples;
+
+    private long shedCount;
+
+    AdaptiveConcurrencyLimiter(final AciServerDetails serverDetails, final ConcurrencyLimitingAciHttpClient settings, final LongSupplier nanoClock) {
+        this.serverDetails = serverDetails;
+        this.nanoClock = nanoClock;
+        this.minLimit = settings.getMinLimit();
+        this.maxLimit = Math.max(settings.getMaxLimit(), minLimit);
+        this.rttTolerance = settings.getRttTolerance();
+        this.smoothing = settings.getSmoothing();
+        this.backoffRatio = settings.getBackoffRatio();
+        this.queueAllowance = settings.getQueueAllowance();
+        this.maxQueueTimeNanos = TimeUnit.MILLISECONDS.toNanos(settings.getMaxQueueTime());
+        this.maxQueueSize = settings.getMaxQueueSize();
+        this.limit = Math.min(Math.max(settings.getInitialLimit(), minLimit), maxLimit);
+    }
+
+    /**
+     * Asks for permission to send a request, waiting for up to <code>maxQueueTime</code> if the limit has been reached.
+     * @return <code>true</code> if the request can be sent, in which case {@link #release()} must be called once it has
+     * finished, or <code>false</code> if it should be shed
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public boolean tryAcquire() throws InterruptedException {
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && (inFlight < (int) limit)) {
+                inFlight++;
+                return true;
+            }
+
+            if ((maxQueueTimeNanos <= 0) || (waiters.size() >= maxQueueSize)) {
+                shedCount++;
+                return false;
+            }
+
+            final Waiter waiter = new Waiter(lock.newCondition());
+            waiters.addLast(waiter);
+
+            final long deadline = nanoClock.getAsLong() + maxQueueTimeNanos;
+            try {
+                while (!waiter.granted) {
+                    final long remaining = deadline - nanoClock.getAsLong();
+                    if (remaining <= 0) {
+                        waiters.remove(waiter);
+                        shedCount++;
+                        return false;
+                    }
+                    waiter.condition.awaitNanos(remaining);
+                }
+            } catch (final InterruptedException e) {
+                if (waiter.granted) {
+                    releaseLocked();
+                } else {
+                    waiters.remove(waiter);
+                }
+                throw e;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the permit of a request that has finished, letting the next waiting request through.
+     */
+    public void release() {
+        lock.lock();
+        try {
+            releaseLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the round trip time of a request that succeeded, adjusting the limit.
+     * @param rttNanos How long the request took to respond
+     */
+    public void onSuccess(final long rttNanos) {
+        if (rttNanos <= 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            samples++;
+            if (samples <= WARM_UP_SAMPLES) {
+                longRtt += (rttNanos - longRtt) / samples;
+            } else {
+                longRtt += (rttNanos - longRtt) * (2.0 / (LONG_WINDOW + 1));
+            }
+
+            // Let the long term average recover quickly once a period of slow responses is over...
+            if ((longRtt / rttNanos) > 2.0) {
+                longRtt *= 0.95;
+            }
+
+            // Growing the limit while it isn't being used doesn't tell us anything...
+            if (inFlight < (limit / 2)) {
+                return;
+            }
+
+            final double gradient = Math.max(0.5, Math.min(1.0, (rttTolerance * longRtt) / rttNanos));
+            final double target = (limit * gradient) + queueAllowance;
+            updateLimit((limit * (1 - smoothing)) + (target * smoothing));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a request that failed, e.g. timed out, reducing the limit.
+     */
+    public void onDropped() {
+        lock.lock();
+        try {
+            updateLimit(limit * backoffRatio);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateLimit(final double newLimit) {
+        final int previous = (int) limit;
+        limit = Math.min(Math.max(newLimit, minLimit), maxLimit);
+
+        if ((int) limit != previous) {
+            LOGGER.debug("Concurrency limit for {}:{} changed from {} to {}", serverDetails.getHost(), serverDetails.getPort(), previous, (int) limit);
+            grantWaiters();
+        }
+    }
+
+    private void releaseLocked() {
+        inFlight--;
+        grantWaiters();
+    }
+
+    private void grantWaiters() {
+        while ((inFlight < (int) limit) && !waiters.isEmpty()) {
+            final Waiter waiter = waiters.removeFirst();
+            waiter.granted = true;
+            inFlight++;
+            waiter.condition.signal();
+        }
+    }
+
+    /**
+     * @return The ACI Server this limiter guards
+     */
+    public AciServerDetails getServerDetails() {
+        return serverDetails;
+    }
+
+    /**
+     * @return The current limit on the number of requests in flight
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of requests in flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of requests waiting for a permit
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of requests that have been shed
+     */
+    public long getShedCount() {
+        lock.lock();
+        try {
+            return shedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Waiter {
+
+        private final Condition condition;
+
+        private boolean granted;
+
+        private Waiter(final Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.transport.*;
+import org.apache.commons.lang3.Validate;
+import org.apache.hc.client5.http.async.HttpAsyncClient;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.*;
+import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityProducer;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.hc.core5.http2.H2ConnectionException;
+import org.apache.hc.core5.http2.H2Error;
+import org.apache.hc.core5.http2.impl.nio.ProtocolNegotiationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Implementation of the {@link com.autonomy.aci.client.transport.AsyncAciHttpClient} interface that uses the non-blocking
+ * {@code HttpAsyncClient} provided by the <a href="http://hc.apache.org/">Apache HttpComponents</a> project. Requests are
+ * constructed in exactly the same way as by {@link AciHttpClientImpl}, so it defaults to using the HTTP <code>GET</code>
+ * method, if you wish to send ACI actions with the HTTP <code>POST</code> method, then call the
+ * {@link #setUsePostMethod(boolean)} method with {@code true}.
+ * <p>
+ * The ACI response is read into memory by the I/O reactor before the returned future is completed, so the
+ * {@link AciResponseInputStream} it's completed with doesn't hold on to a pooled connection. Multipart requests are
+ * likewise buffered in memory before being sent, so very large uploads are better sent with {@link AciHttpClientImpl}.
+ * <p>
+ * Given an HTTP/2 client, concurrent actions to the same ACI server are multiplexed over a single connection. Servers
+ * that only speak HTTP/1.1 can be handled by also setting a {@link #setFallbackHttpAsyncClient fallback client}.
+ * <p>
+ * As with {@link AciHttpClientImpl}, a request with a {@link Deadline} is sent with a <code>RequestConfig</code> whose
+ * timeouts are no longer than the time left until the deadline, based on the
+ * {@link #setRequestConfig(RequestConfig) requestConfig} property. A request whose deadline has already passed isn't sent,
+ * and its future fails with a {@link DeadlineExceededException}. One that times out fails with the client's
+ * <code>IOException</code>, which <code>AsyncAciServiceImpl</code> reports as a <code>DeadlineExceededException</code>.
+ * <p>
+ * This implementation does no configuration of the {@code HttpAsyncClient} that it uses. It expects all the
+ * configuration to have been done by the user before passing it to this object, either in normal code, via the
+ * {@link com.autonomy.aci.client.transport.impl.HttpAsyncClient5Factory}, or via an IoC container like
+ * <a href="http://www.springsource.org/">Spring</a>. The client must have been started before any actions are executed.
+ * @see <a href="http://hc.apache.org/">Apache HttpComponents</a>
+ */
+public class AsyncAciHttpClientImpl implements AsyncAciHttpClient {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncAciHttpClientImpl.class);
+
+    /**
+     * Holds the {@code HttpAsyncClient} that will do the work.
+     */
+    private final HttpAsyncClient httpAsyncClient;
+
+    /**
+     * Holds value of property usePostMethod.
+     */
+    private boolean usePostMethod;
+
+    /**
+     * Holds value of property fallbackHttpAsyncClient.
+     */
+    private HttpAsyncClient fallbackHttpAsyncClient;
+
+    /**
+     * Holds value of property requestConfig.
+     */
+    private RequestConfig requestConfig;
+
+    /**
+     * Holds value of property reprobeInterval.
+     */
+    private long reprobeInterval = 600000L;
+
+    /**
+     * The source of time, in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    /**
+     * The ACI servers that have answered over HTTP/2, when there's a fallback client.
+     */
+    private final Set<AciServerDetails> http2Servers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * When each ACI server that has only answered over HTTP/1.1 should next be probed for HTTP/2, from
+     * <code>nanoClock</code>, when there's a fallback client.
+     */
+    private final Map<AciServerDetails, Long> http1Servers = new ConcurrentHashMap<>();
+
+    /**
+     * How a request is being sent.
+     */
+    private enum Attempt {
+        /** With the main client to a server that has answered it before. */
+        PRIMARY,
+        /** With the main client to a server that hasn't answered it yet, falling back to HTTP/1.1 if it doesn't. */
+        PROBE,
+        /** With the fallback client, after a probe failed. */
+        RETRY,
+        /** With the fallback client to a server known to only speak HTTP/1.1. */
+        FALLBACK
+    }
+
+    /**
+     * Builds the HTTP requests that are sent to the ACI server.
+     */
+    private final AciHttpRequestFactory requestFactory = new AciHttpRequestFactory();
+
+    /**
+     * Creates a new instance of AsyncAciHttpClientImpl.
+     * @param httpAsyncClient The started {@code HttpAsyncClient} to use
+     */
+    public AsyncAciHttpClientImpl(final HttpAsyncClient httpAsyncClient) {
+        this(httpAsyncClient, System::nanoTime);
+    }
+
+    AsyncAciHttpClientImpl(final HttpAsyncClient httpAsyncClient, final LongSupplier nanoClock) {
+        this.httpAsyncClient = httpAsyncClient;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Execute an ACI action on the specific ACI server without blocking the calling thread.
+     * @param serverDetails Details of the ACI server to send the action to
+     * @param parameters    The parameters to send with the ACI action
+     * @return A <code>CompletableFuture</code> that will be completed with an <code>AciResponseInputStream</code>
+     * containing the ACI response, or exceptionally with an <code>IOException</code> or <code>AciHttpException</code>
+     * @throws IllegalArgumentException if the <code>httpAsyncClient</code> property is <code>null</code> or
+     *                                  <code>parameters</code> is <code>null</code>
+     */
+    @Override
+    public CompletableFuture<AciResponseInputStream> executeActionAsync(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) {
+        LOGGER.trace("executeActionAsync() called...");
+
+        Validate.notEmpty(parameters, "The parameter set must not be null or empty.");
+        Validate.notNull(httpAsyncClient, "You must set the HttpAsyncClient instance to use before using this class.");
+
+        final CompletableFuture<AciResponseInputStream> result = new CompletableFuture<>();
+
+        final Deadline deadline = Deadline.of(parameters);
+        if ((deadline != null) && deadline.isExpired()) {
+            LOGGER.debug("Not sending the request as its deadline has passed");
+            result.completeExceptionally(new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS)));
+            return result;
+        }
+
+        final HttpUriRequest request;
+        final byte[] body;
+        try {
+            request = requestFactory.constructHttpRequest(serverDetails, parameters, usePostMethod);
+            body = bufferEntity(request);
+        } catch (final EncryptionCodecException ece) {
+            result.completeExceptionally(new AciHttpException("Unable to send the ACI request due to an encryption failure.", ece));
+            return result;
+        } catch (final URISyntaxException urise) {
+            result.completeExceptionally(new AciHttpException("Unable to construct the URI required to send the ACI request.", urise));
+            return result;
+        } catch (final IOException ioe) {
+            result.completeExceptionally(ioe);
+            return result;
+        }
+
+        LOGGER.debug("Executing action on {}:{}/{}...", serverDetails.getHost(), serverDetails.getPort(), serverDetails.getPath());
+
+        final Attempt attempt = chooseAttempt(serverDetails, isReplayable(request, parameters));
+        execute((attempt == Attempt.FALLBACK) ? fallbackHttpAsyncClient : httpAsyncClient, serverDetails, request, body, deadline, result, attempt);
+
+        return result;
+    }
+
+    /**
+     * Chooses how to send a request, given what's known about the protocols the server speaks.
+     * @param serverDetails The details of the ACI server the request is sent to
+     * @param replayable    Whether the request could be sent again with HTTP/1.1 if the server doesn't speak HTTP/2
+     * @return How to send the request
+     */
+    private Attempt chooseAttempt(final AciServerDetails serverDetails, final boolean replayable) {
+        if ((fallbackHttpAsyncClient == null) || http2Servers.contains(serverDetails)) {
+            return Attempt.PRIMARY;
+        }
+
+        // Only a request that can be sent again is used to find out whether the server speaks HTTP/2...
+        if (!replayable) {
+            return Attempt.FALLBACK;
+        }
+
+        final Long reprobeAt = http1Servers.get(serverDetails);
+        if (reprobeAt == null) {
+            return Attempt.PROBE;
+        }
+
+        // Once in a while, see whether a server that only spoke HTTP/1.1 has been upgraded. Only one request probes it,
+        // the others carry on with HTTP/1.1...
+        final long now = nanoClock.getAsLong();
+        if (((now - reprobeAt) >= 0) && http1Servers.replace(serverDetails, reprobeAt, now + TimeUnit.MILLISECONDS.toNanos(reprobeInterval))) {
+            LOGGER.debug("Probing {}:{} to see whether it speaks HTTP/2 yet...", serverDetails.getHost(), serverDetails.getPort());
+            return Attempt.PROBE;
+        }
+        return Attempt.FALLBACK;
+    }
+
+    /**
+     * Whether a request can safely be sent a second time, i.e. its method is idempotent and every parameter is
+     * repeatable.
+     * @param request    The request
+     * @param parameters The parameters of the request
+     * @return <code>true</code> if the request can be replayed with HTTP/1.1
+     */
+    private static boolean isReplayable(final HttpUriRequest request, final Set<? extends ActionParameter<?>> parameters) {
+        if (!Method.isIdempotent(request.getMethod())) {
+            return false;
+        }
+        for (final ActionParameter<?> parameter : parameters) {
+            if (!parameter.isRepeatable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends the request with one of the clients, completing <code>result</code> with the response.
+     * @param client        The client to send the request with
+     * @param serverDetails The details of the ACI server the request is sent to
+     * @param request       The request
+     * @param body          The buffered request entity, or <code>null</code>
+     * @param deadline      The deadline of the request, or <code>null</code>
+     * @param result        The future to complete
+     * @param attempt       Whether the request is being sent to a server whose protocol is already known
+     */
+    private void execute(final HttpAsyncClient client, final AciServerDetails serverDetails, final HttpUriRequest request, final byte[] body, final Deadline deadline, final CompletableFuture<AciResponseInputStream> result, final Attempt attempt) {
+        final HttpClientContext context;
+        try {
+            context = (deadline == null) ? HttpClientContext.create() : AciHttpClientImpl.createContext((requestConfig == null) ? AciHttpClientImpl.getDefaultRequestConfig(client) : requestConfig, deadline);
+        } catch (final DeadlineExceededException dee) {
+            // e.g. when retrying with HTTP/1.1...
+            result.completeExceptionally(dee);
+            return;
+        }
+
+        final Future<SimpleHttpResponse> exchange = client.execute(createRequestProducer(request, body), SimpleResponseConsumer.create(), null, context, new FutureCallback<SimpleHttpResponse>() {
+            @Override
+            public void completed(final SimpleHttpResponse response) {
+                if (attempt == Attempt.PROBE) {
+                    if (http2Servers.add(new AciServerDetails(serverDetails)) && (http1Servers.remove(serverDetails) != null)) {
+                        LOGGER.info("{}:{} now speaks HTTP/2, so sending it actions with HTTP/2 from now on", serverDetails.getHost(), serverDetails.getPort());
+                    }
+                } else if (attempt == Attempt.RETRY) {
+                    final long reprobeAt = nanoClock.getAsLong() + TimeUnit.MILLISECONDS.toNanos(reprobeInterval);
+                    if (http1Servers.put(new AciServerDetails(serverDetails), reprobeAt) == null) {
+                        LOGGER.info("{}:{} doesn't speak HTTP/2, so sending it actions with HTTP/1.1 for now", serverDetails.getHost(), serverDetails.getPort());
+                    }
+                }
+
+                try {
+                    result.complete(createResponseInputStream(serverDetails, response));
+                } catch (final IOException | AciHttpException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(final Exception ex) {
+                if ((attempt == Attempt.PROBE) && isProtocolFailure(ex, context) && !result.isDone()) {
+                    // The server has never answered over HTTP/2, so it may only speak HTTP/1.1...
+                    LOGGER.debug("HTTP/2 request to {}:{} failed, retrying with HTTP/1.1...", serverDetails.getHost(), serverDetails.getPort(), ex);
+                    execute(fallbackHttpAsyncClient, serverDetails, request, body, deadline, result, Attempt.RETRY);
+                    return;
+                }
+
+                result.completeExceptionally((ex instanceof HttpException)
+                        ? new AciHttpException("A HTTP protocol Exception has been caught while trying to execute the ACI request.", ex)
+                        : ex);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+
+        // Cancelling the returned future should abort the exchange so the connection isn't left waiting for a response...
+        result.whenComplete((response, throwable) -> {
+            if (result.isCancelled()) {
+                LOGGER.debug("Cancelling the HTTP exchange...");
+                exchange.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * Whether a failure is what's seen when an HTTP/2 client talks to a server that only speaks HTTP/1.1, before the
+     * server can have acted on the request: TLS negotiation didn't agree on HTTP/2, the server rejected the connection
+     * preface and closed the connection before the request was written, or the server's HTTP/1.1 response was read as a
+     * malformed frame or said it needs HTTP/1.1. A connection closed after the request was written isn't one, as the
+     * server may have acted on it.
+     * @param ex      The failure
+     * @param context The context of the exchange
+     * @return <code>true</code> if the request might succeed with HTTP/1.1
+     */
+    private static boolean isProtocolFailure(final Exception ex, final HttpClientContext context) {
+        // The connection's endpoint details are only added to the context once the request is given a stream, which an
+        // HTTP/2 connection doesn't do until it's received the server's settings...
+        if ((ex instanceof ProtocolNegotiationException) || ((ex instanceof ConnectionClosedException) && (context.getEndpointDetails() == null))) {
+            return true;
+        }
+        if (ex instanceof H2ConnectionException) {
+            final H2Error error = H2Error.getByCode(((H2ConnectionException) ex).getCode());
+            return (error == H2Error.PROTOCOL_ERROR) || (error == H2Error.FRAME_SIZE_ERROR) || (error == H2Error.HTTP_1_1_REQUIRED);
+        }
+        return false;
+    }
+
+    /**
+     * Reads the entity of the classic request built by the {@link AciHttpRequestFactory} into memory, so it can be sent
+     * by the {@code HttpAsyncClient}, and sent again if the request is retried with HTTP/1.1.
+     * @param request The request
+     * @return The entity, or <code>null</code> if the request doesn't have one
+     * @throws IOException If the request entity couldn't be read
+     */
+    private static byte[] bufferEntity(final HttpUriRequest request) throws IOException {
+        final HttpEntity entity = request.getEntity();
+        if (entity == null) {
+            return null;
+        }
+
+        // Size the buffer up front when the length is known, so large uploads aren't copied as the buffer grows...
+        final long contentLength = entity.getContentLength();
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(((contentLength > 0) && (contentLength < Integer.MAX_VALUE - 8)) ? (int) contentLength : 32);
+        entity.writeTo(buffer);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Converts the classic request built by the {@link AciHttpRequestFactory} into something the {@code HttpAsyncClient}
+     * can send.
+     * @param request The request to convert
+     * @param body    The buffered request entity, or <code>null</code>
+     * @return A request producer for the request
+     */
+    private static AsyncRequestProducer createRequestProducer(final HttpUriRequest request, final byte[] body) {
+        LOGGER.trace("createRequestProducer() called...");
+
+        if (body == null) {
+            return new BasicRequestProducer(request, null);
+        }
+
+        final String contentType = request.getEntity().getContentType();
+        return new BasicRequestProducer(request, new BasicAsyncEntityProducer(
+                body,
+                (contentType == null) ? null : ContentType.parse(contentType)
+        ));
+    }
+
+    /**
+     * Checks the status code of the buffered response and wraps it in the same <code>AciResponseInputStream</code>
+     * implementations that {@link AciHttpClientImpl} uses, so encrypted responses are decrypted.
+     * @param serverDetails The details of the ACI server the response came from
+     * @param response      The buffered HTTP response
+     * @return An <code>AciResponseInputStream</code> containing the ACI response
+     * @throws IOException      If an I/O error occurs reading, or decrypting, the response
+     * @throws AciHttpException If the response status code wasn't in the 2xx range
+     */
+    private AciResponseInputStream createResponseInputStream(final AciServerDetails serverDetails, final SimpleHttpResponse response) throws IOException, AciHttpException {
+        LOGGER.trace("createResponseInputStream() called...");
+
+        final int statusCode = response.getCode();
+        LOGGER.debug("Executed method and got status code - {}...", statusCode);
+
+        // Treat anything other than a 2xx status code as an error...
+        if ((statusCode < 200) || (statusCode >= 300)) {
+            throw new AciHttpException(
+                    "The server returned a status code, " + statusCode +
+                            ", that wasn't in the 2xx Success range.");
+        }
+
+        final byte[] body = response.getBodyBytes();
+        final Header contentEncoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+
+        final BasicClassicHttpResponse classicResponse = new BasicClassicHttpResponse(statusCode, response.getReasonPhrase());
+        classicResponse.setHeaders(response.getHeaders());
+        classicResponse.setEntity(new ByteArrayEntity(
+                (body == null) ? new byte[0] : body,
+                response.getContentType(),
+                (contentEncoding == null) ? null : contentEncoding.getValue()
+        ));
+
+        return AciHttpClientImpl.createResponseInputStream(serverDetails, classicResponse);
+    }
+
+    /**
+     * Getter for property fallbackHttpAsyncClient.
+     * @return Value of property fallbackHttpAsyncClient
+     */
+    public HttpAsyncClient getFallbackHttpAsyncClient() {
+        return fallbackHttpAsyncClient;
+    }
+
+    /**
+     * Sets a started HTTP/1.1 client to use for ACI servers that don't speak HTTP/2, when the main client is an HTTP/2
+     * only one created with {@link HttpAsyncClient5Factory#setHttp2Enabled(boolean)}. The first action sent to each
+     * server that can safely be sent twice, i.e. with <code>GET</code> and only repeatable parameters, goes to the main
+     * client. If the server fails the HTTP/2 handshake the action is sent again with this client, which is used for
+     * that server until it's probed again after <code>reprobeInterval</code>. Other actions go to this client until the
+     * server has answered over HTTP/2. Once it has, failures are reported as usual. The default is <code>null</code>,
+     * i.e. every action is sent with the main client.
+     * @param fallbackHttpAsyncClient New value of property fallbackHttpAsyncClient
+     */
+    public void setFallbackHttpAsyncClient(final HttpAsyncClient fallbackHttpAsyncClient) {
+        this.fallbackHttpAsyncClient = fallbackHttpAsyncClient;
+    }
+
+    /**
+     * Getter for property requestConfig.
+     * @return Value of property requestConfig
+     */
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
+    }
+
+    /**
+     * Sets the configuration that the <code>RequestConfig</code> of a request with a deadline is based on. It should
+     * match the default <code>RequestConfig</code> of the <code>HttpAsyncClient</code>, as it replaces it for those
+     * requests. The default is <code>null</code>, which uses the default of the client when it exposes it, and
+     * <code>RequestConfig.DEFAULT</code>, which is what the clients created by {@link HttpAsyncClient5Factory} use,
+     * otherwise.
+     * @param requestConfig New value of property requestConfig
+     */
+    public void setRequestConfig(final RequestConfig requestConfig) {
+        this.requestConfig = requestConfig;
+    }
+
+    /**
+     * Getter for property reprobeInterval.
+     * @return Value of property reprobeInterval
+     */
+    public long getReprobeInterval() {
+        return reprobeInterval;
+    }
+
+    /**
+     * Sets how long, in milliseconds, an ACI server that only answered over HTTP/1.1 is sent actions with the fallback
+     * client before it's probed for HTTP/2 again, e.g. after being upgraded. The default is <code>600000</code>ms
+     * (10 minutes).
+     * @param reprobeInterval New value of property reprobeInterval
+     */
+    public void setReprobeInterval(final long reprobeInterval) {
+        Validate.isTrue(reprobeInterval > 0, "reprobeInterval must be greater than zero.");
+        this.reprobeInterval = reprobeInterval;
+    }
+
+    /**
+     * Getter for property usePostMethod.
+     * @return Value of property usePostMethod
+     */
+    public boolean isUsePostMethod() {
+        return this.usePostMethod;
+    }
+
+    /**
+     * Setter for property usePostMethod.
+     * @param usePostMethod New value of property usePostMethod
+     */
+    public void setUsePostMethod(final boolean usePostMethod) {
+        this.usePostMethod = usePostMethod;
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The circuit breaker for a single ACI Server, created and used by {@link CircuitBreakingAciHttpClient}.
+ * <p>
+ * The outcome of the last <code>slidingWindowSize</code> calls is recorded. While {@link State#CLOSED closed}, once at
+ * least <code>minimumNumberOfCalls</code> have been recorded, the breaker opens if either the percentage of failed calls
+ * reaches <code>failureRateThreshold</code> or the percentage of calls that took longer than
+ * <code>slowCallDuration</code> reaches <code>slowCallRateThreshold</code>. While {@link State#OPEN open} every call is
+ * rejected. After <code>openDuration</code> the breaker becomes {@link State#HALF_OPEN half open} and lets
+ * <code>permittedCallsInHalfOpenState</code> trial calls through; if they're healthy by the same thresholds it closes,
+ * otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+    /**
+     * The states of a circuit breaker.
+     */
+    public enum State {
+        /** Calls are allowed and their outcomes recorded. */
+        CLOSED,
+        /** Calls are rejected. */
+        OPEN,
+        /** A limited number of trial calls are allowed. */
+        HALF_OPEN
+    }
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final byte FAILURE = 1;
+
+    private static final byte SLOW = 2;
+
+    private final AciServerDetails serverDetails;
+
+    private final LongSupplier nanoClock;
+
+    private final List<CircuitBreakerListener> listeners;
+
+    private final int minimumNumberOfCalls;
+
+    private final float failureRateThreshold;
+
+    private final float slowCallRateThreshold;
+
+    private final long slowCallDurationNanos;
+
+    private final long openDurationNanos;
+
+    private final int permittedCallsInHalfOpenState;
+
+    /**
+     * Ring buffer of call outcomes, as combinations of the <code>FAILURE</code> and <code>SLOW</code> flags.
+     */
+    private final byte[] outcomes;
+
+    private int recorded;
+
+    private int next;
+
+    private int failures;
+
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private int halfOpenPermits;
+
+    CircuitBreaker(final AciServerDetails serverDetails, final CircuitBreakingAciHttpClient settings, final LongSupplier nanoClock) {
+        this.serverDetails = serverDetails;
+        this.nanoClock = nanoClock;
+        this.listeners = settings.getListeners();
+        this.outcomes = new byte[settings.getSlidingWindowSize()];
+        this.minimumNumberOfCalls = Math.min(settings.getMinimumNumberOfCalls(), outcomes.length);
+        this.failureRateThreshold = settings.getFailureRateThreshold();
+        this.slowCallRateThreshold = settings.getSlowCallRateThreshold();
+        this.slowCallDurationNanos = TimeUnit.MILLISECONDS.toNanos(settings.getSlowCallDuration());
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(settings.getOpenDuration());
+        // Only slidingWindowSize outcomes are ever recorded, so more trial calls could never be judged...
+        this.permittedCallsInHalfOpenState = Math.min(settings.getPermittedCallsInHalfOpenState(), outcomes.length);
+    }
+
+    /**
+     * Asks for permission to send a request.
+     * @return <code>true</code> if the request can be sent, in which case the outcome must be reported with
+     * {@link #onSuccess(long)}, {@link #onFailure(long)} or {@link #onIgnored()}
+     */
+    public boolean tryAcquire() {
+        State from = null;
+        final boolean permitted;
+
+        synchronized (this) {
+            if ((state == State.OPEN) && ((nanoClock.getAsLong() - openedAt) >= openDurationNanos)) {
+                from = transition(State.HALF_OPEN);
+            }
+
+            if (state == State.CLOSED) {
+                permitted = true;
+            } else if ((state == State.HALF_OPEN) && (halfOpenPermits > 0)) {
+                halfOpenPermits--;
+                permitted = true;
+            } else {
+                permitted = false;
+            }
+        }
+
+        notifyTransition(from, State.HALF_OPEN);
+
+        if (!permitted) {
+            for (final CircuitBreakerListener listener : listeners) {
+                listener.onRejected(serverDetails);
+            }
+        }
+
+        return permitted;
+    }
+
+    /**
+     * Records a call that succeeded.
+     * @param durationNanos How long the call took
+     */
+    public void onSuccess(final long durationNanos) {
+        record((durationNanos >= slowCallDurationNanos) ? SLOW : 0);
+    }
+
+    /**
+     * Records a call that failed.
+     * @param durationNanos How long the call took
+     */
+    public void onFailure(final long durationNanos) {
+        record((byte) (FAILURE | ((durationNanos >= slowCallDurationNanos) ? SLOW : 0)));
+    }
+
+    /**
+     * Records that a permitted call finished without an outcome that says anything about the server's health.
+     */
+    public synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            halfOpenPermits++;
+        }
+    }
+
+    private void record(final byte outcome) {
+        State from = null;
+        State to = null;
+
+        synchronized (this) {
+            if (state == State.OPEN) {
+                // A call that was sent before the breaker opened...
+                return;
+            }
+
+            if (recorded == outcomes.length) {
+                final byte evicted = outcomes[next];
+                failures -= evicted & FAILURE;
+                slowCalls -= (evicted & SLOW) >> 1;
+            } else {
+                recorded++;
+            }
+
+            outcomes[next] = outcome;
+            next = (next + 1) % outcomes.length;
+            failures += outcome & FAILURE;
+            slowCalls += (outcome & SLOW) >> 1;
+
+            if (state == State.CLOSED) {
+                if ((recorded >= minimumNumberOfCalls) && isUnhealthy()) {
+                    to = State.OPEN;
+                }
+            } else if (recorded >= permittedCallsInHalfOpenState) {
+                to = isUnhealthy() ? State.OPEN : State.CLOSED;
+            }
+
+            if (to != null) {
+                from = transition(to);
+            }
+        }
+
+        notifyTransition(from, to);
+    }
+
+    private boolean isUnhealthy() {
+        return (getFailureRate() >= failureRateThreshold) || (getSlowCallRate() >= slowCallRateThreshold);
+    }
+
+    private State transition(final State to) {
+        final State from = state;
+        state = to;
+
+        // Each state starts with a clean window...
+        recorded = 0;
+        next = 0;
+        failures = 0;
+        slowCalls = 0;
+
+        if (to == State.OPEN) {
+            openedAt = nanoClock.getAsLong();
+        } else if (to == State.HALF_OPEN) {
+            halfOpenPermits = permittedCallsInHalfOpenState;
+        }
+
+        return from;
+    }
+
+    private void notifyTransition(final State from, final State to) {
+        if (from == null) {
+            return;
+        }
+
+        if (to == State.OPEN) {
+            LOGGER.warn("Circuit breaker for {}:{} changed from {} to {}", serverDetails.getHost(), serverDetails.getPort(), from, to);
+        } else {
+            LOGGER.info("Circuit breaker for {}:{} changed from {} to {}", serverDetails.getHost(), serverDetails.getPort(), from, to);
+        }
+
+        for (final CircuitBreakerListener listener : listeners) {
+            listener.onStateTransition(serverDetails, from, to);
+        }
+    }
+
+    /**
+     * @return The ACI Server this circuit breaker guards
+     */
+    public AciServerDetails getServerDetails() {
+        return serverDetails;
+    }
+
+    /**
+     * @return The current state
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return The percentage of the recorded calls in the current state that failed
+     */
+    public synchronized float getFailureRate() {
+        return (recorded == 0) ? 0 : (failures * 100.0f) / recorded;
+    }
+
+    /**
+     * @return The percentage of the recorded calls in the current state that were slow
+     */
+    public synchronized float getSlowCallRate() {
+        return (recorded == 0) ? 0 : (slowCalls * 100.0f) / recorded;
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+
+/**
+ * Notified when a {@link CircuitBreaker} changes state, e.g. to export metrics or raise alerts. Listeners are called on
+ * the thread whose request caused the transition, so they should return quickly.
+ */
+public interface CircuitBreakerListener {
+
+    /**
+     * Called after a circuit breaker has changed state.
+     * @param serverDetails The ACI Server the circuit breaker guards
+     * @param from          The previous state
+     * @param to            The new state
+     */
+    void onStateTransition(AciServerDetails serverDetails, CircuitBreaker.State from, CircuitBreaker.State to);
+
+    /**
+     * Called when a request is rejected because the circuit breaker is open. Does nothing by default.
+     * @param serverDetails The ACI Server the circuit breaker guards
+     */
+    default void onRejected(final AciServerDetails serverDetails) {
+    }
+
+}
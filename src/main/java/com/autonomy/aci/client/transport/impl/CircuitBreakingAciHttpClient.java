@@ -0,0 +1,335 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.CircuitBreakerOpenException;
+import com.autonomy.aci.client.transport.AciHttpClient;
+import com.autonomy.aci.client.transport.AciHttpException;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * An {@link AciHttpClient} that guards each ACI Server with its own {@link CircuitBreaker}, so that a server that is
+ * down or overloaded is failed fast with a {@link CircuitBreakerOpenException} rather than tying up threads and
+ * connections waiting on timeouts.
+ * <p>
+ * An <code>IOException</code> or <code>AciHttpException</code> from the decorated client counts as a failed call, and
+ * any call that takes longer than <code>slowCallDuration</code> counts as a slow one. An ACI error response is a
+ * successful call as far as the circuit breaker is concerned, as the server was healthy enough to answer.
+ * <p>
+ * The settings are read when the circuit breaker for a server is created, i.e. on the first request to that server, so
+ * they should be set before the client is used. State transitions are logged and passed to any registered
+ * {@link CircuitBreakerListener}s, and the current state of each server can be read with {@link #getState(AciServerDetails)}.
+ */
+public class CircuitBreakingAciHttpClient implements AciHttpClient {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CircuitBreakingAciHttpClient.class);
+
+    /**
+     * Holds the decorated client.
+     */
+    private final AciHttpClient aciHttpClient;
+
+    /**
+     * The source of time, in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    /**
+     * Holds the circuit breakers, keyed on the ACI Server they guard.
+     */
+    private final Map<AciServerDetails, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * Holds the registered listeners.
+     */
+    private final List<CircuitBreakerListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Holds value of property slidingWindowSize.
+     */
+    private int slidingWindowSize = 20;
+
+    /**
+     * Holds value of property minimumNumberOfCalls.
+     */
+    private int minimumNumberOfCalls = 10;
+
+    /**
+     * Holds value of property failureRateThreshold.
+     */
+    private float failureRateThreshold = 50.0f;
+
+    /**
+     * Holds value of property slowCallRateThreshold.
+     */
+    private float slowCallRateThreshold = 50.0f;
+
+    /**
+     * Holds value of property slowCallDuration.
+     */
+    private long slowCallDuration = 5000L;
+
+    /**
+     * Holds value of property openDuration.
+     */
+    private long openDuration = 30000L;
+
+    /**
+     * Holds value of property permittedCallsInHalfOpenState.
+     */
+    private int permittedCallsInHalfOpenState = 3;
+
+    /**
+     * Creates a new instance of CircuitBreakingAciHttpClient.
+     * @param aciHttpClient The client to send requests with
+     * @throws NullPointerException If <code>aciHttpClient</code> is <code>null</code>
+     */
+    public CircuitBreakingAciHttpClient(final AciHttpClient aciHttpClient) {
+        this(aciHttpClient, System::nanoTime);
+    }
+
+    CircuitBreakingAciHttpClient(final AciHttpClient aciHttpClient, final LongSupplier nanoClock) {
+        this.aciHttpClient = Validate.notNull(aciHttpClient, "AciHttpClient must not be null");
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Executes the action on the ACI Server, unless its circuit breaker is open.
+     * @param serverDetails The details of the ACI Server the request will be sent to
+     * @param parameters    The parameters to send with the ACI action
+     * @return An <code>AciResponseInputStream</code> containing the ACI response
+     * @throws IOException                 If an I/O (transport) error occurs
+     * @throws AciHttpException            If a protocol exception occurs
+     * @throws CircuitBreakerOpenException If the circuit breaker for the ACI Server is open
+     */
+    @Override
+    public AciResponseInputStream executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) throws IOException, AciHttpException {
+        LOGGER.trace("executeAction() called...");
+
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(serverDetails);
+        if (!circuitBreaker.tryAcquire()) {
+            LOGGER.debug("Rejecting request as the circuit breaker for {}:{} is open", serverDetails.getHost(), serverDetails.getPort());
+            throw new CircuitBreakerOpenException(serverDetails.getHost(), serverDetails.getPort());
+        }
+
+        final long start = nanoClock.getAsLong();
+        final AciResponseInputStream response;
+        try {
+            response = aciHttpClient.executeAction(serverDetails, parameters);
+        } catch (final IOException | AciHttpException e) {
+            circuitBreaker.onFailure(nanoClock.getAsLong() - start);
+            throw e;
+        } catch (final RuntimeException | Error e) {
+            circuitBreaker.onIgnored();
+            throw e;
+        }
+
+        circuitBreaker.onSuccess(nanoClock.getAsLong() - start);
+        return response;
+    }
+
+    /**
+     * Returns the circuit breaker for an ACI Server, creating it if this is the first request to that server.
+     * @param serverDetails The details of the ACI Server
+     * @return The circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker(final AciServerDetails serverDetails) {
+        Validate.notNull(serverDetails, "AciServerDetails must not be null");
+
+        final CircuitBreaker circuitBreaker = circuitBreakers.get(serverDetails);
+        return (circuitBreaker != null)
+                ? circuitBreaker
+                // Copy the key, as AciServerDetails is mutable...
+                : circuitBreakers.computeIfAbsent(new AciServerDetails(serverDetails), key -> new CircuitBreaker(key, this, nanoClock));
+    }
+
+    /**
+     * Returns the state of the circuit breaker for an ACI Server.
+     * @param serverDetails The details of the ACI Server
+     * @return The state, which is {@link CircuitBreaker.State#CLOSED} for a server that hasn't been used
+     */
+    public CircuitBreaker.State getState(final AciServerDetails serverDetails) {
+        final CircuitBreaker circuitBreaker = circuitBreakers.get(serverDetails);
+        return (circuitBreaker == null) ? CircuitBreaker.State.CLOSED : circuitBreaker.getState();
+    }
+
+    /**
+     * @return The circuit breakers for every ACI Server that has been used
+     */
+    public Collection<CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableCollection(circuitBreakers.values());
+    }
+
+    /**
+     * Registers a listener to be told about state transitions and rejected requests.
+     * @param listener The listener
+     */
+    public void addListener(final CircuitBreakerListener listener) {
+        listeners.add(Validate.notNull(listener, "CircuitBreakerListener must not be null"));
+    }
+
+    /**
+     * Removes a previously registered listener.
+     * @param listener The listener
+     */
+    public void removeListener(final CircuitBreakerListener listener) {
+        listeners.remove(listener);
+    }
+
+    List<CircuitBreakerListener> getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Getter for property slidingWindowSize.
+     * @return Value of property slidingWindowSize.
+     */
+    public int getSlidingWindowSize() {
+        return slidingWindowSize;
+    }
+
+    /**
+     * Sets the number of most recent calls whose outcomes are used to calculate the failure and slow call rates. The
+     * default is <code>20</code>.
+     * @param slidingWindowSize New value of property slidingWindowSize.
+     */
+    public void setSlidingWindowSize(final int slidingWindowSize) {
+        Validate.isTrue(slidingWindowSize > 0, "slidingWindowSize must be greater than zero.");
+        this.slidingWindowSize = slidingWindowSize;
+    }
+
+    /**
+     * Getter for property minimumNumberOfCalls.
+     * @return Value of property minimumNumberOfCalls.
+     */
+    public int getMinimumNumberOfCalls() {
+        return minimumNumberOfCalls;
+    }
+
+    /**
+     * Sets the number of calls that must be recorded before the circuit breaker can open. The default is <code>10</code>.
+     * @param minimumNumberOfCalls New value of property minimumNumberOfCalls.
+     */
+    public void setMinimumNumberOfCalls(final int minimumNumberOfCalls) {
+        Validate.isTrue(minimumNumberOfCalls > 0, "minimumNumberOfCalls must be greater than zero.");
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+    }
+
+    /**
+     * Getter for property failureRateThreshold.
+     * @return Value of property failureRateThreshold.
+     */
+    public float getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Sets the percentage of failed calls at which the circuit breaker opens. The default is <code>50</code>.
+     * @param failureRateThreshold New value of property failureRateThreshold.
+     */
+    public void setFailureRateThreshold(final float failureRateThreshold) {
+        Validate.isTrue((failureRateThreshold > 0) && (failureRateThreshold <= 100), "failureRateThreshold must be greater than 0 and at most 100.");
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * Getter for property slowCallRateThreshold.
+     * @return Value of property slowCallRateThreshold.
+     */
+    public float getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * Sets the percentage of slow calls at which the circuit breaker opens. The default is <code>50</code>.
+     * @param slowCallRateThreshold New value of property slowCallRateThreshold.
+     */
+    public void setSlowCallRateThreshold(final float slowCallRateThreshold) {
+        Validate.isTrue((slowCallRateThreshold > 0) && (slowCallRateThreshold <= 100), "slowCallRateThreshold must be greater than 0 and at most 100.");
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * Getter for property slowCallDuration.
+     * @return Value of property slowCallDuration.
+     */
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * Sets how long, in milliseconds, a call can take before it counts as slow. The default is <code>5000</code>ms (5s).
+     * @param slowCallDuration New value of property slowCallDuration.
+     */
+    public void setSlowCallDuration(final long slowCallDuration) {
+        Validate.isTrue(slowCallDuration > 0, "slowCallDuration must be greater than zero.");
+        this.slowCallDuration = slowCallDuration;
+    }
+
+    /**
+     * Getter for property openDuration.
+     * @return Value of property openDuration.
+     */
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * Sets how long, in milliseconds, the circuit breaker stays open before letting trial calls through. The default is
+     * <code>30000</code>ms (30s).
+     * @param openDuration New value of property openDuration.
+     */
+    public void setOpenDuration(final long openDuration) {
+        Validate.isTrue(openDuration >= 0, "openDuration must not be negative.");
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Getter for property permittedCallsInHalfOpenState.
+     * @return Value of property permittedCallsInHalfOpenState.
+     */
+    public int getPermittedCallsInHalfOpenState() {
+        return permittedCallsInHalfOpenState;
+    }
+
+    /**
+     * Sets the number of trial calls let through while the circuit breaker is half open. No more than
+     * <code>slidingWindowSize</code> are let through. The default is <code>3</code>.
+     * @param permittedCallsInHalfOpenState New value of property permittedCallsInHalfOpenState.
+     */
+    public void setPermittedCallsInHalfOpenState(final int permittedCallsInHalfOpenState) {
+        Validate.isTrue(permittedCallsInHalfOpenState > 0, "permittedCallsInHalfOpenState must be greater than zero.");
+        this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+    }
+
+}
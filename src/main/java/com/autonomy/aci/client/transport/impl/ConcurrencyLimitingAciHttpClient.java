@@ -0,0 +1,415 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.ConcurrencyLimitExceededException;
+import com.autonomy.aci.client.transport.AciHttpClient;
+import com.autonomy.aci.client.transport.AciHttpException;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * An {@link AciHttpClient} that gives each ACI Server its own {@link AdaptiveConcurrencyLimiter}, so the number of
+ * requests in flight to a server follows how quickly it's responding rather than a fixed pool size. When a server slows
+ * down its limit falls, the excess requests wait briefly and are then shed with a
+ * {@link ConcurrencyLimitExceededException}, keeping the latency of the requests that are sent stable instead of
+ * letting every request queue behind the server.
+ * <p>
+ * A request holds its permit until its response stream is closed, and the time until the response arrived is used as
+ * its round trip time. An <code>IOException</code> or <code>AciHttpException</code> from the decorated client reduces
+ * the limit, while any other exception just releases the permit.
+ * <p>
+ * <code>maxLimit</code> should be no more than the number of connections the decorated client can open to each server,
+ * e.g. <code>maxConnectionsPerRoute</code> of {@link HttpClient5Factory}, otherwise requests will queue for a connection
+ * where the limiter can't see them. The settings are read when the limiter for a server is created, i.e. on the first
+ * request to that server, so they should be set before the client is used.
+ */
+public class ConcurrencyLimitingAciHttpClient implements AciHttpClient {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrencyLimitingAciHttpClient.class);
+
+    /**
+     * Holds the decorated client.
+     */
+    private final AciHttpClient aciHttpClient;
+
+    /**
+     * The source of time, in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    /**
+     * Holds the limiters, keyed on the ACI Server they guard.
+     */
+    private final Map<AciServerDetails, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * Holds value of property initialLimit.
+     */
+    private int initialLimit = 20;
+
+    /**
+     * Holds value of property minLimit.
+     */
+    private int minLimit = 1;
+
+    /**
+     * Holds value of property maxLimit.
+     */
+    private int maxLimit = 200;
+
+    /**
+     * Holds value of property rttTolerance.
+     */
+    private double rttTolerance = 1.5;
+
+    /**
+     * Holds value of property smoothing.
+     */
+    private double smoothing = 0.2;
+
+    /**
+     * Holds value of property backoffRatio.
+     */
+    private double backoffRatio = 0.9;
+
+    /**
+     * Holds value of property queueAllowance.
+     */
+    private int queueAllowance = 4;
+
+    /**
+     * Holds value of property maxQueueTime.
+     */
+    private long maxQueueTime = 50L;
+
+    /**
+     * Holds value of property maxQueueSize.
+     */
+    private int maxQueueSize = 50;
+
+    /**
+     * Creates a new instance of ConcurrencyLimitingAciHttpClient.
+     * @param aciHttpClient The client to send requests with
+     * @throws NullPointerException If <code>aciHttpClient</code> is <code>null</code>
+     */
+    public ConcurrencyLimitingAciHttpClient(final AciHttpClient aciHttpClient) {
+        this(aciHttpClient, System::nanoTime);
+    }
+
+    ConcurrencyLimitingAciHttpClient(final AciHttpClient aciHttpClient, final LongSupplier nanoClock) {
+        this.aciHttpClient = Validate.notNull(aciHttpClient, "AciHttpClient must not be null");
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Executes the action on the ACI Server, once its concurrency limit allows.
+     * @param serverDetails The details of the ACI Server the request will be sent to
+     * @param parameters    The parameters to send with the ACI action
+     * @return An <code>AciResponseInputStream</code> containing the ACI response
+     * @throws IOException                        If an I/O (transport) error occurs, or the thread is interrupted while
+     *                                            waiting for a permit
+     * @throws AciHttpException                   If a protocol exception occurs
+     * @throws ConcurrencyLimitExceededException If the request is shed
+     */
+    @Override
+    public AciResponseInputStream executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) throws IOException, AciHttpException {
+        LOGGER.trace("executeAction() called...");
+
+        final AdaptiveConcurrencyLimiter limiter = getLimiter(serverDetails);
+        try {
+            if (!limiter.tryAcquire()) {
+                LOGGER.debug("Shedding request as the concurrency limit for {}:{} has been reached", serverDetails.getHost(), serverDetails.getPort());
+                throw new ConcurrencyLimitExceededException(serverDetails.getHost(), serverDetails.getPort(), limiter.getLimit());
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a permit to send a request to " + serverDetails.getHost() + ':' + serverDetails.getPort());
+        }
+
+        final long start = nanoClock.getAsLong();
+        final AciResponseInputStream response;
+        try {
+            response = aciHttpClient.executeAction(serverDetails, parameters);
+        } catch (final IOException | AciHttpException e) {
+            limiter.onDropped();
+            limiter.release();
+            throw e;
+        } catch (final RuntimeException | Error e) {
+            limiter.release();
+            throw e;
+        }
+
+        limiter.onSuccess(nanoClock.getAsLong() - start);
+        return new PermitReleasingAciResponseInputStream(response, limiter);
+    }
+
+    /**
+     * Returns the limiter for an ACI Server, creating it if this is the first request to that server.
+     * @param serverDetails The details of the ACI Server
+     * @return The limiter
+     */
+    public AdaptiveConcurrencyLimiter getLimiter(final AciServerDetails serverDetails) {
+        Validate.notNull(serverDetails, "AciServerDetails must not be null");
+
+        final AdaptiveConcurrencyLimiter limiter = limiters.get(serverDetails);
+        return (limiter != null)
+                ? limiter
+                // Copy the key, as AciServerDetails is mutable...
+                : limiters.computeIfAbsent(new AciServerDetails(serverDetails), key -> new AdaptiveConcurrencyLimiter(key, this, nanoClock));
+    }
+
+    /**
+     * @return The limiters for every ACI Server that has been used
+     */
+    public Collection<AdaptiveConcurrencyLimiter> getLimiters() {
+        return Collections.unmodifiableCollection(limiters.values());
+    }
+
+    /**
+     * Getter for property initialLimit.
+     * @return Value of property initialLimit.
+     */
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    /**
+     * Sets the concurrency limit each ACI Server starts with. The default is <code>20</code>.
+     * @param initialLimit New value of property initialLimit.
+     */
+    public void setInitialLimit(final int initialLimit) {
+        Validate.isTrue(initialLimit > 0, "initialLimit must be greater than zero.");
+        this.initialLimit = initialLimit;
+    }
+
+    /**
+     * Getter for property minLimit.
+     * @return Value of property minLimit.
+     */
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * Sets the lowest the concurrency limit can fall to. The default is <code>1</code>.
+     * @param minLimit New value of property minLimit.
+     */
+    public void setMinLimit(final int minLimit) {
+        Validate.isTrue(minLimit > 0, "minLimit must be greater than zero.");
+        this.minLimit = minLimit;
+    }
+
+    /**
+     * Getter for property maxLimit.
+     * @return Value of property maxLimit.
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Sets the highest the concurrency limit can grow to. The default is <code>200</code>.
+     * @param maxLimit New value of property maxLimit.
+     */
+    public void setMaxLimit(final int maxLimit) {
+        Validate.isTrue(maxLimit > 0, "maxLimit must be greater than zero.");
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Getter for property rttTolerance.
+     * @return Value of property rttTolerance.
+     */
+    public double getRttTolerance() {
+        return rttTolerance;
+    }
+
+    /**
+     * Sets how many times longer than usual a server can take to respond before its limit starts to fall. The default is
+     * <code>1.5</code>.
+     * @param rttTolerance New value of property rttTolerance.
+     */
+    public void setRttTolerance(final double rttTolerance) {
+        Validate.isTrue(rttTolerance >= 1, "rttTolerance must be at least 1.");
+        this.rttTolerance = rttTolerance;
+    }
+
+    /**
+     * Getter for property smoothing.
+     * @return Value of property smoothing.
+     */
+    public double getSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * Sets how much weight each new limit is given against the previous one, from <code>0</code> (exclusive) to
+     * <code>1</code>. The default is <code>0.2</code>.
+     * @param smoothing New value of property smoothing.
+     */
+    public void setSmoothing(final double smoothing) {
+        Validate.isTrue((smoothing > 0) && (smoothing <= 1), "smoothing must be greater than 0 and at most 1.");
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Getter for property backoffRatio.
+     * @return Value of property backoffRatio.
+     */
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * Sets what the limit is multiplied by when a request fails. The default is <code>0.9</code>.
+     * @param backoffRatio New value of property backoffRatio.
+     */
+    public void setBackoffRatio(final double backoffRatio) {
+        Validate.isTrue((backoffRatio >= 0.5) && (backoffRatio < 1), "backoffRatio must be at least 0.5 and less than 1.");
+        this.backoffRatio = backoffRatio;
+    }
+
+    /**
+     * Getter for property queueAllowance.
+     * @return Value of property queueAllowance.
+     */
+    public int getQueueAllowance() {
+        return queueAllowance;
+    }
+
+    /**
+     * Sets how much the limit grows by while a server is responding as quickly as usual, which is also roughly how many
+     * requests are allowed to queue inside the server. The default is <code>4</code>.
+     * @param queueAllowance New value of property queueAllowance.
+     */
+    public void setQueueAllowance(final int queueAllowance) {
+        Validate.isTrue(queueAllowance >= 0, "queueAllowance must not be negative.");
+        this.queueAllowance = queueAllowance;
+    }
+
+    /**
+     * Getter for property maxQueueTime.
+     * @return Value of property maxQueueTime.
+     */
+    public long getMaxQueueTime() {
+        return maxQueueTime;
+    }
+
+    /**
+     * Sets how long, in milliseconds, a request over the limit waits for a permit before it's shed, or <code>0</code> to
+     * shed it straight away. The default is <code>50</code>ms.
+     * @param maxQueueTime New value of property maxQueueTime.
+     */
+    public void setMaxQueueTime(final long maxQueueTime) {
+        Validate.isTrue(maxQueueTime >= 0, "maxQueueTime must not be negative.");
+        this.maxQueueTime = maxQueueTime;
+    }
+
+    /**
+     * Getter for property maxQueueSize.
+     * @return Value of property maxQueueSize.
+     */
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+    /**
+     * Sets how many requests can wait for a permit to each ACI Server before any more are shed straight away. The
+     * default is <code>50</code>.
+     * @param maxQueueSize New value of property maxQueueSize.
+     */
+    public void setMaxQueueSize(final int maxQueueSize) {
+        Validate.isTrue(maxQueueSize >= 0, "maxQueueSize must not be negative.");
+        this.maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Releases the permit of a request once its response has been read.
+     */
+    private static final class PermitReleasingAciResponseInputStream extends AciResponseInputStream {
+
+        private final AciResponseInputStream response;
+
+        private final AdaptiveConcurrencyLimiter limiter;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private PermitReleasingAciResponseInputStream(final AciResponseInputStream response, final AdaptiveConcurrencyLimiter limiter) {
+            super(response);
+            this.response = response;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            return response.getHeader(name);
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            return response.getHeaders();
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return response.getContentEncoding();
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.getContentLength();
+        }
+
+        @Override
+        public String getContentType() {
+            return response.getContentType();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (released.compareAndSet(false, true)) {
+                    limiter.release();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import org.apache.hc.client5.http.HttpRoute;
+
+/**
+ * Notified each time a connection is leased from, or times out waiting for, a pool created by {@link HttpClient5Factory},
+ * e.g. to export lease wait times to a metrics library. Listeners are called on the thread that asked for the
+ * connection, so they should return quickly.
+ */
+public interface ConnectionPoolListener {
+
+    /**
+     * Called after a connection has been leased.
+     * @param route     The route the connection is for
+     * @param waitNanos How long the caller waited for the connection
+     */
+    void onLeased(HttpRoute route, long waitNanos);
+
+    /**
+     * Called when no connection became available within the <code>connectionRequestTimeout</code>. Does nothing by
+     * default.
+     * @param route     The route the connection was for
+     * @param waitNanos How long the caller waited before giving up
+     */
+    default void onLeaseTimeout(final HttpRoute route, final long waitNanos) {
+    }
+
+}
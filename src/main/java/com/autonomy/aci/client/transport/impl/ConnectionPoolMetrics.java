@@ -0,0 +1,271 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live statistics for the connection pool of an <code>HttpClient</code> created by {@link HttpClient5Factory}, so it
+ * can be told whether time is being spent in the ACI Server or waiting for a connection.
+ * <p>
+ * The number of leased, pending and available connections are read from the pool when asked for, in total and for each
+ * route. Lease wait times are recorded in a histogram with fixed buckets, together with the number of callers that gave
+ * up waiting because the pool was exhausted for longer than the <code>connectionRequestTimeout</code>.
+ */
+public class ConnectionPoolMetrics implements ConnectionPoolMetricsMXBean {
+
+    /**
+     * The inclusive upper bounds, in milliseconds, of the lease wait buckets.
+     */
+    private static final long[] BUCKET_BOUNDS = {0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    private final ConnPoolControl<HttpRoute> pool;
+
+    private final ConnectionPoolListener listener;
+
+    private final LeaseStatistics total = new LeaseStatistics();
+
+    private final Map<HttpRoute, LeaseStatistics> routes = new ConcurrentHashMap<>();
+
+    ConnectionPoolMetrics(final ConnPoolControl<HttpRoute> pool, final ConnectionPoolListener listener) {
+        this.pool = pool;
+        this.listener = listener;
+    }
+
+    void onLeased(final HttpRoute route, final long waitNanos) {
+        total.onLeased(waitNanos);
+        getLeaseStatistics(route).onLeased(waitNanos);
+
+        if (listener != null) {
+            listener.onLeased(route, waitNanos);
+        }
+    }
+
+    void onLeaseTimeout(final HttpRoute route, final long waitNanos) {
+        total.timeouts.incrementAndGet();
+        getLeaseStatistics(route).timeouts.incrementAndGet();
+
+        if (listener != null) {
+            listener.onLeaseTimeout(route, waitNanos);
+        }
+    }
+
+    private LeaseStatistics getLeaseStatistics(final HttpRoute route) {
+        final LeaseStatistics statistics = routes.get(route);
+        return (statistics != null) ? statistics : routes.computeIfAbsent(route, key -> new LeaseStatistics());
+    }
+
+    /**
+     * @return The statistics for the whole pool
+     */
+    public PoolStats getTotalStats() {
+        return pool.getTotalStats();
+    }
+
+    /**
+     * @param route The route
+     * @return The statistics for the route
+     */
+    public PoolStats getStats(final HttpRoute route) {
+        return pool.getStats(route);
+    }
+
+    /**
+     * @return The routes the pool has connections for
+     */
+    public Set<HttpRoute> getRoutes() {
+        return pool.getRoutes();
+    }
+
+    @Override
+    public int getLeased() {
+        return getTotalStats().getLeased();
+    }
+
+    @Override
+    public int getPending() {
+        return getTotalStats().getPending();
+    }
+
+    @Override
+    public int getAvailable() {
+        return getTotalStats().getAvailable();
+    }
+
+    @Override
+    public int getMax() {
+        return getTotalStats().getMax();
+    }
+
+    @Override
+    public long getLeaseCount() {
+        return total.getCount();
+    }
+
+    @Override
+    public long getLeaseTimeoutCount() {
+        return total.timeouts.get();
+    }
+
+    @Override
+    public long[] getLeaseWaitHistogram() {
+        return total.getHistogram();
+    }
+
+    @Override
+    public long[] getLeaseWaitBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * @param route The route
+     * @return The number of leases for the route in each of the buckets given by {@link #getLeaseWaitBucketBounds()}
+     */
+    public long[] getLeaseWaitHistogram(final HttpRoute route) {
+        final LeaseStatistics statistics = routes.get(route);
+        return (statistics == null) ? new long[BUCKET_BOUNDS.length + 1] : statistics.getHistogram();
+    }
+
+    @Override
+    public Map<String, RouteMetrics> getRouteMetrics() {
+        final Map<String, RouteMetrics> metrics = new TreeMap<>();
+        for (final HttpRoute route : pool.getRoutes()) {
+            final LeaseStatistics statistics = routes.get(route);
+            metrics.put(route.getTargetHost().toURI(), new RouteMetrics(pool.getStats(route), (statistics == null) ? new LeaseStatistics() : statistics));
+        }
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * A snapshot of the statistics for a single route.
+     */
+    public static final class RouteMetrics {
+
+        private final int leased;
+        private final int pending;
+        private final int available;
+        private final int max;
+        private final long leaseCount;
+        private final long leaseTimeoutCount;
+        private final long[] leaseWaitHistogram;
+
+        RouteMetrics(final PoolStats stats, final LeaseStatistics statistics) {
+            this.leased = stats.getLeased();
+            this.pending = stats.getPending();
+            this.available = stats.getAvailable();
+            this.max = stats.getMax();
+            this.leaseCount = statistics.getCount();
+            this.leaseTimeoutCount = statistics.timeouts.get();
+            this.leaseWaitHistogram = statistics.getHistogram();
+        }
+
+        /**
+         * @return The number of connections leased for the route
+         */
+        public int getLeased() {
+            return leased;
+        }
+
+        /**
+         * @return The number of callers waiting for a connection for the route
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        /**
+         * @return The number of idle connections for the route
+         */
+        public int getAvailable() {
+            return available;
+        }
+
+        /**
+         * @return The maximum number of connections for the route
+         */
+        public int getMax() {
+            return max;
+        }
+
+        /**
+         * @return The number of connections leased for the route since the pool was created
+         */
+        public long getLeaseCount() {
+            return leaseCount;
+        }
+
+        /**
+         * @return The number of callers that gave up waiting for a connection for the route
+         */
+        public long getLeaseTimeoutCount() {
+            return leaseTimeoutCount;
+        }
+
+        /**
+         * @return The number of leases for the route in each lease wait bucket
+         */
+        public long[] getLeaseWaitHistogram() {
+            return leaseWaitHistogram.clone();
+        }
+    }
+
+    /**
+     * The lease counters for the whole pool or a single route.
+     */
+    private static final class LeaseStatistics {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+        private final AtomicLong timeouts = new AtomicLong();
+
+        void onLeased(final long waitNanos) {
+            final long waitMillis = TimeUnit.NANOSECONDS.toMillis(waitNanos);
+
+            int bucket = 0;
+            while ((bucket < BUCKET_BOUNDS.length) && (waitMillis > BUCKET_BOUNDS[bucket])) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+        }
+
+        long getCount() {
+            long count = 0;
+            for (int ii = 0; ii < buckets.length(); ii++) {
+                count += buckets.get(ii);
+            }
+            return count;
+        }
+
+        long[] getHistogram() {
+            final long[] histogram = new long[buckets.length()];
+            for (int ii = 0; ii < histogram.length; ii++) {
+                histogram[ii] = buckets.get(ii);
+            }
+            return histogram;
+        }
+    }
+
+}
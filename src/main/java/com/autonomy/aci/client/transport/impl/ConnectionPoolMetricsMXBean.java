@@ -0,0 +1,71 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a {@link ConnectionPoolMetrics}, registered by {@link HttpClient5Factory} when its
+ * <code>jmxObjectName</code> is set.
+ */
+public interface ConnectionPoolMetricsMXBean {
+
+    /**
+     * @return The number of connections currently leased, across every route
+     */
+    int getLeased();
+
+    /**
+     * @return The number of callers currently waiting for a connection, across every route
+     */
+    int getPending();
+
+    /**
+     * @return The number of idle connections in the pool, across every route
+     */
+    int getAvailable();
+
+    /**
+     * @return The maximum number of connections in the pool
+     */
+    int getMax();
+
+    /**
+     * @return The number of connections leased since the pool was created
+     */
+    long getLeaseCount();
+
+    /**
+     * @return The number of callers that gave up waiting for a connection since the pool was created
+     */
+    long getLeaseTimeoutCount();
+
+    /**
+     * @return The number of leases in each of the buckets given by {@link #getLeaseWaitBucketBounds()}
+     */
+    long[] getLeaseWaitHistogram();
+
+    /**
+     * @return The inclusive upper bound, in milliseconds, of each lease wait bucket but the last, which holds every
+     * longer wait
+     */
+    long[] getLeaseWaitBucketBounds();
+
+    /**
+     * @return The statistics for each route the pool has connections for, keyed on the route's target
+     */
+    Map<String, ConnectionPoolMetrics.RouteMetrics> getRouteMetrics();
+
+}
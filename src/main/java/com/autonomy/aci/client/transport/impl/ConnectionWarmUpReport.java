@@ -0,0 +1,141 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a {@link ConnectionWarmer} did when warming up the connections to a set of ACI Servers, e.g. to log at startup.
+ */
+public class ConnectionWarmUpReport {
+
+    /**
+     * The outcome for a single ACI Server.
+     */
+    public static class Server {
+
+        private final AciServerDetails serverDetails;
+
+        private final int requested;
+
+        private final int opened;
+
+        private final int failed;
+
+        private final long elapsedMillis;
+
+        Server(final AciServerDetails serverDetails, final int requested, final int opened, final int failed, final long elapsedMillis) {
+            this.serverDetails = serverDetails;
+            this.requested = requested;
+            this.opened = opened;
+            this.failed = failed;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return The ACI Server
+         */
+        public AciServerDetails getServerDetails() {
+            return serverDetails;
+        }
+
+        /**
+         * @return The number of connections asked for, capped at the connection limit for the server
+         */
+        public int getRequested() {
+            return requested;
+        }
+
+        /**
+         * @return The number of new connections that were opened, and validated if requested
+         */
+        public int getOpened() {
+            return opened;
+        }
+
+        /**
+         * @return The number of connections that couldn't be leased, opened or validated
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return How long, in milliseconds, warming up the connections to this server took
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return serverDetails.getHost() + ':' + serverDetails.getPort() + " opened " + opened + " of " + requested
+                    + " connections (" + failed + " failed) in " + elapsedMillis + "ms";
+        }
+    }
+
+    private final List<Server> servers;
+
+    private final long elapsedMillis;
+
+    ConnectionWarmUpReport(final List<Server> servers, final long elapsedMillis) {
+        this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return The outcome for each ACI Server, in the order they were given
+     */
+    public List<Server> getServers() {
+        return servers;
+    }
+
+    /**
+     * @return How long, in milliseconds, the whole warm up took
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return The number of new connections that were opened across every ACI Server
+     */
+    public int getOpened() {
+        return servers.stream().mapToInt(Server::getOpened).sum();
+    }
+
+    /**
+     * @return The number of connections that failed across every ACI Server
+     */
+    public int getFailed() {
+        return servers.stream().mapToInt(Server::getFailed).sum();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("Opened ").append(getOpened()).append(" connections (")
+                .append(getFailed()).append(" failed) to ").append(servers.size()).append(" ACI Servers in ")
+                .append(elapsedMillis).append("ms");
+        for (final Server server : servers) {
+            builder.append(System.lineSeparator()).append("  ").append(server);
+        }
+        return builder.toString();
+    }
+
+}
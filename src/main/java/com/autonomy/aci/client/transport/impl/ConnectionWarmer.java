@@ -0,0 +1,335 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.transport.AciRequestPrototype;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.apache.commons.lang3.Validate;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.hc.core5.http.impl.io.HttpRequestExecutor;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.message.BasicClassicHttpRequest;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens connections to ACI Servers ahead of the requests that will use them, so the first requests after a deploy don't
+ * pay for TCP and TLS setup. Created by {@link HttpClient5Factory} for each client, and available from
+ * {@link HttpClient5Factory#getConnectionWarmer()}.
+ * <p>
+ * {@link #warmUp(Collection, int)} leases the connections from the pool, opens those that aren't already open and
+ * releases them back to the pool as idle, so they're counted against the same limits as any other connection and the
+ * lease metrics only reflect real requests. If <code>validate</code> is set each new connection is also checked by
+ * sending it a <code>GetVersion</code> action, which needs an ACI Server that accepts unencrypted, unauthenticated
+ * requests. {@link #maintainMinIdle(Collection, int, long)} repeats the warm up periodically, to replace idle
+ * connections that have expired or been closed by the server.
+ */
+public class ConnectionWarmer implements Closeable {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionWarmer.class);
+
+    /**
+     * The most connections that are opened at once.
+     */
+    private static final int MAX_THREADS = 8;
+
+    private static final HttpRequestExecutor REQUEST_EXECUTOR = new HttpRequestExecutor();
+
+    private final InstrumentedConnectionManager connectionManager;
+
+    private final Timeout leaseTimeout;
+
+    private final TimeValue keepAlive;
+
+    private final AtomicInteger ids = new AtomicInteger();
+
+    private ScheduledExecutorService scheduler;
+
+    private boolean closed;
+
+    private volatile boolean validate;
+
+    ConnectionWarmer(final InstrumentedConnectionManager connectionManager, final Timeout leaseTimeout, final TimeValue keepAlive) {
+        this.connectionManager = connectionManager;
+        this.leaseTimeout = leaseTimeout;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Opens connections to each ACI Server until it has at least <code>connections</code> idle ones in the pool, or as
+     * many as its connection limit allows. Failures are logged and reported rather than thrown, so a server that's down
+     * doesn't stop the others being warmed up.
+     * @param servers     The ACI Servers
+     * @param connections The number of connections to each server
+     * @return What was done for each server
+     * @throws IllegalArgumentException If <code>connections</code> is negative
+     */
+    public ConnectionWarmUpReport warmUp(final Collection<AciServerDetails> servers, final int connections) {
+        LOGGER.trace("warmUp() called...");
+
+        Validate.notNull(servers, "servers must not be null");
+        Validate.isTrue(connections >= 0, "connections must not be negative.");
+
+        final long start = System.nanoTime();
+
+        // Leasing is quick, so do it up front and only open the connections in parallel...
+        final List<Batch> batches = new ArrayList<>();
+        for (final AciServerDetails server : servers) {
+            batches.add(lease(server, connections));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(MAX_THREADS, runnable -> {
+            final Thread thread = new Thread(runnable, "aci-connection-warmer");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final List<ConnectionWarmUpReport.Server> results = new ArrayList<>();
+        try {
+            for (final Batch batch : batches) {
+                for (final ConnectionEndpoint endpoint : batch.endpoints) {
+                    if (!endpoint.isConnected()) {
+                        batch.opened.add(CompletableFuture.supplyAsync(() -> open(batch, endpoint), executor));
+                    }
+                }
+            }
+            for (final Batch batch : batches) {
+                results.add(batch.complete());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return new ConnectionWarmUpReport(results, elapsedMillis(start));
+    }
+
+    /**
+     * Keeps at least <code>minIdle</code> idle connections to each ACI Server, capacity permitting, by warming them up
+     * every <code>intervalMillis</code> until the warmer is closed.
+     * @param servers        The ACI Servers
+     * @param minIdle        The number of idle connections to keep to each server
+     * @param intervalMillis How often, in milliseconds, to top the connections up
+     * @throws IllegalArgumentException If <code>minIdle</code> or <code>intervalMillis</code> isn't positive
+     * @throws IllegalStateException    If the warmer has been closed
+     */
+    public synchronized void maintainMinIdle(final Collection<AciServerDetails> servers, final int minIdle, final long intervalMillis) {
+        Validate.notNull(servers, "servers must not be null");
+        Validate.isTrue(minIdle > 0, "minIdle must be greater than zero.");
+        Validate.isTrue(intervalMillis > 0, "intervalMillis must be greater than zero.");
+
+        Validate.validState(!closed, "The connection warmer has been closed.");
+
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "aci-connection-warmer-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        // Copy the servers, as AciServerDetails is mutable...
+        final List<AciServerDetails> copies = new ArrayList<>();
+        for (final AciServerDetails server : servers) {
+            copies.add(new AciServerDetails(server));
+        }
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                final ConnectionWarmUpReport report = warmUp(copies, minIdle);
+                if (report.getOpened() > 0) {
+                    LOGGER.debug("Topped up the idle connections. {}", report);
+                }
+            } catch (final RuntimeException e) {
+                // Keep the schedule going...
+                LOGGER.warn("Unable to top up the idle connections", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops maintaining the idle connections. The connections themselves are left in the pool.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private Batch lease(final AciServerDetails server, final int connections) {
+        final Batch batch = new Batch(server);
+        try {
+            batch.prototype = server.getRequestPrototype();
+        } catch (final URISyntaxException e) {
+            LOGGER.warn("Unable to warm up the connections to {}:{}", server.getHost(), server.getPort(), e);
+            batch.requested = connections;
+            batch.failed = connections;
+            return batch;
+        }
+
+        final HttpHost target = batch.prototype.getHttpHost();
+        batch.route = new HttpRoute(target, null, "https".equalsIgnoreCase(target.getSchemeName()));
+        batch.requested = Math.min(connections, connectionManager.getAvailableCapacity(batch.route));
+
+        // Lease every connection before opening any, so the pool doesn't keep handing back the same one...
+        try {
+            for (int ii = 0; ii < batch.requested; ii++) {
+                batch.endpoints.add(connectionManager.leaseUninstrumented(nextId(), batch.route, leaseTimeout, null).get(leaseTimeout));
+            }
+        } catch (final TimeoutException | ExecutionException e) {
+            LOGGER.warn("Unable to lease a connection to {}:{} to warm up", server.getHost(), server.getPort(), e);
+            batch.failed = batch.requested - batch.endpoints.size();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.failed = batch.requested - batch.endpoints.size();
+        }
+        return batch;
+    }
+
+    private boolean open(final Batch batch, final ConnectionEndpoint endpoint) {
+        final AciServerDetails server = batch.serverDetails;
+        final HttpClientContext context = HttpClientContext.create();
+        try {
+            connectionManager.connect(endpoint, null, context);
+            if (!validate) {
+                return true;
+            }
+
+            final HttpHost target = batch.route.getTargetHost();
+            final ClassicHttpRequest request = new BasicClassicHttpRequest(Method.GET, target, batch.prototype.getEncodedPath("action=GetVersion"));
+            request.setHeader(HttpHeaders.HOST, target.toHostString());
+
+            final ClassicHttpResponse response = endpoint.execute(nextId(), request, REQUEST_EXECUTOR, context);
+            EntityUtils.consume(response.getEntity());
+
+            if (response.getCode() != 200) {
+                LOGGER.warn("Closing a new connection to {}:{} as GetVersion returned status code {}", server.getHost(), server.getPort(), response.getCode());
+            } else if (!DefaultConnectionReuseStrategy.INSTANCE.keepAlive(request, response, context)) {
+                LOGGER.warn("Closing a new connection to {}:{} as it can't be kept alive", server.getHost(), server.getPort());
+            } else {
+                return true;
+            }
+        } catch (final IOException | HttpException e) {
+            LOGGER.warn("Unable to open a new connection to {}:{}", server.getHost(), server.getPort(), e);
+        }
+
+        endpoint.close(CloseMode.IMMEDIATE);
+        return false;
+    }
+
+    private String nextId() {
+        return "warm-up-" + ids.incrementAndGet();
+    }
+
+    private static long elapsedMillis(final long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * The connections being warmed up for one ACI Server.
+     */
+    private final class Batch {
+
+        private final AciServerDetails serverDetails;
+
+        private final long start = System.nanoTime();
+
+        private final List<ConnectionEndpoint> endpoints = new ArrayList<>();
+
+        private final List<CompletableFuture<Boolean>> opened = new ArrayList<>();
+
+        private AciRequestPrototype prototype;
+
+        private HttpRoute route;
+
+        private int requested;
+
+        private int failed;
+
+        private Batch(final AciServerDetails serverDetails) {
+            this.serverDetails = serverDetails;
+        }
+
+        private ConnectionWarmUpReport.Server complete() {
+            int successes = 0;
+            try {
+                for (final CompletableFuture<Boolean> future : opened) {
+                    if (future.join()) {
+                        successes++;
+                    } else {
+                        failed++;
+                    }
+                }
+            } finally {
+                // Closed connections are discarded by the pool, the rest become idle...
+                for (final ConnectionEndpoint endpoint : endpoints) {
+                    connectionManager.release(endpoint, null, keepAlive);
+                }
+            }
+
+            LOGGER.debug("Opened {} connections to {}:{}", successes, serverDetails.getHost(), serverDetails.getPort());
+            return new ConnectionWarmUpReport.Server(serverDetails, requested, successes, failed, elapsedMillis(start));
+        }
+    }
+
+    /**
+     * Getter for property validate.
+     * @return Value of property validate.
+     */
+    public boolean isValidate() {
+        return validate;
+    }
+
+    /**
+     * Sets whether each new connection is checked with a <code>GetVersion</code> action before it's added to the pool.
+     * The default is <code>false</code>.
+     * @param validate New value of property validate.
+     */
+    public void setValidate(final boolean validate) {
+        this.validate = validate;
+    }
+
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.H2AsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This is the non-blocking sibling of {@link HttpClient5Factory}. It creates and starts an instance of Apache
+ * {@link CloseableHttpAsyncClient} with a {@link PoolingAsyncClientConnectionManager}, configured with the values that
+ * have been set via the setter methods, for use with {@link AsyncAciHttpClientImpl}.
+ * <p>
+ * Defaults for all the properties that can be configured are:
+ * <table style="margin-left: 2em;">
+ *     <caption></caption>
+ *     <tr><td><code>maxTotalConnections</code></td><td>&#160;</td><td>20</td></tr>
+ *     <tr><td><code>maxConnectionsPerRoute</code></td><td>&#160;</td><td>4</td></tr>
+ *     <tr><td><code>connectionTimeout</code></td><td>&#160;</td><td>7000</td></tr>
+ *     <tr><td><code>ioThreadCount</code></td><td>&#160;</td><td>number of available processors</td></tr>
+ *     <tr><td><code>linger</code></td><td>&#160;</td><td>-1</td></tr>
+ *     <tr><td><code>socketBufferSize</code></td><td>&#160;</td><td>8192</td></tr>
+ *     <tr><td><code>soKeepAlive</code></td><td>&#160;</td><td>true</td></tr>
+ *     <tr><td><code>soReuseAddr</code></td><td>&#160;</td><td>true</td></tr>
+ *     <tr><td><code>soTimeout</code></td><td>&#160;</td><td>10000</td></tr>
+ *     <tr><td><code>staleCheckingEnabled</code></td><td>&#160;</td><td>false</td></tr>
+ *     <tr><td><code>tcpNoDelay</code></td><td>&#160;</td><td>true</td></tr>
+ *     <tr><td><code>http2Enabled</code></td><td>&#160;</td><td>false</td></tr>
+ *     <tr><td><code>http2MaxConcurrentStreams</code></td><td>&#160;</td><td>250</td></tr>
+ *     <tr><td><code>http2InitialWindowSize</code></td><td>&#160;</td><td>65535</td></tr>
+ *     <tr><td><code>http2MaxFrameSize</code></td><td>&#160;</td><td>65536</td></tr>
+ * </table>
+ * <p>
+ * Because a handful of I/O threads service every connection, <code>maxConnectionsPerRoute</code> can usually be raised
+ * well above what would be sensible for the blocking client. The returned client should be closed when it's no longer
+ * required so that its I/O threads are shut down.
+ * <p>
+ * If <code>http2Enabled</code> is set, an HTTP/2 only client is created instead. It multiplexes every concurrent action
+ * sent to an ACI Server over a single connection, so <code>maxTotalConnections</code>, <code>maxConnectionsPerRoute</code>
+ * and <code>staleCheckingEnabled</code> don't apply. Plain <code>http</code> servers are spoken to with h2c using prior
+ * knowledge, and <code>https</code> servers negotiate h2 with ALPN. As such a client can't talk to servers that only
+ * speak HTTP/1.1, pass an ordinary client created by a second factory to
+ * {@link AsyncAciHttpClientImpl#setFallbackHttpAsyncClient} so those servers are sent actions with HTTP/1.1 instead.
+ * <p>
+ * If you are using something like Spring's IoC container, you can use this class like so:
+ * <pre>
+ *   &lt;bean id="httpAsyncClientFactory" class="com.autonomy.aci.client.transport.impl.HttpAsyncClient5Factory"
+ *       p:maxConnectionsPerRoute="50"
+ *       p:maxTotalConnections="200" /&gt;
+ *
+ *   &lt;bean id="httpAsyncClient" factory-bean="httpAsyncClientFactory" factory-method="createInstance"
+ *       destroy-method="close" /&gt;
+ *
+ *   &lt;bean id="asyncAciHttpClient" class="com.autonomy.aci.client.transport.impl.AsyncAciHttpClientImpl"&gt;
+ *     &lt;constructor-arg ref="httpAsyncClient" /&gt;
+ *   &lt;/bean&gt;
+ * </pre>
+ */
+public class HttpAsyncClient5Factory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpAsyncClient5Factory.class);
+
+    private int maxTotalConnections = 20;
+
+    private int maxConnectionsPerRoute = 4;
+
+    private int connectionTimeout = 7000;
+
+    private int ioThreadCount = Runtime.getRuntime().availableProcessors();
+
+    private int linger = -1;
+
+    private int socketBufferSize = 8192;
+
+    private boolean soKeepAlive = true;
+
+    private boolean soReuseAddr = true;
+
+    private int soTimeout = 10000;
+
+    private boolean staleCheckingEnabled;
+
+    private boolean tcpNoDelay = true;
+
+    private boolean http2Enabled;
+
+    private int http2MaxConcurrentStreams = 250;
+
+    private int http2InitialWindowSize = 65535;
+
+    private int http2MaxFrameSize = 65536;
+
+    /**
+     * Creates and starts an instance of <code>CloseableHttpAsyncClient</code> with a
+     * <code>PoolingAsyncClientConnectionManager</code>.
+     * @return a started <code>CloseableHttpAsyncClient</code>
+     */
+    public CloseableHttpAsyncClient createInstance() {
+        LOGGER.debug("Creating a new instance of CloseableHttpAsyncClient with configuration -> {}", toString());
+
+        final ConnectionConfig connectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectionTimeout))
+                .setSocketTimeout(Timeout.ofMilliseconds(soTimeout))
+                .build();
+
+        final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreadCount)
+                .setSoLinger(TimeValue.ofSeconds(linger))
+                .setSndBufSize(socketBufferSize).setRcvBufSize(socketBufferSize)
+                .setSoKeepAlive(soKeepAlive)
+                .setSoReuseAddress(soReuseAddr)
+                .setSoTimeout(Timeout.ofMilliseconds(soTimeout))
+                .setTcpNoDelay(tcpNoDelay)
+                .build();
+
+        if (http2Enabled) {
+            final CloseableHttpAsyncClient httpAsyncClient = H2AsyncClientBuilder.create()
+                    .setDefaultConnectionConfig(connectionConfig)
+                    .setIOReactorConfig(ioReactorConfig)
+                    .setH2Config(H2Config.custom()
+                            // ACI servers never push...
+                            .setPushEnabled(false)
+                            .setMaxConcurrentStreams(http2MaxConcurrentStreams)
+                            .setInitialWindowSize(http2InitialWindowSize)
+                            .setMaxFrameSize(http2MaxFrameSize)
+                            .build())
+                    .build();
+            httpAsyncClient.start();
+            return httpAsyncClient;
+        }
+
+        final PoolingAsyncClientConnectionManager connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotalConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(connectionConfig)
+                .build();
+
+        final HttpAsyncClientBuilder httpAsyncClientBuilder = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setIOReactorConfig(ioReactorConfig);
+        if (staleCheckingEnabled) {
+            httpAsyncClientBuilder.evictExpiredConnections();
+        }
+
+        final CloseableHttpAsyncClient httpAsyncClient = httpAsyncClientBuilder.build();
+        httpAsyncClient.start();
+        return httpAsyncClient;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.MULTI_LINE_STYLE)
+                .append("maxTotalConnections", maxTotalConnections)
+                .append("maxConnectionsPerRoute", maxConnectionsPerRoute)
+                .append("connectionTimeout", connectionTimeout)
+                .append("ioThreadCount", ioThreadCount)
+                .append("linger", linger)
+                .append("socketBufferSize", socketBufferSize)
+                .append("soKeepAlive", soKeepAlive)
+                .append("soReuseAddr", soReuseAddr)
+                .append("soTimeout", soTimeout)
+                .append("staleCheckingEnabled", staleCheckingEnabled)
+                .append("tcpNoDelay", tcpNoDelay)
+                .append("http2Enabled", http2Enabled)
+                .append("http2MaxConcurrentStreams", http2MaxConcurrentStreams)
+                .append("http2InitialWindowSize", http2InitialWindowSize)
+                .append("http2MaxFrameSize", http2MaxFrameSize)
+                .toString();
+    }
+
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    /**
+     * Defines the maximum number of connections in total. The default is <code>20</code>.
+     * @param maxTotalConnections The maximum number of connections to set
+     */
+    public void setMaxTotalConnections(final int maxTotalConnections) {
+        this.maxTotalConnections = maxTotalConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Defines the maximum number of connections per route. The default is <code>4</code>.
+     * @param maxConnectionsPerRoute The maximum number of connections per route to set
+     */
+    public void setMaxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Determines the timeout in milliseconds until a connection is established. A timeout value of zero is interpreted
+     * as an infinite timeout. The default is <code>7000</code>ms (7s).
+     * @param connectionTimeout The timeout in milliseconds to set
+     */
+    public void setConnectionTimeout(final int connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    public int getIoThreadCount() {
+        return ioThreadCount;
+    }
+
+    /**
+     * Determines the number of I/O dispatch threads that service the connections. The default is the number of
+     * available processors.
+     * @param ioThreadCount The number of I/O dispatch threads to use
+     */
+    public void setIoThreadCount(final int ioThreadCount) {
+        this.ioThreadCount = ioThreadCount;
+    }
+
+    public int getLinger() {
+        return linger;
+    }
+
+    /**
+     * Sets <code>SO_LINGER</code> with the specified linger time in seconds. Value <code>0</code> implies that the option
+     * is disabled. Value <code>-1</code> implies that the JRE default is used. The default is <code>-1</code>.
+     * @param linger The specified linger time in seconds to set
+     */
+    public void setLinger(final int linger) {
+        this.linger = linger;
+    }
+
+    public int getSocketBufferSize() {
+        return socketBufferSize;
+    }
+
+    /**
+     * Determines the size of the socket send and receive buffers. The default is <code>8192</code> (8 * 1024).
+     * @param socketBufferSize The size of the socket buffers to use
+     */
+    public void setSocketBufferSize(final int socketBufferSize) {
+        this.socketBufferSize = socketBufferSize;
+    }
+
+    public boolean isSoKeepAlive() {
+        return soKeepAlive;
+    }
+
+    /**
+     * Defines whether or not TCP is to send automatically a keepalive probe to the peer after an interval of inactivity.
+     * @param soKeepAlive {@code true} to set {@code SO_KEEPALIVE}, {@code false} otherwise
+     */
+    public void setSoKeepAlive(final boolean soKeepAlive) {
+        this.soKeepAlive = soKeepAlive;
+    }
+
+    public boolean isSoReuseAddr() {
+        return soReuseAddr;
+    }
+
+    /**
+     * Defines whether the socket can be bound even though a previous connection is still in a timeout state.
+     * @param soReuseAddr {@code true} to set {@code SO_REUSEADDR}, {@code false} otherwise.
+     */
+    public void setSoReuseAddr(final boolean soReuseAddr) {
+        this.soReuseAddr = soReuseAddr;
+    }
+
+    public int getSoTimeout() {
+        return soTimeout;
+    }
+
+    /**
+     * Defines the socket timeout in milliseconds, which is the maximum period of inactivity between two consecutive data
+     * packets. A timeout value of zero is interpreted as an infinite timeout. The default is <code>10000</code> (10s).
+     * @param soTimeout The socket timeout in milliseconds to set
+     */
+    public void setSoTimeout(final int soTimeout) {
+        this.soTimeout = soTimeout;
+    }
+
+    public boolean isStaleCheckingEnabled() {
+        return staleCheckingEnabled;
+    }
+
+    /**
+     * Determines whether expired connections are evicted from the pool by a background thread. The default is
+     * <code>false</code>.
+     * @param staleCheckingEnabled <code>true</code> if expired connections should be evicted, <code>false</code> otherwise
+     */
+    public void setStaleCheckingEnabled(final boolean staleCheckingEnabled) {
+        this.staleCheckingEnabled = staleCheckingEnabled;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * Determines whether Nagle's algorithm is to be used. The default is <code>true</code>, i.e. <code>TCP_NODELAY</code>
+     * is enabled.
+     * @param tcpNoDelay <code>false</code> to use Nagle's algorithm, <code>true</code> to enable <code>TCP_NODELAY</code>
+     */
+    public void setTcpNoDelay(final boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    /**
+     * Determines whether an HTTP/2 only client, which multiplexes concurrent actions over a single connection per ACI
+     * Server, is created. The default is <code>false</code>.
+     * @param http2Enabled <code>true</code> to create an HTTP/2 client, <code>false</code> for an HTTP/1.1 one
+     */
+    public void setHttp2Enabled(final boolean http2Enabled) {
+        this.http2Enabled = http2Enabled;
+    }
+
+    public int getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+
+    /**
+     * Defines the <code>SETTINGS_MAX_CONCURRENT_STREAMS</code> advertised to HTTP/2 servers. The number of actions sent
+     * concurrently over a connection is limited by the value the server advertises. The default is <code>250</code>.
+     * @param http2MaxConcurrentStreams The maximum number of concurrent streams to set
+     */
+    public void setHttp2MaxConcurrentStreams(final int http2MaxConcurrentStreams) {
+        this.http2MaxConcurrentStreams = http2MaxConcurrentStreams;
+    }
+
+    public int getHttp2InitialWindowSize() {
+        return http2InitialWindowSize;
+    }
+
+    /**
+     * Defines the initial HTTP/2 flow-control window, in bytes, of each stream, i.e. how much of a response the server
+     * can send before it has to wait for the client to read it. Larger windows suit large responses on high latency
+     * links. The default is <code>65535</code>.
+     * @param http2InitialWindowSize The initial window size to set
+     */
+    public void setHttp2InitialWindowSize(final int http2InitialWindowSize) {
+        this.http2InitialWindowSize = http2InitialWindowSize;
+    }
+
+    public int getHttp2MaxFrameSize() {
+        return http2MaxFrameSize;
+    }
+
+    /**
+     * Defines the largest HTTP/2 frame, in bytes, the client is willing to receive. Must be between <code>16384</code>
+     * and <code>16777215</code>. The default is <code>65536</code>.
+     * @param http2MaxFrameSize The maximum frame size to set
+     */
+    public void setHttp2MaxFrameSize(final int http2MaxFrameSize) {
+        this.http2MaxFrameSize = http2MaxFrameSize;
+    }
+
+}
@@ -14,19 +14,31 @@
 
 package com.autonomy.aci.client.transport.impl;
 
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
 import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.io.CloseMode;
 import org.apache.hc.core5.util.TimeValue;
 import org.apache.hc.core5.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * This is a utility class to help create and configure an instance of Apache {@link HttpClient} as it appears almost
  * impossible to do so via an IoC container like Spring. This factory assumes that you'll be running in a multi-threaded
@@ -47,8 +59,39 @@ import org.slf4j.LoggerFactory;
  *     <tr><td><code>staleCheckingEnabled</code></td><td>&#160;</td><td>false</tr>
  *     <tr><td><code>tcpNoDelay</code></td><td>&#160;</td><td>true</tr>
  *     <tr><td><code>useCompression</code></td><td>&#160;</td><td>true</tr>
+ *     <tr><td><code>connectionRequestTimeout</code></td><td>&#160;</td><td>180000</tr>
+ *     <tr><td><code>connectionPoolListener</code></td><td>&#160;</td><td>null</tr>
+ *     <tr><td><code>jmxObjectName</code></td><td>&#160;</td><td>null</tr>
+ *     <tr><td><code>routeProfiles</code></td><td>&#160;</td><td>empty</tr>
+ *     <tr><td><code>warmUpServers</code></td><td>&#160;</td><td>empty</tr>
+ *     <tr><td><code>warmUpConnections</code></td><td>&#160;</td><td>1</tr>
+ *     <tr><td><code>validateWarmUpConnections</code></td><td>&#160;</td><td>false</tr>
+ *     <tr><td><code>minIdleConnections</code></td><td>&#160;</td><td>0</tr>
+ *     <tr><td><code>minIdleCheckInterval</code></td><td>&#160;</td><td>30000</tr>
  * </table>
  * <p>
+ * The connection limit, timeouts and socket buffer sizes can be overridden for individual ACI Servers, or
+ * <code>host:port</code> patterns, with {@link RouteProfiles}, e.g. to give a DAH 64 connections while the admin ports
+ * on the same host get 2. The profiles are shared by every client the factory creates and can be changed while they're
+ * in use, without creating new clients.
+ * <p>
+ * So that the first requests after a deploy don't pay for connection setup, <code>createInstance()</code> opens
+ * <code>warmUpConnections</code> connections to each of the <code>warmUpServers</code> before returning, and logs a
+ * {@link ConnectionWarmUpReport} of the time it took. If <code>minIdleConnections</code> is set, that many idle connections
+ * to each of them are then kept open, checking every <code>minIdleCheckInterval</code>ms. See {@link ConnectionWarmer}.
+ * <p>
+ * The connection pool of each client is instrumented. {@link #getConnectionPoolMetrics()} returns the live statistics
+ * for the pool of the most recently created client, and if <code>jmxObjectName</code> is set they're also registered with
+ * the platform MBean server, and unregistered when the client is closed. Lowering <code>connectionRequestTimeout</code>
+ * makes requests fail fast with a <code>ConnectionRequestTimeoutException</code> when the pool is exhausted, rather than
+ * queuing behind slow ACI Servers.
+ * <p>
+ * The defaults suit a modest pool of platform threads. When calling from a large number of virtual threads, wrap the
+ * service in a {@link com.autonomy.aci.client.services.impl.VirtualThreadAciService} whose
+ * <code>maxConcurrentRequests</code> is no more than <code>maxConnectionsPerRoute</code> (or
+ * <code>maxTotalConnections</code> when using several ACI Servers), and raise both of these to the number of concurrent
+ * requests the ACI Servers can actually service rather than to the number of callers.
+ * <p>
  * If you are using something like Spring's IoC container, you can use this class to configure your
  * {@link com.autonomy.aci.client.services.impl.AciServiceImpl} like so:
  * <pre>
@@ -94,6 +137,30 @@ public class HttpClient5Factory {
 
     private boolean useCompression = true;
 
+    private int connectionRequestTimeout = 180000;
+
+    private ConnectionPoolListener connectionPoolListener;
+
+    private String jmxObjectName;
+
+    private RouteProfiles routeProfiles = new RouteProfiles();
+
+    private List<AciServerDetails> warmUpServers = Collections.emptyList();
+
+    private int warmUpConnections = 1;
+
+    private boolean validateWarmUpConnections;
+
+    private int minIdleConnections;
+
+    private int minIdleCheckInterval = 30000;
+
+    private volatile ConnectionPoolMetrics connectionPoolMetrics;
+
+    private volatile ConnectionWarmer connectionWarmer;
+
+    private volatile ConnectionWarmUpReport warmUpReport;
+
     /**
      * Creates an instance of <code>DefaultHttpClient</code> with a <code>ThreadSafeClientConnManager</code>.
      * @return an implementation of the <code>HttpClient</code> interface.
@@ -101,26 +168,34 @@ public class HttpClient5Factory {
     public HttpClient createInstance() {
         LOGGER.debug("Creating a new instance of DefaultHttpClient with configuration -> {}", toString());
 
-        // Create the connection manager which will be default create the necessary schema registry stuff...
-        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
-        connectionManager.setMaxTotal(maxTotalConnections);
-        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
-        connectionManager.setDefaultConnectionConfig(ConnectionConfig.custom()
-                .setConnectTimeout(Timeout.ofMilliseconds(connectionTimeout))
-                .build());
-
-        connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+        final SocketConfig socketConfig = SocketConfig.custom()
                 .setSoLinger(TimeValue.ofSeconds(linger))
                 .setSndBufSize(socketBufferSize).setRcvBufSize(socketBufferSize)
                 .setSoKeepAlive(soKeepAlive)
                 .setSoReuseAddress(soReuseAddr)
                 .setSoTimeout(Timeout.ofMilliseconds(soTimeout))
                 .setTcpNoDelay(tcpNoDelay)
-                .build());
+                .build();
+
+        final ConnectionConfig connectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectionTimeout))
+                .build();
+
+        // Create the connection manager which will be default create the necessary schema registry stuff, with the
+        // settings of each route resolved from the route profiles...
+        final InstrumentedConnectionManager connectionManager = new InstrumentedConnectionManager(connectionPoolListener,
+                new RouteConfigResolver(routeProfiles, maxConnectionsPerRoute, connectionConfig, socketConfig));
+        connectionManager.setMaxTotal(maxTotalConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectionRequestTimeout))
+                .build();
 
         // Create the HttpClient and configure the compression interceptors if required...
         final HttpClientBuilder httpClientBuilder = HttpClients.custom()
-                .setConnectionManager(connectionManager);
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig);
         if (staleCheckingEnabled) {
             httpClientBuilder.evictExpiredConnections();
         }
@@ -128,7 +203,77 @@ public class HttpClient5Factory {
             httpClientBuilder.disableContentCompression();
         }
 
-        return httpClientBuilder.build();
+        if (jmxObjectName != null) {
+            registerMBean(connectionManager, jmxObjectName);
+        }
+
+        connectionPoolMetrics = connectionManager.getMetrics();
+        final HttpClient httpClient = httpClientBuilder.build();
+
+        final ConnectionWarmer warmer = new ConnectionWarmer(connectionManager, requestConfig.getConnectionRequestTimeout(), requestConfig.getConnectionKeepAlive());
+        warmer.setValidate(validateWarmUpConnections);
+        connectionManager.addCloseAction(warmer::close);
+        connectionWarmer = warmer;
+
+        if (!warmUpServers.isEmpty()) {
+            warmUpReport = warmer.warmUp(warmUpServers, warmUpConnections);
+            LOGGER.info("Connection warm up finished. {}", warmUpReport);
+
+            if (minIdleConnections > 0) {
+                warmer.maintainMinIdle(warmUpServers, minIdleConnections, minIdleCheckInterval);
+            }
+        }
+
+        return httpClient;
+    }
+
+    /**
+     * Registers the metrics of a new connection manager with JMX, closing the connection manager if they can't be, as
+     * no client will be returned to close it.
+     * @param connectionManager The connection manager
+     * @param jmxObjectName     The object name to register the metrics as
+     * @throws IllegalStateException If the metrics couldn't be registered, e.g. because the name is already taken
+     */
+    static void registerMBean(final InstrumentedConnectionManager connectionManager, final String jmxObjectName) {
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = mBeanServer.registerMBean(connectionManager.getMetrics(), new ObjectName(jmxObjectName)).getObjectName();
+            connectionManager.addCloseAction(() -> {
+                try {
+                    mBeanServer.unregisterMBean(objectName);
+                } catch (final JMException e) {
+                    LOGGER.warn("Unable to unregister the connection pool metrics from JMX", e);
+                }
+            });
+        } catch (final JMException e) {
+            connectionManager.close(CloseMode.IMMEDIATE);
+            throw new IllegalStateException("Unable to register the connection pool metrics with JMX as " + jmxObjectName, e);
+        }
+    }
+
+    /**
+     * Returns the live statistics for the connection pool of the client most recently created by this factory.
+     * @return The statistics, or <code>null</code> if no client has been created
+     */
+    public ConnectionPoolMetrics getConnectionPoolMetrics() {
+        return connectionPoolMetrics;
+    }
+
+    /**
+     * Returns the connection warmer for the client most recently created by this factory, e.g. to warm up the
+     * connections to ACI Servers that aren't known until after the client is created.
+     * @return The warmer, or <code>null</code> if no client has been created
+     */
+    public ConnectionWarmer getConnectionWarmer() {
+        return connectionWarmer;
+    }
+
+    /**
+     * Returns what was done to warm up the connections of the client most recently created by this factory.
+     * @return The report, or <code>null</code> if there were no <code>warmUpServers</code>
+     */
+    public ConnectionWarmUpReport getWarmUpReport() {
+        return warmUpReport;
     }
 
     @Override
@@ -145,6 +290,15 @@ public class HttpClient5Factory {
                 .append("staleCheckingEnabled", staleCheckingEnabled)
                 .append("tcpNoDelay", tcpNoDelay)
                 .append("useCompression", useCompression)
+                .append("connectionRequestTimeout", connectionRequestTimeout)
+                .append("connectionPoolListener", connectionPoolListener)
+                .append("jmxObjectName", jmxObjectName)
+                .append("routeProfiles", routeProfiles.getProfiles())
+                .append("warmUpServers", warmUpServers)
+                .append("warmUpConnections", warmUpConnections)
+                .append("validateWarmUpConnections", validateWarmUpConnections)
+                .append("minIdleConnections", minIdleConnections)
+                .append("minIdleCheckInterval", minIdleCheckInterval)
                 .toString();
     }
 
@@ -299,4 +453,133 @@ public class HttpClient5Factory {
         this.useCompression = useCompression;
     }
 
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    /**
+     * Determines the timeout in milliseconds to wait for a connection from the pool when every connection to the ACI
+     * Server is in use. A timeout value of zero is interpreted as an infinite timeout. The default is
+     * <code>180000</code>ms (3 minutes).
+     * @param connectionRequestTimeout The timeout in milliseconds to set
+     */
+    public void setConnectionRequestTimeout(final int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public ConnectionPoolListener getConnectionPoolListener() {
+        return connectionPoolListener;
+    }
+
+    /**
+     * Sets a listener to be told about every lease from, and lease timeout of, the pools of the clients this factory
+     * creates. The default is <code>null</code>.
+     * @param connectionPoolListener The listener to set
+     */
+    public void setConnectionPoolListener(final ConnectionPoolListener connectionPoolListener) {
+        this.connectionPoolListener = connectionPoolListener;
+    }
+
+    public String getJmxObjectName() {
+        return jmxObjectName;
+    }
+
+    /**
+     * Sets the JMX <code>ObjectName</code> the pool statistics of each client are registered under, e.g.
+     * <code>com.autonomy.aci.client:type=ConnectionPool,name=content</code>. As only one MBean can be registered with a
+     * name, each client created while the previous one is still open needs a different name. The default is
+     * <code>null</code>, i.e. the statistics aren't registered.
+     * @param jmxObjectName The object name to set
+     */
+    public void setJmxObjectName(final String jmxObjectName) {
+        this.jmxObjectName = jmxObjectName;
+    }
+
+    public RouteProfiles getRouteProfiles() {
+        return routeProfiles;
+    }
+
+    /**
+     * Sets the per ACI Server overrides of the connection settings. Changes made to the profiles after a client has been
+     * created apply to that client too. The default is an empty set of profiles.
+     * @param routeProfiles The profiles to set
+     */
+    public void setRouteProfiles(final RouteProfiles routeProfiles) {
+        this.routeProfiles = Validate.notNull(routeProfiles, "RouteProfiles must not be null");
+    }
+
+    public List<AciServerDetails> getWarmUpServers() {
+        return warmUpServers;
+    }
+
+    /**
+     * Sets the ACI Servers whose connections are opened when a client is created. The default is none.
+     * @param warmUpServers The ACI Servers
+     */
+    public void setWarmUpServers(final List<AciServerDetails> warmUpServers) {
+        Validate.notNull(warmUpServers, "warmUpServers must not be null");
+
+        // Copy the servers, as AciServerDetails is mutable...
+        final List<AciServerDetails> copies = new ArrayList<>();
+        for (final AciServerDetails server : warmUpServers) {
+            copies.add(new AciServerDetails(server));
+        }
+        this.warmUpServers = Collections.unmodifiableList(copies);
+    }
+
+    public int getWarmUpConnections() {
+        return warmUpConnections;
+    }
+
+    /**
+     * Sets the number of connections opened to each of the <code>warmUpServers</code> when a client is created, which is
+     * capped at the connection limit for the server. The default is <code>1</code>.
+     * @param warmUpConnections The number of connections
+     */
+    public void setWarmUpConnections(final int warmUpConnections) {
+        Validate.isTrue(warmUpConnections >= 0, "warmUpConnections must not be negative.");
+        this.warmUpConnections = warmUpConnections;
+    }
+
+    public boolean isValidateWarmUpConnections() {
+        return validateWarmUpConnections;
+    }
+
+    /**
+     * Sets whether each connection that's warmed up is checked with a <code>GetVersion</code> action. The default is
+     * <code>false</code>.
+     * @param validateWarmUpConnections <code>true</code> to check the connections
+     */
+    public void setValidateWarmUpConnections(final boolean validateWarmUpConnections) {
+        this.validateWarmUpConnections = validateWarmUpConnections;
+    }
+
+    public int getMinIdleConnections() {
+        return minIdleConnections;
+    }
+
+    /**
+     * Sets the number of idle connections to keep open to each of the <code>warmUpServers</code> after the warm up, or
+     * <code>0</code> to not maintain them. The default is <code>0</code>.
+     * @param minIdleConnections The number of connections
+     */
+    public void setMinIdleConnections(final int minIdleConnections) {
+        Validate.isTrue(minIdleConnections >= 0, "minIdleConnections must not be negative.");
+        this.minIdleConnections = minIdleConnections;
+    }
+
+    public int getMinIdleCheckInterval() {
+        return minIdleCheckInterval;
+    }
+
+    /**
+     * Sets how often, in milliseconds, the idle connections are topped up to <code>minIdleConnections</code>. The
+     * default is <code>30000</code>ms (30s).
+     * @param minIdleCheckInterval The interval
+     */
+    public void setMinIdleCheckInterval(final int minIdleCheckInterval) {
+        Validate.isTrue(minIdleCheckInterval > 0, "minIdleCheckInterval must be greater than zero.");
+        this.minIdleCheckInterval = minIdleCheckInterval;
+    }
+
 }
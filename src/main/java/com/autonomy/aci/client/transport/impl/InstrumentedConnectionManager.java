@@ -0,0 +1,137 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.Timeout;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link PoolingHttpClientConnectionManager} that records how long each lease waits for a connection in a
+ * {@link ConnectionPoolMetrics}, and takes the settings of each route from a {@link RouteConfigResolver}.
+ */
+class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+
+    private final ConnectionPoolMetrics metrics;
+
+    private final RouteConfigResolver routeConfigResolver;
+
+    /**
+     * The settings whose maximum number of connections has been applied to each route.
+     */
+    private final Map<HttpRoute, RouteConfigResolver.Resolved> applied = new ConcurrentHashMap<>();
+
+    private final List<Runnable> closeActions = new CopyOnWriteArrayList<>();
+
+    InstrumentedConnectionManager(final ConnectionPoolListener listener, final RouteConfigResolver routeConfigResolver) {
+        this.metrics = new ConnectionPoolMetrics(this, listener);
+        this.routeConfigResolver = routeConfigResolver;
+
+        setConnectionConfigResolver(routeConfigResolver::resolveConnectionConfig);
+        setSocketConfigResolver(routeConfigResolver::resolveSocketConfig);
+    }
+
+    ConnectionPoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param closeAction Run once when the connection manager is closed, e.g. to unregister the metrics from JMX
+     */
+    void addCloseAction(final Runnable closeAction) {
+        closeActions.add(closeAction);
+    }
+
+    @Override
+    public LeaseRequest lease(final String id, final HttpRoute route, final Timeout requestTimeout, final Object state) {
+        final long start = System.nanoTime();
+        final LeaseRequest leaseRequest = leaseUninstrumented(id, route, requestTimeout, state);
+
+        return new LeaseRequest() {
+            @Override
+            public ConnectionEndpoint get(final Timeout timeout) throws InterruptedException, ExecutionException, TimeoutException {
+                final ConnectionEndpoint endpoint;
+                try {
+                    endpoint = leaseRequest.get(timeout);
+                } catch (final TimeoutException e) {
+                    metrics.onLeaseTimeout(route, System.nanoTime() - start);
+                    throw e;
+                }
+
+                metrics.onLeased(route, System.nanoTime() - start);
+                return endpoint;
+            }
+
+            @Override
+            public boolean cancel() {
+                return leaseRequest.cancel();
+            }
+        };
+    }
+
+    /**
+     * Leases a connection without recording it in the metrics, e.g. to warm it up.
+     * @param id             The id of the exchange, for logging
+     * @param route          The route of the connection
+     * @param requestTimeout How long to wait for a connection
+     * @param state          The user token the connection must match, or <code>null</code> for a connection without one
+     * @return The lease request
+     */
+    LeaseRequest leaseUninstrumented(final String id, final HttpRoute route, final Timeout requestTimeout, final Object state) {
+        applyRouteConfig(route);
+        return super.lease(id, route, requestTimeout, state);
+    }
+
+    /**
+     * @param route The route
+     * @return How many more connections could be leased on the route, counting the idle ones
+     */
+    int getAvailableCapacity(final HttpRoute route) {
+        applyRouteConfig(route);
+        final PoolStats stats = getStats(route);
+        return Math.max(0, stats.getMax() - stats.getLeased());
+    }
+
+    private void applyRouteConfig(final HttpRoute route) {
+        // The profiles may have changed since the last request for this route...
+        final RouteConfigResolver.Resolved resolved = routeConfigResolver.resolve(route);
+        if (applied.put(route, resolved) != resolved) {
+            setMaxPerRoute(route, resolved.getMaxConnections());
+        }
+    }
+
+    @Override
+    public void close(final CloseMode closeMode) {
+        for (final Runnable action : closeActions) {
+            if (closeActions.remove(action)) {
+                action.run();
+            }
+        }
+
+        super.close(closeMode);
+    }
+
+}
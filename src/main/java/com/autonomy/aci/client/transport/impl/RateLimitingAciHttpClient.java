@@ -0,0 +1,351 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.RateLimitExceededException;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciHttpClient;
+import com.autonomy.aci.client.transport.AciHttpException;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+/**
+ * An {@link AciHttpClient} that limits the rate of requests to ACI Servers with {@link TokenBucket}s, e.g. for servers or
+ * licences that can only take a fixed number of queries per second. A limit can be set for a whole server, for one action
+ * on a server, or both, in which case a request needs a permit from each. Servers and actions without a limit aren't
+ * limited.
+ * <p>
+ * What happens when there's no permit is set by <code>maxWaitTime</code>: a negative value waits for as long as it
+ * takes, zero fails fast and a positive value waits if a permit will be available within that many milliseconds. A
+ * request that doesn't get its permits is rejected with a {@link RateLimitExceededException} without being sent. A
+ * request with a {@link Deadline} never waits beyond it, and is rejected with a {@link DeadlineExceededException} if its
+ * permits wouldn't be available in time. A request whose {@link CancellationToken} is cancelled while it waits gives
+ * its permits back and fails with a {@link RequestCancelledException}.
+ * <p>
+ * Limits can be added, changed and removed while the client is in use; changing a limit keeps the level of its bucket.
+ * <pre>
+ *   final RateLimitingAciHttpClient client = new RateLimitingAciHttpClient(aciHttpClient);
+ *   client.setRate(content, 50, 10);
+ *   client.setRate(content, "DREADDDATA", 2, 1);
+ * </pre>
+ */
+public class RateLimitingAciHttpClient implements AciHttpClient {
+
+    /**
+     * Class logger...
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(RateLimitingAciHttpClient.class);
+
+    /**
+     * Holds the decorated client.
+     */
+    private final AciHttpClient aciHttpClient;
+
+    /**
+     * The source of time, in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    /**
+     * Holds the buckets, keyed on the ACI Server and lower case action they limit.
+     */
+    private final Map<Key, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Holds value of property maxWaitTime.
+     */
+    private volatile long maxWaitTime = -1L;
+
+    /**
+     * Creates a new instance of RateLimitingAciHttpClient.
+     * @param aciHttpClient The client to send requests with
+     * @throws NullPointerException If <code>aciHttpClient</code> is <code>null</code>
+     */
+    public RateLimitingAciHttpClient(final AciHttpClient aciHttpClient) {
+        this(aciHttpClient, System::nanoTime);
+    }
+
+    RateLimitingAciHttpClient(final AciHttpClient aciHttpClient, final LongSupplier nanoClock) {
+        this.aciHttpClient = Validate.notNull(aciHttpClient, "AciHttpClient must not be null");
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Executes the action on the ACI Server, once its rate limits allow.
+     * @param serverDetails The details of the ACI Server the request will be sent to
+     * @param parameters    The parameters to send with the ACI action
+     * @return An <code>AciResponseInputStream</code> containing the ACI response
+     * @throws IOException                If an I/O (transport) error occurs, or the thread is interrupted while waiting
+     *                                    for a permit
+     * @throws AciHttpException           If a protocol exception occurs
+     * @throws RateLimitExceededException If a permit wouldn't be available within <code>maxWaitTime</code>
+     * @throws DeadlineExceededException  If a permit wouldn't be available before the request's deadline
+     * @throws RequestCancelledException  If the request is cancelled while waiting for a permit
+     */
+    @Override
+    public AciResponseInputStream executeAction(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) throws IOException, AciHttpException {
+        LOGGER.trace("executeAction() called...");
+
+        if (!buckets.isEmpty()) {
+            final String action = getAction(parameters);
+            final TokenBucket actionBucket = (action == null) ? null : buckets.get(new Key(serverDetails, action));
+            final TokenBucket serverBucket = buckets.get(new Key(serverDetails, null));
+
+            final long configuredWaitNanos = (maxWaitTime < 0) ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(maxWaitTime);
+            final Deadline deadline = Deadline.of(parameters);
+            final long remainingNanos = (deadline == null) ? Long.MAX_VALUE : deadline.getTimeRemaining(TimeUnit.NANOSECONDS);
+            final long maxWaitNanos = Math.min(configuredWaitNanos, remainingNanos);
+            long wait = 0;
+
+            if (actionBucket != null) {
+                wait = actionBucket.reserve(maxWaitNanos);
+                if (wait < 0) {
+                    throwIfDeadlineBound(deadline, remainingNanos, configuredWaitNanos);
+                    LOGGER.debug("Rejecting {} as the rate limit for it on {}:{} has been reached", action, serverDetails.getHost(), serverDetails.getPort());
+                    throw new RateLimitExceededException(serverDetails.getHost(), serverDetails.getPort(), action);
+                }
+            }
+
+            if (serverBucket != null) {
+                final long serverWait = serverBucket.reserve(maxWaitNanos);
+                if (serverWait < 0) {
+                    if (actionBucket != null) {
+                        actionBucket.cancel();
+                    }
+                    throwIfDeadlineBound(deadline, remainingNanos, configuredWaitNanos);
+                    LOGGER.debug("Rejecting {} as the rate limit for {}:{} has been reached", action, serverDetails.getHost(), serverDetails.getPort());
+                    throw new RateLimitExceededException(serverDetails.getHost(), serverDetails.getPort(), null);
+                }
+                wait = Math.max(wait, serverWait);
+            }
+
+            if (wait > 0) {
+                try {
+                    if (!await(wait, CancellationToken.of(parameters))) {
+                        cancel(actionBucket, serverBucket);
+                        LOGGER.debug("Giving up waiting for a permit to send {} as the request was cancelled", action);
+                        throw new RequestCancelledException();
+                    }
+                } catch (final InterruptedException e) {
+                    cancel(actionBucket, serverBucket);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a permit to send a request to " + serverDetails.getHost() + ':' + serverDetails.getPort());
+                }
+            }
+        }
+
+        return aciHttpClient.executeAction(serverDetails, parameters);
+    }
+
+    /**
+     * Waits for a reserved permit, unless the request is cancelled first.
+     * @return <code>false</code> if the request was cancelled
+     */
+    private static boolean await(final long wait, final CancellationToken cancellation) throws InterruptedException {
+        if (cancellation == null) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+            return true;
+        }
+
+        final CompletableFuture<Void> cancelled = new CompletableFuture<>();
+        final CancellationToken.Registration registration = cancellation.onCancel(() -> cancelled.complete(null));
+        try {
+            cancelled.get(wait, TimeUnit.NANOSECONDS);
+            return false;
+        } catch (final TimeoutException e) {
+            return true;
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            registration.close();
+        }
+    }
+
+    /**
+     * Gives back the permits reserved for a request that won't be sent.
+     */
+    private static void cancel(final TokenBucket actionBucket, final TokenBucket serverBucket) {
+        if (actionBucket != null) {
+            actionBucket.cancel();
+        }
+        if (serverBucket != null) {
+            serverBucket.cancel();
+        }
+    }
+
+    private static void throwIfDeadlineBound(final Deadline deadline, final long remainingNanos, final long configuredWaitNanos) {
+        // The permit would have been waited for if it weren't for the deadline...
+        if (remainingNanos < configuredWaitNanos) {
+            LOGGER.debug("Rejecting the request as its deadline would pass before a permit is available");
+            throw new DeadlineExceededException(deadline.getTimeout(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Sets the rate limit for every request to an ACI Server, replacing any existing limit.
+     * @param serverDetails    The details of the ACI Server
+     * @param permitsPerSecond The average number of requests per second
+     * @param burst            The most requests that can be sent at once after a quiet period
+     * @throws IllegalArgumentException If <code>permitsPerSecond</code> or <code>burst</code> isn't greater than zero
+     */
+    public void setRate(final AciServerDetails serverDetails, final double permitsPerSecond, final int burst) {
+        setRate(new Key(serverDetails, null), permitsPerSecond, burst);
+    }
+
+    /**
+     * Sets the rate limit for one action on an ACI Server, replacing any existing limit.
+     * @param serverDetails    The details of the ACI Server
+     * @param action           The name of the action, ignoring case
+     * @param permitsPerSecond The average number of requests per second
+     * @param burst            The most requests that can be sent at once after a quiet period
+     * @throws IllegalArgumentException If <code>permitsPerSecond</code> or <code>burst</code> isn't greater than zero
+     */
+    public void setRate(final AciServerDetails serverDetails, final String action, final double permitsPerSecond, final int burst) {
+        Validate.notEmpty(action, "action must not be empty");
+        setRate(new Key(serverDetails, action.toLowerCase(Locale.ENGLISH)), permitsPerSecond, burst);
+    }
+
+    private void setRate(final Key key, final double permitsPerSecond, final int burst) {
+        // Copy the key, as AciServerDetails is mutable...
+        buckets.compute(new Key(new AciServerDetails(key.serverDetails), key.action), (k, bucket) -> {
+            if (bucket == null) {
+                return new TokenBucket(permitsPerSecond, burst, nanoClock);
+            }
+
+            bucket.setRate(permitsPerSecond, burst);
+            return bucket;
+        });
+    }
+
+    /**
+     * Removes the rate limit for every request to an ACI Server. Limits for individual actions are kept.
+     * @param serverDetails The details of the ACI Server
+     */
+    public void removeRate(final AciServerDetails serverDetails) {
+        buckets.remove(new Key(serverDetails, null));
+    }
+
+    /**
+     * Removes the rate limit for one action on an ACI Server.
+     * @param serverDetails The details of the ACI Server
+     * @param action        The name of the action, ignoring case
+     */
+    public void removeRate(final AciServerDetails serverDetails, final String action) {
+        buckets.remove(new Key(serverDetails, action.toLowerCase(Locale.ENGLISH)));
+    }
+
+    /**
+     * Returns the bucket that limits every request to an ACI Server.
+     * @param serverDetails The details of the ACI Server
+     * @return The bucket, or <code>null</code> if the server isn't limited
+     */
+    public TokenBucket getBucket(final AciServerDetails serverDetails) {
+        return buckets.get(new Key(serverDetails, null));
+    }
+
+    /**
+     * Returns the bucket that limits one action on an ACI Server.
+     * @param serverDetails The details of the ACI Server
+     * @param action        The name of the action, ignoring case
+     * @return The bucket, or <code>null</code> if the action isn't limited on that server
+     */
+    public TokenBucket getBucket(final AciServerDetails serverDetails, final String action) {
+        return buckets.get(new Key(serverDetails, action.toLowerCase(Locale.ENGLISH)));
+    }
+
+    /**
+     * Getter for property maxWaitTime.
+     * @return Value of property maxWaitTime.
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * Sets how long, in milliseconds, a request can wait for its permits. A negative value waits for as long as it takes
+     * and <code>0</code> fails fast. The default is <code>-1</code>.
+     * @param maxWaitTime New value of property maxWaitTime.
+     */
+    public void setMaxWaitTime(final long maxWaitTime) {
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    private static String getAction(final Set<? extends ActionParameter<?>> parameters) {
+        for (final ActionParameter<?> parameter : parameters) {
+            if ((parameter != null) && AciConstants.PARAM_ACTION.equalsIgnoreCase(parameter.getName())) {
+                return String.valueOf(parameter.getValue()).toLowerCase(Locale.ENGLISH);
+            }
+        }
+
+        // The decorated client will reject the request...
+        return null;
+    }
+
+    /**
+     * The key of a bucket, an ACI Server with an optional action.
+     */
+    private static final class Key {
+
+        private final AciServerDetails serverDetails;
+
+        private final String action;
+
+        Key(final AciServerDetails serverDetails, final String action) {
+            this.serverDetails = Validate.notNull(serverDetails, "AciServerDetails must not be null");
+            this.action = action;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) obj;
+            return serverDetails.equals(other.serverDetails) && Objects.equals(action, other.action);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * serverDetails.hashCode()) + Objects.hashCode(action);
+        }
+
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.util.Timeout;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the connection settings of each route by applying any matching {@link RouteProfile} to the defaults of the
+ * {@link HttpClient5Factory}. The settings are cached per route until the profiles change, as they're needed for every
+ * lease.
+ */
+final class RouteConfigResolver {
+
+    private final RouteProfiles profiles;
+
+    private final int defaultMaxPerRoute;
+
+    private final ConnectionConfig defaultConnectionConfig;
+
+    private final SocketConfig defaultSocketConfig;
+
+    private final Map<HttpRoute, Resolved> cache = new ConcurrentHashMap<>();
+
+    RouteConfigResolver(final RouteProfiles profiles, final int defaultMaxPerRoute, final ConnectionConfig defaultConnectionConfig, final SocketConfig defaultSocketConfig) {
+        this.profiles = profiles;
+        this.defaultMaxPerRoute = defaultMaxPerRoute;
+        this.defaultConnectionConfig = defaultConnectionConfig;
+        this.defaultSocketConfig = defaultSocketConfig;
+    }
+
+    Resolved resolve(final HttpRoute route) {
+        final int generation = profiles.getGeneration();
+        final Resolved resolved = cache.get(route);
+        if ((resolved != null) && (resolved.generation == generation)) {
+            return resolved;
+        }
+
+        final HttpHost target = route.getTargetHost();
+        final Resolved updated = new Resolved(generation, profiles.resolve(target.getHostName(), target.getPort()));
+        cache.put(route, updated);
+        return updated;
+    }
+
+    ConnectionConfig resolveConnectionConfig(final HttpRoute route) {
+        return resolve(route).connectionConfig;
+    }
+
+    SocketConfig resolveSocketConfig(final HttpRoute route) {
+        return resolve(route).socketConfig;
+    }
+
+    /**
+     * The settings of a route for one generation of the profiles.
+     */
+    final class Resolved {
+
+        private final int generation;
+
+        private final int maxConnections;
+
+        private final ConnectionConfig connectionConfig;
+
+        private final SocketConfig socketConfig;
+
+        private Resolved(final int generation, final RouteProfile profile) {
+            this.generation = generation;
+
+            if (profile == null) {
+                maxConnections = defaultMaxPerRoute;
+                connectionConfig = defaultConnectionConfig;
+                socketConfig = defaultSocketConfig;
+                return;
+            }
+
+            maxConnections = (profile.getMaxConnections() == null) ? defaultMaxPerRoute : profile.getMaxConnections();
+
+            final ConnectionConfig.Builder connectionConfigBuilder = ConnectionConfig.copy(defaultConnectionConfig);
+            if (profile.getConnectionTimeout() != null) {
+                connectionConfigBuilder.setConnectTimeout(Timeout.ofMilliseconds(profile.getConnectionTimeout()));
+            }
+            if (profile.getSoTimeout() != null) {
+                connectionConfigBuilder.setSocketTimeout(Timeout.ofMilliseconds(profile.getSoTimeout()));
+            }
+            connectionConfig = connectionConfigBuilder.build();
+
+            final SocketConfig.Builder socketConfigBuilder = SocketConfig.copy(defaultSocketConfig);
+            if (profile.getSoTimeout() != null) {
+                socketConfigBuilder.setSoTimeout(Timeout.ofMilliseconds(profile.getSoTimeout()));
+            }
+            if (profile.getSocketBufferSize() != null) {
+                socketConfigBuilder.setSndBufSize(profile.getSocketBufferSize()).setRcvBufSize(profile.getSocketBufferSize());
+            }
+            socketConfig = socketConfigBuilder.build();
+        }
+
+        int getMaxConnections() {
+            return maxConnections;
+        }
+    }
+
+}
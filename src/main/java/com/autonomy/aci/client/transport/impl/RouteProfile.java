@@ -0,0 +1,146 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+
+/**
+ * The connection settings for the ACI Servers matched by an entry in {@link RouteProfiles}, overriding those of the
+ * {@link HttpClient5Factory}. Any property left <code>null</code> takes the factory's value.
+ */
+public class RouteProfile {
+
+    /**
+     * Holds value of property maxConnections.
+     */
+    private Integer maxConnections;
+
+    /**
+     * Holds value of property connectionTimeout.
+     */
+    private Integer connectionTimeout;
+
+    /**
+     * Holds value of property soTimeout.
+     */
+    private Integer soTimeout;
+
+    /**
+     * Holds value of property socketBufferSize.
+     */
+    private Integer socketBufferSize;
+
+    /**
+     * Creates a new instance of RouteProfile that overrides nothing.
+     */
+    public RouteProfile() {
+        // Empty...
+    }
+
+    /**
+     * Creates a new instance of RouteProfile that only overrides the maximum number of connections.
+     * @param maxConnections The maximum number of connections to each matching ACI Server
+     */
+    public RouteProfile(final int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Copy constructor.
+     * @param that The RouteProfile to copy
+     */
+    public RouteProfile(final RouteProfile that) {
+        this.maxConnections = that.maxConnections;
+        this.connectionTimeout = that.connectionTimeout;
+        this.soTimeout = that.soTimeout;
+        this.socketBufferSize = that.socketBufferSize;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
+                .append("maxConnections", maxConnections)
+                .append("connectionTimeout", connectionTimeout)
+                .append("soTimeout", soTimeout)
+                .append("socketBufferSize", socketBufferSize)
+                .toString();
+    }
+
+    /**
+     * Getter for property maxConnections.
+     * @return Value of property maxConnections.
+     */
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the maximum number of connections to each matching ACI Server.
+     * @param maxConnections New value of property maxConnections.
+     */
+    public void setMaxConnections(final Integer maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Getter for property connectionTimeout.
+     * @return Value of property connectionTimeout.
+     */
+    public Integer getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * Sets the timeout in milliseconds until a connection is established.
+     * @param connectionTimeout New value of property connectionTimeout.
+     */
+    public void setConnectionTimeout(final Integer connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * Getter for property soTimeout.
+     * @return Value of property soTimeout.
+     */
+    public Integer getSoTimeout() {
+        return soTimeout;
+    }
+
+    /**
+     * Sets the socket timeout in milliseconds, i.e. the maximum period of inactivity while waiting for a response.
+     * @param soTimeout New value of property soTimeout.
+     */
+    public void setSoTimeout(final Integer soTimeout) {
+        this.soTimeout = soTimeout;
+    }
+
+    /**
+     * Getter for property socketBufferSize.
+     * @return Value of property socketBufferSize.
+     */
+    public Integer getSocketBufferSize() {
+        return socketBufferSize;
+    }
+
+    /**
+     * Sets the size of the socket send and receive buffers.
+     * @param socketBufferSize New value of property socketBufferSize.
+     */
+    public void setSocketBufferSize(final Integer socketBufferSize) {
+        this.socketBufferSize = socketBufferSize;
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The {@link RouteProfile}s for the clients created by an {@link HttpClient5Factory}, keyed on <code>host:port</code>
+ * patterns. A <code>*</code> in the host or port matches anything, e.g. <code>*:9100</code> matches every server's
+ * admin port, and a pattern without a port matches every port on the host. Host names are compared ignoring case.
+ * <p>
+ * A pattern without any wildcards takes precedence over those with, which are otherwise tried in the order they were
+ * added. Profiles can be added, replaced and removed while clients are in use, e.g. to rebalance connections during an
+ * incident: changes to <code>maxConnections</code> apply from the next request to a server, and changes to the other
+ * settings apply to each new connection.
+ */
+public class RouteProfiles {
+
+    /**
+     * The profiles, keyed on their pattern, in the order they were added.
+     */
+    private final Map<String, RouteProfile> profiles = new LinkedHashMap<>();
+
+    /**
+     * The compiled profiles, exact matches first, replaced whenever the profiles change.
+     */
+    private volatile List<Entry> entries = Collections.emptyList();
+
+    /**
+     * Incremented whenever the profiles change.
+     */
+    private volatile int generation;
+
+    /**
+     * Adds, or replaces, the profile for an ACI Server.
+     * @param serverDetails The ACI Server
+     * @param profile       The profile
+     */
+    public void put(final AciServerDetails serverDetails, final RouteProfile profile) {
+        Validate.notNull(serverDetails, "AciServerDetails must not be null");
+        put(serverDetails.getHost() + ':' + serverDetails.getPort(), profile);
+    }
+
+    /**
+     * Adds, or replaces, the profile for a <code>host:port</code> pattern.
+     * @param pattern The pattern
+     * @param profile The profile, which is copied
+     * @throws IllegalArgumentException If <code>pattern</code> is blank
+     * @throws NullPointerException     If <code>profile</code> is <code>null</code>
+     */
+    public synchronized void put(final String pattern, final RouteProfile profile) {
+        Validate.isTrue(StringUtils.isNotBlank(pattern), "pattern must not be blank.");
+        Validate.notNull(profile, "RouteProfile must not be null");
+
+        profiles.put(normalise(pattern), new RouteProfile(profile));
+        compile();
+    }
+
+    /**
+     * Removes the profile for an ACI Server.
+     * @param serverDetails The ACI Server
+     * @return <code>true</code> if there was a profile
+     */
+    public boolean remove(final AciServerDetails serverDetails) {
+        return remove(serverDetails.getHost() + ':' + serverDetails.getPort());
+    }
+
+    /**
+     * Removes the profile for a <code>host:port</code> pattern.
+     * @param pattern The pattern
+     * @return <code>true</code> if there was a profile
+     */
+    public synchronized boolean remove(final String pattern) {
+        final boolean removed = (profiles.remove(normalise(pattern)) != null);
+        if (removed) {
+            compile();
+        }
+        return removed;
+    }
+
+    /**
+     * Replaces every profile, e.g. when configured by an IoC container.
+     * @param profiles The profiles, keyed on their <code>host:port</code> patterns
+     */
+    public synchronized void setProfiles(final Map<String, RouteProfile> profiles) {
+        this.profiles.clear();
+        for (final Map.Entry<String, RouteProfile> entry : profiles.entrySet()) {
+            Validate.isTrue(StringUtils.isNotBlank(entry.getKey()), "pattern must not be blank.");
+            this.profiles.put(normalise(entry.getKey()), new RouteProfile(entry.getValue()));
+        }
+        compile();
+    }
+
+    /**
+     * @return A copy of the profiles, keyed on their patterns
+     */
+    public synchronized Map<String, RouteProfile> getProfiles() {
+        final Map<String, RouteProfile> copy = new LinkedHashMap<>();
+        for (final Map.Entry<String, RouteProfile> entry : profiles.entrySet()) {
+            copy.put(entry.getKey(), new RouteProfile(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Finds the profile for an ACI Server.
+     * @param host The host of the ACI Server
+     * @param port The port of the ACI Server
+     * @return The profile, or <code>null</code> if no pattern matches. The profile must not be modified.
+     */
+    public RouteProfile resolve(final String host, final int port) {
+        final String target = host.toLowerCase(Locale.ENGLISH) + ':' + port;
+        for (final Entry entry : entries) {
+            if (entry.matches(target)) {
+                return entry.profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return A number that changes whenever the profiles do
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    private static String normalise(final String pattern) {
+        final String trimmed = pattern.trim().toLowerCase(Locale.ENGLISH);
+        return (trimmed.indexOf(':') < 0) ? trimmed + ":*" : trimmed;
+    }
+
+    private void compile() {
+        final List<Entry> exact = new ArrayList<>();
+        final List<Entry> wildcards = new ArrayList<>();
+        for (final Map.Entry<String, RouteProfile> entry : profiles.entrySet()) {
+            final Entry compiled = new Entry(entry.getKey(), entry.getValue());
+            (compiled.pattern == null ? exact : wildcards).add(compiled);
+        }
+        exact.addAll(wildcards);
+
+        entries = Collections.unmodifiableList(exact);
+        generation++;
+    }
+
+    private static final class Entry {
+
+        private final String target;
+
+        private final Pattern pattern;
+
+        private final RouteProfile profile;
+
+        private Entry(final String target, final RouteProfile profile) {
+            this.target = target;
+            this.profile = profile;
+
+            if (target.indexOf('*') < 0) {
+                pattern = null;
+            } else {
+                final StringBuilder regex = new StringBuilder();
+                for (final String literal : target.split("\\*", -1)) {
+                    if (regex.length() > 0) {
+                        regex.append(".*");
+                    }
+                    regex.append(Pattern.quote(literal));
+                }
+                pattern = Pattern.compile(regex.toString());
+            }
+        }
+
+        private boolean matches(final String candidate) {
+            return (pattern == null) ? target.equals(candidate) : pattern.matcher(candidate).matches();
+        }
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket that lets through <code>permitsPerSecond</code> requests on average, with bursts of up to
+ * <code>burst</code> requests after a quiet period. Permits can be taken by failing fast with {@link #tryAcquire()},
+ * waiting up to a timeout with {@link #tryAcquire(long, TimeUnit)} or waiting as long as it takes with
+ * {@link #acquire()}, and the rate can be changed with {@link #setRate(double, int)} while the bucket is in use.
+ * <p>
+ * Rather than counting tokens, the bucket holds the time at which it is, or will be, empty, which is moved on by one
+ * interval per permit with a compare-and-set. Taking a permit therefore never blocks on a lock; a waiting caller
+ * reserves its permit first and then sleeps until it's due.
+ */
+public class TokenBucket {
+
+    /**
+     * The source of time, in nanoseconds.
+     */
+    private final LongSupplier nanoClock;
+
+    /**
+     * The time at which the bucket is, or will be, empty. It holds one permit for every interval since then, up to the
+     * burst.
+     */
+    private final AtomicLong emptyAt;
+
+    /**
+     * The number of permits that were refused.
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Holds the current rate, replaced as a whole so it's always read consistently.
+     */
+    private volatile Rate rate;
+
+    /**
+     * Creates a new instance of TokenBucket, which starts full.
+     * @param permitsPerSecond The average number of permits per second
+     * @param burst            The most permits that can be taken at once after a quiet period
+     * @throws IllegalArgumentException If either argument isn't greater than zero
+     */
+    public TokenBucket(final double permitsPerSecond, final int burst) {
+        this(permitsPerSecond, burst, System::nanoTime);
+    }
+
+    TokenBucket(final double permitsPerSecond, final int burst, final LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.rate = new Rate(permitsPerSecond, burst);
+        this.emptyAt = new AtomicLong(nanoClock.getAsLong() - rate.burstNanos);
+    }
+
+    /**
+     * Takes a permit if one is available now.
+     * @return <code>true</code> if a permit was taken
+     */
+    public boolean tryAcquire() {
+        return reserve(0) == 0;
+    }
+
+    /**
+     * Takes a permit, waiting for one to become available if that will happen within the timeout.
+     * @param timeout The most time to wait
+     * @param unit    The unit of <code>timeout</code>
+     * @return <code>true</code> if a permit was taken, <code>false</code> straight away if one wouldn't be available in time
+     * @throws InterruptedException If the thread is interrupted while waiting, in which case the permit is given back
+     */
+    public boolean tryAcquire(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long wait = reserve(unit.toNanos(timeout));
+        if (wait < 0) {
+            return false;
+        }
+
+        await(wait);
+        return true;
+    }
+
+    /**
+     * Takes a permit, waiting for as long as it takes for one to become available.
+     * @throws InterruptedException If the thread is interrupted while waiting, in which case the permit is given back
+     */
+    public void acquire() throws InterruptedException {
+        await(reserve(Long.MAX_VALUE));
+    }
+
+    /**
+     * Reserves a permit if it will be due within <code>maxWaitNanos</code>. The caller must wait for the returned time
+     * before using the permit, or give it back with {@link #cancel()}.
+     * @param maxWaitNanos The most time the caller is prepared to wait
+     * @return The time until the permit is due, in nanoseconds, or <code>-1</code> if no permit was reserved
+     */
+    long reserve(final long maxWaitNanos) {
+        while (true) {
+            final Rate current = rate;
+            final long now = nanoClock.getAsLong();
+            final long empty = emptyAt.get();
+
+            // An idle bucket only fills up to the burst...
+            final long from = Math.max(empty, now - current.burstNanos);
+            final long wait = Math.max(0, from + current.intervalNanos - now);
+            if (wait > maxWaitNanos) {
+                rejectedCount.incrementAndGet();
+                return -1;
+            }
+
+            if (emptyAt.compareAndSet(empty, from + current.intervalNanos)) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * Gives back a permit reserved with {@link #reserve(long)} that won't be used.
+     */
+    void cancel() {
+        emptyAt.addAndGet(-rate.intervalNanos);
+    }
+
+    private void await(final long wait) throws InterruptedException {
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (final InterruptedException e) {
+                cancel();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Changes the rate. Permits that have already been reserved keep their times, and the bucket carries on from its
+     * current level.
+     * @param permitsPerSecond The average number of permits per second
+     * @param burst            The most permits that can be taken at once after a quiet period
+     * @throws IllegalArgumentException If either argument isn't greater than zero
+     */
+    public void setRate(final double permitsPerSecond, final int burst) {
+        rate = new Rate(permitsPerSecond, burst);
+    }
+
+    /**
+     * @return The average number of permits per second
+     */
+    public double getPermitsPerSecond() {
+        return rate.permitsPerSecond;
+    }
+
+    /**
+     * @return The most permits that can be taken at once after a quiet period
+     */
+    public int getBurst() {
+        return rate.burst;
+    }
+
+    /**
+     * @return The number of permits that could be taken now without waiting
+     */
+    public int getAvailablePermits() {
+        final Rate current = rate;
+        final long available = (nanoClock.getAsLong() - emptyAt.get()) / current.intervalNanos;
+        return (int) Math.max(0, Math.min(current.burst, available));
+    }
+
+    /**
+     * @return The number of permits that were refused because they wouldn't have been available in time
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        final Rate current = rate;
+        return "TokenBucket{permitsPerSecond=" + current.permitsPerSecond + ", burst=" + current.burst + ", availablePermits=" + getAvailablePermits() + ", rejectedCount=" + getRejectedCount() + '}';
+    }
+
+    /**
+     * An immutable rate, with the intervals it implies.
+     */
+    private static final class Rate {
+
+        private final double permitsPerSecond;
+
+        private final int burst;
+
+        private final long intervalNanos;
+
+        private final long burstNanos;
+
+        Rate(final double permitsPerSecond, final int burst) {
+            Validate.isTrue(permitsPerSecond > 0, "permitsPerSecond must be greater than zero.");
+            Validate.isTrue(burst > 0, "burst must be greater than zero.");
+
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+            this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+            this.burstNanos = intervalNanos * burst;
+        }
+
+    }
+
+}
@@ -3,14 +3,20 @@ package com.autonomy.aci.client.util;
 import com.autonomy.aci.client.services.AciConstants;
 import com.autonomy.aci.client.transport.AciParameter;
 import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.ByteBufferActionParameter;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
 import com.autonomy.aci.client.transport.InputStreamActionParameter;
 import org.apache.commons.lang3.Validate;
 
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
  * Utility class to make it easier to specify sets of {@link ActionParameter} objects for sending with ACI actions.
+ * Parameters are kept in insertion order and are hashed on their case-folded name, so looking one up by name is a
+ * constant time operation. As with any hashed set, the name of a parameter mustn't be changed while it's in the set.
  *
  * For example:
  * <pre>
@@ -39,7 +45,31 @@ import java.util.*;
  */
 public class ActionParameters implements Set<ActionParameter<?>> {
 
-    private final Set<ActionParameter<?>> parameters = new LinkedHashSet<>();
+    /**
+     * The parameters in insertion order, mapped to themselves so that the instance held can be found from an equal one.
+     */
+    private final Map<ActionParameter<?>, ActionParameter<?>> parameters = new LinkedHashMap<>();
+
+    /**
+     * The first parameter, in iteration order, with each canonical name.
+     */
+    private final Map<String, ActionParameter<?>> names = new HashMap<>();
+
+    /**
+     * The number of parameters whose name is the same as that of an earlier parameter, e.g. an
+     * <code>AciParameter</code> and an <code>InputStreamActionParameter</code> with the same name, which aren't equal.
+     */
+    private int sharedNames;
+
+    /**
+     * Holds value of property deadline.
+     */
+    private Deadline deadline;
+
+    /**
+     * Holds value of property cancellationToken.
+     */
+    private CancellationToken cancellationToken;
 
     /**
      * Default empty constructor...
@@ -53,16 +83,19 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      * @param action The value of the action parameter to create this instance with
      */
     public ActionParameters(final String action) {
-        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, action));
+        add(new AciParameter(AciConstants.PARAM_ACTION, action));
     }
 
     /**
-     * Creates a new instance using the supplied collection of <code>ActionParameter</code>s...
+     * Creates a new instance using the supplied collection of <code>ActionParameter</code>s. If the collection is
+     * itself an <code>ActionParameters</code>, its deadline and cancellation token are kept as well...
      * @param parameters A <code>Collection</code> of <code>ActionParameter</code>s to create this instance with
      */
     public ActionParameters(final Collection<? extends ActionParameter<?>> parameters) {
         // Add all the parameters....
         addAll(parameters);
+        deadline = Deadline.of(parameters);
+        cancellationToken = CancellationToken.of(parameters);
     }
 
     /**
@@ -104,16 +137,8 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      * that the parameter doesn't exist as <code>null</code> is an allowed parameter value.
      */
     public Object get(final String name) {
-        Object value = null;
-
-        for (final ActionParameter<?> parameter : this) {
-            if (parameter.getName().equalsIgnoreCase(name)) {
-                value = parameter.getValue();
-                break;
-            }
-        }
-
-        return value;
+        final ActionParameter<?> parameter = (name == null) ? null : names.get(name.toLowerCase(Locale.ENGLISH));
+        return (parameter == null) ? null : parameter.getValue();
     }
 
     /**
@@ -143,22 +168,14 @@ public class ActionParameters implements Set<ActionParameter<?>> {
     public ActionParameter<?> put(final ActionParameter<?> parameter) {
         Validate.notNull(parameter, "The parameter must not be null.");
 
-        // Find the existing parameter...
-        ActionParameter<?> oldParameter = null;
-        for (final ActionParameter<?> param : parameters) {
-            if (param.equals(parameter)) {
-                oldParameter = param;
-                break;
-            }
-        }
-
-        // Remove the old parameter if there was one...
+        // Remove the existing parameter if there was one...
+        final ActionParameter<?> oldParameter = parameters.get(parameter);
         if (oldParameter != null) {
-            parameters.remove(oldParameter);
+            remove(oldParameter);
         }
 
         // Put in the new parameter...
-        parameters.add(parameter);
+        add(parameter);
 
         // Return what ever the old parameter was...
         return oldParameter;
@@ -198,7 +215,13 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      * @throws java.lang.IllegalArgumentException if <code>name</code> is <code>null</code> or blank.
      */
     public final boolean add(final String name, final Object value) {
-        return value instanceof InputStream ? add(new InputStreamActionParameter(name, (InputStream) value)) : add(new AciParameter(name, value));
+        if (value instanceof InputStream) {
+            return add(new InputStreamActionParameter(name, (InputStream) value));
+        }
+        if (value instanceof ByteBuffer) {
+            return add(new ByteBufferActionParameter(name, (ByteBuffer) value));
+        }
+        return add(new AciParameter(name, value));
     }
 
     /**
@@ -216,7 +239,18 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public boolean add(final ActionParameter<?> parameter) {
-        return parameters.add(parameter);
+        if (parameters.containsKey(parameter)) {
+            return false;
+        }
+
+        parameters.put(parameter, parameter);
+        if (parameter != null) {
+            // An earlier parameter with the same name stays the one that's indexed...
+            if (names.putIfAbsent(parameter.getCanonicalName(), parameter) != null) {
+                sharedNames++;
+            }
+        }
+        return true;
     }
 
     /**
@@ -230,7 +264,41 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public boolean remove(final Object o) {
-        return parameters.remove(o);
+        if (!parameters.containsKey(o)) {
+            return false;
+        }
+
+        removeFromNames(parameters.remove(o));
+        return true;
+    }
+
+    private void removeFromNames(final ActionParameter<?> removed) {
+        if (removed == null) {
+            return;
+        }
+
+        final String name = removed.getCanonicalName();
+        if (names.get(name) != removed) {
+            sharedNames--;
+        } else if (sharedNames == 0) {
+            names.remove(name);
+        } else {
+            // Index the next parameter with the same name, if there is one...
+            ActionParameter<?> next = null;
+            for (final ActionParameter<?> parameter : parameters.keySet()) {
+                if ((parameter != null) && name.equals(parameter.getCanonicalName())) {
+                    next = parameter;
+                    break;
+                }
+            }
+
+            if (next == null) {
+                names.remove(name);
+            } else {
+                names.put(name, next);
+                sharedNames--;
+            }
+        }
     }
 
     /**
@@ -253,7 +321,7 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public boolean containsAll(final Collection<?> collection) {
-        return parameters.containsAll(collection);
+        return parameters.keySet().containsAll(collection);
     }
 
     /**
@@ -273,7 +341,11 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public boolean addAll(final Collection<? extends ActionParameter<?>> collection) {
-        return parameters.addAll(collection);
+        boolean changed = false;
+        for (final ActionParameter<?> parameter : collection) {
+            changed |= add(parameter);
+        }
+        return changed;
     }
 
     /**
@@ -290,7 +362,16 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public boolean retainAll(final Collection<?> collection) {
-        return parameters.retainAll(collection);
+        Objects.requireNonNull(collection);
+
+        boolean changed = false;
+        for (final Iterator<ActionParameter<?>> iterator = iterator(); iterator.hasNext(); ) {
+            if (!collection.contains(iterator.next())) {
+                iterator.remove();
+                changed = true;
+            }
+        }
+        return changed;
     }
 
     /**
@@ -307,7 +388,16 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public boolean removeAll(final Collection<?> collection) {
-        return parameters.removeAll(collection);
+        Objects.requireNonNull(collection);
+
+        boolean changed = false;
+        for (final Iterator<ActionParameter<?>> iterator = iterator(); iterator.hasNext(); ) {
+            if (collection.contains(iterator.next())) {
+                iterator.remove();
+                changed = true;
+            }
+        }
+        return changed;
     }
 
     /**
@@ -316,6 +406,8 @@ public class ActionParameters implements Set<ActionParameter<?>> {
     @Override
     public void clear() {
         parameters.clear();
+        names.clear();
+        sharedNames = 0;
     }
 
     /**
@@ -344,7 +436,7 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public boolean contains(final Object o) {
-        return parameters.contains(o);
+        return parameters.containsKey(o);
     }
 
     /**
@@ -353,7 +445,15 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      * @return <code>true</code> if this set contains the specified element
      */
     public boolean contains(final String name) {
-        return parameters.contains(new AciParameter(name, ""));
+        return parameters.containsKey(new AciParameter(name, ""));
+    }
+
+    /**
+     * @param canonicalName The lower case name of a parameter
+     * @return <code>true</code> if this set contains a parameter of any type with the name
+     */
+    boolean containsName(final String canonicalName) {
+        return names.containsKey(canonicalName);
     }
 
     /**
@@ -362,7 +462,27 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public Iterator<ActionParameter<?>> iterator() {
-        return parameters.iterator();
+        final Iterator<ActionParameter<?>> iterator = parameters.keySet().iterator();
+        return new Iterator<ActionParameter<?>>() {
+            private ActionParameter<?> current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public ActionParameter<?> next() {
+                current = iterator.next();
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                removeFromNames(current);
+            }
+        };
     }
 
     /**
@@ -375,7 +495,7 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public ActionParameter<?>[] toArray() {
-        return parameters.toArray(new ActionParameter<?>[parameters.size()]);
+        return parameters.keySet().toArray(new ActionParameter<?>[parameters.size()]);
     }
 
     /**
@@ -405,7 +525,41 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public <T> T[] toArray(final T[] array) {
-        return parameters.toArray(array);
+        return parameters.keySet().toArray(array);
+    }
+
+    /**
+     * Getter for property deadline.
+     * @return Value of property deadline.
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets the point in time by which the action must have completed. The deadline isn't a parameter, so it isn't sent
+     * to the ACI Server and doesn't affect equality. The default is <code>null</code>, i.e. no deadline.
+     * @param deadline New value of property deadline.
+     */
+    public void setDeadline(final Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Getter for property cancellationToken.
+     * @return Value of property cancellationToken.
+     */
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * Sets the token that can cancel the action once it has started. Like the deadline, the token isn't a parameter. The
+     * default is <code>null</code>, i.e. the action can't be cancelled.
+     * @param cancellationToken New value of property cancellationToken.
+     */
+    public void setCancellationToken(final CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
     }
 
     /**
@@ -418,7 +572,7 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public boolean equals(final Object obj) {
-        return parameters.equals(obj);
+        return parameters.keySet().equals(obj);
     }
 
     /**
@@ -433,6 +587,6 @@ public class ActionParameters implements Set<ActionParameter<?>> {
      */
     @Override
     public int hashCode() {
-        return parameters.hashCode();
+        return parameters.keySet().hashCode();
     }
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.util;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.transport.ActionParameter;
+import org.apache.commons.lang3.Validate;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * An immutable, reusable set of fixed parameters for an action that's sent many times with only a few parameters
+ * changing. For example:
+ * <pre>
+ *    ActionTemplate template = new ActionTemplate(new ActionParameters(
+ *            new AciParameter("action", "query"),
+ *            new AciParameter("print", "fields"),
+ *            new AciParameter("printFields", "DRETITLE,DREREFERENCE"),
+ *            ...
+ *    ));
+ *    ...
+ *    aciService.executeAction(template.bind(
+ *            new AciParameter("text", text),
+ *            new AciParameter("start", start)
+ *    ), myProcessor);
+ * </pre>
+ * The fixed parameters are ordered, with the action first, when the template is created, and the transport encodes them
+ * the first time they're sent and caches the result on the template. Sending a bound action then only has to encode the
+ * bound parameters.
+ */
+public final class ActionTemplate {
+
+    /**
+     * The fixed parameters, in the order they're sent.
+     */
+    private final List<ActionParameter<?>> parameters;
+
+    /**
+     * The fixed parameters, indexed by name.
+     */
+    private final ActionParameters index;
+
+    private final String action;
+
+    private volatile String encodedQuery;
+
+    private final ConcurrentMap<Charset, String> encodedForms = new ConcurrentHashMap<>(4);
+
+    /**
+     * Creates a new template.
+     * @param parameters The fixed parameters, which must include the action
+     * @throws NullPointerException     If <code>parameters</code> is <code>null</code>
+     * @throws IllegalArgumentException If there is no action parameter or any of the parameters has to be sent in a
+     *                                  multipart request, e.g. an <code>InputStreamActionParameter</code>
+     */
+    public ActionTemplate(final Collection<? extends ActionParameter<?>> parameters) {
+        Validate.notNull(parameters, "parameters must not be null");
+
+        final List<ActionParameter<?>> ordered = new ArrayList<>(parameters.size());
+        ActionParameter<?> actionParameter = null;
+        for (final ActionParameter<?> parameter : parameters) {
+            if (parameter == null) {
+                continue;
+            }
+
+            Validate.isTrue(!parameter.requiresPostRequest(), "Template parameters must not require a multipart request, bind the " + parameter.getName() + " parameter instead.");
+            if ((actionParameter == null) && AciConstants.PARAM_ACTION.equalsIgnoreCase(parameter.getName())) {
+                actionParameter = parameter;
+            } else {
+                ordered.add(parameter);
+            }
+        }
+
+        Validate.isTrue(actionParameter != null, "No 'action' parameter found in parameter set, please set one before creating a template.");
+        ordered.add(0, actionParameter);
+
+        this.parameters = Collections.unmodifiableList(ordered);
+        this.index = new ActionParameters(ordered);
+        this.action = String.valueOf(actionParameter.getValue());
+    }
+
+    /**
+     * Creates a new template.
+     * @param parameters The fixed parameters, which must include the action
+     * @throws IllegalArgumentException If there is no action parameter or any of the parameters has to be sent in a
+     *                                  multipart request
+     */
+    public ActionTemplate(final ActionParameter<?>... parameters) {
+        this(Arrays.asList(parameters));
+    }
+
+    /**
+     * Adds the variable parameters for one request to the fixed parameters. A bound parameter with the same name as a
+     * fixed parameter replaces it, but as the encoded fixed parameters can't be used for such a request, the result is
+     * then just an {@link ActionParameters}. The same happens if a bound parameter has to be sent in a multipart request.
+     * @param boundParameters The variable parameters
+     * @return A set of parameters that can be passed to an {@code AciService}, which is a {@link BoundActionParameters}
+     * unless a fixed parameter was overridden or a multipart request is needed
+     */
+    public Set<ActionParameter<?>> bind(final ActionParameter<?>... boundParameters) {
+        return bind(Arrays.asList(boundParameters));
+    }
+
+    /**
+     * Adds the variable parameters for one request to the fixed parameters.
+     * @param boundParameters The variable parameters
+     * @return A set of parameters that can be passed to an {@code AciService}
+     * @see #bind(ActionParameter[])
+     */
+    public Set<ActionParameter<?>> bind(final Collection<? extends ActionParameter<?>> boundParameters) {
+        Validate.notNull(boundParameters, "boundParameters must not be null");
+
+        for (final ActionParameter<?> parameter : boundParameters) {
+            if ((parameter != null) && (parameter.requiresPostRequest() || index.containsName(parameter.getCanonicalName()))) {
+                final ActionParameters merged = new ActionParameters(parameters);
+                merged.putAll(withoutNulls(boundParameters));
+                return merged;
+            }
+        }
+
+        return new BoundActionParameters(this, boundParameters);
+    }
+
+    private static List<ActionParameter<?>> withoutNulls(final Collection<? extends ActionParameter<?>> parameters) {
+        final List<ActionParameter<?>> list = new ArrayList<>(parameters);
+        list.removeIf(parameter -> parameter == null);
+        return list;
+    }
+
+    /**
+     * @return The fixed parameters, with the action first
+     */
+    public List<ActionParameter<?>> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @return The value of the action parameter
+     */
+    public String getAction() {
+        return action;
+    }
+
+    boolean contains(final Object parameter) {
+        return index.contains(parameter);
+    }
+
+    /**
+     * Returns the fixed parameters encoded as a URL query string, encoding them the first time this is called.
+     * <p>
+     * This is for {@code AciHttpClient} implementations, which know how parameters are encoded.
+     * @param encoder Encodes the fixed parameters, in order, without a leading <code>?</code>
+     * @return The encoded parameters
+     */
+    public String getEncodedQuery(final Function<List<ActionParameter<?>>, String> encoder) {
+        String encoded = encodedQuery;
+        if (encoded == null) {
+            encoded = encoder.apply(parameters);
+            encodedQuery = encoded;
+        }
+        return encoded;
+    }
+
+    /**
+     * Returns the fixed parameters encoded as a form-urlencoded body in a character set, encoding them the first time
+     * this is called for that character set.
+     * <p>
+     * This is for {@code AciHttpClient} implementations, which know how parameters are encoded.
+     * @param charset The character set of the ACI Server
+     * @param encoder Encodes the fixed parameters, in order, in the given character set
+     * @return The encoded parameters
+     */
+    public String getEncodedForm(final Charset charset, final BiFunction<List<ActionParameter<?>>, Charset, String> encoder) {
+        final String encoded = encodedForms.get(charset);
+        return (encoded != null) ? encoded : encodedForms.computeIfAbsent(charset, key -> encoder.apply(parameters, key));
+    }
+
+}
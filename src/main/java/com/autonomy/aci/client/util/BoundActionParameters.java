@@ -0,0 +1,147 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.util;
+
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The parameters for a single request made from an {@link ActionTemplate}: the template's fixed parameters followed by
+ * the bound ones. Instances are created by {@link ActionTemplate#bind(ActionParameter[])} and their parameters can't be
+ * modified, although a deadline and a cancellation token can be set, as on {@link ActionParameters}.
+ * <p>
+ * This is a complete <code>Set</code> of the parameters, so it can be sent with any {@code AciService}, but transports
+ * that recognise it only need to encode the bound parameters, as the fixed ones are encoded once per template.
+ */
+public final class BoundActionParameters extends AbstractSet<ActionParameter<?>> {
+
+    private final ActionTemplate template;
+
+    private final List<ActionParameter<?>> boundParameters;
+
+    /**
+     * Holds value of property deadline.
+     */
+    private Deadline deadline;
+
+    /**
+     * Holds value of property cancellationToken.
+     */
+    private CancellationToken cancellationToken;
+
+    BoundActionParameters(final ActionTemplate template, final Collection<? extends ActionParameter<?>> boundParameters) {
+        this.template = template;
+
+        // Keep the first of any equal parameters, as a set would...
+        final List<ActionParameter<?>> distinct = new ArrayList<>(boundParameters.size());
+        for (final ActionParameter<?> parameter : boundParameters) {
+            if ((parameter != null) && !distinct.contains(parameter)) {
+                distinct.add(parameter);
+            }
+        }
+        this.boundParameters = Collections.unmodifiableList(distinct);
+    }
+
+    /**
+     * @return The template the fixed parameters come from
+     */
+    public ActionTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return The parameters bound to the template for this request, none of which have the same name as a fixed one
+     */
+    public List<ActionParameter<?>> getBoundParameters() {
+        return boundParameters;
+    }
+
+    /**
+     * Getter for property deadline.
+     * @return Value of property deadline.
+     */
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Sets the point in time by which the action must have completed. The deadline isn't a parameter, so it isn't sent
+     * to the ACI Server and doesn't affect equality. The default is <code>null</code>, i.e. no deadline.
+     * @param deadline New value of property deadline.
+     */
+    public void setDeadline(final Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Getter for property cancellationToken.
+     * @return Value of property cancellationToken.
+     */
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * Sets the token that can cancel the action once it has started. Like the deadline, the token isn't a parameter. The
+     * default is <code>null</code>, i.e. the action can't be cancelled.
+     * @param cancellationToken New value of property cancellationToken.
+     */
+    public void setCancellationToken(final CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    @Override
+    public boolean contains(final Object o) {
+        return boundParameters.contains(o) || template.contains(o);
+    }
+
+    @Override
+    public int size() {
+        return template.getParameters().size() + boundParameters.size();
+    }
+
+    @Override
+    public Iterator<ActionParameter<?>> iterator() {
+        final List<ActionParameter<?>> fixed = template.getParameters();
+        return new Iterator<ActionParameter<?>>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override
+            public ActionParameter<?> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                final int ii = next++;
+                return (ii < fixed.size()) ? fixed.get(ii) : boundParameters.get(ii - fixed.size());
+            }
+        };
+    }
+
+}
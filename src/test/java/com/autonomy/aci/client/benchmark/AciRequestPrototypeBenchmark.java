@@ -0,0 +1,102 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.benchmark;
+
+import com.autonomy.aci.client.transport.AciRequestPrototype;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.core5.http.NameValuePair;
+import org.apache.hc.core5.http.message.BasicNameValuePair;
+import org.apache.hc.core5.net.PercentCodec;
+import org.apache.hc.core5.net.URIBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the number of ACI <code>GET</code> requests that can be built per second by running a fresh
+ * {@code URIBuilder} for every request, which is what the transport used to do, with appending the encoded query string
+ * to a precompiled {@link AciRequestPrototype}, which is what it does now. Both build the same request for a typical
+ * <code>Query</code> action; the request factory itself is package-private, so its two strategies are reproduced here.
+ * <p>
+ * This isn't a unit test. Run it from the test classpath with:
+ * <pre>
+ *   java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.autonomy.aci.client.benchmark.AciRequestPrototypeBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AciRequestPrototypeBenchmark {
+
+    private final AciServerDetails serverDetails = new AciServerDetails(AciServerDetails.TransportProtocol.HTTP, "localhost", 9000, "/content");
+
+    private final List<NameValuePair> parameters = Arrays.asList(
+            new BasicNameValuePair("Action", "Query"),
+            new BasicNameValuePair("Text", "the quick brown fox"),
+            new BasicNameValuePair("MaxResults", "10"),
+            new BasicNameValuePair("Print", "fields"),
+            new BasicNameValuePair("PrintFields", "DRETITLE,DREREFERENCE")
+    );
+
+    @Benchmark
+    public HttpGet uriBuilder() throws URISyntaxException {
+        final URI uri = new URIBuilder()
+                .setScheme(serverDetails.getProtocol().toString().toLowerCase(Locale.ENGLISH))
+                .setHost(serverDetails.getHost())
+                .setPort(serverDetails.getPort())
+                .setPath(serverDetails.getPath())
+                .setParameters(parameters)
+                .build();
+        return new HttpGet(uri);
+    }
+
+    @Benchmark
+    public HttpGet prototype() throws URISyntaxException {
+        final StringBuilder query = new StringBuilder();
+        for (final NameValuePair parameter : parameters) {
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(PercentCodec.encode(parameter.getName(), StandardCharsets.UTF_8))
+                    .append('=')
+                    .append(PercentCodec.encode(parameter.getValue(), StandardCharsets.UTF_8));
+        }
+
+        final AciRequestPrototype prototype = serverDetails.getRequestPrototype();
+        final HttpGet method = new HttpGet(prototype.getBaseUri());
+        method.setPath(prototype.getEncodedPath(query.toString()));
+        return method;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AciRequestPrototypeBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}
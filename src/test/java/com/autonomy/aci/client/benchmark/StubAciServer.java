@@ -0,0 +1,86 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.benchmark;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal HTTP server on the loopback interface that answers every request with a fixed ACI response after a fixed
+ * delay, standing in for an ACI Server in benchmarks.
+ */
+public class StubAciServer implements Closeable {
+
+    private static final byte[] RESPONSE = ("<?xml version='1.0' encoding='UTF-8' ?>" +
+            "<autnresponse xmlns:autn='http://schemas.autonomy.com/aci/'>" +
+            "<action>GETSTATUS</action><response>SUCCESS</response><responsedata/>" +
+            "</autnresponse>").getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+
+    private final ExecutorService executorService;
+
+    public StubAciServer(final long latencyMillis) throws IOException {
+        executorService = Executors.newCachedThreadPool();
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.setExecutor(executorService);
+        server.createContext("/", exchange -> {
+            try (final InputStream requestBody = exchange.getRequestBody()) {
+                final byte[] buffer = new byte[8192];
+                while (requestBody.read(buffer) != -1) {
+                    // Drain the request so the connection can be reused...
+                }
+
+                if (latencyMillis > 0) {
+                    TimeUnit.MILLISECONDS.sleep(latencyMillis);
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=UTF-8");
+                exchange.sendResponseHeaders(200, RESPONSE.length);
+                try (final OutputStream responseBody = exchange.getResponseBody()) {
+                    responseBody.write(RESPONSE);
+                }
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    public AciServerDetails getServerDetails() {
+        return new AciServerDetails(server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executorService.shutdownNow();
+    }
+
+}
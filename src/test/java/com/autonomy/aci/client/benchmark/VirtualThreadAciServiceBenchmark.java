@@ -0,0 +1,173 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.benchmark;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.impl.AciServiceImpl;
+import com.autonomy.aci.client.services.impl.ByteArrayProcessor;
+import com.autonomy.aci.client.services.impl.VirtualThreadAciService;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.impl.AciHttpClientImpl;
+import com.autonomy.aci.client.transport.impl.HttpClient5Factory;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.io.ModalCloseable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of a burst of blocking ACI requests made from a fixed pool of platform threads, the usual way of
+ * using {@link AciServiceImpl}, with the same burst made from one virtual thread per request through a
+ * {@link VirtualThreadAciService}. Both models get the same number of connections, and the stub server adds a fixed
+ * latency to each response so that the benchmark is dominated by waiting rather than by parsing.
+ * <p>
+ * This isn't a unit test. Run it from the test classpath on JDK 21 or later with:
+ * <pre>
+ *   java -cp target/test-classes:target/classes:&lt;test classpath&gt; com.autonomy.aci.client.benchmark.VirtualThreadAciServiceBenchmark
+ * </pre>
+ * On earlier JDKs the <code>virtual</code> mode falls back to a cached thread pool.
+ * <p>
+ * With 400 connections the pool is larger than the 200 platform threads, which is where the models should differ. The
+ * forked JVM raises the JDK HTTP server's idle connection limit, which is 200 by default, so the stub server doesn't
+ * close pooled connections.
+ * <p>
+ * Results from a single core on JDK 17, where <code>virtual</code> is the cached thread pool fallback, so they only
+ * show the cost of the gate. The benchmark needs re-running on JDK 21 with several cores to compare virtual threads:
+ * <pre>
+ *   Benchmark  (connections)  (mode)     Score       Error  Units
+ *   burst                 50  platform  1007.657 +/-  11.037  ops/s
+ *   burst                 50  virtual    996.717 +/-  26.660  ops/s
+ *   burst                400  platform  2977.000 +/- 993.039  ops/s
+ *   burst                400  virtual   2573.347 +/- 590.839  ops/s
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.maxIdleConnections=1000")
+@State(Scope.Benchmark)
+public class VirtualThreadAciServiceBenchmark {
+
+    private static final int REQUESTS_PER_BURST = 1000;
+
+    /**
+     * <code>platform</code> runs each burst on a fixed pool of platform threads, <code>virtual</code> on one virtual thread
+     * per request.
+     */
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    /**
+     * The size of the connection pool, and so the number of requests either model can have in flight.
+     */
+    @Param({"50", "400"})
+    public int connections;
+
+    /**
+     * The number of platform threads used in <code>platform</code> mode, typical of a servlet container's worker pool.
+     */
+    @Param({"200"})
+    public int platformThreads;
+
+    @Param({"5"})
+    public long latencyMillis;
+
+    private StubAciServer server;
+
+    private HttpClient httpClient;
+
+    private ExecutorService platformExecutor;
+
+    private VirtualThreadAciService virtualThreadAciService;
+
+    private AciService aciService;
+
+    private final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "GetStatus"));
+
+    private final ByteArrayProcessor processor = new ByteArrayProcessor();
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new StubAciServer(latencyMillis);
+
+        final HttpClient5Factory httpClientFactory = new HttpClient5Factory();
+        httpClientFactory.setMaxConnectionsPerRoute(connections);
+        httpClientFactory.setMaxTotalConnections(connections);
+        httpClient = httpClientFactory.createInstance();
+
+        final AciServiceImpl aciServiceImpl = new AciServiceImpl(new AciHttpClientImpl(httpClient), server.getServerDetails());
+
+        if ("platform".equals(mode)) {
+            platformExecutor = Executors.newFixedThreadPool(platformThreads);
+            aciService = aciServiceImpl;
+        } else {
+            virtualThreadAciService = new VirtualThreadAciService(aciServiceImpl, connections);
+            aciService = virtualThreadAciService;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (platformExecutor != null) {
+            platformExecutor.shutdownNow();
+        }
+        if (virtualThreadAciService != null) {
+            virtualThreadAciService.close();
+        }
+        if (httpClient instanceof ModalCloseable) {
+            ((ModalCloseable) httpClient).close(CloseMode.IMMEDIATE);
+        }
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS_PER_BURST)
+    public int burst() {
+        final List<CompletableFuture<byte[]>> futures = new ArrayList<>(REQUESTS_PER_BURST);
+        for (int ii = 0; ii < REQUESTS_PER_BURST; ii++) {
+            if (platformExecutor != null) {
+                futures.add(CompletableFuture.supplyAsync(() -> aciService.executeAction(parameters, processor), platformExecutor));
+            } else {
+                futures.add(virtualThreadAciService.executeActionAsync(parameters, processor));
+            }
+        }
+
+        int bytes = 0;
+        for (final CompletableFuture<byte[]> future : futures) {
+            bytes += future.join().length;
+        }
+        return bytes;
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(VirtualThreadAciServiceBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}
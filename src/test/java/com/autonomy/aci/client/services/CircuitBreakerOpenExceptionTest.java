@@ -0,0 +1,38 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * JUnit test class for <code>com.autonomy.aci.client.services.CircuitBreakerOpenException</code>.
+ */
+public class CircuitBreakerOpenExceptionTest {
+
+    @Test
+    public void testConstructor() {
+        final CircuitBreakerOpenException exception = new CircuitBreakerOpenException("localhost", 9000);
+
+        // Check it's properties...
+        assertEquals("Host doesn't match.", "localhost", exception.getHost());
+        assertEquals("Port doesn't match.", 9000, exception.getPort());
+        assertEquals("Exception message doesn't match.", "The circuit breaker for localhost:9000 is open", exception.getMessage());
+        assertNull("Exception cause isn't null.", exception.getCause());
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.AciServerPool</code> class.
+ */
+public class AciServerPoolTest {
+
+    private final AciServerDetails server1 = new AciServerDetails("server1", 9000);
+
+    private final AciServerDetails server2 = new AciServerDetails("server2", 9000);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private AciServerPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new AciServerPool(Arrays.asList(server1, server2), clock::get);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyPool() {
+        new AciServerPool(Collections.<AciServerDetails>emptyList());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullPool() {
+        new AciServerPool(null);
+    }
+
+    @Test
+    public void testChooseSingleServer() {
+        final AciServerPool single = new AciServerPool(Collections.singletonList(server1));
+        assertThat(single.choose(Collections.<AciServerPool.Server>emptyList()).getServerDetails(), is(sameInstance(server1)));
+    }
+
+    @Test
+    public void testChooseExcluded() {
+        final AciServerPool.Server first = pool.getServers().get(0);
+        final AciServerPool.Server second = pool.getServers().get(1);
+
+        assertThat(pool.choose(Collections.singletonList(first)), is(sameInstance(second)));
+        assertThat(pool.choose(Arrays.asList(first, second)), is(nullValue()));
+    }
+
+    @Test
+    public void testChoosePrefersLessLoadedServer() {
+        final AciServerPool.Server busy = pool.getServers().get(0);
+        busy.onStart();
+        busy.onStart();
+
+        // With two servers both are always compared, so the idle one should always win...
+        for (int ii = 0; ii < 20; ii++) {
+            assertThat(pool.choose(Collections.<AciServerPool.Server>emptyList()), is(sameInstance(pool.getServers().get(1))));
+        }
+    }
+
+    @Test
+    public void testChoosePrefersFasterServer() {
+        final AciServerPool.Server slow = pool.getServers().get(0);
+        final AciServerPool.Server fast = pool.getServers().get(1);
+
+        record(slow, 500);
+        record(fast, 10);
+
+        assertThat(slow.getLatencyEwmaMillis(), is(closeTo(500.0, 0.001)));
+        assertThat(fast.getLatencyEwmaMillis(), is(closeTo(10.0, 0.001)));
+        assertThat(pool.choose(Collections.<AciServerPool.Server>emptyList()), is(sameInstance(fast)));
+    }
+
+    @Test
+    public void testLatencyEwma() {
+        final AciServerPool.Server server = pool.getServers().get(0);
+        pool.setEwmaWeight(0.5);
+
+        record(server, 100);
+        record(server, 200);
+
+        assertThat(server.getLatencyEwmaMillis(), is(closeTo(150.0, 0.001)));
+        assertThat(server.getInFlight(), is(0));
+    }
+
+    @Test
+    public void testEjectionAndReturn() {
+        pool.setFailureThreshold(2);
+        pool.setEjectionTime(1000);
+
+        final AciServerPool.Server failing = pool.getServers().get(0);
+        final AciServerPool.Server healthy = pool.getServers().get(1);
+
+        failing.onFailure(failing.onStart());
+        assertThat(failing.isEjected(), is(false));
+        failing.onFailure(failing.onStart());
+        assertThat(failing.isEjected(), is(true));
+
+        for (int ii = 0; ii < 20; ii++) {
+            assertThat(pool.choose(Collections.<AciServerPool.Server>emptyList()), is(sameInstance(healthy)));
+        }
+
+        // When every healthy server is excluded, the ejected one is still better than nothing...
+        assertThat(pool.choose(Collections.singletonList(healthy)), is(sameInstance(failing)));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertThat(failing.isEjected(), is(false));
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        pool.setFailureThreshold(2);
+
+        final AciServerPool.Server server = pool.getServers().get(0);
+        server.onFailure(server.onStart());
+        server.onSuccess(server.onStart());
+        server.onFailure(server.onStart());
+
+        assertThat(server.isEjected(), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidEwmaWeight() {
+        pool.setEwmaWeight(1.5);
+    }
+
+    private void record(final AciServerPool.Server server, final long millis) {
+        final long start = server.onStart();
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        server.onSuccess(start);
+    }
+
+}
@@ -16,17 +16,24 @@ package com.autonomy.aci.client.services.impl;
 
 import com.autonomy.aci.client.services.AciConstants;
 import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
 import com.autonomy.aci.client.services.Processor;
 import com.autonomy.aci.client.services.ProcessorException;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.services.RetryPolicy;
 import com.autonomy.aci.client.transport.AciHttpClient;
 import com.autonomy.aci.client.transport.AciHttpException;
+import com.autonomy.aci.client.transport.AciParameter;
 import com.autonomy.aci.client.transport.AciResponseInputStream;
 import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
 import com.autonomy.aci.client.util.ActionParameters;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -237,4 +244,179 @@ public class AciServiceImplTest {
         assertThat(service.getAciServerDetails(), is(nullValue()));
     }
 
+    @Test
+    public void testRetryPolicyProperty() {
+        final AciServiceImpl service = new AciServiceImpl();
+        assertThat(service.getRetryPolicy(), is(nullValue()));
+
+        final RetryPolicy retryPolicy = new ExponentialBackoffRetryPolicy();
+        service.setRetryPolicy(retryPolicy);
+        assertThat(service.getRetryPolicy(), is(sameInstance(retryPolicy)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionRetriesTransportFailures() throws Exception {
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "GetStatus"));
+        final AciHttpClient mockAciHttpClient = mock(AciHttpClient.class);
+        final AciResponseInputStream response = mock(AciResponseInputStream.class);
+        when(mockAciHttpClient.executeAction(details, parameters))
+                .thenThrow(new IOException("JUnit test exception."))
+                .thenReturn(response);
+
+        final RetryPolicy mockRetryPolicy = mock(RetryPolicy.class);
+        when(mockRetryPolicy.getRetryDelay(any(), any(Exception.class), anyInt())).thenReturn(0L);
+
+        final Processor<String> mockProcessor = mock(Processor.class);
+        when(mockProcessor.process(response)).thenReturn("response");
+
+        final AciServiceImpl service = new AciServiceImpl(mockAciHttpClient, details);
+        service.setRetryPolicy(mockRetryPolicy);
+
+        assertThat(service.executeAction(parameters, mockProcessor), is(equalTo("response")));
+
+        verify(mockRetryPolicy).onRequest(parameters);
+        verify(mockRetryPolicy).getRetryDelay(eq(parameters), any(IOException.class), eq(0));
+        verify(mockAciHttpClient, times(2)).executeAction(details, parameters);
+        verify(response).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionStopsRetryingWhenPolicySays() throws Exception {
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "GetStatus"));
+        final AciHttpClient mockAciHttpClient = mock(AciHttpClient.class);
+        final AciHttpException exception = new AciHttpException("JUnit test exception.");
+        when(mockAciHttpClient.executeAction(details, parameters)).thenThrow(exception);
+
+        final RetryPolicy mockRetryPolicy = mock(RetryPolicy.class);
+        when(mockRetryPolicy.getRetryDelay(any(), any(Exception.class), anyInt())).thenReturn(0L, 0L, -1L);
+
+        final AciServiceImpl service = new AciServiceImpl(mockAciHttpClient, details);
+        service.setRetryPolicy(mockRetryPolicy);
+
+        try {
+            service.executeAction(parameters, mock(Processor.class));
+            fail("Should have thrown an AciServiceException.");
+        } catch (final AciServiceException ase) {
+            assertThat(ase.getCause(), is(sameInstance(exception)));
+        }
+
+        verify(mockAciHttpClient, times(3)).executeAction(details, parameters);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExpiredDeadlineSkipsProcessing() throws Exception {
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "GetStatus"));
+        parameters.setDeadline(Deadline.after(10, TimeUnit.MILLISECONDS));
+
+        final AciHttpClient mockAciHttpClient = mock(AciHttpClient.class);
+        final AciResponseInputStream response = mock(AciResponseInputStream.class);
+        when(mockAciHttpClient.executeAction(details, parameters)).thenAnswer(invocation -> {
+            TimeUnit.MILLISECONDS.sleep(20);
+            return response;
+        });
+
+        final Processor<String> mockProcessor = mock(Processor.class);
+
+        try {
+            new AciServiceImpl(mockAciHttpClient, details).executeAction(parameters, mockProcessor);
+            fail("Should have thrown a DeadlineExceededException.");
+        } catch (final DeadlineExceededException dee) {
+            assertThat(dee.getTimeout(), is(10L));
+        }
+
+        verifyNoInteractions(mockProcessor);
+        verify(response).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionDoesNotRetryPastDeadline() throws Exception {
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "GetStatus"));
+        parameters.setDeadline(Deadline.after(1, TimeUnit.SECONDS));
+
+        final AciHttpClient mockAciHttpClient = mock(AciHttpClient.class);
+        final IOException exception = new IOException("JUnit test exception.");
+        when(mockAciHttpClient.executeAction(details, parameters)).thenThrow(exception);
+
+        final RetryPolicy mockRetryPolicy = mock(RetryPolicy.class);
+        when(mockRetryPolicy.getRetryDelay(any(), any(Exception.class), anyInt())).thenReturn(5000L);
+
+        final AciServiceImpl service = new AciServiceImpl(mockAciHttpClient, details);
+        service.setRetryPolicy(mockRetryPolicy);
+
+        try {
+            service.executeAction(parameters, mock(Processor.class));
+            fail("Should have thrown an AciServiceException.");
+        } catch (final AciServiceException ase) {
+            assertThat(ase, is(not(instanceOf(DeadlineExceededException.class))));
+            assertThat(ase.getCause(), is(sameInstance(exception)));
+        }
+
+        verify(mockAciHttpClient, times(1)).executeAction(details, parameters);
+    }
+
+    @Test(timeout = 5000)
+    public void testCancelInterruptsProcessor() throws Exception {
+        final CancellationToken cancellation = new CancellationToken();
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "GetStatus"));
+        parameters.setCancellationToken(cancellation);
+
+        final AciHttpClient mockAciHttpClient = mock(AciHttpClient.class);
+        final AciResponseInputStream response = mock(AciResponseInputStream.class);
+        when(mockAciHttpClient.executeAction(details, parameters)).thenReturn(response);
+
+        // A processor that only stops when it's interrupted...
+        final Processor<String> processor = aciResponse -> {
+            cancellation.cancel();
+            try {
+                TimeUnit.SECONDS.sleep(10);
+                return "response";
+            } catch (final InterruptedException e) {
+                throw new ProcessorException("Interrupted", e);
+            }
+        };
+
+        try {
+            new AciServiceImpl(mockAciHttpClient, details).executeAction(parameters, processor);
+            fail("Should have thrown a RequestCancelledException.");
+        } catch (final RequestCancelledException rce) {
+            assertThat(rce.getCause(), is(instanceOf(ProcessorException.class)));
+        }
+
+        assertThat("The interrupt shouldn't leak to the caller", Thread.currentThread().isInterrupted(), is(false));
+        verify(response).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCancelledRequestIsNotRetried() throws Exception {
+        final CancellationToken cancellation = new CancellationToken();
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "GetStatus"));
+        parameters.setCancellationToken(cancellation);
+
+        final AciHttpClient mockAciHttpClient = mock(AciHttpClient.class);
+        when(mockAciHttpClient.executeAction(details, parameters)).thenAnswer(invocation -> {
+            cancellation.cancel();
+            throw new IOException("JUnit test exception.");
+        });
+
+        final RetryPolicy mockRetryPolicy = mock(RetryPolicy.class);
+        when(mockRetryPolicy.getRetryDelay(any(), any(Exception.class), anyInt())).thenReturn(0L);
+
+        final AciServiceImpl service = new AciServiceImpl(mockAciHttpClient, details);
+        service.setRetryPolicy(mockRetryPolicy);
+
+        try {
+            service.executeAction(parameters, mock(Processor.class));
+            fail("Should have thrown a RequestCancelledException.");
+        } catch (final RequestCancelledException rce) {
+            assertThat(rce.getCause(), is(instanceOf(IOException.class)));
+        }
+
+        verify(mockAciHttpClient, times(1)).executeAction(details, parameters);
+    }
+
 }
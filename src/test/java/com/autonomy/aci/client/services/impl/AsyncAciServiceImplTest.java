@@ -0,0 +1,382 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.AciErrorException;
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.services.ProcessorException;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciHttpException;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.AsyncAciHttpClient;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.AsyncAciServiceImpl</code> class.
+ */
+public class AsyncAciServiceImplTest {
+
+    private final AciServerDetails details = new AciServerDetails("localhost", 9000);
+
+    private final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "GetStatus"));
+
+    private AsyncAciHttpClient mockAsyncAciHttpClient;
+
+    private AciResponseInputStream mockAciResponseInputStream;
+
+    private AtomicInteger executions;
+
+    private Executor countingExecutor;
+
+    @Before
+    public void setUp() {
+        mockAsyncAciHttpClient = mock(AsyncAciHttpClient.class);
+        mockAciResponseInputStream = mock(AciResponseInputStream.class);
+        executions = new AtomicInteger();
+        countingExecutor = command -> {
+            executions.incrementAndGet();
+            command.run();
+        };
+    }
+
+    @Test
+    public void testDefaultConstructor() {
+        final AsyncAciServiceImpl service = new AsyncAciServiceImpl();
+
+        assertThat(service.getAsyncAciHttpClient(), is(nullValue()));
+        assertThat(service.getAciServerDetails(), is(nullValue()));
+        assertThat(service.getProcessorExecutor(), is(notNullValue()));
+    }
+
+    @Test
+    public void testTriplePropertyConstructor() {
+        final AsyncAciServiceImpl service = new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor);
+
+        assertThat(service.getAsyncAciHttpClient(), is(sameInstance(mockAsyncAciHttpClient)));
+        assertThat(service.getAciServerDetails(), is(sameInstance(details)));
+        assertThat(service.getProcessorExecutor(), is(sameInstance(countingExecutor)));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testExecuteActionNullHttpClient() {
+        new AsyncAciServiceImpl(null, details).executeActionAsync(parameters, mock(Processor.class));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testExecuteActionNullServerDetails() {
+        new AsyncAciServiceImpl(mockAsyncAciHttpClient).executeActionAsync(parameters, mock(Processor.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExecuteActionNoActionParameter() {
+        new AsyncAciServiceImpl(mockAsyncAciHttpClient, details).executeActionAsync(new ActionParameters(new AciParameter("Text", "*")), mock(Processor.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExecuteActionEmptyParameters() {
+        new AsyncAciServiceImpl(mockAsyncAciHttpClient, details).executeActionAsync(new LinkedHashSet<>(), mock(Processor.class));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testExecuteActionNullProcessor() {
+        new AsyncAciServiceImpl(mockAsyncAciHttpClient, details).executeActionAsync(parameters, null);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionRunsProcessorOnExecutor() throws Exception {
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet()))
+                .thenReturn(CompletableFuture.completedFuture(mockAciResponseInputStream));
+
+        final Processor<String> processor = mock(Processor.class);
+        when(processor.process(mockAciResponseInputStream)).thenReturn("response");
+
+        final String result = new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor)
+                .executeActionAsync(parameters, processor).get();
+
+        assertThat(result, is(equalTo("response")));
+        assertThat(executions.get(), is(1));
+        verify(mockAsyncAciHttpClient).executeActionAsync(details, parameters);
+        verify(mockAciResponseInputStream).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionAciHttpException() throws Exception {
+        final CompletableFuture<AciResponseInputStream> response = new CompletableFuture<>();
+        response.completeExceptionally(new AciHttpException("JUnit test exception."));
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet())).thenReturn(response);
+
+        final Processor<String> processor = mock(Processor.class);
+
+        try {
+            new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor).executeActionAsync(parameters, processor).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(AciServiceException.class)));
+            assertThat(ee.getCause().getCause(), is(instanceOf(AciHttpException.class)));
+        }
+
+        verifyNoInteractions(processor);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionIOException() throws Exception {
+        final CompletableFuture<AciResponseInputStream> response = new CompletableFuture<>();
+        response.completeExceptionally(new IOException("JUnit test exception."));
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet())).thenReturn(response);
+
+        try {
+            new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor).executeActionAsync(parameters, mock(Processor.class)).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(AciServiceException.class)));
+            assertThat(ee.getCause().getCause(), is(instanceOf(IOException.class)));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionProcessorException() throws Exception {
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet()))
+                .thenReturn(CompletableFuture.completedFuture(mockAciResponseInputStream));
+
+        final Processor<String> processor = mock(Processor.class);
+        when(processor.process(mockAciResponseInputStream)).thenThrow(new ProcessorException("JUnit test exception."));
+
+        try {
+            new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor).executeActionAsync(parameters, processor).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(AciServiceException.class)));
+            assertThat(ee.getCause().getCause(), is(instanceOf(ProcessorException.class)));
+        }
+
+        verify(mockAciResponseInputStream).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionAciErrorException() throws Exception {
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet()))
+                .thenReturn(CompletableFuture.completedFuture(mockAciResponseInputStream));
+
+        final AciErrorException aciErrorException = new AciErrorException("JUnit test exception.");
+        final Processor<String> processor = mock(Processor.class);
+        when(processor.process(mockAciResponseInputStream)).thenThrow(aciErrorException);
+
+        try {
+            new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor).executeActionAsync(parameters, processor).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(sameInstance(aciErrorException)));
+        }
+
+        verify(mockAciResponseInputStream).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCancelAbortsRequest() {
+        final CompletableFuture<AciResponseInputStream> response = new CompletableFuture<>();
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet())).thenReturn(response);
+
+        final Processor<String> processor = mock(Processor.class);
+        new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor).executeActionAsync(parameters, processor).cancel(true);
+
+        assertThat(response.isCancelled(), is(true));
+        verifyNoInteractions(processor);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCancelClosesReceivedResponse() throws Exception {
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet()))
+                .thenReturn(CompletableFuture.completedFuture(mockAciResponseInputStream));
+
+        // Hold on to the processing task so the result can be cancelled while it's queued...
+        final List<Runnable> queued = new ArrayList<>();
+        final Processor<String> processor = mock(Processor.class);
+        new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, queued::add).executeActionAsync(parameters, processor).cancel(true);
+        queued.forEach(Runnable::run);
+
+        verifyNoInteractions(processor);
+        verify(mockAciResponseInputStream).close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCancellationTokenCancelsResult() {
+        final CompletableFuture<AciResponseInputStream> response = new CompletableFuture<>();
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet())).thenReturn(response);
+
+        final CancellationToken cancellation = new CancellationToken();
+        final ActionParameters cancellable = new ActionParameters(parameters);
+        cancellable.setCancellationToken(cancellation);
+
+        final CompletableFuture<String> result = new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor).executeActionAsync(cancellable, mock(Processor.class));
+        cancellation.cancel();
+
+        assertThat(result.isCompletedExceptionally(), is(true));
+        try {
+            result.join();
+            fail("Should have thrown a CompletionException.");
+        } catch (final CompletionException ce) {
+            assertThat(ce.getCause(), is(instanceOf(RequestCancelledException.class)));
+        }
+        assertThat(response.isCancelled(), is(true));
+    }
+
+    @Test(timeout = 10000)
+    public void testCancellationTokenInterruptsProcessor() throws Exception {
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet()))
+                .thenReturn(CompletableFuture.completedFuture(mockAciResponseInputStream));
+
+        final CancellationToken cancellation = new CancellationToken();
+        final ActionParameters cancellable = new ActionParameters(parameters);
+        cancellable.setCancellationToken(cancellation);
+
+        // A processor that only stops when it's interrupted...
+        final CountDownLatch processing = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final Processor<String> processor = aciResponse -> {
+            processing.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (final InterruptedException ie) {
+                interrupted.countDown();
+            }
+            throw new AciServiceException("Interrupted");
+        };
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final CompletableFuture<String> result = new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, executor).executeActionAsync(cancellable, processor);
+            processing.await();
+            cancellation.cancel();
+
+            try {
+                result.get();
+                fail("Should have thrown an ExecutionException.");
+            } catch (final ExecutionException ee) {
+                assertThat(ee.getCause(), is(instanceOf(RequestCancelledException.class)));
+            }
+            interrupted.await();
+            verify(mockAciResponseInputStream, timeout(1000).atLeastOnce()).close();
+
+            // The interrupt mustn't leak into the executor's next task...
+            assertThat(executor.submit(() -> Thread.currentThread().isInterrupted()).get(), is(false));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAlreadyCancelledTokenIsNotSent() throws InterruptedException {
+        final CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+        final ActionParameters cancellable = new ActionParameters(parameters);
+        cancellable.setCancellationToken(cancellation);
+
+        try {
+            new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor).executeActionAsync(cancellable, mock(Processor.class)).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(RequestCancelledException.class)));
+        }
+
+        verifyNoInteractions(mockAsyncAciHttpClient);
+    }
+
+    @Test
+    public void testTimeoutAtDeadline() throws InterruptedException {
+        final CompletableFuture<AciResponseInputStream> response = new CompletableFuture<>();
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet())).thenReturn(response);
+
+        final ActionParameters withDeadline = new ActionParameters(parameters);
+        withDeadline.setDeadline(Deadline.after(10, TimeUnit.MILLISECONDS));
+        final CompletableFuture<String> result = new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor).executeActionAsync(withDeadline, mock(Processor.class));
+
+        TimeUnit.MILLISECONDS.sleep(20);
+        response.completeExceptionally(new SocketTimeoutException("JUnit test exception."));
+
+        try {
+            result.get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(DeadlineExceededException.class)));
+            assertThat(ee.getCause().getCause(), is(instanceOf(SocketTimeoutException.class)));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLateResponseIsNotProcessed() throws Exception {
+        final CompletableFuture<AciResponseInputStream> response = new CompletableFuture<>();
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet())).thenReturn(response);
+
+        final ActionParameters withDeadline = new ActionParameters(parameters);
+        withDeadline.setDeadline(Deadline.after(10, TimeUnit.MILLISECONDS));
+        final Processor<String> processor = mock(Processor.class);
+        final CompletableFuture<String> result = new AsyncAciServiceImpl(mockAsyncAciHttpClient, details, countingExecutor).executeActionAsync(withDeadline, processor);
+
+        TimeUnit.MILLISECONDS.sleep(20);
+        response.complete(mockAciResponseInputStream);
+
+        try {
+            result.get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(DeadlineExceededException.class)));
+        }
+
+        verifyNoInteractions(processor);
+        verify(mockAciResponseInputStream).close();
+    }
+
+}
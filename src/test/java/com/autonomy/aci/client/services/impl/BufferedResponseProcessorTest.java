@@ -0,0 +1,98 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciErrorException;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.impl.AciResponseInputStreamImpl;
+import org.apache.commons.io.IOUtils;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.InputStreamEntity;
+import org.apache.hc.core5.http.message.BasicClassicHttpResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * JUnit tests for <code>com.autonomy.aci.client.services.impl.BufferedResponseProcessor</code> and
+ * <code>com.autonomy.aci.client.services.impl.BufferedAciResponse</code>.
+ */
+public class BufferedResponseProcessorTest {
+
+    private AciResponseInputStream createResponse(final String resource) throws IOException {
+        final ClassicHttpResponse response = new BasicClassicHttpResponse(200);
+        response.setHeader("AUTN-Test", "value");
+        response.setEntity(new InputStreamEntity(getClass().getResourceAsStream(resource), ContentType.TEXT_XML));
+        return new AciResponseInputStreamImpl(response);
+    }
+
+    @Test
+    public void testResponseCanBeReplayed() throws IOException {
+        final AciResponseInputStream original = createResponse("/GetVersion.xml");
+        final BufferedAciResponse buffered = new BufferedResponseProcessor().process(original);
+        original.close();
+
+        final String expected = IOUtils.toString(getClass().getResourceAsStream("/GetVersion.xml"), StandardCharsets.UTF_8);
+        assertThat(buffered.getContentLength(), is(expected.getBytes(StandardCharsets.UTF_8).length));
+
+        for (int ii = 0; ii < 2; ii++) {
+            try (final AciResponseInputStream replayed = buffered.newInputStream()) {
+                assertThat(replayed.getStatusCode(), is(200));
+                assertThat(replayed.getContentType(), startsWith("text/xml"));
+                assertThat(replayed.getContentLength(), is((long) buffered.getContentLength()));
+                assertThat(replayed.getHeader("AUTN-Test"), is(equalTo("value")));
+                assertThat(IOUtils.toString(replayed, StandardCharsets.UTF_8), is(equalTo(expected)));
+            }
+        }
+    }
+
+    @Test
+    public void testErrorResponseIsReplayedToEachProcessor() throws IOException {
+        final BufferedAciResponse buffered = new BufferedResponseProcessor().process(createResponse("/AciException-1.xml"));
+
+        for (int ii = 0; ii < 2; ii++) {
+            try {
+                new BinaryResponseProcessor().process(buffered.newInputStream());
+                fail("Should have thrown a AciErrorException.");
+            } catch (final AciErrorException aee) {
+                assertThat(aee.getErrorId(), is(equalTo("AutonomyIDOLServerWOBBLE1")));
+            }
+        }
+    }
+
+    @Test
+    public void testCompressedResponseCanBeReplayed() throws IOException {
+        final BufferedAciResponse buffered = new BufferedResponseProcessor().process(createResponse("/GetVersion.xml"));
+        final BufferedAciResponse compressed = buffered.compress();
+
+        assertThat(compressed.isCompressed(), is(true));
+        assertThat(compressed.getStoredLength(), is(lessThan(buffered.getStoredLength())));
+        assertThat(compressed.getContentLength(), is(buffered.getContentLength()));
+        assertThat(compressed.compress(), is(sameInstance(compressed)));
+
+        final String expected = IOUtils.toString(getClass().getResourceAsStream("/GetVersion.xml"), StandardCharsets.UTF_8);
+        try (final AciResponseInputStream replayed = compressed.newInputStream()) {
+            assertThat(replayed.getHeader("autn-test"), is(equalTo("value")));
+            assertThat(IOUtils.toString(replayed, StandardCharsets.UTF_8), is(equalTo(expected)));
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.BulkheadFullException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.BulkheadAciService</code> class.
+ */
+public class BulkheadAciServiceTest {
+
+    private final ActionParameters query = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+
+    private final ActionParameters dreAddData = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "DREADDDATA"));
+
+    private final Bulkhead interactive = new Bulkhead("interactive", 2, 0, 0);
+
+    private final Bulkhead indexing = new Bulkhead("indexing", 1, 0, 0);
+
+    private AciService mockAciService;
+
+    private Processor<String> mockProcessor;
+
+    private BulkheadAciService service;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        mockAciService = mock(AciService.class);
+        mockProcessor = mock(Processor.class);
+        when(mockAciService.executeAction(anySet(), any(Processor.class))).thenReturn("response");
+        when(mockAciService.executeAction(any(AciServerDetails.class), anySet(), any(Processor.class))).thenReturn("response");
+
+        service = new BulkheadAciService(mockAciService, interactive);
+        service.assign(indexing, "DreAddData", "DREREPLACE");
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullDefaultBulkhead() {
+        new BulkheadAciService(mockAciService, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateBulkheadName() {
+        service.assign(new Bulkhead("indexing", 4), "DREDELETEREF");
+    }
+
+    @Test
+    public void testActionsAreAssignedByName() {
+        assertThat(service.getBulkhead(null, query), is(sameInstance(interactive)));
+        assertThat(service.getBulkhead(null, dreAddData), is(sameInstance(indexing)));
+        assertThat(service.getBulkheads(), containsInAnyOrder(interactive, indexing));
+    }
+
+    @Test
+    public void testExecuteAction() {
+        assertThat(service.executeAction(query, mockProcessor), is(equalTo("response")));
+        assertThat(service.executeAction(new AciServerDetails("server1", 9000), dreAddData, mockProcessor), is(equalTo("response")));
+
+        assertThat(interactive.getActiveCalls(), is(0));
+        assertThat(indexing.getActiveCalls(), is(0));
+    }
+
+    @Test
+    public void testPermitIsReleasedOnFailure() {
+        when(mockAciService.executeAction(same(query), any())).thenThrow(new IllegalStateException("JUnit test exception."));
+
+        try {
+            service.executeAction(query, mockProcessor);
+            fail("Should have thrown an IllegalStateException.");
+        } catch (final IllegalStateException ise) {
+            // Expected...
+        }
+
+        assertThat(interactive.getActiveCalls(), is(0));
+    }
+
+    @Test(timeout = 10000)
+    public void testFullBulkheadDoesNotBlockOtherClasses() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(mockAciService.executeAction(same(dreAddData), any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return "added";
+        });
+
+        final CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> service.executeAction(dreAddData, mockProcessor));
+        assertThat(started.await(10, TimeUnit.SECONDS), is(true));
+
+        try {
+            service.executeAction(dreAddData, mockProcessor);
+            fail("Should have thrown a BulkheadFullException.");
+        } catch (final BulkheadFullException bfe) {
+            assertThat(bfe.getBulkhead(), is(equalTo("indexing")));
+        }
+
+        assertThat(service.executeAction(query, mockProcessor), is(equalTo("response")));
+
+        release.countDown();
+        assertThat(slow.get(), is(equalTo("added")));
+    }
+
+    @Test
+    public void testClassifierTakesPrecedence() {
+        final Bulkhead batch = new Bulkhead("batch", 1);
+        service.assign(batch);
+        service.setActionBulkheads(Collections.singletonMap("GetQueryTagValues", batch));
+        service.setClassifier((serverDetails, parameters) -> ((ActionParameters) parameters).get("source") != null ? "batch" : null);
+
+        final ActionParameters batchQuery = new ActionParameters(query);
+        batchQuery.add("source", "nightly");
+
+        assertThat(service.getBulkhead(null, batchQuery), is(sameInstance(batch)));
+        assertThat(service.getBulkhead(null, query), is(sameInstance(interactive)));
+        assertThat(service.getBulkhead(null, new ActionParameters("GetQueryTagValues")), is(sameInstance(batch)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testClassifierChoosingUnknownBulkhead() {
+        service.setClassifier((serverDetails, parameters) -> "unknown");
+        service.getBulkhead(null, query);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.BulkheadFullException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.Bulkhead</code> class.
+ */
+public class BulkheadTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlankName() {
+        new Bulkhead(" ", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxConcurrentCalls() {
+        new Bulkhead("query", 0);
+    }
+
+    @Test
+    public void testDefaults() {
+        final Bulkhead bulkhead = new Bulkhead("query", 4);
+        assertThat(bulkhead.getName(), is(equalTo("query")));
+        assertThat(bulkhead.getMaxConcurrentCalls(), is(4));
+        assertThat(bulkhead.getMaxQueueSize(), is(4));
+        assertThat(bulkhead.getMaxWaitTime(), is(Bulkhead.DEFAULT_MAX_WAIT_TIME));
+    }
+
+    @Test
+    public void testFullBulkheadRejects() {
+        final Bulkhead bulkhead = new Bulkhead("indexing", 2, 0, 0);
+        bulkhead.acquire();
+        bulkhead.acquire();
+        assertThat(bulkhead.getActiveCalls(), is(2));
+
+        try {
+            bulkhead.acquire();
+            fail("Should have thrown a BulkheadFullException.");
+        } catch (final BulkheadFullException bfe) {
+            assertThat(bfe.getBulkhead(), is(equalTo("indexing")));
+        }
+        assertThat(bulkhead.getRejectedCount(), is(1L));
+
+        bulkhead.release();
+        bulkhead.acquire();
+        assertThat(bulkhead.getActiveCalls(), is(2));
+    }
+
+    @Test(timeout = 10000)
+    public void testQueuedActionGetsPermitOnRelease() throws Exception {
+        final Bulkhead bulkhead = new Bulkhead("indexing", 1, 1, 5000);
+        bulkhead.acquire();
+
+        final CompletableFuture<Void> queued = CompletableFuture.runAsync(bulkhead::acquire);
+        while (bulkhead.getQueuedCalls() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        // The queue is full...
+        try {
+            bulkhead.acquire();
+            fail("Should have thrown a BulkheadFullException.");
+        } catch (final BulkheadFullException bfe) {
+            // Expected...
+        }
+
+        bulkhead.release();
+        queued.get();
+        assertThat(bulkhead.getActiveCalls(), is(1));
+    }
+
+    @Test(timeout = 10000)
+    public void testQueuedActionIsRejectedAfterMaxWaitTime() {
+        final Bulkhead bulkhead = new Bulkhead("indexing", 1, 1, 20);
+        bulkhead.acquire();
+
+        final long start = System.nanoTime();
+        try {
+            bulkhead.acquire();
+            fail("Should have thrown a BulkheadFullException.");
+        } catch (final BulkheadFullException bfe) {
+            assertThat(System.nanoTime() - start, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20))));
+        }
+        assertThat(bulkhead.getQueuedCalls(), is(0));
+    }
+
+    @Test(timeout = 10000)
+    public void testQueuedActionStopsAtDeadline() {
+        final Bulkhead bulkhead = new Bulkhead("indexing", 1, 1, 30000);
+        bulkhead.acquire();
+
+        try {
+            bulkhead.acquire(Deadline.after(20, TimeUnit.MILLISECONDS), null);
+            fail("Should have thrown a DeadlineExceededException.");
+        } catch (final DeadlineExceededException dee) {
+            // Expected...
+        }
+        assertThat(bulkhead.getQueuedCalls(), is(0));
+        assertThat("Running out of time isn't a rejection by the bulkhead", bulkhead.getRejectedCount(), is(0L));
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelStopsQueuedAction() throws Exception {
+        final Bulkhead bulkhead = new Bulkhead("indexing", 1, 1, 30000);
+        bulkhead.acquire();
+
+        final CancellationToken cancellation = new CancellationToken();
+        final CompletableFuture<Void> queued = CompletableFuture.runAsync(() -> bulkhead.acquire(null, cancellation));
+        while (bulkhead.getQueuedCalls() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        cancellation.cancel();
+        try {
+            queued.get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(RequestCancelledException.class)));
+        }
+        assertThat(bulkhead.getQueuedCalls(), is(0));
+        assertThat(bulkhead.getActiveCalls(), is(1));
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.AciErrorException;
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.CachingAciService</code> class.
+ */
+public class CachingAciServiceTest {
+
+    private static final Processor<String> STRING_PROCESSOR = inputStream -> {
+        try {
+            return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+        } catch (final IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AciServerDetails serverDetails = new AciServerDetails("localhost", 9000);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private AciService mockAciService;
+
+    private CachingAciService service;
+
+    private String body = "response";
+
+    @Before
+    public void setUp() {
+        mockAciService = mock(AciService.class);
+        service = new CachingAciService(mockAciService, clock::get);
+
+        when(mockAciService.executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class)))
+                .thenAnswer(invocation -> new BufferedAciResponse(body.getBytes(StandardCharsets.UTF_8), mock(AciResponseInputStream.class)));
+    }
+
+    private static ActionParameters parameters(final String action, final String text) {
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, action));
+        parameters.add(new AciParameter("Text", text));
+        return parameters;
+    }
+
+    private void advance(final long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullAciService() {
+        new CachingAciService(null);
+    }
+
+    @Test
+    public void testRepeatedRequestIsCached() {
+        assertThat(service.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR), is(equalTo("response")));
+        assertThat(service.executeAction(serverDetails, parameters("query", "cat"), STRING_PROCESSOR), is(equalTo("response")));
+
+        verify(mockAciService, times(1)).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+        assertThat(service.getHitCount(), is(1L));
+        assertThat(service.getMissCount(), is(1L));
+        assertThat(service.getEntryCount(), is(1));
+    }
+
+    @Test
+    public void testKeyIncludesServerAndValues() {
+        service.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR);
+        service.executeAction(serverDetails, parameters("Query", "Cat"), STRING_PROCESSOR);
+        service.executeAction(new AciServerDetails("other", 9000), parameters("Query", "cat"), STRING_PROCESSOR);
+
+        verify(mockAciService, times(3)).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        service.setTimeToLives(Collections.singletonMap("Query", 1000L));
+
+        service.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR);
+        advance(999);
+        service.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR);
+        advance(1);
+        service.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR);
+
+        verify(mockAciService, times(2)).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+    }
+
+    @Test
+    public void testUncachedActionsGoStraightThrough() {
+        final ActionParameters parameters = parameters("DREADD", "cat");
+        when(mockAciService.executeAction(serverDetails, parameters, STRING_PROCESSOR)).thenReturn("added");
+
+        assertThat(service.executeAction(serverDetails, parameters, STRING_PROCESSOR), is(equalTo("added")));
+        assertThat(service.executeAction(serverDetails, parameters, STRING_PROCESSOR), is(equalTo("added")));
+
+        verify(mockAciService, times(2)).executeAction(serverDetails, parameters, STRING_PROCESSOR);
+        assertThat(service.getMissCount(), is(0L));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        service.executeAction(serverDetails, parameters("Query", "one"), STRING_PROCESSOR);
+        final long entrySize = service.getSize();
+        service.setMaxSize(2 * entrySize);
+
+        service.executeAction(serverDetails, parameters("Query", "two"), STRING_PROCESSOR);
+        service.executeAction(serverDetails, parameters("Query", "one"), STRING_PROCESSOR);
+        service.executeAction(serverDetails, parameters("Query", "six"), STRING_PROCESSOR);
+
+        assertThat(service.getEntryCount(), is(2));
+        assertThat(service.getEvictionCount(), is(1L));
+        assertThat(service.getSize(), is(lessThanOrEqualTo(2 * entrySize)));
+
+        // "one" was used more recently than "two", so should still be cached...
+        service.executeAction(serverDetails, parameters("Query", "one"), STRING_PROCESSOR);
+        assertThat(service.getHitCount(), is(2L));
+    }
+
+    @Test
+    public void testErrorResponsesAreNotCached() {
+        body = "<autnresponse><action>QUERY</action><response>ERROR</response></autnresponse>";
+
+        service.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR);
+        service.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR);
+
+        verify(mockAciService, times(2)).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+        assertThat(service.getEntryCount(), is(0));
+    }
+
+    @Test
+    public void testRejectedResponsesAreNotCached() {
+        try {
+            service.executeAction(serverDetails, parameters("Query", "cat"), inputStream -> {
+                throw new AciErrorException("JUnit test exception.");
+            });
+            fail("Should have thrown an AciErrorException.");
+        } catch (final AciErrorException aee) {
+            // Expected...
+        }
+
+        assertThat(service.getEntryCount(), is(0));
+    }
+
+    @Test
+    public void testCompressedStorage() {
+        final StringBuilder xml = new StringBuilder("<autnresponse>");
+        for (int ii = 0; ii < 200; ii++) {
+            xml.append("<hit><reference>").append(ii).append("</reference></hit>");
+        }
+        body = xml.append("</autnresponse>").toString();
+
+        service.setCompress(true);
+        service.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR);
+
+        assertThat(service.getSize(), is(lessThan((long) body.length())));
+        assertThat(service.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR), is(equalTo(body)));
+        assertThat(service.getHitCount(), is(1L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTimeToLive() {
+        service.setTimeToLives(Collections.singletonMap("Query", 0L));
+    }
+
+    @Test
+    public void testDiskCacheIsUsedAfterRestart() throws IOException {
+        try (final DiskResponseCache diskCache = new DiskResponseCache(folder.newFolder(), 1024 * 1024, 64 * 1024)) {
+            service.setDiskCache(diskCache);
+            service.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR);
+
+            // A new service has an empty memory cache...
+            final CachingAciService restarted = new CachingAciService(mockAciService);
+            restarted.setDiskCache(diskCache);
+
+            assertThat(restarted.executeAction(serverDetails, parameters("Query", "cat"), STRING_PROCESSOR), is(equalTo("response")));
+            assertThat(restarted.getDiskHitCount(), is(1L));
+            assertThat(restarted.getMissCount(), is(0L));
+        }
+
+        verify(mockAciService, times(1)).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import com.autonomy.aci.client.transport.InputStreamActionParameter;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.CoalescingAciService</code> class.
+ */
+public class CoalescingAciServiceTest {
+
+    private final AciServerDetails serverDetails = new AciServerDetails("localhost", 9000);
+
+    private ExecutorService executor;
+
+    private AciService mockAciService;
+
+    private CoalescingAciService service;
+
+    private CountDownLatch release;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newCachedThreadPool();
+        mockAciService = mock(AciService.class);
+        service = new CoalescingAciService(mockAciService);
+        release = new CountDownLatch(1);
+
+        final AciResponseInputStream response = mock(AciResponseInputStream.class);
+        when(response.getStatusCode()).thenReturn(200);
+
+        // The first request blocks until released, so that the others pile up behind it...
+        when(mockAciService.executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class))).thenAnswer(invocation -> {
+            assertThat(release.await(10, TimeUnit.SECONDS), is(true));
+            return new BufferedAciResponse("response".getBytes("UTF-8"), response);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static ActionParameters parameters(final String action, final String text) {
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, action));
+        parameters.add(new AciParameter("Text", text));
+        return parameters;
+    }
+
+    private static String read(final AciResponseInputStream inputStream) {
+        try {
+            return IOUtils.toString(inputStream, "UTF-8");
+        } catch (final IOException ioe) {
+            throw new AciServiceException(ioe);
+        }
+    }
+
+    private List<Future<String>> submit(final int count, final ActionParameters... parameters) throws InterruptedException {
+        final List<Future<String>> results = new ArrayList<>();
+        for (int ii = 0; ii < count; ii++) {
+            final ActionParameters params = parameters[ii % parameters.length];
+            results.add(executor.submit(() -> service.executeAction(serverDetails, params, (Processor<String>) CoalescingAciServiceTest::read)));
+        }
+        return results;
+    }
+
+    private void awaitCoalesced(final long count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while ((service.getCoalescedRequests() < count) && (System.currentTimeMillis() < deadline)) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertThat(service.getCoalescedRequests(), is(count));
+    }
+
+    private void awaitInFlight() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while ((service.getInFlightRequests() == 0) && (System.currentTimeMillis() < deadline)) {
+            TimeUnit.MILLISECONDS.sleep(5);
+        }
+        assertThat(service.getInFlightRequests(), is(1));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullAciService() {
+        new CoalescingAciService(null);
+    }
+
+    @Test(timeout = 20000)
+    public void testIdenticalRequestsAreSentOnce() throws Exception {
+        final List<Future<String>> results = submit(10, parameters("GetStatus", "cat"), parameters("getstatus", "cat"));
+        awaitCoalesced(9);
+        assertThat(service.getInFlightRequests(), is(1));
+
+        release.countDown();
+        for (final Future<String> result : results) {
+            assertThat(result.get(), is(equalTo("response")));
+        }
+
+        verify(mockAciService, times(1)).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+        assertThat(service.getInFlightRequests(), is(0));
+    }
+
+    @Test(timeout = 20000)
+    public void testDifferentValuesAreNotCoalesced() throws Exception {
+        final List<Future<String>> results = submit(2, parameters("Query", "cat"), parameters("Query", "Cat"));
+
+        release.countDown();
+        for (final Future<String> result : results) {
+            assertThat(result.get(), is(equalTo("response")));
+        }
+
+        verify(mockAciService, times(2)).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+        assertThat(service.getCoalescedRequests(), is(0L));
+    }
+
+    @Test
+    public void testOtherActionsAreNotCoalesced() {
+        final ActionParameters parameters = parameters("DREADD", "cat");
+        when(mockAciService.executeAction(serverDetails, parameters, String::valueOf)).thenReturn("added");
+
+        service.executeAction(serverDetails, parameters, String::valueOf);
+
+        verify(mockAciService, never()).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+    }
+
+    @Test
+    public void testStreamedParametersAreNotCoalesced() {
+        final ActionParameters parameters = parameters("Query", "cat");
+        parameters.add(new InputStreamActionParameter("file", new ByteArrayInputStream(new byte[1])));
+
+        service.executeAction(serverDetails, parameters, String::valueOf);
+
+        verify(mockAciService, never()).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+    }
+
+    @Test(timeout = 20000)
+    public void testFailureIsShared() throws Exception {
+        final AciServiceException failure = new AciServiceException("JUnit test exception.");
+        when(mockAciService.executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class))).thenAnswer(invocation -> {
+            assertThat(release.await(10, TimeUnit.SECONDS), is(true));
+            throw failure;
+        });
+
+        final List<Future<String>> results = submit(3, parameters("Query", "cat"));
+        awaitCoalesced(2);
+        release.countDown();
+
+        for (final Future<String> result : results) {
+            try {
+                result.get();
+                fail("Should have thrown an ExecutionException.");
+            } catch (final ExecutionException ee) {
+                assertThat(ee.getCause(), is(sameInstance(failure)));
+            }
+        }
+        assertThat(service.getInFlightRequests(), is(0));
+    }
+
+    @Test(timeout = 20000)
+    public void testFollowerStopsWaitingAtItsDeadline() throws Exception {
+        final List<Future<String>> results = submit(1, parameters("Query", "cat"));
+        awaitInFlight();
+
+        final ActionParameters withDeadline = parameters("Query", "cat");
+        withDeadline.setDeadline(Deadline.after(50, TimeUnit.MILLISECONDS));
+        try {
+            service.executeAction(serverDetails, withDeadline, String::valueOf);
+            fail("Should have thrown a DeadlineExceededException.");
+        } catch (final DeadlineExceededException dee) {
+            assertThat(dee.getTimeout(), is(50L));
+        }
+
+        // The request being waited for isn't affected...
+        release.countDown();
+        assertThat(results.get(0).get(), is(equalTo("response")));
+        verify(mockAciService, times(1)).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+    }
+
+    @Test
+    public void testRequestWithDeadlineIsNotShared() {
+        final ActionParameters withDeadline = parameters("Query", "cat");
+        withDeadline.setDeadline(Deadline.after(1, TimeUnit.MINUTES));
+        when(mockAciService.executeAction(serverDetails, withDeadline, String::valueOf)).thenReturn("response");
+
+        service.executeAction(serverDetails, withDeadline, String::valueOf);
+
+        verify(mockAciService, never()).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+        assertThat(service.getInFlightRequests(), is(0));
+    }
+
+    @Test(timeout = 20000)
+    public void testCancelStopsFollowerWaiting() throws Exception {
+        final List<Future<String>> results = submit(1, parameters("Query", "cat"));
+        awaitInFlight();
+
+        final CancellationToken cancellation = new CancellationToken();
+        final ActionParameters cancellable = parameters("Query", "cat");
+        cancellable.setCancellationToken(cancellation);
+        final Future<String> follower = executor.submit(() -> service.executeAction(serverDetails, cancellable, (Processor<String>) CoalescingAciServiceTest::read));
+        awaitCoalesced(1);
+
+        cancellation.cancel();
+        try {
+            follower.get(10, TimeUnit.SECONDS);
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(RequestCancelledException.class)));
+        }
+
+        // The request being waited for isn't affected...
+        release.countDown();
+        assertThat(results.get(0).get(), is(equalTo("response")));
+    }
+
+    @Test
+    public void testCancellableRequestIsNotShared() {
+        final ActionParameters cancellable = parameters("Query", "cat");
+        cancellable.setCancellationToken(new CancellationToken());
+        when(mockAciService.executeAction(serverDetails, cancellable, String::valueOf)).thenReturn("response");
+
+        service.executeAction(serverDetails, cancellable, String::valueOf);
+
+        verify(mockAciService, never()).executeAction(any(AciServerDetails.class), anySet(), any(BufferedResponseProcessor.class));
+        assertThat(service.getInFlightRequests(), is(0));
+    }
+
+    @Test
+    public void testCoalescedActionsAreCaseInsensitive() {
+        service.setCoalescedActions(Collections.singletonList("GetStatus"));
+        assertThat(service.getCoalescedActions(), is(equalTo(Collections.singleton("getstatus"))));
+    }
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.EncryptionCodec;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.DiskResponseCache</code> class.
+ */
+public class DiskResponseCacheTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AciServerDetails serverDetails = new AciServerDetails("localhost", 9000);
+
+    private final AtomicLong clock = new AtomicLong(1000000L);
+
+    private File directory;
+
+    private DiskResponseCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("cache");
+        cache = open(4 * SEGMENT_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.close();
+    }
+
+    private DiskResponseCache open(final long maxDiskSize) throws IOException {
+        return new DiskResponseCache(directory, maxDiskSize, SEGMENT_SIZE, clock::get, 0);
+    }
+
+    private RequestKey key(final String text) {
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+        parameters.add(new AciParameter("Text", text));
+        return RequestKey.create(serverDetails, parameters, Collections.singleton("query"));
+    }
+
+    private static BufferedAciResponse response(final String body) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("AUTN-Content-Type", "text/xml");
+
+        final AciResponseInputStream source = mock(AciResponseInputStream.class);
+        when(source.getStatusCode()).thenReturn(200);
+        when(source.getContentType()).thenReturn("text/xml; charset=UTF-8");
+        when(source.getHeaders()).thenReturn(headers);
+        return new BufferedAciResponse(body.getBytes(StandardCharsets.UTF_8), source);
+    }
+
+    private static String read(final AciResponseInputStream inputStream) throws IOException {
+        assertThat("The response should be cached", inputStream, is(notNullValue()));
+        try {
+            return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        cache.put(key("cat"), response("<autnresponse/>"), 60000);
+
+        final AciResponseInputStream stored = cache.get(key("cat"));
+        assertThat(stored.getStatusCode(), is(200));
+        assertThat(stored.getContentType(), is(equalTo("text/xml; charset=UTF-8")));
+        assertThat(stored.getContentEncoding(), is(nullValue()));
+        assertThat(stored.getContentLength(), is(15L));
+        assertThat(stored.getHeader("autn-content-type"), is(equalTo("text/xml")));
+        assertThat(read(stored), is(equalTo("<autnresponse/>")));
+
+        assertThat(cache.get(key("dog")), is(nullValue()));
+    }
+
+    @Test
+    public void testCompressedResponse() throws IOException {
+        final StringBuilder body = new StringBuilder();
+        for (int ii = 0; ii < 100; ii++) {
+            body.append("<hit>").append(ii).append("</hit>");
+        }
+
+        final BufferedAciResponse compressed = response(body.toString()).compress();
+        assertThat(compressed.isCompressed(), is(true));
+
+        cache.put(key("cat"), compressed, 60000);
+        assertThat(read(cache.get(key("cat"))), is(equalTo(body.toString())));
+    }
+
+    @Test
+    public void testEntriesExpire() throws IOException {
+        cache.put(key("cat"), response("cat"), 1000);
+        clock.addAndGet(999);
+        assertThat(read(cache.get(key("cat"))), is(equalTo("cat")));
+
+        clock.addAndGet(1);
+        assertThat(cache.get(key("cat")), is(nullValue()));
+        assertThat(cache.getEntryCount(), is(0));
+    }
+
+    @Test
+    public void testEntriesSurviveRestart() throws IOException {
+        cache.put(key("cat"), response("cat"), 60000);
+        cache.put(key("dog"), response("dog"), 60000);
+        cache.put(key("cat"), response("kitten"), 60000);
+        cache.close();
+
+        cache = open(4 * SEGMENT_SIZE);
+        assertThat(cache.getEntryCount(), is(2));
+        assertThat(read(cache.get(key("cat"))), is(equalTo("kitten")));
+        assertThat(read(cache.get(key("dog"))), is(equalTo("dog")));
+    }
+
+    @Test
+    public void testPartlyWrittenRecordIsIgnored() throws IOException {
+        cache.put(key("cat"), response("cat"), 60000);
+        cache.put(key("dog"), response("dog"), 60000);
+        cache.close();
+
+        // Corrupt the end of the last record, as if the process died while writing it...
+        final File[] segments = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        assertThat(segments.length, is(1));
+        try (final RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            long end = 0;
+            while (file.length() > end + 4) {
+                file.seek(end);
+                if (file.readInt() != 0xAC1CAC4E) {
+                    break;
+                }
+                end += 8 + file.readInt();
+            }
+            file.seek(end - 6);
+            file.writeShort(0x7777);
+        }
+
+        cache = open(4 * SEGMENT_SIZE);
+        assertThat(read(cache.get(key("cat"))), is(equalTo("cat")));
+        assertThat(cache.get(key("dog")), is(nullValue()));
+
+        // New entries are written over the damaged record...
+        cache.put(key("dog"), response("dog"), 60000);
+        assertThat(read(cache.get(key("dog"))), is(equalTo("dog")));
+    }
+
+    @Test
+    public void testDiskSizeIsBounded() throws IOException {
+        final String body = new String(new char[1000]).replace('\0', 'x');
+        for (int ii = 0; ii < 40; ii++) {
+            cache.put(key("text" + ii), response(body), 60000);
+        }
+
+        assertThat(cache.getDiskSize(), is(lessThanOrEqualTo(4L * SEGMENT_SIZE)));
+        assertThat(cache.getSegmentCount(), is(4));
+        assertThat("The oldest entries should have been evicted", cache.get(key("text0")), is(nullValue()));
+        assertThat(read(cache.get(key("text39"))), is(equalTo(body)));
+        assertThat(directory.listFiles((dir, name) -> name.endsWith(".seg")).length, is(4));
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        final String body = new String(new char[1000]).replace('\0', 'x');
+        cache.put(key("kept"), response("kept"), 60000);
+        for (int ii = 0; ii < 8; ii++) {
+            cache.put(key("replaced"), response(body + ii), 60000);
+        }
+        assertThat(cache.getSegmentCount(), is(3));
+
+        cache.compact();
+
+        assertThat(cache.getSegmentCount(), is(1));
+        assertThat(read(cache.get(key("kept"))), is(equalTo("kept")));
+        assertThat(read(cache.get(key("replaced"))), is(equalTo(body + 7)));
+    }
+
+    @Test
+    public void testReadsContinueDuringCompaction() throws IOException, InterruptedException, ExecutionException {
+        final String body = new String(new char[1000]).replace('\0', 'x');
+        cache.put(key("kept"), response("kept"), 60000);
+        cache.put(key("replaced"), response(body), 60000);
+
+        // Keep making segments that need compacting, and compacting them, in the background until both sides have had
+        // plenty of goes...
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger compactions = new AtomicInteger();
+        final CompletableFuture<Void> compactor = CompletableFuture.runAsync(() -> {
+            while ((reads.get() < 200) || (compactions.get() < 20)) {
+                for (int ii = 0; ii < 4; ii++) {
+                    cache.put(key("replaced"), response(body + ii), 60000);
+                }
+                cache.compact();
+                compactions.incrementAndGet();
+            }
+        });
+
+        while (((reads.get() < 200) || (compactions.get() < 20)) && !compactor.isDone()) {
+            assertThat(read(cache.get(key("kept"))), is(equalTo("kept")));
+            assertThat(read(cache.get(key("replaced"))), startsWith(body));
+            reads.incrementAndGet();
+        }
+        compactor.get();
+
+        assertThat(read(cache.get(key("kept"))), is(equalTo("kept")));
+        assertThat(read(cache.get(key("replaced"))), is(equalTo(body + 3)));
+        assertThat(cache.getSegmentCount(), is(lessThanOrEqualTo(4)));
+    }
+
+    @Test
+    public void testDamagedRecordIsSkipped() throws IOException {
+        cache.put(key("cat"), response("cat"), 60000);
+        cache.put(key("dog"), response("dog"), 60000);
+        cache.put(key("cow"), response("cow"), 60000);
+        cache.close();
+
+        // Blank out the body of the middle record, as if compaction had been stopped while copying it...
+        final File[] segments = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        try (final RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            file.seek(4);
+            final long start = 8 + file.readInt();
+            file.seek(start + 4);
+            file.write(new byte[file.readInt()]);
+        }
+
+        cache = open(4 * SEGMENT_SIZE);
+        assertThat(read(cache.get(key("cat"))), is(equalTo("cat")));
+        assertThat(cache.get(key("dog")), is(nullValue()));
+        assertThat(read(cache.get(key("cow"))), is(equalTo("cow")));
+    }
+
+    @Test
+    public void testStreamOutlivesCompaction() throws IOException {
+        final String body = new String(new char[1000]).replace('\0', 'x');
+        cache.put(key("cat"), response("cat"), 60000);
+        final AciResponseInputStream stored = cache.get(key("cat"));
+
+        for (int ii = 0; ii < 8; ii++) {
+            cache.put(key("replaced"), response(body), 60000);
+        }
+        cache.compact();
+
+        assertThat(read(stored), is(equalTo("cat")));
+    }
+
+    @Test
+    public void testDirectoryCanOnlyBeOpenedOnce() throws IOException {
+        try {
+            open(4 * SEGMENT_SIZE);
+            fail("Should have thrown an IOException.");
+        } catch (final IOException ioe) {
+            assertThat(ioe.getMessage(), containsString("already in use"));
+        }
+    }
+
+    @Test
+    public void testEncryptedServersAreNotStored() {
+        final AciServerDetails encrypted = new AciServerDetails("localhost", 9000);
+        encrypted.setEncryptionCodec(mock(EncryptionCodec.class));
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+        final RequestKey key = RequestKey.create(encrypted, parameters, Collections.singleton("query"));
+
+        cache.put(key, response("cat"), 60000);
+
+        assertThat(cache.getEntryCount(), is(0));
+        assertThat(cache.get(key), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxDiskSizeMustHoldTwoSegments() throws IOException {
+        new DiskResponseCache(folder.newFolder(), SEGMENT_SIZE, SEGMENT_SIZE);
+    }
+
+}
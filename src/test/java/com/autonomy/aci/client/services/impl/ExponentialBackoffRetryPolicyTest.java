@@ -0,0 +1,140 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.transport.AciHttpException;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.InputStreamActionParameter;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.ExponentialBackoffRetryPolicy</code> class.
+ */
+public class ExponentialBackoffRetryPolicyTest {
+
+    private final ActionParameters query = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+
+    private final ActionParameters dreAdd = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "DREADD"));
+
+    private ExponentialBackoffRetryPolicy policy;
+
+    @Before
+    public void setUp() {
+        policy = new ExponentialBackoffRetryPolicy();
+    }
+
+    @Test
+    public void testBackoffIsJitteredAndCapped() {
+        policy.setInitialBackoff(100);
+        policy.setMaxBackoff(300);
+        policy.setMaxRetries(10);
+        policy.setMaxRetryBudget(1000);
+
+        for (int ii = 0; ii < 100; ii++) {
+            assertThat(policy.getRetryDelay(query, new SocketException("reset"), 0), is(both(greaterThanOrEqualTo(0L)).and(lessThanOrEqualTo(100L))));
+            assertThat(policy.getRetryDelay(query, new SocketException("reset"), 1), is(both(greaterThanOrEqualTo(0L)).and(lessThanOrEqualTo(200L))));
+            assertThat(policy.getRetryDelay(query, new SocketException("reset"), 5), is(both(greaterThanOrEqualTo(0L)).and(lessThanOrEqualTo(300L))));
+        }
+    }
+
+    @Test
+    public void testMaxRetries() {
+        assertThat(policy.getRetryDelay(query, new SocketException("reset"), 1), is(greaterThanOrEqualTo(0L)));
+        assertThat(policy.getRetryDelay(query, new SocketException("reset"), 2), is(-1L));
+    }
+
+    @Test
+    public void testTransientIOExceptionsAreRetried() {
+        assertThat(policy.isRetryable(query, new SocketException("reset")), is(true));
+        assertThat(policy.isRetryable(query, new SocketTimeoutException("timeout")), is(true));
+        assertThat(policy.isRetryable(query, new IOException("JUnit test exception.")), is(true));
+    }
+
+    @Test
+    public void testPermanentFailuresAreNotRetried() {
+        assertThat(policy.isRetryable(query, new UnknownHostException("unknown")), is(false));
+        assertThat(policy.isRetryable(query, new SSLException("handshake")), is(false));
+        assertThat(policy.isRetryable(query, new InterruptedIOException("interrupted")), is(false));
+        assertThat(policy.isRetryable(query, new AciHttpException("JUnit test exception.")), is(false));
+    }
+
+    @Test
+    public void testNonIdempotentActionsOnlyRetriedIfNotSent() {
+        assertThat(policy.isRetryable(dreAdd, new SocketException("reset")), is(false));
+        assertThat(policy.isRetryable(dreAdd, new ConnectException("refused")), is(true));
+        assertThat(policy.isRetryable(dreAdd, new ConnectTimeoutException("timeout")), is(true));
+
+        policy.setIdempotentActions(Collections.singletonList("DREADD"));
+        assertThat(policy.isRetryable(dreAdd, new SocketException("reset")), is(true));
+        assertThat(policy.isRetryable(query, new SocketException("reset")), is(false));
+    }
+
+    @Test
+    public void testStreamedParametersAreNotRetried() throws IOException {
+        final ActionParameters streamed = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+        streamed.add(new InputStreamActionParameter("file", new ByteArrayInputStream(new byte[1])));
+        assertThat(policy.isRetryable(streamed, new ConnectException("refused")), is(false));
+
+        final ActionParameters buffered = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+        buffered.add(InputStreamActionParameter.buffer("file", new ByteArrayInputStream(new byte[1])));
+        assertThat(policy.isRetryable(buffered, new ConnectException("refused")), is(true));
+    }
+
+    @Test
+    public void testRetryBudget() {
+        policy.setMaxRetries(100);
+        policy.setMaxRetryBudget(2);
+        policy.setRetryBudgetRatio(0.5);
+
+        assertThat(policy.getRetryDelay(query, new SocketException("reset"), 0), is(greaterThanOrEqualTo(0L)));
+        assertThat(policy.getRetryDelay(query, new SocketException("reset"), 1), is(greaterThanOrEqualTo(0L)));
+        assertThat("The budget should be used up", policy.getRetryDelay(query, new SocketException("reset"), 2), is(-1L));
+
+        policy.onRequest(query);
+        assertThat(policy.getRetryBudget(), is(0.5));
+        assertThat(policy.getRetryDelay(query, new SocketException("reset"), 0), is(-1L));
+
+        policy.onRequest(query);
+        assertThat(policy.getRetryDelay(query, new SocketException("reset"), 0), is(greaterThanOrEqualTo(0L)));
+
+        for (int ii = 0; ii < 10; ii++) {
+            policy.onRequest(query);
+        }
+        assertThat("The budget should be capped", policy.getRetryBudget(), is(2.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBackoffMultiplier() {
+        policy.setBackoffMultiplier(0.5);
+    }
+
+}
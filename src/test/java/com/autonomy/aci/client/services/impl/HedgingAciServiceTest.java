@@ -0,0 +1,203 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.AsyncAciHttpClient;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.HedgingAciService</code> class.
+ */
+public class HedgingAciServiceTest {
+
+    private final ActionParameters query = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+
+    private final ActionParameters dreAdd = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "DREADD"));
+
+    private ScheduledExecutorService scheduler;
+
+    private AsyncAciHttpClient mockAsyncAciHttpClient;
+
+    private Processor<String> mockProcessor;
+
+    private HedgingAciService service;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        mockAsyncAciHttpClient = mock(AsyncAciHttpClient.class);
+        mockProcessor = mock(Processor.class);
+        when(mockProcessor.process(any(AciResponseInputStream.class))).thenReturn("response");
+
+        final AciServerPool serverPool = new AciServerPool(Arrays.asList(new AciServerDetails("server1", 9000), new AciServerDetails("server2", 9000)));
+        service = new HedgingAciService(mockAsyncAciHttpClient, serverPool, scheduler);
+        service.setProcessorExecutor(Runnable::run);
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testHedgedActionsAreCaseInsensitive() {
+        service.setHedgedActions(Collections.singletonList("Query"));
+        assertThat(service.getHedgedActions(), is(equalTo(Collections.singleton("query"))));
+    }
+
+    @Test
+    public void testNoHedgeDelayWithoutSamples() {
+        assertThat(service.getHedgeDelay("query"), is(-1L));
+    }
+
+    @Test
+    public void testExecuteAction() throws Exception {
+        final AciResponseInputStream response = mock(AciResponseInputStream.class);
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet())).thenReturn(CompletableFuture.completedFuture(response));
+
+        assertThat(service.executeAction(query, mockProcessor), is(equalTo("response")));
+
+        verify(mockAsyncAciHttpClient, times(1)).executeActionAsync(any(AciServerDetails.class), anySet());
+        verify(response).close();
+    }
+
+    @Test(timeout = 10000)
+    public void testSlowAttemptIsHedged() throws Exception {
+        service.setMinSamples(1);
+
+        final CompletableFuture<AciResponseInputStream> slow = new CompletableFuture<>();
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet()))
+                .thenReturn(CompletableFuture.completedFuture(mock(AciResponseInputStream.class)))
+                .thenReturn(slow)
+                .thenReturn(CompletableFuture.completedFuture(mock(AciResponseInputStream.class)));
+
+        // Record a latency so there's a hedge delay...
+        service.executeAction(query, mockProcessor);
+        assertThat(service.getHedgeDelay("Query"), is(greaterThanOrEqualTo(0L)));
+
+        assertThat(service.executeActionAsync(query, mockProcessor).get(), is(equalTo("response")));
+
+        verify(mockAsyncAciHttpClient, times(3)).executeActionAsync(any(AciServerDetails.class), anySet());
+        assertThat("The losing exchange should be aborted", slow.isCancelled(), is(true));
+        for (final AciServerPool.Server server : service.getServerPool().getServers()) {
+            assertThat(server.getInFlight(), is(0));
+        }
+    }
+
+    @Test
+    public void testFailedAttemptIsHedgedImmediately() throws Exception {
+        final CompletableFuture<AciResponseInputStream> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException("JUnit test exception."));
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet()))
+                .thenReturn(failed)
+                .thenReturn(CompletableFuture.completedFuture(mock(AciResponseInputStream.class)));
+
+        assertThat(service.executeAction(query, mockProcessor), is(equalTo("response")));
+
+        verify(mockAsyncAciHttpClient, times(2)).executeActionAsync(any(AciServerDetails.class), anySet());
+    }
+
+    @Test
+    public void testAllAttemptsFail() throws Exception {
+        final CompletableFuture<AciResponseInputStream> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException("JUnit test exception."));
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet())).thenReturn(failed);
+
+        try {
+            service.executeActionAsync(query, mockProcessor).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(AciServiceException.class)));
+            assertThat(ee.getCause().getCause(), is(instanceOf(IOException.class)));
+        }
+
+        verify(mockAsyncAciHttpClient, times(2)).executeActionAsync(any(AciServerDetails.class), anySet());
+    }
+
+    @Test
+    public void testNonIdempotentActionIsNotHedged() throws Exception {
+        service.setMinSamples(1);
+
+        final CompletableFuture<AciResponseInputStream> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IOException("JUnit test exception."));
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet()))
+                .thenReturn(CompletableFuture.completedFuture(mock(AciResponseInputStream.class)))
+                .thenReturn(failed);
+
+        service.executeAction(dreAdd, mockProcessor);
+
+        try {
+            service.executeAction(dreAdd, mockProcessor);
+            fail("Should have thrown an AciServiceException.");
+        } catch (final AciServiceException ase) {
+            assertThat(ase.getCause(), is(instanceOf(IOException.class)));
+        }
+
+        TimeUnit.MILLISECONDS.sleep(50);
+        verify(mockAsyncAciHttpClient, times(2)).executeActionAsync(any(AciServerDetails.class), anySet());
+    }
+
+    @Test
+    public void testCancelAbortsAttempts() {
+        final CompletableFuture<AciResponseInputStream> pending = new CompletableFuture<>();
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet())).thenReturn(pending);
+
+        service.executeActionAsync(query, mockProcessor).cancel(true);
+
+        assertThat(pending.isCancelled(), is(true));
+        for (final AciServerPool.Server server : service.getServerPool().getServers()) {
+            assertThat(server.getInFlight(), is(0));
+        }
+    }
+
+    @Test
+    public void testExecuteActionWithServerDetails() throws Exception {
+        final AciServerDetails other = new AciServerDetails("other", 9000);
+        when(mockAsyncAciHttpClient.executeActionAsync(any(AciServerDetails.class), anySet()))
+                .thenReturn(CompletableFuture.completedFuture(mock(AciResponseInputStream.class)));
+
+        assertThat(service.executeAction(other, query, mockProcessor), is(equalTo("response")));
+
+        verify(mockAsyncAciHttpClient).executeActionAsync(other, query);
+    }
+
+}
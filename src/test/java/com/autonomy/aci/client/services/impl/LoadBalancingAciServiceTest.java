@@ -0,0 +1,284 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.AciErrorException;
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.transport.AciHttpClient;
+import com.autonomy.aci.client.transport.AciHttpException;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.Deadline;
+import com.autonomy.aci.client.transport.InputStreamActionParameter;
+import com.autonomy.aci.client.transport.impl.AciHttpClientImpl;
+import com.autonomy.aci.client.transport.impl.CircuitBreaker;
+import com.autonomy.aci.client.transport.impl.CircuitBreakingAciHttpClient;
+import com.autonomy.aci.client.transport.impl.ConcurrencyLimitingAciHttpClient;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.LoadBalancingAciService</code> class.
+ */
+public class LoadBalancingAciServiceTest {
+
+    private final AciServerDetails server1 = new AciServerDetails("server1", 9000);
+
+    private final AciServerDetails server2 = new AciServerDetails("server2", 9000);
+
+    private final AciServerDetails server3 = new AciServerDetails("server3", 9000);
+
+    private final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+
+    private AciHttpClient mockAciHttpClient;
+
+    private Processor<String> mockProcessor;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        mockAciHttpClient = mock(AciHttpClient.class);
+        mockProcessor = mock(Processor.class);
+        when(mockProcessor.process(any(AciResponseInputStream.class))).thenReturn("response");
+    }
+
+    @Test
+    public void testExecuteActionUsesPool() throws Exception {
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenReturn(mock(AciResponseInputStream.class));
+
+        final LoadBalancingAciService service = new LoadBalancingAciService(mockAciHttpClient, Arrays.asList(server1, server2));
+        for (int ii = 0; ii < 10; ii++) {
+            assertThat(service.executeAction(parameters, mockProcessor), is(equalTo("response")));
+        }
+
+        verify(mockAciHttpClient, times(10)).executeAction(any(AciServerDetails.class), anySet());
+        for (final AciServerPool.Server server : service.getServerPool().getServers()) {
+            assertThat(server.getInFlight(), is(0));
+        }
+    }
+
+    @Test
+    public void testExecuteActionFailsOver() throws Exception {
+        // Whichever server is tried first fails, the second succeeds...
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet()))
+                .thenThrow(new IOException("JUnit test exception."))
+                .thenReturn(mock(AciResponseInputStream.class));
+
+        final LoadBalancingAciService service = new LoadBalancingAciService(mockAciHttpClient, Arrays.asList(server1, server2));
+        assertThat(service.executeAction(parameters, mockProcessor), is(equalTo("response")));
+
+        verify(mockAciHttpClient).executeAction(eq(server1), anySet());
+        verify(mockAciHttpClient).executeAction(eq(server2), anySet());
+    }
+
+    @Test
+    public void testExecuteActionMaxFailovers() throws Exception {
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenThrow(new AciHttpException("JUnit test exception."));
+
+        final LoadBalancingAciService service = new LoadBalancingAciService(mockAciHttpClient, Arrays.asList(server1, server2, server3));
+        service.setMaxFailovers(1);
+
+        try {
+            service.executeAction(parameters, mockProcessor);
+            fail("Should have thrown an AciServiceException.");
+        } catch (final AciServiceException ase) {
+            assertThat(ase.getCause(), is(instanceOf(AciHttpException.class)));
+        }
+
+        verify(mockAciHttpClient, times(2)).executeAction(any(AciServerDetails.class), anySet());
+    }
+
+    @Test
+    public void testExecuteActionAllServersFail() throws Exception {
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenThrow(new IOException("JUnit test exception."));
+
+        final LoadBalancingAciService service = new LoadBalancingAciService(mockAciHttpClient, Arrays.asList(server1, server2));
+        service.setMaxFailovers(5);
+
+        try {
+            service.executeAction(parameters, mockProcessor);
+            fail("Should have thrown an AciServiceException.");
+        } catch (final AciServiceException ase) {
+            assertThat(ase.getCause(), is(instanceOf(IOException.class)));
+        }
+
+        // Each server is only tried once...
+        verify(mockAciHttpClient, times(2)).executeAction(any(AciServerDetails.class), anySet());
+    }
+
+    @Test
+    public void testExecuteActionNoFailoverForUnrepeatableParameters() throws Exception {
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenThrow(new IOException("JUnit test exception."));
+
+        final ActionParameters unrepeatable = new ActionParameters(
+                new AciParameter(AciConstants.PARAM_ACTION, "DREADD"),
+                new InputStreamActionParameter("Data", new ByteArrayInputStream(new byte[0]))
+        );
+
+        try {
+            new LoadBalancingAciService(mockAciHttpClient, Arrays.asList(server1, server2)).executeAction(unrepeatable, mockProcessor);
+            fail("Should have thrown an AciServiceException.");
+        } catch (final AciServiceException ase) {
+            assertThat(ase.getCause(), is(instanceOf(IOException.class)));
+        }
+
+        verify(mockAciHttpClient, times(1)).executeAction(any(AciServerDetails.class), anySet());
+    }
+
+    @Test
+    public void testExecuteActionNoFailoverForAciError() throws Exception {
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenReturn(mock(AciResponseInputStream.class));
+        when(mockProcessor.process(any(AciResponseInputStream.class))).thenThrow(new AciErrorException("JUnit test exception."));
+
+        final LoadBalancingAciService service = new LoadBalancingAciService(mockAciHttpClient, Arrays.asList(server1, server2));
+        service.getServerPool().setFailureThreshold(1);
+
+        try {
+            service.executeAction(parameters, mockProcessor);
+            fail("Should have thrown an AciErrorException.");
+        } catch (final AciErrorException aee) {
+            // Expected...
+        }
+
+        verify(mockAciHttpClient, times(1)).executeAction(any(AciServerDetails.class), anySet());
+        for (final AciServerPool.Server server : service.getServerPool().getServers()) {
+            assertThat(server.isEjected(), is(false));
+        }
+    }
+
+    @Test
+    public void testExecuteActionEjectsFailingServer() throws Exception {
+        when(mockAciHttpClient.executeAction(eq(server1), anySet())).thenThrow(new IOException("JUnit test exception."));
+        when(mockAciHttpClient.executeAction(eq(server2), anySet())).thenReturn(mock(AciResponseInputStream.class));
+
+        final LoadBalancingAciService service = new LoadBalancingAciService(mockAciHttpClient, Arrays.asList(server1, server2));
+        service.getServerPool().setFailureThreshold(1);
+
+        for (int ii = 0; ii < 10; ii++) {
+            assertThat(service.executeAction(parameters, mockProcessor), is(equalTo("response")));
+        }
+
+        // Once ejected, server1 isn't chosen again...
+        verify(mockAciHttpClient, times(1)).executeAction(eq(server1), anySet());
+        assertThat(service.getServerPool().getServers().get(0).isEjected(), is(true));
+    }
+
+    @Test
+    public void testExecuteActionWithServerDetailsIsNotBalanced() throws Exception {
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenReturn(mock(AciResponseInputStream.class));
+
+        final AciServerDetails other = new AciServerDetails("other", 9000);
+        new LoadBalancingAciService(mockAciHttpClient, Arrays.asList(server1, server2)).executeAction(other, parameters, mockProcessor);
+
+        verify(mockAciHttpClient).executeAction(eq(other), anySet());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaxFailovers() {
+        new LoadBalancingAciService(mockAciHttpClient, Arrays.asList(server1, server2)).setMaxFailovers(-1);
+    }
+
+    @Test
+    public void testTimeoutAtDeadlineCountsAsFailure() throws Exception {
+        final HttpClient mockHttpClient = mock(HttpClient.class);
+        when(mockHttpClient.executeOpen(eq(null), any(ClassicHttpRequest.class), any(HttpClientContext.class))).thenAnswer(invocation -> {
+            TimeUnit.MILLISECONDS.sleep(300);
+            throw new SocketTimeoutException("JUnit test exception.");
+        });
+
+        final CircuitBreakingAciHttpClient circuitBreaking = new CircuitBreakingAciHttpClient(new AciHttpClientImpl(mockHttpClient));
+        circuitBreaking.setMinimumNumberOfCalls(1);
+        final ConcurrencyLimitingAciHttpClient concurrencyLimiting = new ConcurrencyLimitingAciHttpClient(circuitBreaking);
+
+        final LoadBalancingAciService service = new LoadBalancingAciService(concurrencyLimiting, Arrays.asList(server1, server2));
+        service.getServerPool().setFailureThreshold(1);
+
+        final ActionParameters withDeadline = new ActionParameters(parameters);
+        withDeadline.setDeadline(Deadline.after(200, TimeUnit.MILLISECONDS));
+
+        try {
+            service.executeAction(withDeadline, mockProcessor);
+            fail("Should have thrown a DeadlineExceededException.");
+        } catch (final DeadlineExceededException dee) {
+            assertThat(dee.getCause(), is(instanceOf(SocketTimeoutException.class)));
+        }
+
+        // Every layer sees the timeout as a failure of the one server that was tried, which isn't failed over...
+        verify(mockHttpClient, times(1)).executeOpen(eq(null), any(ClassicHttpRequest.class), any(HttpClientContext.class));
+        final AciServerPool.Server failed = service.getServerPool().getServers().get(
+                service.getServerPool().getServers().get(0).isEjected() ? 0 : 1);
+        assertThat(failed.isEjected(), is(true));
+        assertThat(failed.getInFlight(), is(0));
+        assertThat(circuitBreaking.getState(failed.getServerDetails()), is(CircuitBreaker.State.OPEN));
+        assertThat(concurrencyLimiting.getLimiter(failed.getServerDetails()).getLimit(), is(lessThan(concurrencyLimiting.getInitialLimit())));
+    }
+
+    @Test
+    public void testOpenCircuitBreakerFailsOver() throws Exception {
+        when(mockAciHttpClient.executeAction(eq(server1), anySet())).thenThrow(new IOException("JUnit test exception."));
+        when(mockAciHttpClient.executeAction(eq(server2), anySet())).thenReturn(mock(AciResponseInputStream.class));
+
+        // Open server1's breaker...
+        final CircuitBreakingAciHttpClient circuitBreaking = new CircuitBreakingAciHttpClient(mockAciHttpClient);
+        circuitBreaking.setMinimumNumberOfCalls(1);
+        try {
+            circuitBreaking.executeAction(server1, parameters);
+            fail("Should have thrown an IOException.");
+        } catch (final IOException ioe) {
+            assertThat(circuitBreaking.getState(server1), is(CircuitBreaker.State.OPEN));
+        }
+
+        final LoadBalancingAciService service = new LoadBalancingAciService(circuitBreaking, Arrays.asList(server1, server2));
+        final AciServerPool.Server rejecting = service.getServerPool().getServers().get(0);
+        final double latency = rejecting.getLatencyEwmaMillis();
+
+        // Actions chosen for server1 are rejected by its breaker and sent to server2 instead...
+        for (int ii = 0; ii < 10; ii++) {
+            assertThat(service.executeAction(parameters, mockProcessor), is(equalTo("response")));
+        }
+
+        verify(mockAciHttpClient, times(1)).executeAction(eq(server1), anySet());
+        verify(mockAciHttpClient, times(10)).executeAction(eq(server2), anySet());
+
+        // ...without being counted as a response from server1
+        assertThat(rejecting.getServerDetails(), is(equalTo(server1)));
+        assertThat(rejecting.getInFlight(), is(0));
+        assertThat(rejecting.isEjected(), is(false));
+        assertThat(rejecting.getLatencyEwmaMillis(), is(latency));
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.SchedulingAciService</code> class.
+ */
+public class SchedulingAciServiceTest {
+
+    private final List<String> dispatched = new CopyOnWriteArrayList<>();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private ExecutorService executor;
+
+    private Processor<String> mockProcessor;
+
+    private SchedulingAciService service;
+
+    private CompletableFuture<Void> blocker;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        mockProcessor = mock(Processor.class);
+
+        final AciService mockAciService = mock(AciService.class);
+        when(mockAciService.executeAction(anySet(), any(Processor.class))).thenAnswer(invocation -> {
+            final String id = (String) ((ActionParameters) invocation.getArgument(0)).get("id");
+            dispatched.add(id);
+            if ("blocker".equals(id)) {
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return id;
+        });
+
+        service = new SchedulingAciService(mockAciService, 1, clock::get);
+
+        // Hold the only permit so everything else queues...
+        blocker = submit(RequestPriority.NORMAL, null, "blocker", 0);
+        while (service.getActiveRequests() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    private static ActionParameters action(final String id) {
+        final ActionParameters parameters = new ActionParameters("Query");
+        parameters.add("id", id);
+        return parameters;
+    }
+
+    private CompletableFuture<Void> submit(final RequestPriority priority, final String tenant, final String id, final int queueDepth) throws InterruptedException {
+        final CompletableFuture<Void> future = CompletableFuture.runAsync(() -> service.executeAction(priority, tenant, action(id), mockProcessor), executor);
+        while (service.getQueueDepth() < queueDepth) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        return future;
+    }
+
+    private void releaseAndWait() throws Exception {
+        release.countDown();
+        blocker.get(10, TimeUnit.SECONDS);
+        while ((service.getQueueDepth() > 0) || (service.getActiveRequests() > 0)) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxConcurrentRequests() {
+        new SchedulingAciService(mock(AciService.class), 0);
+    }
+
+    @Test(timeout = 10000)
+    public void testHigherPriorityIsDispatchedFirst() throws Exception {
+        submit(RequestPriority.BATCH, null, "batch", 1);
+        submit(RequestPriority.NORMAL, null, "normal", 2);
+        submit(RequestPriority.INTERACTIVE, null, "interactive", 3);
+
+        assertThat(service.getQueueDepth(RequestPriority.INTERACTIVE), is(1));
+        assertThat(service.getQueueDepth(RequestPriority.BATCH), is(1));
+        assertThat(service.getTenantQueueDepths(), hasEntry(SchedulingAciService.DEFAULT_TENANT, 3));
+
+        releaseAndWait();
+        assertThat(dispatched, contains("blocker", "interactive", "normal", "batch"));
+        assertThat(service.getTenantQueueDepths().isEmpty(), is(true));
+    }
+
+    @Test(timeout = 10000)
+    public void testTenantsGetWeightedShares() throws Exception {
+        service.setTenantWeight("search", 3);
+
+        int depth = 0;
+        for (int ii = 1; ii <= 6; ii++) {
+            submit(RequestPriority.NORMAL, "search", "s" + ii, ++depth);
+        }
+        for (int ii = 1; ii <= 3; ii++) {
+            submit(RequestPriority.NORMAL, "reports", "r" + ii, ++depth);
+        }
+        assertThat(service.getTenantQueueDepths(), allOf(hasEntry("search", 6), hasEntry("reports", 3)));
+
+        releaseAndWait();
+        assertThat(dispatched, contains("blocker", "s1", "r1", "s2", "s3", "s4", "r2", "s5", "s6", "r3"));
+    }
+
+    @Test(timeout = 10000)
+    public void testStarvingActionIsPromoted() throws Exception {
+        service.setStarvationThreshold(100);
+
+        submit(RequestPriority.BATCH, null, "batch", 1);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+        submit(RequestPriority.INTERACTIVE, null, "interactive1", 2);
+        submit(RequestPriority.INTERACTIVE, null, "interactive2", 3);
+
+        releaseAndWait();
+        assertThat(dispatched, contains("blocker", "batch", "interactive1", "interactive2"));
+        assertThat(service.getPromotedCount(), is(1L));
+    }
+
+    @Test(timeout = 10000)
+    public void testClassifier() throws Exception {
+        service.setClassifier(new SchedulingClassifier() {
+            @Override
+            public RequestPriority getPriority(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) {
+                return RequestPriority.INTERACTIVE;
+            }
+
+            @Override
+            public String getTenant(final AciServerDetails serverDetails, final Set<? extends ActionParameter<?>> parameters) {
+                return "search";
+            }
+        });
+
+        CompletableFuture.runAsync(() -> service.executeAction(action("classified"), mockProcessor), executor);
+        while (service.getQueueDepth() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        assertThat(service.getQueueDepth(RequestPriority.INTERACTIVE), is(1));
+        assertThat(service.getTenantQueueDepths(), hasEntry("search", 1));
+
+        releaseAndWait();
+        assertThat(dispatched, contains("blocker", "classified"));
+    }
+
+    @Test(timeout = 10000)
+    public void testInterruptedWaiterLeavesQueue() throws Exception {
+        final CompletableFuture<Thread> waiter = new CompletableFuture<>();
+        final CompletableFuture<Void> queued = CompletableFuture.runAsync(() -> {
+            waiter.complete(Thread.currentThread());
+            service.executeAction(RequestPriority.BATCH, null, action("interrupted"), mockProcessor);
+        }, executor);
+        while (service.getQueueDepth() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        waiter.get().interrupt();
+        try {
+            queued.get(10, TimeUnit.SECONDS);
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(AciServiceException.class)));
+        }
+        assertThat(service.getQueueDepth(), is(0));
+        assertThat(service.getTenantQueueDepths().isEmpty(), is(true));
+
+        releaseAndWait();
+        assertThat(dispatched, is(equalTo(Collections.singletonList("blocker"))));
+    }
+
+    @Test(timeout = 10000)
+    public void testQueuedActionGivesUpAtDeadline() throws Exception {
+        final ActionParameters parameters = action("late");
+        parameters.setDeadline(Deadline.after(50, TimeUnit.MILLISECONDS));
+
+        try {
+            service.executeAction(RequestPriority.NORMAL, null, parameters, mockProcessor);
+            fail("Should have thrown a DeadlineExceededException.");
+        } catch (final DeadlineExceededException dee) {
+            assertThat(dee.getTimeout(), is(50L));
+        }
+
+        assertThat(service.getQueueDepth(), is(0));
+        releaseAndWait();
+        assertThat(dispatched, is(equalTo(Collections.singletonList("blocker"))));
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelRemovesQueuedAction() throws Exception {
+        final CancellationToken cancellation = new CancellationToken();
+        final ActionParameters parameters = action("cancelled");
+        parameters.setCancellationToken(cancellation);
+
+        final CompletableFuture<Object> queued = CompletableFuture.supplyAsync(() -> service.executeAction(RequestPriority.NORMAL, null, parameters, mockProcessor), executor);
+        while (service.getQueueDepth() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        cancellation.cancel();
+        try {
+            queued.get(10, TimeUnit.SECONDS);
+            fail("Should have thrown a RequestCancelledException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(RequestCancelledException.class)));
+        }
+
+        assertThat(service.getQueueDepth(), is(0));
+        releaseAndWait();
+        assertThat(dispatched, is(equalTo(Collections.singletonList("blocker"))));
+    }
+
+    @Test(timeout = 10000)
+    public void testTenantWithNothingQueuedStartsAfresh() throws Exception {
+        final CancellationToken cancellation = new CancellationToken();
+        final ActionParameters parameters = action("cancelled");
+        parameters.setCancellationToken(cancellation);
+
+        final CompletableFuture<Object> queued = CompletableFuture.supplyAsync(() -> service.executeAction(RequestPriority.NORMAL, "search", parameters, mockProcessor), executor);
+        while (service.getQueueDepth() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        cancellation.cancel();
+        try {
+            queued.get(10, TimeUnit.SECONDS);
+            fail("Should have thrown a RequestCancelledException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(RequestCancelledException.class)));
+        }
+
+        // The cancelled action's finish tag is forgotten, so the tenant's next action isn't held back by it...
+        submit(RequestPriority.NORMAL, "reports", "r1", 1);
+        submit(RequestPriority.NORMAL, "reports", "r2", 2);
+        submit(RequestPriority.NORMAL, "search", "s1", 3);
+
+        releaseAndWait();
+        assertThat(dispatched, contains("blocker", "r1", "s1", "r2"));
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.services.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.AciService;
+import com.autonomy.aci.client.services.AciServiceException;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.Processor;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import com.autonomy.aci.client.transport.impl.HttpClient5Factory;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.services.impl.VirtualThreadAciService</code> class.
+ */
+public class VirtualThreadAciServiceTest {
+
+    private final AciServerDetails details = new AciServerDetails("localhost", 9000);
+
+    private final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "GetStatus"));
+
+    @Test(expected = NullPointerException.class)
+    public void testNullAciService() {
+        new VirtualThreadAciService(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroMaxConcurrentRequests() {
+        new VirtualThreadAciService(mock(AciService.class), 0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionDelegates() {
+        final AciService aciService = mock(AciService.class);
+        final Processor<String> processor = mock(Processor.class);
+        when(aciService.executeAction(details, parameters, processor)).thenReturn("response");
+
+        try (final VirtualThreadAciService service = new VirtualThreadAciService(aciService, 2)) {
+            assertThat(service.executeAction(details, parameters, processor), is(equalTo("response")));
+            assertThat(service.getActiveRequests(), is(0));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionReleasesPermitOnFailure() {
+        final AciService aciService = mock(AciService.class);
+        when(aciService.executeAction(anySet(), any(Processor.class))).thenThrow(new AciServiceException("JUnit test exception."));
+
+        try (final VirtualThreadAciService service = new VirtualThreadAciService(aciService, 1)) {
+            try {
+                service.executeAction(parameters, mock(Processor.class));
+                fail("Should have thrown an AciServiceException.");
+            } catch (final AciServiceException ase) {
+                assertThat(ase.getMessage(), is(equalTo("JUnit test exception.")));
+            }
+
+            assertThat(service.getActiveRequests(), is(0));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExecuteActionAsyncPropagatesFailure() throws InterruptedException {
+        final AciServiceException exception = new AciServiceException("JUnit test exception.");
+        final AciService aciService = mock(AciService.class);
+        when(aciService.executeAction(any(AciServerDetails.class), anySet(), any(Processor.class))).thenThrow(exception);
+
+        try (final VirtualThreadAciService service = new VirtualThreadAciService(aciService)) {
+            service.executeActionAsync(details, parameters, mock(Processor.class)).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(sameInstance(exception)));
+        }
+    }
+
+    @Test(timeout = 10000)
+    @SuppressWarnings("unchecked")
+    public void testConcurrencyIsLimited() throws Exception {
+        final int maxConcurrentRequests = 3;
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final AciService aciService = mock(AciService.class);
+        when(aciService.executeAction(any(AciServerDetails.class), anySet(), any(Processor.class))).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            release.await();
+            inFlight.decrementAndGet();
+            return "response";
+        });
+
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try (final VirtualThreadAciService service = new VirtualThreadAciService(aciService, maxConcurrentRequests, executorService)) {
+            final List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int ii = 0; ii < 20; ii++) {
+                futures.add(service.executeActionAsync(details, parameters, mock(Processor.class)));
+            }
+
+            // Wait for the permits to be taken and the remaining callers to queue...
+            while (service.getQueuedRequests() < 20 - maxConcurrentRequests) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertThat(service.getActiveRequests(), is(maxConcurrentRequests));
+
+            release.countDown();
+            for (final CompletableFuture<String> future : futures) {
+                assertThat(future.get(), is(equalTo("response")));
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        assertThat(maxInFlight.get(), is(maxConcurrentRequests));
+    }
+
+    @Test
+    public void testCloseOnlyShutsDownOwnExecutor() {
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            new VirtualThreadAciService(mock(AciService.class), 1, executorService).close();
+            assertThat(executorService.isShutdown(), is(false));
+        } finally {
+            executorService.shutdown();
+        }
+
+        final VirtualThreadAciService service = new VirtualThreadAciService(mock(AciService.class));
+        service.close();
+        assertThat(service.getExecutorService().isShutdown(), is(true));
+    }
+
+    @Test
+    public void testDefaultMatchesConnectionsPerRoute() {
+        try (final VirtualThreadAciService service = new VirtualThreadAciService(mock(AciService.class))) {
+            assertThat(service.getMaxConcurrentRequests(), is(equalTo(new HttpClient5Factory().getMaxConnectionsPerRoute())));
+        }
+    }
+
+    @Test(timeout = 10000)
+    @SuppressWarnings("unchecked")
+    public void testWaitForPermitEndsAtDeadline() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AciService aciService = mock(AciService.class);
+        when(aciService.executeAction(anySet(), any(Processor.class))).thenAnswer(invocation -> {
+            release.await();
+            return "response";
+        });
+
+        try (final VirtualThreadAciService service = new VirtualThreadAciService(aciService, 1)) {
+            final CompletableFuture<String> holder = service.executeActionAsync(parameters, mock(Processor.class));
+            while (service.getActiveRequests() == 0) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+
+            final ActionParameters withDeadline = new ActionParameters(parameters);
+            withDeadline.setDeadline(Deadline.after(50, TimeUnit.MILLISECONDS));
+            try {
+                service.executeAction(withDeadline, mock(Processor.class));
+                fail("Should have thrown a DeadlineExceededException.");
+            } catch (final DeadlineExceededException dee) {
+                assertThat(dee.getTimeout(), is(50L));
+            }
+
+            release.countDown();
+            assertThat(holder.get(), is(equalTo("response")));
+            assertThat(service.getActiveRequests(), is(0));
+        }
+
+        verify(aciService, times(1)).executeAction(anySet(), any(Processor.class));
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelStopsWaitForPermit() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AciService aciService = mock(AciService.class);
+        when(aciService.executeAction(anySet(), any(Processor.class))).thenAnswer(invocation -> {
+            release.await();
+            return "response";
+        });
+
+        try (final VirtualThreadAciService service = new VirtualThreadAciService(aciService, 1)) {
+            final CompletableFuture<String> holder = service.executeActionAsync(parameters, mock(Processor.class));
+            while (service.getActiveRequests() == 0) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+
+            final CancellationToken cancellation = new CancellationToken();
+            final ActionParameters cancellable = new ActionParameters(parameters);
+            cancellable.setCancellationToken(cancellation);
+            final CompletableFuture<String> waiting = service.executeActionAsync(cancellable, mock(Processor.class));
+            TimeUnit.MILLISECONDS.sleep(50);
+
+            cancellation.cancel();
+            try {
+                waiting.get(10, TimeUnit.SECONDS);
+                fail("Should have thrown a RequestCancelledException.");
+            } catch (final ExecutionException ee) {
+                assertThat(ee.getCause(), is(instanceOf(RequestCancelledException.class)));
+            }
+
+            release.countDown();
+            assertThat(holder.get(), is(equalTo("response")));
+            assertThat(service.getActiveRequests(), is(0));
+        }
+
+        verify(aciService, times(1)).executeAction(anySet(), any(Processor.class));
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import org.junit.Test;
+
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.AciRequestPrototype</code> class.
+ */
+public class AciRequestPrototypeTest {
+
+    @Test
+    public void testPrototype() throws URISyntaxException {
+        final AciRequestPrototype prototype = new AciServerDetails(AciServerDetails.TransportProtocol.HTTPS, "localhost", 9000, "/a b/content").getRequestPrototype();
+
+        assertThat(prototype.getHttpHost().getSchemeName(), is(equalTo("https")));
+        assertThat(prototype.getHttpHost().getHostName(), is(equalTo("localhost")));
+        assertThat(prototype.getHttpHost().getPort(), is(9000));
+        assertThat(prototype.getBaseUri().toString(), is(equalTo("https://localhost:9000/a%20b/content")));
+        assertThat(prototype.getEncodedPath(), is(equalTo("/a%20b/content")));
+        assertThat(prototype.getCharset(), is(equalTo(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testEncodedPathWithQuery() throws URISyntaxException {
+        final AciRequestPrototype prototype = new AciServerDetails("localhost", 9000).getRequestPrototype();
+
+        assertThat(prototype.getEncodedPath("action=getstatus"), is(equalTo("/?action=getstatus")));
+        assertThat(prototype.getEncodedPath(""), is(equalTo("/")));
+    }
+
+    @Test
+    public void testEmptyPathIsSentAsSlash() throws URISyntaxException {
+        final AciRequestPrototype prototype = new AciServerDetails(AciServerDetails.TransportProtocol.HTTP, "localhost", 9000, "").getRequestPrototype();
+
+        assertThat(prototype.getEncodedPath(), is(equalTo("/")));
+        assertThat(prototype.getEncodedPath("action=getstatus"), is(equalTo("/?action=getstatus")));
+    }
+
+    @Test
+    public void testCharset() throws URISyntaxException {
+        final AciServerDetails details = new AciServerDetails("localhost", 9000);
+        details.setCharsetName("ISO-8859-1");
+
+        assertThat(details.getRequestPrototype().getCharset(), is(equalTo(StandardCharsets.ISO_8859_1)));
+    }
+
+}
@@ -18,6 +18,7 @@ import com.autonomy.aci.client.TestEncryptionCodec;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.net.URISyntaxException;
 import java.nio.charset.IllegalCharsetNameException;
 import java.nio.charset.UnsupportedCharsetException;
 
@@ -334,4 +335,37 @@ public class AciServerDetailsTest {
         assertThat(details1.hashCode() == details2.hashCode(), is(true));
     }
 
+    @Test
+    public void testRequestPrototypeIsCached() throws URISyntaxException {
+        final AciServerDetails details = new AciServerDetails("localhost", 9000);
+        final AciRequestPrototype prototype = details.getRequestPrototype();
+
+        assertThat(details.getRequestPrototype(), is(sameInstance(prototype)));
+        assertThat("Copies should share the prototype", new AciServerDetails(details).getRequestPrototype(), is(sameInstance(prototype)));
+
+        // Changing the encryption codec doesn't change the URI...
+        details.setEncryptionCodec(new TestEncryptionCodec());
+        assertThat(details.getRequestPrototype(), is(sameInstance(prototype)));
+    }
+
+    @Test
+    public void testRequestPrototypeIsRecompiledWhenDetailsChange() throws URISyntaxException {
+        final AciServerDetails details = new AciServerDetails("localhost", 9000);
+        final AciRequestPrototype original = details.getRequestPrototype();
+
+        details.setProtocol(AciServerDetails.TransportProtocol.HTTPS);
+        assertThat(details.getRequestPrototype().getBaseUri().toString(), is(equalTo("https://localhost:9000/")));
+
+        details.setHost("example.com");
+        assertThat(details.getRequestPrototype().getBaseUri().toString(), is(equalTo("https://example.com:9000/")));
+
+        details.setPort(9100);
+        assertThat(details.getRequestPrototype().getHttpHost().getPort(), is(9100));
+
+        details.setCharsetName("ISO-8859-1");
+        assertThat(details.getRequestPrototype().getCharset().name(), is(equalTo("ISO-8859-1")));
+
+        assertThat(original.getBaseUri().toString(), is(equalTo("http://localhost:9000/")));
+    }
+
 }
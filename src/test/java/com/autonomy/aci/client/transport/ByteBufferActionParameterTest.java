@@ -0,0 +1,117 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.core5.http.HttpEntity;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for <code>com.autonomy.aci.client.transport.ByteBufferActionParameter</code>.
+ */
+public class ByteBufferActionParameterTest {
+
+    private static HttpEntity build(final ActionParameter<?> parameter) {
+        final MultipartEntityBuilder builder = MultipartEntityBuilder.create().setBoundary("boundary");
+        parameter.addToEntity(builder, StandardCharsets.UTF_8);
+        return builder.build();
+    }
+
+    private static String content(final HttpEntity entity) throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        entity.writeTo(content);
+        return content.toString("UTF-8");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlankName() {
+        new ByteBufferActionParameter(" ", ByteBuffer.allocate(1));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullBuffer() {
+        new ByteBufferActionParameter("file", null);
+    }
+
+    @Test
+    public void testParameterIsRepeatable() {
+        final ByteBufferActionParameter parameter = new ByteBufferActionParameter("file", ByteBuffer.wrap(new byte[] {1, 2, 3}));
+
+        assertThat(parameter.getName(), is(equalTo("file")));
+        assertThat(parameter.getValue().remaining(), is(3));
+        assertThat(parameter.getValue().isReadOnly(), is(true));
+        assertThat(parameter.requiresPostRequest(), is(true));
+        assertThat(parameter.isRepeatable(), is(true));
+    }
+
+    @Test
+    public void testHeapBufferMatchesStreamedEntity() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap("xxcontentxx".getBytes(StandardCharsets.UTF_8), 2, 7).slice();
+        final HttpEntity entity = build(new ByteBufferActionParameter("file", buffer));
+        final String streamed = content(build(new InputStreamActionParameter("file", new ByteArrayInputStream("content".getBytes(StandardCharsets.UTF_8)))));
+
+        assertThat("The entity shouldn't be chunked", entity.getContentLength(), is(greaterThan(0L)));
+        assertThat(content(entity), is(equalTo(streamed)));
+        assertThat((long) content(entity).length(), is(equalTo(entity.getContentLength())));
+        assertThat("The entity should be the same when sent again", content(entity), is(equalTo(streamed)));
+    }
+
+    @Test
+    public void testDirectBuffer() throws IOException {
+        final byte[] bytes = new byte[150000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ('a' + (i % 26));
+        }
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+
+        final HttpEntity entity = build(new ByteBufferActionParameter("file", direct));
+        final String body = content(entity);
+
+        assertThat(body, containsString(new String(bytes, StandardCharsets.US_ASCII)));
+        assertThat((long) body.length(), is(equalTo(entity.getContentLength())));
+        assertThat("The entity should be the same when sent again", content(entity), is(equalTo(body)));
+        assertThat("The caller's buffer shouldn't be consumed", direct.remaining(), is(bytes.length));
+    }
+
+    @Test
+    public void testLaterChangesToPositionAreIgnored() throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap("content".getBytes(StandardCharsets.UTF_8));
+        final ByteBufferActionParameter parameter = new ByteBufferActionParameter("file", buffer);
+        buffer.position(4);
+
+        assertThat(content(build(parameter)), containsString("\r\n\r\ncontent\r\n"));
+    }
+
+    @Test
+    public void testEquality() {
+        final ByteBufferActionParameter parameter = new ByteBufferActionParameter("File", ByteBuffer.allocate(1));
+
+        assertThat(parameter, is(equalTo(new ByteBufferActionParameter("file", ByteBuffer.allocate(2)))));
+        assertThat(parameter.hashCode(), is(equalTo(new ByteBufferActionParameter("FILE", ByteBuffer.allocate(2)).hashCode())));
+        assertThat(parameter, is(not(equalTo(new ByteBufferActionParameter("other", ByteBuffer.allocate(1))))));
+    }
+
+}
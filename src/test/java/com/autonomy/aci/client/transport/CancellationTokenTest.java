@@ -0,0 +1,125 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.CancellationToken</code> class.
+ */
+public class CancellationTokenTest {
+
+    private final CancellationToken token = new CancellationToken();
+
+    @Test
+    public void testCancelRunsActionsOnce() {
+        final AtomicInteger runs = new AtomicInteger();
+        token.onCancel(runs::incrementAndGet);
+        token.onCancel(runs::incrementAndGet);
+        assertThat(token.isCancelled(), is(false));
+
+        token.cancel();
+        token.cancel();
+
+        assertThat(token.isCancelled(), is(true));
+        assertThat(runs.get(), is(2));
+    }
+
+    @Test
+    public void testActionRegisteredAfterCancelRunsStraightAway() {
+        final AtomicInteger runs = new AtomicInteger();
+        token.cancel();
+
+        token.onCancel(runs::incrementAndGet).close();
+        assertThat(runs.get(), is(1));
+    }
+
+    @Test
+    public void testClosedRegistrationDoesNotRun() {
+        final AtomicInteger runs = new AtomicInteger();
+        token.onCancel(runs::incrementAndGet).close();
+
+        token.cancel();
+        assertThat(runs.get(), is(0));
+    }
+
+    @Test
+    public void testActionCanCloseRegistrations() {
+        final AtomicInteger runs = new AtomicInteger();
+        final CancellationToken.Registration[] registrations = new CancellationToken.Registration[2];
+        registrations[0] = token.onCancel(() -> {
+            runs.incrementAndGet();
+            registrations[0].close();
+            registrations[1].close();
+        });
+        registrations[1] = token.onCancel(runs::incrementAndGet);
+
+        token.cancel();
+        assertThat(runs.get(), is(2));
+    }
+
+    @Test
+    public void testFailingActionDoesNotStopOthers() {
+        final AtomicInteger runs = new AtomicInteger();
+        token.onCancel(() -> {
+            throw new IllegalStateException("JUnit test exception.");
+        });
+        token.onCancel(runs::incrementAndGet);
+
+        token.cancel();
+        assertThat(runs.get(), is(1));
+    }
+
+    @Test(expected = RequestCancelledException.class)
+    public void testThrowIfCancelled() {
+        token.throwIfCancelled();
+        token.cancel();
+        token.throwIfCancelled();
+    }
+
+    @Test
+    public void testCancelWith() {
+        final CompletableFuture<String> completed = new CompletableFuture<>();
+        token.cancelWith(completed);
+        completed.complete("response");
+        assertThat(token.isCancelled(), is(false));
+
+        final CompletableFuture<String> cancelled = new CompletableFuture<>();
+        token.cancelWith(cancelled);
+        cancelled.cancel(true);
+        assertThat(token.isCancelled(), is(true));
+    }
+
+    @Test
+    public void testOf() {
+        final ActionParameters parameters = new ActionParameters("Query");
+        assertThat(CancellationToken.of(parameters), is(nullValue()));
+
+        parameters.setCancellationToken(token);
+        assertThat(CancellationToken.of(parameters), is(sameInstance(token)));
+        assertThat(new ActionParameters(parameters).getCancellationToken(), is(sameInstance(token)));
+        assertThat(CancellationToken.of(Collections.singleton(new AciParameter("Action", "Query"))), is(nullValue()));
+    }
+
+}
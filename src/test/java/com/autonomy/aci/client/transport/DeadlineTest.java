@@ -0,0 +1,80 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import com.autonomy.aci.client.util.ActionParameters;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.Deadline</code> class.
+ */
+public class DeadlineTest {
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeTimeout() {
+        Deadline.after(-1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testExpiry() {
+        final Deadline deadline = Deadline.after(200, TimeUnit.MILLISECONDS, clock::get);
+        assertThat(deadline.isExpired(), is(false));
+        assertThat(deadline.getTimeout(TimeUnit.MILLISECONDS), is(200L));
+        assertThat(deadline.getTimeRemaining(TimeUnit.MILLISECONDS), is(200L));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(199));
+        assertThat(deadline.isExpired(), is(false));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(deadline.isExpired(), is(true));
+        assertThat(deadline.getTimeRemaining(TimeUnit.MILLISECONDS), is(0L));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(deadline.getTimeRemaining(TimeUnit.MILLISECONDS), is(0L));
+    }
+
+    @Test
+    public void testTimeRemainingRoundsUp() {
+        final Deadline deadline = Deadline.after(2, TimeUnit.MILLISECONDS, clock::get);
+        clock.addAndGet(TimeUnit.MICROSECONDS.toNanos(1500));
+
+        assertThat(deadline.getTimeRemaining(TimeUnit.MILLISECONDS), is(1L));
+        assertThat(deadline.getTimeRemaining(TimeUnit.MICROSECONDS), is(500L));
+
+        clock.addAndGet(TimeUnit.MICROSECONDS.toNanos(499));
+        assertThat(deadline.getTimeRemaining(TimeUnit.MILLISECONDS), is(1L));
+    }
+
+    @Test
+    public void testOf() {
+        final Deadline deadline = Deadline.after(1, TimeUnit.SECONDS);
+        final ActionParameters parameters = new ActionParameters("Query");
+        assertThat(Deadline.of(parameters), is(nullValue()));
+
+        parameters.setDeadline(deadline);
+        assertThat(Deadline.of(parameters), is(sameInstance(deadline)));
+        assertThat(Deadline.of(Collections.singleton(new AciParameter("Action", "Query"))), is(nullValue()));
+    }
+
+}
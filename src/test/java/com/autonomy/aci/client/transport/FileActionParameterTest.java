@@ -0,0 +1,158 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * JUnit test class for <code>com.autonomy.aci.client.transport.FileActionParameter</code>.
+ */
+public class FileActionParameterTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file(final String content) throws IOException {
+        final Path file = folder.newFile("document.txt").toPath();
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static HttpEntity build(final ActionParameter<?> parameter) {
+        final MultipartEntityBuilder builder = MultipartEntityBuilder.create().setBoundary("boundary");
+        parameter.addToEntity(builder, StandardCharsets.UTF_8);
+        return builder.build();
+    }
+
+    private static String content(final HttpEntity entity) throws IOException {
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        entity.writeTo(content);
+        return content.toString("UTF-8");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlankName() throws IOException {
+        new FileActionParameter(" ", file("value"));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullPath() {
+        new FileActionParameter("file", null);
+    }
+
+    @Test
+    public void testParameterIsRepeatable() throws IOException {
+        final Path file = file("value");
+        final FileActionParameter parameter = new FileActionParameter("file", file);
+
+        assertThat(parameter.getName(), is(equalTo("file")));
+        assertThat(parameter.getValue(), is(sameInstance(file)));
+        assertThat(parameter.requiresPostRequest(), is(true));
+        assertThat(parameter.isRepeatable(), is(true));
+    }
+
+    @Test
+    public void testEntityHasKnownLength() throws IOException {
+        final String content = "Some document content\n";
+        final HttpEntity entity = build(new FileActionParameter("file", file(content)));
+
+        assertThat("The entity shouldn't be chunked", entity.getContentLength(), is(greaterThan((long) content.length())));
+        assertThat(entity.isRepeatable(), is(true));
+
+        final String body = content(entity);
+        assertThat((long) body.getBytes(StandardCharsets.UTF_8).length, is(equalTo(entity.getContentLength())));
+        assertThat(body, containsString("name=\"file\"; filename=\"document.txt\""));
+        assertThat(body, containsString("Content-Type: application/octet-stream"));
+        assertThat(body, containsString(content));
+        assertThat("The entity should be the same when sent again", content(entity), is(equalTo(body)));
+    }
+
+    @Test
+    public void testBodyMatchesBinaryBody() throws IOException {
+        final byte[] bytes = new byte[200000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+
+        final Path file = folder.newFile("large.bin").toPath();
+        Files.write(file, bytes);
+
+        final MultipartEntityBuilder builder = MultipartEntityBuilder.create().setBoundary("boundary");
+        builder.addBinaryBody("file", new ByteArrayInputStream(bytes), ContentType.APPLICATION_OCTET_STREAM, "large.bin");
+
+        assertThat(content(build(new FileActionParameter("file", file))), is(equalTo(content(builder.build()))));
+    }
+
+    @Test
+    public void testContentType() throws IOException {
+        final HttpEntity entity = build(new FileActionParameter("file", file("{}"), ContentType.APPLICATION_JSON));
+        assertThat(content(entity), containsString("Content-Type: application/json"));
+    }
+
+    @Test
+    public void testFileChangedSizeAfterRequestWasBuilt() throws IOException {
+        final Path file = file("value");
+        final HttpEntity entity = build(new FileActionParameter("file", file));
+
+        Files.write(file, "val".getBytes(StandardCharsets.UTF_8));
+        try {
+            content(entity);
+            fail("Should have thrown an IOException.");
+        } catch (final IOException e) {
+            assertThat(e.getMessage(), containsString("shorter"));
+        }
+
+        Files.write(file, "longer value".getBytes(StandardCharsets.UTF_8));
+        try {
+            content(entity);
+            fail("Should have thrown an IOException.");
+        } catch (final IOException e) {
+            assertThat(e.getMessage(), containsString("longer"));
+        }
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testMissingFile() {
+        build(new FileActionParameter("file", folder.getRoot().toPath().resolve("missing.txt")));
+    }
+
+    @Test
+    public void testEquality() throws IOException {
+        final Path file = file("value");
+        final FileActionParameter parameter = new FileActionParameter("File", file);
+
+        assertThat(parameter, is(equalTo(new FileActionParameter("file", file))));
+        assertThat(parameter.hashCode(), is(equalTo(new FileActionParameter("FILE", file).hashCode())));
+        assertThat(parameter, is(not(equalTo(new FileActionParameter("other", file)))));
+    }
+
+}
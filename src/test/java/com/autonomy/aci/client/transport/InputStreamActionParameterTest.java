@@ -0,0 +1,95 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
+import org.apache.hc.core5.http.HttpEntity;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for <code>com.autonomy.aci.client.transport.InputStreamActionParameter</code>.
+ */
+public class InputStreamActionParameterTest {
+
+    private static InputStream stream(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String entity(final ActionParameter<?> parameter) throws IOException {
+        final MultipartEntityBuilder builder = MultipartEntityBuilder.create().setBoundary("boundary");
+        parameter.addToEntity(builder, StandardCharsets.UTF_8);
+
+        final HttpEntity entity = builder.build();
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        entity.writeTo(content);
+        return content.toString("UTF-8");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlankName() {
+        new InputStreamActionParameter(" ", stream("value"));
+    }
+
+    @Test
+    public void testStreamedParameterIsNotRepeatable() {
+        final InputStream value = stream("value");
+        final InputStreamActionParameter parameter = new InputStreamActionParameter("file", value);
+
+        assertThat(parameter.getName(), is(equalTo("file")));
+        assertThat(parameter.getValue().get(0), is(sameInstance(value)));
+        assertThat(parameter.requiresPostRequest(), is(true));
+        assertThat(parameter.isRepeatable(), is(false));
+    }
+
+    @Test
+    public void testBufferedParameterIsRepeatable() throws IOException {
+        final InputStreamActionParameter parameter = InputStreamActionParameter.buffer("file", Arrays.asList(stream("one"), stream("two")));
+
+        assertThat(parameter.isRepeatable(), is(true));
+        assertThat(parameter.getValue(), hasSize(2));
+        assertThat(IOUtils.toString(parameter.getValue().get(1), StandardCharsets.UTF_8), is(equalTo("two")));
+        assertThat("Each call should return unread streams", IOUtils.toString(parameter.getValue().get(1), StandardCharsets.UTF_8), is(equalTo("two")));
+    }
+
+    @Test
+    public void testBufferedParameterMatchesStreamedEntity() throws IOException {
+        final String streamed = entity(new InputStreamActionParameter("file", stream("content")));
+        final InputStreamActionParameter buffered = InputStreamActionParameter.buffer("file", stream("content"));
+
+        assertThat(entity(buffered), is(equalTo(streamed)));
+        assertThat("The entity should be the same when sent again", entity(buffered), is(equalTo(streamed)));
+    }
+
+    @Test
+    public void testEquality() throws IOException {
+        final InputStreamActionParameter parameter = new InputStreamActionParameter("File", stream("value"));
+
+        assertThat(parameter, is(equalTo(InputStreamActionParameter.buffer("file", stream("other")))));
+        assertThat(parameter.hashCode(), is(equalTo(InputStreamActionParameter.buffer("FILE", stream("other")).hashCode())));
+        assertThat(parameter, is(not(equalTo(new InputStreamActionParameter("other", stream("value"))))));
+    }
+
+}
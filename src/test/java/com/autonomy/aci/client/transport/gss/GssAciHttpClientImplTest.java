@@ -14,8 +14,10 @@
 
 package com.autonomy.aci.client.transport.gss;
 
+import com.autonomy.aci.client.services.RequestCancelledException;
 import com.autonomy.aci.client.transport.AciHttpException;
 import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.CancellationToken;
 import com.autonomy.aci.client.util.ActionParameters;
 import org.apache.hc.client5.http.classic.HttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
@@ -26,6 +28,8 @@ import java.io.IOException;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
 
 public class GssAciHttpClientImplTest {
 
@@ -48,4 +52,23 @@ public class GssAciHttpClientImplTest {
         new GssAciHttpClientImpl(HttpClients.createDefault()).executeAction(new GssAciServerDetails(), new ActionParameters());
     }
 
+    @Test
+    public void testCancelledBeforeHandshake() throws IOException, AciHttpException {
+        final HttpClient mockHttpClient = mock(HttpClient.class);
+
+        final CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+        final ActionParameters parameters = new ActionParameters("Query");
+        parameters.setCancellationToken(cancellation);
+
+        try {
+            new GssAciHttpClientImpl(mockHttpClient).executeAction(new GssAciServerDetails("HTTP/localhost@EXAMPLE.COM", "localhost", 9000), parameters);
+            fail("Should have thrown a RequestCancelledException.");
+        } catch (final RequestCancelledException e) {
+            // Expected...
+        }
+
+        verifyNoInteractions(mockHttpClient);
+    }
+
 }
@@ -18,36 +18,36 @@ import com.autonomy.aci.client.HttpTestUtils;
 import com.autonomy.aci.client.ReflectionTestUtils;
 import com.autonomy.aci.client.TestEncryptionCodec;
 import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.RequestCancelledException;
 import com.autonomy.aci.client.transport.*;
 import com.autonomy.aci.client.util.ActionParameters;
-import com.autonomy.aci.client.util.EncryptionCodecUtils;
 import org.apache.hc.client5.http.ClientProtocolException;
 import org.apache.hc.client5.http.classic.HttpClient;
-import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpResponse;
 import org.apache.hc.core5.http.message.BasicHeader;
 import org.apache.hc.core5.http.message.BasicHttpResponse;
-import org.apache.hc.core5.http.message.BasicNameValuePair;
 import org.apache.hc.core5.http.protocol.HttpContext;
-import org.apache.hc.core5.net.URLEncodedUtils;
+import org.apache.hc.core5.util.Timeout;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
-import java.util.*;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.*;
-import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
@@ -94,207 +94,6 @@ public class AciHttpClientImplTest {
         assertThat("usePostMethod not as expected", aciHttpClient.isUsePostMethod(), is(false));
     }
 
-    @Test
-    @SuppressWarnings("unchecked")
-    public void testConvertParametersMethod() throws Exception {
-        final Set<AciParameter> parameters = new LinkedHashSet<>();
-        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
-        parameters.add(new AciParameter("Text", "This is some text..."));
-
-        final String converted = testConvertEncodeParameters(parameters, "UTF-8");
-        assertThat("Converted parameters shouldn't be null", converted, is(notNullValue()));
-        assertThat("Incorrect converted parameters", converted, is(equalTo("Action=query&Text=This+is+some+text...")));
-    }
-
-    @Test
-    @SuppressWarnings("unchecked")
-    public void testConvertParametersMethodActionNotFirstItem() throws Exception {
-        final Set<AciParameter> parameters = new LinkedHashSet<>();
-        parameters.add(new AciParameter("Text", "This is some text..."));
-        parameters.add(new AciParameter("Combine", "Simple"));
-        parameters.add(new AciParameter("Predict", false));
-        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
-        parameters.add(new AciParameter("MaxResults", 10));
-
-        final String converted = testConvertEncodeParameters(parameters, "UTF-8");
-        assertThat("Converted parameters shouldn't be null", converted, is(notNullValue()));
-        assertThat("Incorrect converted parameters", converted, is(equalTo("Action=query&Text=This+is+some+text...&Combine=Simple&Predict=false&MaxResults=10")));
-    }
-
-    /*
-     * Was throwing:
-     *
-     * <pre>
-     *     Exception in thread "main" java.lang.ArrayIndexOutOfBoundsException
-     *         at java.lang.System.arraycopy(Native Method)
-     *         at com.autonomy.aci.client.transport.impl.AciHttpClientImpl.convertParameters(AciHttpClientImpl.java:220)
-     *         ....
-     * </pre>
-     *
-     * When "action=xxx" instead of "Action=xxx" was found...
-     */
-    @Test
-    @SuppressWarnings("unchecked")
-    public void testConvertParametersMethodLowerCaseAction() throws Exception {
-        final Set<AciParameter> parameters = new LinkedHashSet<>();
-        parameters.add(new AciParameter("Text", "This is some text..."));
-        parameters.add(new AciParameter("Combine", "Simple"));
-        parameters.add(new AciParameter("Predict", false));
-        parameters.add(new AciParameter("action", "query"));
-        parameters.add(new AciParameter("MaxResults", 10));
-
-        final String converted = testConvertEncodeParameters(parameters, "UTF-8");
-        assertThat("Converted parameters shouldn't be null", converted, is(notNullValue()));
-        assertThat("Incorrect converted parameters", converted, is(equalTo("action=query&Text=This+is+some+text...&Combine=Simple&Predict=false&MaxResults=10")));
-    }
-
-    /**
-     * This should never be possible in the real world, just just to be sure...
-     */
-    @Test
-    @SuppressWarnings("unchecked")
-    public void testConvertParametersMethodNoAction() throws Exception {
-        final ActionParameters parameters = new ActionParameters(
-                new AciParameter("Text", "This is some text..."),
-                new AciParameter("MaxResults", true),
-                new AciParameter("Print", "All")
-        );
-
-        try {
-            // Invoke the method with the parameters...
-            testConvertEncodeParameters(parameters, "UTF-8");
-            fail("Should have thrown an InvocationTargetException");
-        } catch (final InvocationTargetException ite) {
-            assertThat(ite.getCause(), is(instanceOf(IllegalArgumentException.class)));
-        }
-    }
-
-    @Test
-    @SuppressWarnings("unchecked")
-    public void testCreateGetMethod() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, URISyntaxException {
-        // Create our client...
-        final AciHttpClientImpl aciHttpClient = new AciHttpClientImpl(HttpClients.createDefault());
-
-        // Get our method...
-        final Method method = ReflectionTestUtils.getAccessibleMethod(AciHttpClientImpl.class, "createGetMethod", AciServerDetails.class, Set.class);
-
-        // Here's the parameter set...
-        final Set<AciParameter> parameters = new LinkedHashSet<>();
-        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
-        parameters.add(new AciParameter("Text", "This is some text..."));
-
-        // Invoke the method with the parameters...
-        final HttpUriRequest request = (HttpUriRequest) method.invoke(aciHttpClient, serverDetails, parameters);
-
-        assertThat("Incorrect URL", request.getUri().toString(),
-                is(equalTo("http://localhost:9000/content?Action=query&Text=This%20is%20some%20text...")));
-    }
-
-    @Test
-    @SuppressWarnings("unchecked")
-    public void testCreatePostMethod() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, IOException, URISyntaxException {
-        // Create our client...
-        final AciHttpClientImpl aciHttpClient = new AciHttpClientImpl(HttpClients.createDefault());
-
-        // Get our method...
-        final Method method = ReflectionTestUtils.getAccessibleMethod(AciHttpClientImpl.class, "createPostMethod", AciServerDetails.class, Set.class);
-
-        // Here's the parameter set...
-        final Set<AciParameter> parameters = new LinkedHashSet<>();
-        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
-        parameters.add(new AciParameter("Text", "This is some text..."));
-
-        // Invoke the method with the parameters...
-        final HttpUriRequest request = (HttpUriRequest) method.invoke(aciHttpClient, serverDetails, parameters);
-
-        assertThat("Incorrect URL", request.getUri().toString(), is(equalTo("http://localhost:9000/content")));
-
-        // The response should be a HttpPost, so cast it and get the entity that conbtains the query string...
-        final HttpEntity entity = ((HttpPost) request).getEntity();
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        entity.writeTo(baos);
-
-        // Check the request body...
-        assertThat("Incorrect query string", baos.toString("UTF-8"), is(equalTo("Action=query&Text=This+is+some+text...")));
-    }
-
-    @Test
-    @SuppressWarnings("unchecked")
-    public void testCreateEncryptedParameters() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, EncryptionCodecException {
-        // Create our client...
-        final AciHttpClientImpl aciHttpClient = new AciHttpClientImpl(HttpClients.createDefault());
-
-        // Get our method...
-        final Method method = ReflectionTestUtils.getAccessibleMethod(AciHttpClientImpl.class, "createEncryptedParameters", AciServerDetails.class, Collection.class);
-
-        // Add an encryption codec to the server details...
-        serverDetails.setEncryptionCodec(new TestEncryptionCodec());
-
-        // Here's the parameter set...
-        final Set<AciParameter> parameters = new LinkedHashSet<>();
-        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
-        parameters.add(new AciParameter("Text", "This is some text..."));
-
-        // Invoke the method with the parameters...
-        final Set<AciParameter> encrypted = (Set<AciParameter>) method.invoke(aciHttpClient, serverDetails, parameters);
-
-        // Correctly encode the query string before encrypting it...
-        final String queryString = URLEncodedUtils.format(Arrays.asList(new BasicNameValuePair(AciConstants.PARAM_ACTION, "query"), new BasicNameValuePair("Text", "This is some text...")), StandardCharsets.UTF_8);
-        final String encryptedQueryString = EncryptionCodecUtils.getInstance().encrypt(serverDetails.getEncryptionCodec(), queryString, serverDetails.getCharsetName());
-
-        // Check the encrypted parameters...
-        assertThat("Incorrect query string", encrypted, hasItems(
-                new AciParameter(AciConstants.PARAM_ACTION, AciConstants.ACTION_ENCRYPTED),
-                new AciParameter(AciConstants.PARAM_DATA, encryptedQueryString)
-        ));
-    }
-
-    @Test
-    @SuppressWarnings("unchecked")
-    public void testConstructHttpRequest() throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, IOException, URISyntaxException {
-        // Create our client...
-        final AciHttpClientImpl aciHttpClient = new AciHttpClientImpl(HttpClients.createDefault());
-
-        // Get our method...
-        final Method method = ReflectionTestUtils.getAccessibleMethod(AciHttpClientImpl.class, "constructHttpRequest", AciServerDetails.class, Set.class);
-
-        // Here's the parameter set...
-        final Set<AciParameter> parameters = new LinkedHashSet<>();
-        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
-        parameters.add(new AciParameter("Text", "This is some text..."));
-
-        // Invoke and we should get a GetMethod back...
-        HttpUriRequest request = (HttpUriRequest) method.invoke(aciHttpClient, serverDetails, parameters);
-        assertThat("Incorrect HTTP method", request.getMethod(), is(equalTo("GET")));
-        assertThat("Incorrect URL", request.getUri().toString(),
-                is(equalTo("http://localhost:9000/content?Action=query&Text=This%20is%20some%20text...")));
-
-        // Set it to use POST and try again...
-        aciHttpClient.setUsePostMethod(true);
-        request = (HttpUriRequest) method.invoke(aciHttpClient, serverDetails, parameters);
-        assertThat("Incorrect HTTP method", request.getMethod(), is(equalTo("POST")));
-        HttpEntity entity = ((HttpPost) request).getEntity();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        entity.writeTo(baos);
-        assertThat("Incorrect request body", baos.toString("UTF-8"), is(equalTo("Action=query&Text=This+is+some+text...")));
-
-        // Set an encryption codec...
-        serverDetails.setEncryptionCodec(new TestEncryptionCodec());
-        request = (HttpUriRequest) method.invoke(aciHttpClient, serverDetails, parameters);
-        assertThat("Incorrect HTTP method", request.getMethod(), is(equalTo("POST")));
-        entity = ((HttpPost) request).getEntity();
-        baos = new ByteArrayOutputStream();
-        entity.writeTo(baos);
-        assertThat("Incorrect request body", baos.toString("UTF-8"), startsWith("Action=Encrypted&Data="));
-
-        // Get rid of the POST, but keep the encryption codec...
-        aciHttpClient.setUsePostMethod(false);
-        request = (HttpUriRequest) method.invoke(aciHttpClient, serverDetails, parameters);
-        assertThat("Incorrect HTTP method", request.getMethod(), is(equalTo("GET")));
-        assertThat("Incorrect URL", request.getUri().toString(),
-                startsWith("http://localhost:9000/content?Action=Encrypted&Data="));
-    }
-
     @Test(expected = NullPointerException.class)
     public void testExecuteActionNoHttpClient() throws IOException, AciHttpException {
         // Create our client and execute...
@@ -474,15 +273,140 @@ public class AciHttpClientImplTest {
         assertThat("Incorrect result", result, is(true));
     }
 
-    private String testConvertEncodeParameters(final Set<? extends ActionParameter<?>> params, final String charset)
-            throws Exception
-    {
-        final AciHttpClientImpl aciHttpClient = new AciHttpClientImpl(HttpClients.createDefault());
-        final Method orderMethod = ReflectionTestUtils.getAccessibleMethod(
-                AciHttpClientImpl.class, "orderParams", Collection.class);
-        final Method encodeMethod = ReflectionTestUtils.getAccessibleMethod(
-                AciHttpClientImpl.class, "wwwFormEncodeParams", List.class, String.class);
-        return (String) encodeMethod.invoke(aciHttpClient, orderMethod.invoke(aciHttpClient, params), charset);
+    @Test
+    public void testExpiredDeadlineIsNotSent() throws IOException, AciHttpException {
+        final HttpClient mockHttpClient = mock(HttpClient.class);
+
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.setDeadline(Deadline.after(0, TimeUnit.MILLISECONDS));
+
+        try {
+            new AciHttpClientImpl(mockHttpClient).executeAction(serverDetails, parameters);
+            fail("Should have thrown a DeadlineExceededException.");
+        } catch (final DeadlineExceededException e) {
+            assertThat(e.getTimeout(), is(0L));
+        }
+
+        verifyNoInteractions(mockHttpClient);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeadlineLimitsTimeouts() {
+        final AciHttpClientImpl aciHttpClient = new AciHttpClientImpl(mock(HttpClient.class));
+        aciHttpClient.setRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(100))
+                .setResponseTimeout(Timeout.ofMinutes(1))
+                .setRedirectsEnabled(false)
+                .build());
+
+        final RequestConfig config = aciHttpClient.createContext(Deadline.after(5, TimeUnit.SECONDS)).getRequestConfig();
+
+        // The configured timeout is kept when it's shorter than the time remaining...
+        assertThat(config.getConnectionRequestTimeout(), is(equalTo(Timeout.ofMilliseconds(100))));
+        assertThat(config.getConnectTimeout().toMilliseconds(), is(allOf(greaterThan(4000L), lessThanOrEqualTo(5000L))));
+        assertThat(config.getResponseTimeout().toMilliseconds(), is(allOf(greaterThan(4000L), lessThanOrEqualTo(5000L))));
+        assertThat(config.isRedirectsEnabled(), is(false));
+    }
+
+    @Test
+    public void testDeadlineKeepsClientDefaults() throws IOException {
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setConnectionRequestTimeout(1234);
+
+        try (final CloseableHttpClient httpClient = (CloseableHttpClient) factory.createInstance()) {
+            final RequestConfig config = new AciHttpClientImpl(httpClient).createContext(Deadline.after(5, TimeUnit.SECONDS)).getRequestConfig();
+
+            // The pool timeout set on the factory isn't replaced by the default one...
+            assertThat(config.getConnectionRequestTimeout(), is(equalTo(Timeout.ofMilliseconds(1234))));
+            assertThat(config.getResponseTimeout().toMilliseconds(), is(allOf(greaterThan(4000L), lessThanOrEqualTo(5000L))));
+        }
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void testTimeoutAtDeadline() throws IOException, AciHttpException {
+        final HttpClient mockHttpClient = mock(HttpClient.class);
+        when(mockHttpClient.executeOpen(eq(null), any(ClassicHttpRequest.class), any(HttpClientContext.class))).thenAnswer(invocation -> {
+            TimeUnit.MILLISECONDS.sleep(20);
+            throw new SocketTimeoutException("JUnit test exception.");
+        });
+
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.setDeadline(Deadline.after(10, TimeUnit.MILLISECONDS));
+
+        // The timeout is left for AciServiceImpl to report, so decorators see a transport failure...
+        new AciHttpClientImpl(mockHttpClient).executeAction(serverDetails, parameters);
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void testTimeoutBeforeDeadline() throws IOException, AciHttpException {
+        final HttpClient mockHttpClient = mock(HttpClient.class);
+        when(mockHttpClient.executeOpen(eq(null), any(ClassicHttpRequest.class), any(HttpClientContext.class)))
+                .thenThrow(new SocketTimeoutException("JUnit test exception."));
+
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.setDeadline(Deadline.after(1, TimeUnit.MINUTES));
+
+        new AciHttpClientImpl(mockHttpClient).executeAction(serverDetails, parameters);
+    }
+
+    @Test
+    public void testCancelledRequestIsNotSent() throws IOException, AciHttpException {
+        final HttpClient mockHttpClient = mock(HttpClient.class);
+
+        final CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.setCancellationToken(cancellation);
+
+        try {
+            new AciHttpClientImpl(mockHttpClient).executeAction(serverDetails, parameters);
+            fail("Should have thrown a RequestCancelledException.");
+        } catch (final RequestCancelledException e) {
+            // Expected...
+        }
+
+        verifyNoInteractions(mockHttpClient);
+    }
+
+    @Test
+    public void testCancelAbortsExchange() throws IOException, AciHttpException {
+        final CancellationToken cancellation = new CancellationToken();
+        final IOException aborted = new IOException("JUnit test exception.");
+
+        final HttpClient mockHttpClient = mock(HttpClient.class);
+        when(mockHttpClient.executeOpen(eq(null), any(ClassicHttpRequest.class), Mockito.<HttpContext>eq(null))).thenAnswer(invocation -> {
+            cancellation.cancel();
+            assertThat(((HttpUriRequest) invocation.getArgument(1)).isAborted(), is(true));
+            throw aborted;
+        });
+
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.setCancellationToken(cancellation);
+
+        try {
+            new AciHttpClientImpl(mockHttpClient).executeAction(serverDetails, parameters);
+            fail("Should have thrown a RequestCancelledException.");
+        } catch (final RequestCancelledException e) {
+            assertThat(e.getCause(), is(sameInstance(aborted)));
+        }
+    }
+
+    @Test
+    public void testClosingResponseEndsCancellation() throws IOException, AciHttpException {
+        final HttpTestUtils.HttpMocks mocks = HttpTestUtils.mockHttpClient(200,
+                "/com/autonomy/aci/client/transport/impl/UnencryptedResponse.xml");
+
+        final CancellationToken cancellation = new CancellationToken();
+        final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.setCancellationToken(cancellation);
+
+        new AciHttpClientImpl(mocks.client()).executeAction(serverDetails, parameters).close();
+        cancellation.cancel();
+
+        final ArgumentCaptor<ClassicHttpRequest> request = ArgumentCaptor.forClass(ClassicHttpRequest.class);
+        verify(mocks.client()).executeOpen(eq(null), request.capture(), Mockito.<HttpContext>eq(null));
+        assertThat(((HttpUriRequest) request.getValue()).isAborted(), is(false));
     }
 
 }
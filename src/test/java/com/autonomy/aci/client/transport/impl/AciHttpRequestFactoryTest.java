@@ -0,0 +1,304 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.TestEncryptionCodec;
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.EncryptionCodecException;
+import com.autonomy.aci.client.util.ActionParameters;
+import com.autonomy.aci.client.util.ActionTemplate;
+import com.autonomy.aci.client.util.BoundActionParameters;
+import com.autonomy.aci.client.util.EncryptionCodecUtils;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.message.BasicNameValuePair;
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.hc.core5.net.URLEncodedUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.AciHttpRequestFactory</code> class.
+ */
+public class AciHttpRequestFactoryTest {
+
+    private final AciHttpRequestFactory requestFactory = new AciHttpRequestFactory();
+
+    private AciServerDetails serverDetails;
+
+    @Before
+    public void createConnectionDetails() {
+        serverDetails = new AciServerDetails(AciServerDetails.TransportProtocol.HTTP, "localhost", 9000, "/content");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConvertParametersMethod() throws Exception {
+        final Set<AciParameter> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.add(new AciParameter("Text", "This is some text..."));
+
+        final String converted = testConvertEncodeParameters(parameters, StandardCharsets.UTF_8);
+        assertThat("Converted parameters shouldn't be null", converted, is(notNullValue()));
+        assertThat("Incorrect converted parameters", converted, is(equalTo("Action=query&Text=This+is+some+text...")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConvertParametersMethodActionNotFirstItem() throws Exception {
+        final Set<AciParameter> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter("Text", "This is some text..."));
+        parameters.add(new AciParameter("Combine", "Simple"));
+        parameters.add(new AciParameter("Predict", false));
+        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.add(new AciParameter("MaxResults", 10));
+
+        final String converted = testConvertEncodeParameters(parameters, StandardCharsets.UTF_8);
+        assertThat("Converted parameters shouldn't be null", converted, is(notNullValue()));
+        assertThat("Incorrect converted parameters", converted, is(equalTo("Action=query&Text=This+is+some+text...&Combine=Simple&Predict=false&MaxResults=10")));
+    }
+
+    /*
+     * Was throwing:
+     *
+     * <pre>
+     *     Exception in thread "main" java.lang.ArrayIndexOutOfBoundsException
+     *         at java.lang.System.arraycopy(Native Method)
+     *         at com.autonomy.aci.client.transport.impl.AciHttpClientImpl.convertParameters(AciHttpClientImpl.java:220)
+     *         ....
+     * </pre>
+     *
+     * When "action=xxx" instead of "Action=xxx" was found...
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConvertParametersMethodLowerCaseAction() throws Exception {
+        final Set<AciParameter> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter("Text", "This is some text..."));
+        parameters.add(new AciParameter("Combine", "Simple"));
+        parameters.add(new AciParameter("Predict", false));
+        parameters.add(new AciParameter("action", "query"));
+        parameters.add(new AciParameter("MaxResults", 10));
+
+        final String converted = testConvertEncodeParameters(parameters, StandardCharsets.UTF_8);
+        assertThat("Converted parameters shouldn't be null", converted, is(notNullValue()));
+        assertThat("Incorrect converted parameters", converted, is(equalTo("action=query&Text=This+is+some+text...&Combine=Simple&Predict=false&MaxResults=10")));
+    }
+
+    /**
+     * This should never be possible in the real world, just just to be sure...
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConvertParametersMethodNoAction() throws Exception {
+        final ActionParameters parameters = new ActionParameters(
+                new AciParameter("Text", "This is some text..."),
+                new AciParameter("MaxResults", true),
+                new AciParameter("Print", "All")
+        );
+
+        try {
+            // Invoke the method with the parameters...
+            testConvertEncodeParameters(parameters, StandardCharsets.UTF_8);
+            fail("Should have thrown an IllegalArgumentException");
+        } catch (final IllegalArgumentException iae) {
+            // Expected...
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCreateGetMethod() throws URISyntaxException {
+        // Here's the parameter set...
+        final Set<AciParameter> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.add(new AciParameter("Text", "This is some text..."));
+
+        // Invoke the method with the parameters...
+        final HttpUriRequest request = requestFactory.createGetMethod(serverDetails, parameters);
+
+        assertThat("Incorrect URL", request.getUri().toString(),
+                is(equalTo("http://localhost:9000/content?Action=query&Text=This%20is%20some%20text...")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCreatePostMethod() throws IOException, URISyntaxException {
+        // Here's the parameter set...
+        final Set<AciParameter> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.add(new AciParameter("Text", "This is some text..."));
+
+        // Invoke the method with the parameters...
+        final HttpUriRequest request = requestFactory.createPostMethod(serverDetails, parameters);
+
+        assertThat("Incorrect URL", request.getUri().toString(), is(equalTo("http://localhost:9000/content")));
+
+        // The response should be a HttpPost, so cast it and get the entity that conbtains the query string...
+        final HttpEntity entity = ((HttpPost) request).getEntity();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        entity.writeTo(baos);
+
+        // Check the request body...
+        assertThat("Incorrect query string", baos.toString("UTF-8"), is(equalTo("Action=query&Text=This+is+some+text...")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCreateEncryptedParameters() throws EncryptionCodecException, URISyntaxException {
+        // Add an encryption codec to the server details...
+        serverDetails.setEncryptionCodec(new TestEncryptionCodec());
+
+        // Here's the parameter set...
+        final Set<AciParameter> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.add(new AciParameter("Text", "This is some text..."));
+
+        // Invoke the method with the parameters...
+        final Set<AciParameter> encrypted = (Set<AciParameter>) requestFactory.createEncryptedParameters(serverDetails, parameters);
+
+        // Correctly encode the query string before encrypting it...
+        final String queryString = URLEncodedUtils.format(Arrays.asList(new BasicNameValuePair(AciConstants.PARAM_ACTION, "query"), new BasicNameValuePair("Text", "This is some text...")), StandardCharsets.UTF_8);
+        final String encryptedQueryString = EncryptionCodecUtils.getInstance().encrypt(serverDetails.getEncryptionCodec(), queryString, serverDetails.getCharsetName());
+
+        // Check the encrypted parameters...
+        assertThat("Incorrect query string", encrypted, hasItems(
+                new AciParameter(AciConstants.PARAM_ACTION, AciConstants.ACTION_ENCRYPTED),
+                new AciParameter(AciConstants.PARAM_DATA, encryptedQueryString)
+        ));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConstructHttpRequest() throws EncryptionCodecException, IOException, URISyntaxException {
+        // Here's the parameter set...
+        final Set<AciParameter> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.add(new AciParameter("Text", "This is some text..."));
+
+        // Invoke and we should get a GetMethod back...
+        HttpUriRequest request = requestFactory.constructHttpRequest(serverDetails, parameters, false);
+        assertThat("Incorrect HTTP method", request.getMethod(), is(equalTo("GET")));
+        assertThat("Incorrect URL", request.getUri().toString(),
+                is(equalTo("http://localhost:9000/content?Action=query&Text=This%20is%20some%20text...")));
+
+        // Set it to use POST and try again...
+        request = requestFactory.constructHttpRequest(serverDetails, parameters, true);
+        assertThat("Incorrect HTTP method", request.getMethod(), is(equalTo("POST")));
+        HttpEntity entity = ((HttpPost) request).getEntity();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        entity.writeTo(baos);
+        assertThat("Incorrect request body", baos.toString("UTF-8"), is(equalTo("Action=query&Text=This+is+some+text...")));
+
+        // Set an encryption codec...
+        serverDetails.setEncryptionCodec(new TestEncryptionCodec());
+        request = requestFactory.constructHttpRequest(serverDetails, parameters, true);
+        assertThat("Incorrect HTTP method", request.getMethod(), is(equalTo("POST")));
+        entity = ((HttpPost) request).getEntity();
+        baos = new ByteArrayOutputStream();
+        entity.writeTo(baos);
+        assertThat("Incorrect request body", baos.toString("UTF-8"), startsWith("Action=Encrypted&Data="));
+
+        // Get rid of the POST, but keep the encryption codec...
+        request = requestFactory.constructHttpRequest(serverDetails, parameters, false);
+        assertThat("Incorrect HTTP method", request.getMethod(), is(equalTo("GET")));
+        assertThat("Incorrect URL", request.getUri().toString(),
+                startsWith("http://localhost:9000/content?Action=Encrypted&Data="));
+    }
+
+    @Test
+    public void testEncodeQueryMatchesUriBuilder() throws URISyntaxException {
+        final Set<AciParameter> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "query"));
+        parameters.add(new AciParameter("Text", "a b+c&d=e/f?g#h~i*j'k(l)m!n%o\u00e9\u65e5\ud83d\ude00"));
+        parameters.add(new AciParameter("Empty", ""));
+
+        final URIBuilder uriBuilder = new URIBuilder(serverDetails.getRequestPrototype().getBaseUri());
+        for (final AciParameter parameter : parameters) {
+            uriBuilder.addParameter(parameter.getName(), parameter.getValue());
+        }
+        final URI expected = uriBuilder.build();
+
+        assertThat(requestFactory.createGetMethod(serverDetails, parameters).getUri(), is(equalTo(expected)));
+    }
+
+    @Test
+    public void testRequestsForServerWithoutPath() throws URISyntaxException {
+        final AciServerDetails details = new AciServerDetails(AciServerDetails.TransportProtocol.HTTP, "localhost", 9000, "");
+        final Set<AciParameter> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "getstatus"));
+
+        final HttpUriRequest request = requestFactory.createGetMethod(details, parameters);
+        assertThat(request.getPath(), is(equalTo("/?Action=getstatus")));
+        assertThat(request.getUri().toString(), is(equalTo("http://localhost:9000/?Action=getstatus")));
+    }
+
+    @Test
+    public void testTemplateRequestsMatchOrdinaryRequests() throws EncryptionCodecException, IOException, URISyntaxException {
+        final ActionTemplate template = new ActionTemplate(
+                new AciParameter("Print", "fields"),
+                new AciParameter(AciConstants.PARAM_ACTION, "Query"),
+                new AciParameter("PrintFields", "DRETITLE,DREREFERENCE"),
+                new AciParameter("Combine", "simple")
+        );
+        final Set<ActionParameter<?>> bound = template.bind(new AciParameter("Text", "caf\u00e9 cat"), new AciParameter("Start", 11));
+        assertThat(bound, is(instanceOf(BoundActionParameters.class)));
+        final ActionParameters ordinary = new ActionParameters(bound);
+
+        for (final String charsetName : Arrays.asList("UTF-8", "ISO-8859-1")) {
+            serverDetails.setCharsetName(charsetName);
+            for (final boolean encrypt : Arrays.asList(false, true)) {
+                serverDetails.setEncryptionCodec(encrypt ? new TestEncryptionCodec() : null);
+                for (final boolean usePost : Arrays.asList(false, true)) {
+                    final HttpUriRequest expected = requestFactory.constructHttpRequest(serverDetails, ordinary, usePost);
+                    final HttpUriRequest actual = requestFactory.constructHttpRequest(serverDetails, bound, usePost);
+
+                    final String description = charsetName + ", encrypt=" + encrypt + ", post=" + usePost;
+                    assertThat(description, actual.getUri(), is(equalTo(expected.getUri())));
+                    if (usePost) {
+                        final ByteArrayOutputStream expectedBody = new ByteArrayOutputStream();
+                        expected.getEntity().writeTo(expectedBody);
+                        final ByteArrayOutputStream actualBody = new ByteArrayOutputStream();
+                        actual.getEntity().writeTo(actualBody);
+                        assertThat(description, actualBody.toString("US-ASCII"), is(equalTo(expectedBody.toString("US-ASCII"))));
+                    }
+                }
+            }
+        }
+    }
+
+    private String testConvertEncodeParameters(final Set<? extends ActionParameter<?>> params, final Charset charset) {
+        return ActionParameterEncoder.get().encodeForm(requestFactory.orderParams(params), charset);
+    }
+
+}
@@ -133,4 +133,17 @@ public class AciResponseInputStreamTest {
         stream.close();
     }
 
+    @Test
+    public void testGetHeaders() throws IOException {
+        httpResponse.setEntity(new StringEntity("This is a test..."));
+        httpResponse.addHeader("AUTN-Content-Type", "text/xml");
+        httpResponse.addHeader("X-Repeated", "first");
+        httpResponse.addHeader("X-Repeated", "second");
+
+        final AciResponseInputStreamImpl stream = new AciResponseInputStreamImpl(httpResponse);
+        assertThat(stream.getHeaders().size(), is(2));
+        assertThat(stream.getHeaders().get("autn-content-type"), is(equalTo("text/xml")));
+        assertThat(stream.getHeaders().get("X-Repeated"), is(equalTo(stream.getHeader("X-Repeated"))));
+    }
+
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.InputStreamActionParameter;
+import org.apache.hc.core5.http.NameValuePair;
+import org.apache.hc.core5.http.message.BasicNameValuePair;
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.hc.core5.net.WWWFormCodec;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.ActionParameterEncoder</code> class.
+ */
+public class ActionParameterEncoderTest {
+
+    private static final String[] VALUES = {
+            "",
+            "plain",
+            "This is some text...",
+            "a+b&c=d/e?f#g[h]i@j",
+            "~-._*!'()$,;:",
+            "100%",
+            "tab\tnew line\n",
+            "caf\u00e9 na\u00efve",
+            "\u65e5\u672c\u8a9e\u306e\u30c6\u30ad\u30b9\u30c8",
+            "emoji \ud83d\ude00 and \ud83c\udf89",
+            "lone \ud83d surrogate",
+            "lone \ude00 low surrogate",
+            "\u20ac and \u0192",
+            new String(new char[200]).replace('\0', '\u00e9') + "\ud83d\ude00" + new String(new char[70]).replace('\0', '\u4e2d')
+    };
+
+    private final ActionParameterEncoder encoder = ActionParameterEncoder.get();
+
+    private static Set<ActionParameter<?>> parameters(final String value) {
+        final Set<ActionParameter<?>> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter("Text" + value, value));
+        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+        parameters.add(new AciParameter("MaxResults", "10"));
+        return parameters;
+    }
+
+    private static List<NameValuePair> expectedPairs(final String value) {
+        return Arrays.asList(
+                new BasicNameValuePair(AciConstants.PARAM_ACTION, "Query"),
+                new BasicNameValuePair("Text" + value, value),
+                new BasicNameValuePair("MaxResults", "10")
+        );
+    }
+
+    @Test
+    public void testGetReturnsTheSameInstance() {
+        assertThat(ActionParameterEncoder.get(), is(sameInstance(encoder)));
+    }
+
+    @Test
+    public void testEncodePathMatchesUriBuilder() throws URISyntaxException {
+        for (final String value : VALUES) {
+            final String expected = new URIBuilder("http://localhost:9000/content")
+                    .setParameters(expectedPairs(value))
+                    .build()
+                    .getRawPath() + '?' + new URIBuilder("http://localhost:9000/content").setParameters(expectedPairs(value)).build().getRawQuery();
+
+            assertThat(value, encoder.encodePath("/content", parameters(value)), is(equalTo(expected)));
+        }
+    }
+
+    @Test
+    public void testEncodeFormMatchesWwwFormCodec() {
+        for (final String charsetName : Arrays.asList("UTF-8", "ISO-8859-1", "US-ASCII", "windows-1252", "Shift_JIS", "UTF-16")) {
+            final Charset charset = Charset.forName(charsetName);
+            for (final String value : VALUES) {
+                final String expected = WWWFormCodec.format(expectedPairs(value), charset);
+
+                assertThat(charsetName + ": " + value, encoder.encodeForm(parameters(value), charset), is(equalTo(expected)));
+                assertThat(charsetName + ": " + value, new String(encoder.encodeFormBody(parameters(value), charset), StandardCharsets.US_ASCII), is(equalTo(expected)));
+            }
+        }
+    }
+
+    @Test
+    public void testActionIsFirst() {
+        final Set<ActionParameter<?>> parameters = new LinkedHashSet<>();
+        parameters.add(new AciParameter("Text", "cat"));
+        parameters.add(new AciParameter("action", "Query"));
+
+        assertThat(encoder.encodeForm(parameters, StandardCharsets.UTF_8), is(equalTo("action=Query&Text=cat")));
+        assertThat(encoder.encodePath("/", parameters), is(equalTo("/?action=Query&Text=cat")));
+    }
+
+    @Test
+    public void testNonStringParametersAreSkipped() {
+        final List<ActionParameter<?>> parameters = new ArrayList<>();
+        parameters.add(new InputStreamActionParameter("File", new ByteArrayInputStream(new byte[0])));
+        parameters.add(null);
+        parameters.add(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+        parameters.add(new AciParameter("Text", "cat"));
+
+        assertThat(encoder.encodeForm(parameters, StandardCharsets.UTF_8), is(equalTo("Action=Query&Text=cat")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoAction() {
+        encoder.encodePath("/", Arrays.asList(new AciParameter("Text", "cat")));
+    }
+
+    @Test
+    public void testLargeParameters() {
+        final String large = new String(new char[100000]).replace('\0', 'x');
+        assertThat(encoder.encodeForm(parameters(large), StandardCharsets.UTF_8).length(), is(100000 * 2 + 32));
+
+        // The buffer shouldn't be left in a state that affects the next request...
+        assertThat(encoder.encodeForm(parameters("cat"), StandardCharsets.UTF_8), is(equalTo("Action=Query&Textcat=cat&MaxResults=10")));
+    }
+
+}
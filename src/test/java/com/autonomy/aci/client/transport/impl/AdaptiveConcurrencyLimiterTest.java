@@ -0,0 +1,171 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.transport.AciHttpClient;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.AdaptiveConcurrencyLimiter</code> class.
+ */
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private ConcurrencyLimitingAciHttpClient settings;
+
+    @Before
+    public void setUp() {
+        settings = new ConcurrencyLimitingAciHttpClient(mock(AciHttpClient.class));
+        settings.setInitialLimit(10);
+    }
+
+    private AdaptiveConcurrencyLimiter createLimiter() {
+        return new AdaptiveConcurrencyLimiter(new AciServerDetails("server1", 9000), settings, System::nanoTime);
+    }
+
+    private static void acquire(final AdaptiveConcurrencyLimiter limiter, final int permits) throws InterruptedException {
+        for (int ii = 0; ii < permits; ii++) {
+            assertThat(limiter.tryAcquire(), is(true));
+        }
+    }
+
+    @Test
+    public void testLimitGrowsWhileRttIsStable() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = createLimiter();
+        acquire(limiter, 10);
+
+        for (int ii = 0; ii < 20; ii++) {
+            limiter.onSuccess(MILLISECOND);
+        }
+
+        assertThat(limiter.getLimit(), is(greaterThan(10)));
+    }
+
+    @Test
+    public void testLimitFallsWhenRttRises() throws Exception {
+        settings.setInitialLimit(50);
+        final AdaptiveConcurrencyLimiter limiter = createLimiter();
+        acquire(limiter, 50);
+
+        for (int ii = 0; ii < 10; ii++) {
+            limiter.onSuccess(MILLISECOND);
+        }
+        final int limit = limiter.getLimit();
+
+        for (int ii = 0; ii < 10; ii++) {
+            limiter.onSuccess(10 * MILLISECOND);
+        }
+
+        assertThat(limiter.getLimit(), is(lessThan(limit)));
+    }
+
+    @Test
+    public void testLimitDoesNotGrowWhileUnderused() {
+        final AdaptiveConcurrencyLimiter limiter = createLimiter();
+
+        for (int ii = 0; ii < 20; ii++) {
+            limiter.onSuccess(MILLISECOND);
+        }
+
+        assertThat(limiter.getLimit(), is(10));
+    }
+
+    @Test
+    public void testDroppedRequestReducesLimit() {
+        settings.setMinLimit(8);
+        final AdaptiveConcurrencyLimiter limiter = createLimiter();
+
+        limiter.onDropped();
+        assertThat(limiter.getLimit(), is(9));
+
+        for (int ii = 0; ii < 10; ii++) {
+            limiter.onDropped();
+        }
+        assertThat(limiter.getLimit(), is(8));
+    }
+
+    @Test
+    public void testLimitIsCappedAtMaxLimit() throws Exception {
+        settings.setMaxLimit(12);
+        final AdaptiveConcurrencyLimiter limiter = createLimiter();
+        acquire(limiter, 10);
+
+        for (int ii = 0; ii < 100; ii++) {
+            limiter.onSuccess(MILLISECOND);
+        }
+
+        assertThat(limiter.getLimit(), is(12));
+    }
+
+    @Test
+    public void testShedWhenQueueIsFull() throws Exception {
+        settings.setMaxQueueSize(0);
+        final AdaptiveConcurrencyLimiter limiter = createLimiter();
+        acquire(limiter, 10);
+
+        assertThat(limiter.tryAcquire(), is(false));
+        assertThat(limiter.getShedCount(), is(1L));
+        assertThat(limiter.getInFlight(), is(10));
+    }
+
+    @Test(timeout = 10000)
+    public void testQueuedRequestIsLetThroughOnRelease() throws Exception {
+        settings.setInitialLimit(1);
+        settings.setMaxQueueTime(5000);
+        final AdaptiveConcurrencyLimiter limiter = createLimiter();
+        acquire(limiter, 1);
+
+        final CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return limiter.tryAcquire();
+            } catch (final InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (limiter.getQueued() == 0) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+
+        limiter.release();
+        assertThat(queued.get(), is(true));
+        assertThat(limiter.getInFlight(), is(1));
+        assertThat(limiter.getQueued(), is(0));
+    }
+
+    @Test(timeout = 10000)
+    public void testQueuedRequestIsShedAfterMaxQueueTime() throws Exception {
+        settings.setInitialLimit(1);
+        settings.setMaxQueueTime(20);
+        final AdaptiveConcurrencyLimiter limiter = createLimiter();
+        acquire(limiter, 1);
+
+        final long start = System.nanoTime();
+        assertThat(limiter.tryAcquire(), is(false));
+        assertThat(System.nanoTime() - start, is(greaterThanOrEqualTo(20 * MILLISECOND)));
+        assertThat(limiter.getQueued(), is(0));
+        assertThat(limiter.getShedCount(), is(1L));
+    }
+
+}
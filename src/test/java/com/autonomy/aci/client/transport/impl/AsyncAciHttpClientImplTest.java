@@ -0,0 +1,382 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.TestEncryptionCodec;
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.transport.*;
+import com.autonomy.aci.client.util.ActionParameters;
+import com.autonomy.aci.client.util.IOUtils;
+import org.apache.hc.client5.http.async.HttpAsyncClient;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ConnectionClosedException;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EndpointDetails;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.HandlerFactory;
+import org.apache.hc.core5.http.nio.AsyncPushConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.H2ConnectionException;
+import org.apache.hc.core5.http2.H2Error;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.AsyncAciHttpClientImpl</code> class.
+ */
+public class AsyncAciHttpClientImplTest {
+
+    private AciServerDetails serverDetails;
+
+    private ActionParameters parameters;
+
+    @Before
+    public void createConnectionDetails() {
+        serverDetails = new AciServerDetails(AciServerDetails.TransportProtocol.HTTP, "localhost", 9000, "/content");
+        parameters = new ActionParameters(
+                new AciParameter(AciConstants.PARAM_ACTION, "query"),
+                new AciParameter("Text", "This is some text...")
+        );
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testExecuteActionNoParameters() {
+        new AsyncAciHttpClientImpl(mock(HttpAsyncClient.class)).executeActionAsync(serverDetails, null);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testExecuteActionNoHttpAsyncClient() {
+        new AsyncAciHttpClientImpl(null).executeActionAsync(serverDetails, parameters);
+    }
+
+    @Test
+    public void testExecuteActionCompleted() throws Exception {
+        final HttpAsyncClient httpAsyncClient = mockHttpAsyncClient(callback ->
+                callback.completed(SimpleHttpResponse.create(200, "<autnresponse/>".getBytes(StandardCharsets.UTF_8), ContentType.TEXT_XML)));
+
+        final AciResponseInputStream response = new AsyncAciHttpClientImpl(httpAsyncClient).executeActionAsync(serverDetails, parameters).get();
+
+        assertThat(response, is(instanceOf(AciResponseInputStreamImpl.class)));
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(response.getContentType(), startsWith("text/xml"));
+        assertThat(toString(response), is(equalTo("<autnresponse/>")));
+    }
+
+    @Test
+    public void testExecuteActionDecryptingResponse() throws Exception {
+        final HttpAsyncClient httpAsyncClient = mockHttpAsyncClient(callback -> {
+            try {
+                final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                IOUtils.getInstance().copy(getClass().getResourceAsStream("/com/autonomy/aci/client/transport/impl/EncryptedResponse.xml"), buffer);
+
+                final SimpleHttpResponse response = SimpleHttpResponse.create(200, buffer.toByteArray(), ContentType.TEXT_XML);
+                response.setHeader("AUTN-Content-Type", "text/xml");
+                callback.completed(response);
+            } catch (final IOException ioe) {
+                callback.failed(ioe);
+            }
+        });
+
+        serverDetails.setEncryptionCodec(new TestEncryptionCodec());
+
+        final AciResponseInputStream response = new AsyncAciHttpClientImpl(httpAsyncClient).executeActionAsync(serverDetails, parameters).get();
+        assertThat(response, is(instanceOf(DecryptingAciResponseInputStreamImpl.class)));
+        assertThat(response.getContentType(), is(equalTo("text/xml")));
+    }
+
+    @Test
+    public void testExecuteActionNon200StatusCode() throws Exception {
+        final HttpAsyncClient httpAsyncClient = mockHttpAsyncClient(callback -> callback.completed(SimpleHttpResponse.create(500)));
+
+        try {
+            new AsyncAciHttpClientImpl(httpAsyncClient).executeActionAsync(serverDetails, parameters).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(AciHttpException.class)));
+        }
+    }
+
+    @Test
+    public void testExecuteActionIOException() throws Exception {
+        final HttpAsyncClient httpAsyncClient = mockHttpAsyncClient(callback -> callback.failed(new IOException("JUnit test exception.")));
+
+        try {
+            new AsyncAciHttpClientImpl(httpAsyncClient).executeActionAsync(serverDetails, parameters).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(IOException.class)));
+        }
+    }
+
+    @Test
+    public void testExecuteActionEncryptionCodecException() throws Exception {
+        final EncryptionCodec mockEncryptionCodec = mock(EncryptionCodec.class);
+        when(mockEncryptionCodec.encrypt((byte[]) any())).thenThrow(new EncryptionCodecException("JUnit test exception."));
+        serverDetails.setEncryptionCodec(mockEncryptionCodec);
+
+        final HttpAsyncClient httpAsyncClient = mock(HttpAsyncClient.class);
+
+        try {
+            new AsyncAciHttpClientImpl(httpAsyncClient).executeActionAsync(serverDetails, parameters).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(AciHttpException.class)));
+        }
+
+        verifyNoInteractions(httpAsyncClient);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCancelAbortsExchange() {
+        final Future<SimpleHttpResponse> exchange = mock(Future.class);
+        final HttpAsyncClient httpAsyncClient = mock(HttpAsyncClient.class);
+        when(httpAsyncClient.execute(any(AsyncRequestProducer.class), any(AsyncResponseConsumer.class), any(), any(), any()))
+                .thenReturn((Future) exchange);
+
+        final CompletableFuture<AciResponseInputStream> result = new AsyncAciHttpClientImpl(httpAsyncClient).executeActionAsync(serverDetails, parameters);
+        result.cancel(true);
+
+        verify(exchange).cancel(true);
+    }
+
+    @Test
+    public void testFallbackToHttp1() throws Exception {
+        final HttpAsyncClient http2Client = mockHttpAsyncClient(callback -> callback.failed(new H2ConnectionException(H2Error.FRAME_SIZE_ERROR, "Frame size exceeds maximum")));
+        final HttpAsyncClient http1Client = mockHttpAsyncClient(callback ->
+                callback.completed(SimpleHttpResponse.create(200, "<autnresponse/>".getBytes(StandardCharsets.UTF_8), ContentType.TEXT_XML)));
+
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(http2Client);
+        aciHttpClient.setFallbackHttpAsyncClient(http1Client);
+
+        assertThat(toString(aciHttpClient.executeActionAsync(serverDetails, parameters).get()), is(equalTo("<autnresponse/>")));
+        assertThat(toString(aciHttpClient.executeActionAsync(serverDetails, parameters).get()), is(equalTo("<autnresponse/>")));
+
+        verify(http2Client, times(1)).execute(any(AsyncRequestProducer.class), any(AsyncResponseConsumer.class), any(), any(), any());
+        verify(http1Client, times(2)).execute(any(AsyncRequestProducer.class), any(AsyncResponseConsumer.class), any(), any(), any());
+    }
+
+    @Test
+    public void testReprobeAfterInterval() throws Exception {
+        final AtomicLong nanoTime = new AtomicLong();
+        final AtomicInteger calls = new AtomicInteger();
+        final HttpAsyncClient http2Client = mockHttpAsyncClient(callback -> {
+            if (calls.getAndIncrement() == 0) {
+                callback.failed(new H2ConnectionException(H2Error.FRAME_SIZE_ERROR, "Frame size exceeds maximum"));
+            } else {
+                callback.completed(SimpleHttpResponse.create(200, "<autnresponse/>".getBytes(StandardCharsets.UTF_8), ContentType.TEXT_XML));
+            }
+        });
+        final HttpAsyncClient http1Client = mockHttpAsyncClient(callback ->
+                callback.completed(SimpleHttpResponse.create(200, "<autnresponse/>".getBytes(StandardCharsets.UTF_8), ContentType.TEXT_XML)));
+
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(http2Client, nanoTime::get);
+        aciHttpClient.setFallbackHttpAsyncClient(http1Client);
+        aciHttpClient.setReprobeInterval(1000L);
+
+        aciHttpClient.executeActionAsync(serverDetails, parameters).get();
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(999L));
+        aciHttpClient.executeActionAsync(serverDetails, parameters).get();
+        verify(http2Client, times(1)).execute(any(AsyncRequestProducer.class), any(AsyncResponseConsumer.class), any(), any(), any());
+        verify(http1Client, times(2)).execute(any(AsyncRequestProducer.class), any(AsyncResponseConsumer.class), any(), any(), any());
+
+        // The server has since been upgraded...
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(1L));
+        aciHttpClient.executeActionAsync(serverDetails, parameters).get();
+        aciHttpClient.executeActionAsync(serverDetails, parameters).get();
+        verify(http2Client, times(3)).execute(any(AsyncRequestProducer.class), any(AsyncResponseConsumer.class), any(), any(), any());
+        verify(http1Client, times(2)).execute(any(AsyncRequestProducer.class), any(AsyncResponseConsumer.class), any(), any(), any());
+    }
+
+    @Test
+    public void testFallbackWhenConnectionClosedBeforeRequestWritten() throws Exception {
+        final HttpAsyncClient http2Client = mockHttpAsyncClient(callback -> callback.failed(new ConnectionClosedException()));
+        final HttpAsyncClient http1Client = mockHttpAsyncClient(callback ->
+                callback.completed(SimpleHttpResponse.create(200, "<autnresponse/>".getBytes(StandardCharsets.UTF_8), ContentType.TEXT_XML)));
+
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(http2Client);
+        aciHttpClient.setFallbackHttpAsyncClient(http1Client);
+
+        assertThat(toString(aciHttpClient.executeActionAsync(serverDetails, parameters).get()), is(equalTo("<autnresponse/>")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNoFallbackForConnectionClosedAfterRequestWritten() throws Exception {
+        final HttpAsyncClient http2Client = mock(HttpAsyncClient.class);
+        when(http2Client.execute(any(AsyncRequestProducer.class), any(AsyncResponseConsumer.class), (HandlerFactory<AsyncPushConsumer>) any(), (HttpContext) any(), any(FutureCallback.class)))
+                .thenAnswer(invocation -> {
+                    // What the connection does when it gives the request a stream...
+                    invocation.<HttpContext>getArgument(3).setAttribute(HttpCoreContext.CONNECTION_ENDPOINT, mock(EndpointDetails.class));
+                    invocation.<FutureCallback<SimpleHttpResponse>>getArgument(4).failed(new ConnectionClosedException());
+                    return mock(Future.class);
+                });
+        final HttpAsyncClient http1Client = mock(HttpAsyncClient.class);
+
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(http2Client);
+        aciHttpClient.setFallbackHttpAsyncClient(http1Client);
+
+        try {
+            aciHttpClient.executeActionAsync(serverDetails, parameters).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(ConnectionClosedException.class)));
+        }
+
+        verifyNoInteractions(http1Client);
+    }
+
+    @Test
+    public void testNonIdempotentRequestIsNotProbed() throws Exception {
+        final HttpAsyncClient http2Client = mock(HttpAsyncClient.class);
+        final HttpAsyncClient http1Client = mockHttpAsyncClient(callback ->
+                callback.completed(SimpleHttpResponse.create(200, "<autnresponse/>".getBytes(StandardCharsets.UTF_8), ContentType.TEXT_XML)));
+
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(http2Client);
+        aciHttpClient.setFallbackHttpAsyncClient(http1Client);
+        aciHttpClient.setUsePostMethod(true);
+
+        assertThat(toString(aciHttpClient.executeActionAsync(serverDetails, parameters).get()), is(equalTo("<autnresponse/>")));
+
+        verifyNoInteractions(http2Client);
+    }
+
+    @Test
+    public void testNoFallbackOnceServerHasAnsweredOverHttp2() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final HttpAsyncClient http2Client = mockHttpAsyncClient(callback -> {
+            if (calls.getAndIncrement() == 0) {
+                callback.completed(SimpleHttpResponse.create(200, "<autnresponse/>".getBytes(StandardCharsets.UTF_8), ContentType.TEXT_XML));
+            } else {
+                callback.failed(new ConnectionClosedException());
+            }
+        });
+        final HttpAsyncClient http1Client = mock(HttpAsyncClient.class);
+
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(http2Client);
+        aciHttpClient.setFallbackHttpAsyncClient(http1Client);
+        aciHttpClient.executeActionAsync(serverDetails, parameters).get();
+
+        try {
+            aciHttpClient.executeActionAsync(serverDetails, parameters).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(ConnectionClosedException.class)));
+        }
+
+        verifyNoInteractions(http1Client);
+    }
+
+    @Test
+    public void testNoFallbackForConnectFailure() throws Exception {
+        final HttpAsyncClient http2Client = mockHttpAsyncClient(callback -> callback.failed(new ConnectException("JUnit test exception.")));
+        final HttpAsyncClient http1Client = mock(HttpAsyncClient.class);
+
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(http2Client);
+        aciHttpClient.setFallbackHttpAsyncClient(http1Client);
+
+        try {
+            aciHttpClient.executeActionAsync(serverDetails, parameters).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(ConnectException.class)));
+        }
+
+        verifyNoInteractions(http1Client);
+    }
+
+    @Test
+    public void testExpiredDeadlineIsNotSent() throws InterruptedException {
+        final HttpAsyncClient httpAsyncClient = mock(HttpAsyncClient.class);
+        parameters.setDeadline(Deadline.after(0, TimeUnit.MILLISECONDS));
+
+        try {
+            new AsyncAciHttpClientImpl(httpAsyncClient).executeActionAsync(serverDetails, parameters).get();
+            fail("Should have thrown an ExecutionException.");
+        } catch (final ExecutionException ee) {
+            assertThat(ee.getCause(), is(instanceOf(DeadlineExceededException.class)));
+        }
+
+        verifyNoInteractions(httpAsyncClient);
+    }
+
+    @Test
+    @SuppressWarnings({"unchecked", "deprecation"})
+    public void testDeadlineLimitsTimeouts() throws Exception {
+        final HttpAsyncClient httpAsyncClient = mockHttpAsyncClient(callback ->
+                callback.completed(SimpleHttpResponse.create(200, "<autnresponse/>".getBytes(StandardCharsets.UTF_8), ContentType.TEXT_XML)));
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(httpAsyncClient);
+        aciHttpClient.setRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(100))
+                .setResponseTimeout(Timeout.ofMinutes(1))
+                .build());
+
+        parameters.setDeadline(Deadline.after(5, TimeUnit.SECONDS));
+        aciHttpClient.executeActionAsync(serverDetails, parameters).get();
+
+        final ArgumentCaptor<HttpContext> context = ArgumentCaptor.forClass(HttpContext.class);
+        verify(httpAsyncClient).execute(any(AsyncRequestProducer.class), any(AsyncResponseConsumer.class), (HandlerFactory<AsyncPushConsumer>) any(), context.capture(), any(FutureCallback.class));
+        final RequestConfig config = ((HttpClientContext) context.getValue()).getRequestConfig();
+
+        assertThat(config.getConnectionRequestTimeout(), is(equalTo(Timeout.ofMilliseconds(100))));
+        assertThat(config.getConnectTimeout().toMilliseconds(), is(allOf(greaterThan(4000L), lessThanOrEqualTo(5000L))));
+        assertThat(config.getResponseTimeout().toMilliseconds(), is(allOf(greaterThan(4000L), lessThanOrEqualTo(5000L))));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static HttpAsyncClient mockHttpAsyncClient(final Consumer<FutureCallback<SimpleHttpResponse>> behaviour) {
+        final HttpAsyncClient httpAsyncClient = mock(HttpAsyncClient.class);
+        when(httpAsyncClient.execute(any(AsyncRequestProducer.class), any(AsyncResponseConsumer.class), (HandlerFactory<AsyncPushConsumer>) any(), (HttpContext) any(), any(FutureCallback.class)))
+                .thenAnswer(invocation -> {
+                    behaviour.accept(invocation.getArgument(4));
+                    return mock(Future.class);
+                });
+        return httpAsyncClient;
+    }
+
+    private static String toString(final AciResponseInputStream response) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        IOUtils.getInstance().copy(response, buffer);
+        return buffer.toString("UTF-8");
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.transport.AciHttpClient;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.CircuitBreaker</code> class.
+ */
+public class CircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private final AciServerDetails serverDetails = new AciServerDetails("localhost", 9000);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private CircuitBreakerListener mockListener;
+
+    private CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() {
+        mockListener = mock(CircuitBreakerListener.class);
+
+        final CircuitBreakingAciHttpClient settings = new CircuitBreakingAciHttpClient(mock(AciHttpClient.class), clock::get);
+        settings.setSlidingWindowSize(10);
+        settings.setMinimumNumberOfCalls(4);
+        settings.setSlowCallDuration(100);
+        settings.setOpenDuration(1000);
+        settings.setPermittedCallsInHalfOpenState(2);
+        settings.addListener(mockListener);
+
+        circuitBreaker = new CircuitBreaker(serverDetails, settings, clock::get);
+    }
+
+    private void advance(final long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private void open() {
+        for (int ii = 0; ii < 4; ii++) {
+            assertThat(circuitBreaker.tryAcquire(), is(true));
+            circuitBreaker.onFailure(FAST);
+        }
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void testStaysClosedBelowMinimumNumberOfCalls() {
+        for (int ii = 0; ii < 3; ii++) {
+            assertThat(circuitBreaker.tryAcquire(), is(true));
+            circuitBreaker.onFailure(FAST);
+        }
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.getFailureRate(), is(100.0f));
+    }
+
+    @Test
+    public void testStaysClosedBelowThresholds() {
+        circuitBreaker.onSuccess(FAST);
+        circuitBreaker.onSuccess(SLOW);
+        circuitBreaker.onSuccess(FAST);
+        circuitBreaker.onFailure(FAST);
+        circuitBreaker.onSuccess(FAST);
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.getFailureRate(), is(20.0f));
+        assertThat(circuitBreaker.getSlowCallRate(), is(20.0f));
+    }
+
+    @Test
+    public void testOpensOnFailureRate() {
+        circuitBreaker.onSuccess(FAST);
+        circuitBreaker.onFailure(FAST);
+        circuitBreaker.onSuccess(FAST);
+        circuitBreaker.onFailure(FAST);
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        verify(mockListener).onStateTransition(serverDetails, CircuitBreaker.State.CLOSED, CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void testOpensOnSlowCallRate() {
+        circuitBreaker.onSuccess(SLOW);
+        circuitBreaker.onSuccess(FAST);
+        circuitBreaker.onSuccess(SLOW);
+        circuitBreaker.onSuccess(FAST);
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void testOldOutcomesLeaveTheWindow() {
+        for (int ii = 0; ii < 4; ii++) {
+            circuitBreaker.onSuccess(FAST);
+        }
+        for (int ii = 0; ii < 3; ii++) {
+            circuitBreaker.onFailure(FAST);
+        }
+        for (int ii = 0; ii < 10; ii++) {
+            circuitBreaker.onSuccess(FAST);
+        }
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.getFailureRate(), is(0.0f));
+    }
+
+    @Test
+    public void testRejectsWhileOpen() {
+        open();
+        advance(999);
+
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+        verify(mockListener).onRejected(serverDetails);
+    }
+
+    @Test
+    public void testHalfOpenClosesAfterHealthyTrialCalls() {
+        open();
+        advance(1000);
+
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat("Only the permitted trial calls should be let through", circuitBreaker.tryAcquire(), is(false));
+
+        circuitBreaker.onSuccess(FAST);
+        circuitBreaker.onSuccess(FAST);
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        verify(mockListener).onStateTransition(serverDetails, CircuitBreaker.State.CLOSED, CircuitBreaker.State.OPEN);
+        verify(mockListener).onStateTransition(serverDetails, CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN);
+        verify(mockListener).onStateTransition(serverDetails, CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.CLOSED);
+        verify(mockListener).onRejected(serverDetails);
+        verifyNoMoreInteractions(mockListener);
+    }
+
+    @Test
+    public void testHalfOpenReopensAfterUnhealthyTrialCalls() {
+        open();
+        advance(1000);
+
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        circuitBreaker.onSuccess(FAST);
+        circuitBreaker.onFailure(FAST);
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+    }
+
+    @Test
+    public void testTrialCallsAreLimitedToSlidingWindow() {
+        final CircuitBreakingAciHttpClient settings = new CircuitBreakingAciHttpClient(mock(AciHttpClient.class), clock::get);
+        settings.setSlidingWindowSize(2);
+        settings.setMinimumNumberOfCalls(2);
+        settings.setOpenDuration(1000);
+        circuitBreaker = new CircuitBreaker(serverDetails, settings, clock::get);
+
+        for (int ii = 0; ii < 2; ii++) {
+            assertThat(circuitBreaker.tryAcquire(), is(true));
+            circuitBreaker.onFailure(FAST);
+        }
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        advance(1000);
+
+        // The default of 3 trial calls could never all be recorded in a window of 2...
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(circuitBreaker.tryAcquire(), is(false));
+        circuitBreaker.onSuccess(FAST);
+        circuitBreaker.onSuccess(FAST);
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void testIgnoredTrialCallReturnsPermit() {
+        open();
+        advance(1000);
+
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+        circuitBreaker.onIgnored();
+
+        assertThat(circuitBreaker.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void testLateOutcomesAreIgnoredWhileOpen() {
+        open();
+        circuitBreaker.onSuccess(FAST);
+
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.getFailureRate(), is(0.0f));
+    }
+
+}
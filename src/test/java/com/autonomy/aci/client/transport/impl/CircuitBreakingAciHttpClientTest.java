@@ -0,0 +1,189 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.CircuitBreakerOpenException;
+import com.autonomy.aci.client.transport.AciHttpClient;
+import com.autonomy.aci.client.transport.AciHttpException;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.CircuitBreakingAciHttpClient</code> class.
+ */
+public class CircuitBreakingAciHttpClientTest {
+
+    private final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "GetStatus"));
+
+    private final AciServerDetails server1 = new AciServerDetails("server1", 9000);
+
+    private final AciServerDetails server2 = new AciServerDetails("server2", 9000);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private AciHttpClient mockAciHttpClient;
+
+    private CircuitBreakingAciHttpClient client;
+
+    @Before
+    public void setUp() {
+        mockAciHttpClient = mock(AciHttpClient.class);
+
+        client = new CircuitBreakingAciHttpClient(mockAciHttpClient, clock::get);
+        client.setMinimumNumberOfCalls(2);
+        client.setSlowCallDuration(100);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullAciHttpClient() {
+        new CircuitBreakingAciHttpClient(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidFailureRateThreshold() {
+        client.setFailureRateThreshold(101);
+    }
+
+    @Test
+    public void testExecuteAction() throws Exception {
+        final AciResponseInputStream response = mock(AciResponseInputStream.class);
+        when(mockAciHttpClient.executeAction(server1, parameters)).thenReturn(response);
+
+        assertThat(client.executeAction(server1, parameters), is(sameInstance(response)));
+        assertThat(client.getState(server1), is(CircuitBreaker.State.CLOSED));
+        assertThat(client.getCircuitBreakers(), hasSize(1));
+    }
+
+    @Test
+    public void testFailuresOpenOnlyThatServer() throws Exception {
+        when(mockAciHttpClient.executeAction(eq(server1), anySet())).thenThrow(new IOException("JUnit test exception."));
+        when(mockAciHttpClient.executeAction(eq(server2), anySet())).thenReturn(mock(AciResponseInputStream.class));
+
+        for (int ii = 0; ii < 2; ii++) {
+            try {
+                client.executeAction(server1, parameters);
+                fail("Should have thrown an IOException.");
+            } catch (final IOException ioe) {
+                // Expected...
+            }
+        }
+
+        try {
+            client.executeAction(server1, parameters);
+            fail("Should have thrown a CircuitBreakerOpenException.");
+        } catch (final CircuitBreakerOpenException cboe) {
+            assertThat(cboe.getHost(), is(equalTo("server1")));
+            assertThat(cboe.getPort(), is(9000));
+        }
+
+        assertThat(client.getState(server1), is(CircuitBreaker.State.OPEN));
+        assertThat(client.getState(server2), is(CircuitBreaker.State.CLOSED));
+        client.executeAction(server2, parameters);
+
+        verify(mockAciHttpClient, times(2)).executeAction(eq(server1), anySet());
+    }
+
+    @Test
+    public void testProtocolErrorsAreFailures() throws Exception {
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenThrow(new AciHttpException("JUnit test exception."));
+
+        for (int ii = 0; ii < 2; ii++) {
+            try {
+                client.executeAction(server1, parameters);
+                fail("Should have thrown an AciHttpException.");
+            } catch (final AciHttpException ahe) {
+                // Expected...
+            }
+        }
+
+        assertThat(client.getState(server1), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void testSlowCallsOpen() throws Exception {
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenAnswer(invocation -> {
+            clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(150));
+            return mock(AciResponseInputStream.class);
+        });
+
+        client.executeAction(server1, parameters);
+        client.executeAction(server1, parameters);
+
+        assertThat(client.getState(server1), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void testRuntimeExceptionsAreIgnored() throws Exception {
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenThrow(new IllegalStateException("JUnit test exception."));
+
+        for (int ii = 0; ii < 3; ii++) {
+            try {
+                client.executeAction(server1, parameters);
+                fail("Should have thrown an IllegalStateException.");
+            } catch (final IllegalStateException ise) {
+                // Expected...
+            }
+        }
+
+        assertThat(client.getState(server1), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void testCircuitBreakerKeyIsCopied() throws Exception {
+        final AciServerDetails mutable = new AciServerDetails("server1", 9000);
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenReturn(mock(AciResponseInputStream.class));
+
+        client.executeAction(mutable, parameters);
+        mutable.setHost("changed");
+
+        assertThat(client.getCircuitBreaker(server1).getServerDetails(), is(equalTo(server1)));
+        assertThat(client.getCircuitBreakers(), hasSize(1));
+    }
+
+    @Test
+    public void testListenerIsNotified() throws Exception {
+        final CircuitBreakerListener mockListener = mock(CircuitBreakerListener.class);
+        client.addListener(mockListener);
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenThrow(new IOException("JUnit test exception."));
+
+        for (int ii = 0; ii < 3; ii++) {
+            try {
+                client.executeAction(server1, parameters);
+            } catch (final IOException | CircuitBreakerOpenException e) {
+                // Expected...
+            }
+        }
+
+        verify(mockListener).onStateTransition(server1, CircuitBreaker.State.CLOSED, CircuitBreaker.State.OPEN);
+        verify(mockListener).onRejected(server1);
+    }
+
+}
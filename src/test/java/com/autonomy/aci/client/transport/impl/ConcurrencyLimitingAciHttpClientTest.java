@@ -0,0 +1,163 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.ConcurrencyLimitExceededException;
+import com.autonomy.aci.client.transport.AciHttpClient;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.ConcurrencyLimitingAciHttpClient</code> class.
+ */
+public class ConcurrencyLimitingAciHttpClientTest {
+
+    private final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+
+    private final AciServerDetails server1 = new AciServerDetails("server1", 9000);
+
+    private final AciServerDetails server2 = new AciServerDetails("server2", 9000);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private AciHttpClient mockAciHttpClient;
+
+    private ConcurrencyLimitingAciHttpClient client;
+
+    @Before
+    public void setUp() {
+        mockAciHttpClient = mock(AciHttpClient.class);
+
+        client = new ConcurrencyLimitingAciHttpClient(mockAciHttpClient, clock::get);
+        client.setMaxQueueTime(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullAciHttpClient() {
+        new ConcurrencyLimitingAciHttpClient(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBackoffRatio() {
+        client.setBackoffRatio(1);
+    }
+
+    @Test
+    public void testPermitIsHeldUntilResponseIsClosed() throws Exception {
+        final AciResponseInputStream response = mock(AciResponseInputStream.class);
+        when(response.getContentType()).thenReturn("text/xml");
+        when(mockAciHttpClient.executeAction(server1, parameters)).thenReturn(response);
+
+        final AdaptiveConcurrencyLimiter limiter = client.getLimiter(server1);
+        try (final AciResponseInputStream wrapped = client.executeAction(server1, parameters)) {
+            assertThat(wrapped.getContentType(), is(equalTo("text/xml")));
+            assertThat(limiter.getInFlight(), is(1));
+        }
+        assertThat(limiter.getInFlight(), is(0));
+
+        verify(response).close();
+    }
+
+    @Test
+    public void testClosingTwiceReleasesOnce() throws Exception {
+        when(mockAciHttpClient.executeAction(eq(server1), anySet())).thenAnswer(invocation -> mock(AciResponseInputStream.class));
+
+        final AciResponseInputStream first = client.executeAction(server1, parameters);
+        final AciResponseInputStream second = client.executeAction(server1, parameters);
+        first.close();
+        first.close();
+
+        assertThat(client.getLimiter(server1).getInFlight(), is(1));
+        second.close();
+        assertThat(client.getLimiter(server1).getInFlight(), is(0));
+    }
+
+    @Test
+    public void testExcessRequestsAreShed() throws Exception {
+        client.setInitialLimit(1);
+        when(mockAciHttpClient.executeAction(anyAciServerDetails(), anySet())).thenAnswer(invocation -> mock(AciResponseInputStream.class));
+
+        final AciResponseInputStream response = client.executeAction(server1, parameters);
+
+        try {
+            client.executeAction(server1, parameters);
+            fail("Should have thrown a ConcurrencyLimitExceededException.");
+        } catch (final ConcurrencyLimitExceededException clee) {
+            assertThat(clee.getHost(), is(equalTo("server1")));
+            assertThat(clee.getPort(), is(9000));
+            assertThat(clee.getLimit(), is(1));
+        }
+
+        // Each server has its own limit...
+        client.executeAction(server2, parameters).close();
+        assertThat(client.getLimiters(), hasSize(2));
+
+        response.close();
+        client.executeAction(server1, parameters).close();
+        verify(mockAciHttpClient, times(2)).executeAction(eq(server1), anySet());
+        assertThat(client.getLimiter(server1).getShedCount(), is(1L));
+    }
+
+    @Test
+    public void testFailureReducesLimit() throws Exception {
+        when(mockAciHttpClient.executeAction(eq(server1), anySet())).thenThrow(new IOException("JUnit test exception."));
+
+        try {
+            client.executeAction(server1, parameters);
+            fail("Should have thrown an IOException.");
+        } catch (final IOException ioe) {
+            // Expected...
+        }
+
+        assertThat(client.getLimiter(server1).getLimit(), is(18));
+        assertThat(client.getLimiter(server1).getInFlight(), is(0));
+    }
+
+    @Test
+    public void testRuntimeExceptionOnlyReleasesPermit() throws Exception {
+        when(mockAciHttpClient.executeAction(eq(server1), anySet())).thenThrow(new IllegalStateException("JUnit test exception."));
+
+        try {
+            client.executeAction(server1, parameters);
+            fail("Should have thrown an IllegalStateException.");
+        } catch (final IllegalStateException ise) {
+            // Expected...
+        }
+
+        assertThat(client.getLimiter(server1).getLimit(), is(20));
+        assertThat(client.getLimiter(server1).getInFlight(), is(0));
+    }
+
+    private static AciServerDetails anyAciServerDetails() {
+        return any(AciServerDetails.class);
+    }
+
+}
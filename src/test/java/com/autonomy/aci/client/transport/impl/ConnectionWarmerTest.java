@@ -0,0 +1,205 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.impl.bootstrap.HttpServer;
+import org.apache.hc.core5.http.impl.bootstrap.ServerBootstrap;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.ConnectionWarmer</code> class, run against an
+ * in-process HTTP server.
+ */
+public class ConnectionWarmerTest {
+
+    private final List<String> getVersions = new CopyOnWriteArrayList<>();
+
+    private final Set<SocketAddress> clients = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean failGetVersion;
+
+    private HttpServer server;
+
+    private AciServerDetails serverDetails;
+
+    @Before
+    public void setUp() throws Exception {
+        server = ServerBootstrap.bootstrap()
+                .setLocalAddress(InetAddress.getLoopbackAddress())
+                .register("*", (request, response, context) -> {
+                    clients.add(HttpCoreContext.adapt(context).getEndpointDetails().getRemoteAddress());
+                    if (request.getRequestUri().contains("action=GetVersion")) {
+                        getVersions.add(request.getFirstHeader("Host").getValue());
+                        if (failGetVersion) {
+                            response.setCode(HttpStatus.SC_SERVICE_UNAVAILABLE);
+                        }
+                    }
+                    response.setEntity(new StringEntity("<autnresponse/>", ContentType.TEXT_XML));
+                })
+                .create();
+        server.start();
+        serverDetails = new AciServerDetails(InetAddress.getLoopbackAddress().getHostAddress(), server.getLocalPort());
+    }
+
+    @After
+    public void tearDown() {
+        server.close(CloseMode.IMMEDIATE);
+    }
+
+    @Test
+    public void testWarmUpAtStartup() throws Exception {
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setWarmUpServers(Collections.singletonList(serverDetails));
+        factory.setWarmUpConnections(3);
+        factory.setValidateWarmUpConnections(true);
+
+        try (final CloseableHttpClient httpClient = (CloseableHttpClient) factory.createInstance()) {
+            final ConnectionWarmUpReport report = factory.getWarmUpReport();
+            assertThat(report.getOpened(), is(3));
+            assertThat(report.getFailed(), is(0));
+            assertThat(report.getServers(), hasSize(1));
+            assertThat(report.getServers().get(0).getRequested(), is(3));
+            assertThat(report.getElapsedMillis(), is(greaterThanOrEqualTo(0L)));
+
+            assertThat(getVersions, contains(serverDetails.getHost() + ':' + serverDetails.getPort(), serverDetails.getHost() + ':' + serverDetails.getPort(), serverDetails.getHost() + ':' + serverDetails.getPort()));
+            assertThat("Each GetVersion should be sent on its own connection", clients, hasSize(3));
+
+            final ConnectionPoolMetrics metrics = factory.getConnectionPoolMetrics();
+            assertThat(metrics.getAvailable(), is(3));
+            assertThat("Warming up shouldn't count as a lease", metrics.getLeaseCount(), is(0L));
+
+            // A request should reuse one of the warm connections...
+            httpClient.execute(new HttpGet(serverDetails.getRequestPrototype().getBaseUri() + "?action=Query"), response -> EntityUtils.toString(response.getEntity()));
+            assertThat(clients, hasSize(3));
+            assertThat(metrics.getAvailable(), is(3));
+        }
+    }
+
+    @Test
+    public void testWarmUpWithoutValidation() throws Exception {
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setWarmUpServers(Collections.singletonList(serverDetails));
+        factory.setWarmUpConnections(2);
+
+        try (final CloseableHttpClient ignored = (CloseableHttpClient) factory.createInstance()) {
+            assertThat(factory.getWarmUpReport().getOpened(), is(2));
+            assertThat(getVersions, is(empty()));
+            assertThat(factory.getConnectionPoolMetrics().getAvailable(), is(2));
+        }
+    }
+
+    @Test
+    public void testWarmUpIsCappedAtConnectionLimit() throws Exception {
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setMaxConnectionsPerRoute(2);
+
+        try (final CloseableHttpClient ignored = (CloseableHttpClient) factory.createInstance()) {
+            final ConnectionWarmUpReport report = factory.getConnectionWarmer().warmUp(Collections.singletonList(serverDetails), 5);
+            assertThat(report.getServers().get(0).getRequested(), is(2));
+            assertThat(report.getOpened(), is(2));
+
+            // Warming up again shouldn't open any more...
+            assertThat(factory.getConnectionWarmer().warmUp(Collections.singletonList(serverDetails), 2).getOpened(), is(0));
+            assertThat(factory.getConnectionPoolMetrics().getAvailable(), is(2));
+        }
+    }
+
+    @Test
+    public void testFailedValidationIsReported() throws Exception {
+        failGetVersion = true;
+
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setValidateWarmUpConnections(true);
+
+        try (final CloseableHttpClient ignored = (CloseableHttpClient) factory.createInstance()) {
+            final ConnectionWarmUpReport report = factory.getConnectionWarmer().warmUp(Collections.singletonList(serverDetails), 2);
+            assertThat(report.getOpened(), is(0));
+            assertThat(report.getFailed(), is(2));
+            assertThat(factory.getConnectionPoolMetrics().getAvailable(), is(0));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testUnreachableServerIsReported() throws Exception {
+        final int port;
+        try (final ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        final AciServerDetails unreachable = new AciServerDetails(InetAddress.getLoopbackAddress().getHostAddress(), port);
+
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setWarmUpServers(Arrays.asList(unreachable, serverDetails));
+
+        try (final CloseableHttpClient ignored = (CloseableHttpClient) factory.createInstance()) {
+            final ConnectionWarmUpReport report = factory.getWarmUpReport();
+            assertThat(report.getServers().get(0).getFailed(), is(1));
+            assertThat(report.getServers().get(0).getOpened(), is(0));
+            assertThat(report.getServers().get(1).getOpened(), is(1));
+            assertThat(report.toString(), containsString(":" + port + " opened 0 of 1 connections (1 failed)"));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testMinIdleIsMaintained() throws Exception {
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setWarmUpServers(Collections.singletonList(serverDetails));
+        factory.setMinIdleConnections(3);
+        factory.setMinIdleCheckInterval(20);
+
+        try (final CloseableHttpClient ignored = (CloseableHttpClient) factory.createInstance()) {
+            assertThat(factory.getWarmUpReport().getOpened(), is(1));
+
+            final ConnectionPoolMetrics metrics = factory.getConnectionPoolMetrics();
+            while (metrics.getAvailable() < 3) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            assertThat(metrics.getLeaseCount(), is(0L));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosingClientClosesWarmer() throws Exception {
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        ((CloseableHttpClient) factory.createInstance()).close();
+
+        factory.getConnectionWarmer().maintainMinIdle(Collections.singletonList(serverDetails), 1, 1000);
+    }
+
+}
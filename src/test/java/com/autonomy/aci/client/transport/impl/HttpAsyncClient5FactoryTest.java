@@ -0,0 +1,224 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.util.ActionParameters;
+import com.autonomy.aci.client.util.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.nio.support.BasicResponseProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOSession;
+import org.apache.hc.core5.reactor.IOSessionListener;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.HttpAsyncClient5Factory</code> class. The HTTP/2
+ * tests are run against in-process stand-ins for ACI servers, which echo the protocol version each action was sent with.
+ */
+public class HttpAsyncClient5FactoryTest {
+
+    private final ActionParameters parameters = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+
+    private final List<AutoCloseable> closeables = new ArrayList<>();
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    @After
+    public void tearDown() throws Exception {
+        for (final AutoCloseable closeable : closeables) {
+            closeable.close();
+        }
+    }
+
+    @Test
+    public void testToStringIncludesHttp2Settings() {
+        final HttpAsyncClient5Factory factory = new HttpAsyncClient5Factory();
+        factory.setHttp2Enabled(true);
+        factory.setHttp2InitialWindowSize(1048576);
+
+        assertThat(factory.toString(), containsString("http2Enabled=true"));
+        assertThat(factory.toString(), containsString("http2InitialWindowSize=1048576"));
+    }
+
+    @Test(timeout = 30000)
+    public void testHttp1ByDefault() throws Exception {
+        final AciServerDetails serverDetails = startServer(HttpVersionPolicy.NEGOTIATE, "");
+
+        assertThat(execute(new AsyncAciHttpClientImpl(createClient(new HttpAsyncClient5Factory())), serverDetails), is(equalTo("HTTP/1.1")));
+    }
+
+    @Test(timeout = 30000)
+    public void testHttp2MultiplexesActions() throws Exception {
+        final AciServerDetails serverDetails = startServer(HttpVersionPolicy.FORCE_HTTP_2, "");
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(createClient(http2Factory()));
+
+        final List<CompletableFuture<AciResponseInputStream>> responses = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            responses.add(aciHttpClient.executeActionAsync(serverDetails, parameters));
+        }
+
+        for (final CompletableFuture<AciResponseInputStream> response : responses) {
+            assertThat(toString(response.get(10, TimeUnit.SECONDS)), is(equalTo("HTTP/2.0")));
+        }
+
+        assertThat("Every action should share one connection", connections.get(), is(1));
+    }
+
+    @Test(timeout = 30000)
+    public void testHttp2WithSmallWindow() throws Exception {
+        final String padding = StringUtils.repeat('x', 200000);
+        final AciServerDetails serverDetails = startServer(HttpVersionPolicy.FORCE_HTTP_2, padding);
+
+        final HttpAsyncClient5Factory factory = http2Factory();
+        factory.setHttp2InitialWindowSize(16384);
+        factory.setHttp2MaxFrameSize(16384);
+
+        assertThat(execute(new AsyncAciHttpClientImpl(createClient(factory)), serverDetails), is(equalTo("HTTP/2.0" + padding)));
+    }
+
+    @Test(timeout = 30000)
+    public void testHttp2FallsBackToHttp1() throws Exception {
+        final AciServerDetails serverDetails = startServer(HttpVersionPolicy.FORCE_HTTP_1, "");
+
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(createClient(http2Factory()));
+        aciHttpClient.setFallbackHttpAsyncClient(createClient(new HttpAsyncClient5Factory()));
+
+        assertThat(execute(aciHttpClient, serverDetails), is(equalTo("HTTP/1.1")));
+        assertThat(execute(aciHttpClient, serverDetails), is(equalTo("HTTP/1.1")));
+    }
+
+    @Test(timeout = 30000)
+    public void testHttp2ServerIsNotSentHttp1WithFallback() throws Exception {
+        final AciServerDetails serverDetails = startServer(HttpVersionPolicy.FORCE_HTTP_2, "");
+
+        final AsyncAciHttpClientImpl aciHttpClient = new AsyncAciHttpClientImpl(createClient(http2Factory()));
+        aciHttpClient.setFallbackHttpAsyncClient(createClient(new HttpAsyncClient5Factory()));
+
+        assertThat(execute(aciHttpClient, serverDetails), is(equalTo("HTTP/2.0")));
+        assertThat(execute(aciHttpClient, serverDetails), is(equalTo("HTTP/2.0")));
+    }
+
+    private static HttpAsyncClient5Factory http2Factory() {
+        final HttpAsyncClient5Factory factory = new HttpAsyncClient5Factory();
+        factory.setHttp2Enabled(true);
+        factory.setIoThreadCount(1);
+        return factory;
+    }
+
+    private CloseableHttpAsyncClient createClient(final HttpAsyncClient5Factory factory) {
+        final CloseableHttpAsyncClient client = factory.createInstance();
+        closeables.add(client);
+        return client;
+    }
+
+    private String execute(final AsyncAciHttpClientImpl aciHttpClient, final AciServerDetails serverDetails) throws Exception {
+        return toString(aciHttpClient.executeActionAsync(serverDetails, parameters).get(10, TimeUnit.SECONDS));
+    }
+
+    private AciServerDetails startServer(final HttpVersionPolicy versionPolicy, final String padding) throws Exception {
+        final HttpAsyncServer server = H2ServerBootstrap.bootstrap()
+                .setVersionPolicy(versionPolicy)
+                .setIOSessionListener(new ConnectionCounter())
+                .register("*", new AsyncServerRequestHandler<Message<HttpRequest, String>>() {
+                    @Override
+                    public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(final HttpRequest request, final EntityDetails entityDetails, final HttpContext context) {
+                        return new BasicRequestConsumer<>((entityDetails == null) ? null : new StringAsyncEntityConsumer());
+                    }
+
+                    @Override
+                    public void handle(final Message<HttpRequest, String> message, final ResponseTrigger responseTrigger, final HttpContext context) throws IOException, HttpException {
+                        responseTrigger.submitResponse(new BasicResponseProducer(200, context.getProtocolVersion() + padding, ContentType.TEXT_XML), context);
+                    }
+                })
+                .create();
+        server.start();
+        closeables.add(() -> server.close(CloseMode.IMMEDIATE));
+
+        final ListenerEndpoint endpoint = server.listen(new InetSocketAddress("127.0.0.1", 0), URIScheme.HTTP).get();
+        return new AciServerDetails("127.0.0.1", ((InetSocketAddress) endpoint.getAddress()).getPort());
+    }
+
+    private static String toString(final AciResponseInputStream response) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        IOUtils.getInstance().copy(response, buffer);
+        return buffer.toString("UTF-8");
+    }
+
+    private class ConnectionCounter implements IOSessionListener {
+
+        @Override
+        public void connected(final IOSession session) {
+            connections.incrementAndGet();
+        }
+
+        @Override
+        public void startTls(final IOSession session) {
+        }
+
+        @Override
+        public void inputReady(final IOSession session) {
+        }
+
+        @Override
+        public void outputReady(final IOSession session) {
+        }
+
+        @Override
+        public void timeout(final IOSession session) {
+        }
+
+        @Override
+        public void exception(final IOSession session, final Exception ex) {
+        }
+
+        @Override
+        public void disconnected(final IOSession session) {
+        }
+    }
+
+}
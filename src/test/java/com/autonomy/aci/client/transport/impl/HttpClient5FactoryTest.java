@@ -0,0 +1,250 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.ConnectionRequestTimeoutException;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.impl.bootstrap.HttpServer;
+import org.apache.hc.core5.http.impl.bootstrap.ServerBootstrap;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.io.CloseMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.HttpClient5Factory</code> class, run against an
+ * in-process HTTP server.
+ */
+public class HttpClient5FactoryTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final CountDownLatch blocked = new CountDownLatch(1);
+
+    private HttpServer server;
+
+    private String uri;
+
+    @Before
+    public void setUp() throws Exception {
+        server = ServerBootstrap.bootstrap()
+                .setLocalAddress(InetAddress.getLoopbackAddress())
+                .register("/block", (request, response, context) -> {
+                    blocked.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    response.setEntity(new StringEntity("<autnresponse/>", ContentType.TEXT_XML));
+                })
+                .register("*", (request, response, context) -> response.setEntity(new StringEntity("<autnresponse/>", ContentType.TEXT_XML)))
+                .create();
+        server.start();
+        uri = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ':' + server.getLocalPort();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.close(CloseMode.IMMEDIATE);
+    }
+
+    @Test
+    public void testLeasesAreRecorded() throws Exception {
+        final AtomicInteger leases = new AtomicInteger();
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setConnectionPoolListener((route, waitNanos) -> leases.incrementAndGet());
+
+        try (final CloseableHttpClient httpClient = (CloseableHttpClient) factory.createInstance()) {
+            for (int i = 0; i < 3; i++) {
+                httpClient.execute(new HttpGet(uri + "/action"), response -> EntityUtils.toString(response.getEntity()));
+            }
+
+            final ConnectionPoolMetrics metrics = factory.getConnectionPoolMetrics();
+            assertThat(metrics.getLeaseCount(), is(3L));
+            assertThat(LongStream.of(metrics.getLeaseWaitHistogram()).sum(), is(3L));
+            assertThat(metrics.getLeaseWaitHistogram().length, is(metrics.getLeaseWaitBucketBounds().length + 1));
+            assertThat(metrics.getLeaseTimeoutCount(), is(0L));
+            assertThat(metrics.getLeased(), is(0));
+            assertThat(metrics.getAvailable(), is(1));
+            assertThat(metrics.getMax(), is(20));
+            assertThat(leases.get(), is(3));
+
+            final HttpRoute route = metrics.getRoutes().iterator().next();
+            assertThat(metrics.getStats(route).getMax(), is(4));
+            assertThat(LongStream.of(metrics.getLeaseWaitHistogram(route)).sum(), is(3L));
+
+            final Map<String, ConnectionPoolMetrics.RouteMetrics> routeMetrics = metrics.getRouteMetrics();
+            assertThat(routeMetrics.keySet(), contains(uri));
+            assertThat(routeMetrics.get(uri).getLeaseCount(), is(3L));
+            assertThat(routeMetrics.get(uri).getAvailable(), is(1));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testExhaustedPoolFailsFast() throws Exception {
+        final AtomicInteger timeouts = new AtomicInteger();
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setMaxConnectionsPerRoute(1);
+        factory.setConnectionRequestTimeout(100);
+        factory.setConnectionPoolListener(new ConnectionPoolListener() {
+            @Override
+            public void onLeased(final HttpRoute route, final long waitNanos) {
+            }
+
+            @Override
+            public void onLeaseTimeout(final HttpRoute route, final long waitNanos) {
+                assertThat(waitNanos, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100))));
+                timeouts.incrementAndGet();
+            }
+        });
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (final CloseableHttpClient httpClient = (CloseableHttpClient) factory.createInstance()) {
+            final Future<String> slow = executor.submit(() -> httpClient.execute(new HttpGet(uri + "/block"), response -> EntityUtils.toString(response.getEntity())));
+            assertThat(blocked.await(10, TimeUnit.SECONDS), is(true));
+
+            final ConnectionPoolMetrics metrics = factory.getConnectionPoolMetrics();
+            assertThat(metrics.getLeased(), is(1));
+
+            try {
+                httpClient.execute(new HttpGet(uri + "/action"), response -> EntityUtils.toString(response.getEntity()));
+                fail("Should have thrown a ConnectionRequestTimeoutException.");
+            } catch (final ConnectionRequestTimeoutException e) {
+                // Expected...
+            }
+
+            assertThat(metrics.getLeaseTimeoutCount(), is(1L));
+            assertThat(metrics.getRouteMetrics().get(uri).getLeaseTimeoutCount(), is(1L));
+            assertThat(timeouts.get(), is(1));
+
+            release.countDown();
+            assertThat(slow.get(10, TimeUnit.SECONDS), is(equalTo("<autnresponse/>")));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMetricsAreRegisteredWithJmx() throws Exception {
+        final ObjectName objectName = new ObjectName("com.autonomy.aci.client:type=ConnectionPool,name=HttpClient5FactoryTest");
+        final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setJmxObjectName(objectName.toString());
+
+        try (final CloseableHttpClient httpClient = (CloseableHttpClient) factory.createInstance()) {
+            httpClient.execute(new HttpGet(uri + "/action"), response -> EntityUtils.toString(response.getEntity()));
+
+            assertThat(mBeanServer.isRegistered(objectName), is(true));
+            assertThat(mBeanServer.getAttribute(objectName, "LeaseCount"), is(1L));
+            assertThat(mBeanServer.getAttribute(objectName, "Available"), is(1));
+            assertThat(mBeanServer.getAttribute(objectName, "RouteMetrics"), is(notNullValue()));
+        }
+
+        assertThat("Closing the client should unregister the MBean", mBeanServer.isRegistered(objectName), is(false));
+    }
+
+    @Test
+    public void testConnectionManagerIsClosedWhenJmxNameIsTaken() throws Exception {
+        final ObjectName objectName = new ObjectName("com.autonomy.aci.client:type=ConnectionPool,name=HttpClient5FactoryTestTaken");
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.setJmxObjectName(objectName.toString());
+
+        try (final CloseableHttpClient httpClient = (CloseableHttpClient) factory.createInstance()) {
+            final InstrumentedConnectionManager connectionManager = new InstrumentedConnectionManager(null,
+                    new RouteConfigResolver(new RouteProfiles(), 4, ConnectionConfig.DEFAULT, SocketConfig.DEFAULT));
+            final AtomicBoolean closed = new AtomicBoolean();
+            connectionManager.addCloseAction(() -> closed.set(true));
+
+            try {
+                HttpClient5Factory.registerMBean(connectionManager, objectName.toString());
+                fail("Should have thrown an IllegalStateException.");
+            } catch (final IllegalStateException ise) {
+                assertThat(closed.get(), is(true));
+            }
+
+            assertThat("The first client's MBean should still be registered", ManagementFactory.getPlatformMBeanServer().isRegistered(objectName), is(true));
+        }
+    }
+
+    @Test
+    public void testRouteProfileLimitsConnections() throws Exception {
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.getRouteProfiles().put(InetAddress.getLoopbackAddress().getHostAddress() + ":*", new RouteProfile(2));
+
+        try (final CloseableHttpClient httpClient = (CloseableHttpClient) factory.createInstance()) {
+            httpClient.execute(new HttpGet(uri + "/action"), response -> EntityUtils.toString(response.getEntity()));
+
+            final ConnectionPoolMetrics metrics = factory.getConnectionPoolMetrics();
+            final HttpRoute route = metrics.getRoutes().iterator().next();
+            assertThat(metrics.getStats(route).getMax(), is(2));
+
+            // Changes apply to the existing client from the next request...
+            factory.getRouteProfiles().put(InetAddress.getLoopbackAddress().getHostAddress() + ':' + server.getLocalPort(), new RouteProfile(8));
+            httpClient.execute(new HttpGet(uri + "/action"), response -> EntityUtils.toString(response.getEntity()));
+            assertThat(metrics.getStats(route).getMax(), is(8));
+
+            factory.getRouteProfiles().setProfiles(Collections.emptyMap());
+            httpClient.execute(new HttpGet(uri + "/action"), response -> EntityUtils.toString(response.getEntity()));
+            assertThat(metrics.getStats(route).getMax(), is(4));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testRouteProfileSoTimeout() throws Exception {
+        final RouteProfile profile = new RouteProfile();
+        profile.setSoTimeout(200);
+
+        final HttpClient5Factory factory = new HttpClient5Factory();
+        factory.getRouteProfiles().put(InetAddress.getLoopbackAddress().getHostAddress(), profile);
+
+        try (final CloseableHttpClient httpClient = (CloseableHttpClient) factory.createInstance()) {
+            httpClient.execute(new HttpGet(uri + "/block"), response -> EntityUtils.toString(response.getEntity()));
+            fail("Should have thrown a SocketTimeoutException.");
+        } catch (final SocketTimeoutException e) {
+            // Expected...
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.InstrumentedConnectionManager</code> class.
+ */
+public class InstrumentedConnectionManagerTest {
+
+    private static final Timeout TIMEOUT = Timeout.ofSeconds(5);
+
+    private ServerSocket serverSocket;
+
+    private InstrumentedConnectionManager connectionManager;
+
+    private HttpRoute route;
+
+    @Before
+    public void setUp() throws Exception {
+        // Connections only need to be accepted by the OS, nothing is sent over them...
+        serverSocket = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        route = new HttpRoute(new HttpHost("http", InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+        connectionManager = new InstrumentedConnectionManager(null,
+                new RouteConfigResolver(new RouteProfiles(), 1, ConnectionConfig.DEFAULT, SocketConfig.DEFAULT));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        connectionManager.close(CloseMode.IMMEDIATE);
+        serverSocket.close();
+    }
+
+    @Test
+    public void testStatefulLeaseReusesConnection() throws Exception {
+        final Object userToken = "client-certificate";
+
+        final ConnectionEndpoint endpoint = connectionManager.lease("1", route, TIMEOUT, userToken).get(TIMEOUT);
+        connectionManager.connect(endpoint, TIMEOUT, HttpClientContext.create());
+        connectionManager.release(endpoint, userToken, TimeValue.ofMinutes(1));
+
+        final ConnectionEndpoint reused = connectionManager.lease("2", route, TIMEOUT, userToken).get(TIMEOUT);
+        try {
+            assertThat("The pooled connection should have been handed back", reused.isConnected(), is(true));
+            assertThat(connectionManager.getMetrics().getStats(route).getLeased(), is(1));
+        } finally {
+            connectionManager.release(reused, userToken, TimeValue.ofMinutes(1));
+        }
+    }
+
+}
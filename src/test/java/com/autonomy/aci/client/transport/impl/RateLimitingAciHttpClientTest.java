@@ -0,0 +1,258 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.services.DeadlineExceededException;
+import com.autonomy.aci.client.services.RateLimitExceededException;
+import com.autonomy.aci.client.services.RequestCancelledException;
+import com.autonomy.aci.client.transport.AciHttpClient;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.AciResponseInputStream;
+import com.autonomy.aci.client.transport.AciServerDetails;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import com.autonomy.aci.client.util.ActionParameters;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.Mockito.*;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.RateLimitingAciHttpClient</code> class.
+ */
+public class RateLimitingAciHttpClientTest {
+
+    private final ActionParameters query = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "Query"));
+
+    private final ActionParameters dreAddData = new ActionParameters(new AciParameter(AciConstants.PARAM_ACTION, "DREADDDATA"));
+
+    private final AciServerDetails server1 = new AciServerDetails("server1", 9000);
+
+    private final AciServerDetails server2 = new AciServerDetails("server2", 9000);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private AciHttpClient mockAciHttpClient;
+
+    private RateLimitingAciHttpClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        mockAciHttpClient = mock(AciHttpClient.class);
+        when(mockAciHttpClient.executeAction(any(AciServerDetails.class), anySet())).thenReturn(mock(AciResponseInputStream.class));
+
+        client = new RateLimitingAciHttpClient(mockAciHttpClient, clock::get);
+        client.setMaxWaitTime(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullAciHttpClient() {
+        new RateLimitingAciHttpClient(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRate() {
+        client.setRate(server1, -1, 1);
+    }
+
+    @Test
+    public void testUnlimitedServer() throws Exception {
+        client.setRate(server1, 1, 1);
+
+        for (int ii = 0; ii < 5; ii++) {
+            client.executeAction(server2, query);
+        }
+
+        verify(mockAciHttpClient, times(5)).executeAction(server2, query);
+    }
+
+    @Test
+    public void testServerRateLimit() throws Exception {
+        client.setRate(server1, 10, 2);
+
+        client.executeAction(server1, query);
+        client.executeAction(server1, dreAddData);
+        try {
+            client.executeAction(server1, query);
+            fail("Should have thrown a RateLimitExceededException.");
+        } catch (final RateLimitExceededException e) {
+            assertThat(e.getHost(), is(equalTo("server1")));
+            assertThat(e.getPort(), is(9000));
+            assertThat(e.getAction(), is(nullValue()));
+        }
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        client.executeAction(server1, query);
+
+        verify(mockAciHttpClient, times(3)).executeAction(any(AciServerDetails.class), anySet());
+        assertThat(client.getBucket(server1).getRejectedCount(), is(1L));
+    }
+
+    @Test
+    public void testActionRateLimit() throws Exception {
+        client.setRate(server1, "DreAddData", 1, 1);
+
+        client.executeAction(server1, dreAddData);
+        try {
+            client.executeAction(server1, dreAddData);
+            fail("Should have thrown a RateLimitExceededException.");
+        } catch (final RateLimitExceededException e) {
+            assertThat(e.getAction(), is(equalTo("dreadddata")));
+        }
+
+        // Other actions aren't limited...
+        client.executeAction(server1, query);
+        client.executeAction(server1, query);
+
+        assertThat(client.getBucket(server1, "DREADDDATA"), is(notNullValue()));
+        assertThat(client.getBucket(server1, "query"), is(nullValue()));
+    }
+
+    @Test
+    public void testRejectedByServerLimitGivesActionPermitBack() throws Exception {
+        client.setRate(server1, 1, 1);
+        client.setRate(server1, "DREADDDATA", 1, 1);
+
+        client.executeAction(server1, query);
+        try {
+            client.executeAction(server1, dreAddData);
+            fail("Should have thrown a RateLimitExceededException.");
+        } catch (final RateLimitExceededException e) {
+            assertThat(e.getAction(), is(nullValue()));
+        }
+
+        assertThat(client.getBucket(server1, "DREADDDATA").getAvailablePermits(), is(1));
+    }
+
+    @Test
+    public void testRateCanBeChangedAndRemoved() throws Exception {
+        client.setRate(server1, 1, 1);
+        final TokenBucket bucket = client.getBucket(server1);
+
+        client.setRate(server1, 1, 3);
+        assertThat(client.getBucket(server1), is(sameInstance(bucket)));
+        assertThat(bucket.getBurst(), is(3));
+
+        client.removeRate(server1);
+        assertThat(client.getBucket(server1), is(nullValue()));
+        for (int ii = 0; ii < 5; ii++) {
+            client.executeAction(server1, query);
+        }
+    }
+
+    @Test
+    public void testKeyIsCopied() {
+        final AciServerDetails serverDetails = new AciServerDetails("server1", 9000);
+        client.setRate(serverDetails, 1, 1);
+        serverDetails.setPort(9001);
+
+        assertThat(client.getBucket(server1), is(notNullValue()));
+    }
+
+    @Test(timeout = 5000)
+    public void testWaitsForPermit() throws Exception {
+        client = new RateLimitingAciHttpClient(mockAciHttpClient);
+        client.setMaxWaitTime(1000);
+        client.setRate(server1, 50, 1);
+
+        final long start = System.nanoTime();
+        client.executeAction(server1, query);
+        client.executeAction(server1, query);
+        assertThat(System.nanoTime() - start, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(15))));
+    }
+
+    @Test(timeout = 5000)
+    public void testInterruptedWhileWaiting() throws Exception {
+        client.setMaxWaitTime(-1);
+        client.setRate(server1, 1, 1);
+        client.executeAction(server1, query);
+
+        Thread.currentThread().interrupt();
+        try {
+            client.executeAction(server1, query);
+            fail("Should have thrown an InterruptedIOException.");
+        } catch (final InterruptedIOException e) {
+            assertThat(Thread.interrupted(), is(true));
+        }
+
+        verify(mockAciHttpClient, times(1)).executeAction(any(AciServerDetails.class), anySet());
+    }
+
+    @Test(timeout = 5000)
+    public void testDeadlineLimitsWait() throws Exception {
+        client.setMaxWaitTime(-1);
+        client.setRate(server1, 1, 1);
+        client.setRate(server1, "Query", 1, 1);
+        client.executeAction(server1, query);
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+
+        // The next permit is 500ms away, but the deadline is sooner...
+        final ActionParameters withDeadline = new ActionParameters(query);
+        withDeadline.setDeadline(Deadline.after(100, TimeUnit.MILLISECONDS));
+        try {
+            client.executeAction(server1, withDeadline);
+            fail("Should have thrown a DeadlineExceededException.");
+        } catch (final DeadlineExceededException e) {
+            assertThat(e.getTimeout(), is(100L));
+        }
+
+        verify(mockAciHttpClient, times(1)).executeAction(any(AciServerDetails.class), anySet());
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(client.getBucket(server1, "query").getAvailablePermits(), is(1));
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelStopsWait() throws Exception {
+        client.setMaxWaitTime(-1);
+        client.setRate(server1, 1, 1);
+        client.setRate(server1, "Query", 1, 1);
+        client.executeAction(server1, query);
+
+        // The next permit is a second away...
+        final CancellationToken cancellation = new CancellationToken();
+        final ActionParameters cancellable = new ActionParameters(query);
+        cancellable.setCancellationToken(cancellation);
+        final Thread canceller = new Thread(() -> {
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            cancellation.cancel();
+        });
+        canceller.start();
+        try {
+            client.executeAction(server1, cancellable);
+            fail("Should have thrown a RequestCancelledException.");
+        } catch (final RequestCancelledException e) {
+            // Expected...
+        }
+
+        verify(mockAciHttpClient, times(1)).executeAction(any(AciServerDetails.class), anySet());
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(client.getBucket(server1).getAvailablePermits(), is(1));
+        assertThat(client.getBucket(server1, "query").getAvailablePermits(), is(1));
+    }
+}
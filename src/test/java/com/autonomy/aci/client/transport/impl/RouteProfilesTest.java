@@ -0,0 +1,121 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import com.autonomy.aci.client.transport.AciServerDetails;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.RouteProfiles</code> class.
+ */
+public class RouteProfilesTest {
+
+    private final RouteProfiles profiles = new RouteProfiles();
+
+    @Test
+    public void testNoMatch() {
+        profiles.put("dah:9000", new RouteProfile(64));
+        assertThat(profiles.resolve("dah", 9100), is(nullValue()));
+        assertThat(profiles.resolve("other", 9000), is(nullValue()));
+    }
+
+    @Test
+    public void testServerDetails() {
+        profiles.put(new AciServerDetails("DAH", 9000), new RouteProfile(64));
+        assertThat(profiles.resolve("dah", 9000).getMaxConnections(), is(64));
+        assertThat(profiles.getProfiles().keySet(), contains("dah:9000"));
+    }
+
+    @Test
+    public void testExactMatchTakesPrecedence() {
+        profiles.put("*:9000", new RouteProfile(16));
+        profiles.put("dah:*", new RouteProfile(2));
+        profiles.put("dah:9000", new RouteProfile(64));
+
+        assertThat(profiles.resolve("dah", 9000).getMaxConnections(), is(64));
+        assertThat("Wildcards are tried in the order they were added", profiles.resolve("dah", 9100).getMaxConnections(), is(2));
+        assertThat(profiles.resolve("content", 9000).getMaxConnections(), is(16));
+    }
+
+    @Test
+    public void testPatternWithoutPortMatchesEveryPort() {
+        profiles.put("Content1.Example.com", new RouteProfile(8));
+        assertThat(profiles.resolve("content1.example.com", 9100).getMaxConnections(), is(8));
+        assertThat(profiles.resolve("CONTENT1.EXAMPLE.COM", 9000).getMaxConnections(), is(8));
+        assertThat(profiles.resolve("content1xexample.com", 9000), is(nullValue()));
+    }
+
+    @Test
+    public void testHostWildcard() {
+        profiles.put("content*.example.com:9100", new RouteProfile(2));
+        assertThat(profiles.resolve("content12.example.com", 9100).getMaxConnections(), is(2));
+        assertThat(profiles.resolve("dah.example.com", 9100), is(nullValue()));
+    }
+
+    @Test
+    public void testProfilesAreCopied() {
+        final RouteProfile profile = new RouteProfile(8);
+        profiles.put("dah", profile);
+        profile.setMaxConnections(1);
+
+        assertThat(profiles.resolve("dah", 9000).getMaxConnections(), is(8));
+    }
+
+    @Test
+    public void testRemoveChangesGeneration() {
+        profiles.put(new AciServerDetails("dah", 9000), new RouteProfile(64));
+        final int generation = profiles.getGeneration();
+
+        assertThat(profiles.remove("other"), is(false));
+        assertThat(profiles.getGeneration(), is(generation));
+
+        assertThat(profiles.remove(new AciServerDetails("dah", 9000)), is(true));
+        assertThat(profiles.getGeneration(), is(not(generation)));
+        assertThat(profiles.resolve("dah", 9000), is(nullValue()));
+    }
+
+    @Test
+    public void testSetProfiles() {
+        profiles.put("dah", new RouteProfile(64));
+
+        final Map<String, RouteProfile> replacement = new LinkedHashMap<>();
+        replacement.put("content:9000", new RouteProfile(4));
+        profiles.setProfiles(replacement);
+
+        assertThat(profiles.resolve("dah", 9000), is(nullValue()));
+        assertThat(profiles.resolve("content", 9000).getMaxConnections(), is(4));
+
+        profiles.setProfiles(Collections.emptyMap());
+        assertThat(profiles.getProfiles().isEmpty(), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBlankPattern() {
+        profiles.put(" ", new RouteProfile());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullProfile() {
+        profiles.put("dah", null);
+    }
+
+}
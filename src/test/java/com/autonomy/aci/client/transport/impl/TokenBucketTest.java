@@ -0,0 +1,134 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.transport.impl;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.transport.impl.TokenBucket</code> class.
+ */
+public class TokenBucketTest {
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(100));
+
+    private void advance(final long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPermitsPerSecond() {
+        new TokenBucket(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBurst() {
+        new TokenBucket(10, 0);
+    }
+
+    @Test
+    public void testStartsFullAndAllowsBurst() {
+        final TokenBucket bucket = new TokenBucket(10, 3, clock::get);
+        assertThat(bucket.getAvailablePermits(), is(3));
+
+        assertThat(bucket.tryAcquire(), is(true));
+        assertThat(bucket.tryAcquire(), is(true));
+        assertThat(bucket.tryAcquire(), is(true));
+        assertThat(bucket.tryAcquire(), is(false));
+        assertThat(bucket.getAvailablePermits(), is(0));
+        assertThat(bucket.getRejectedCount(), is(1L));
+    }
+
+    @Test
+    public void testRefillsAtRate() {
+        final TokenBucket bucket = new TokenBucket(10, 2, clock::get);
+        bucket.tryAcquire();
+        bucket.tryAcquire();
+        assertThat(bucket.tryAcquire(), is(false));
+
+        advance(100);
+        assertThat(bucket.tryAcquire(), is(true));
+        assertThat(bucket.tryAcquire(), is(false));
+
+        // A long quiet period only fills the bucket up to the burst...
+        advance(10000);
+        assertThat(bucket.getAvailablePermits(), is(2));
+        assertThat(bucket.tryAcquire(), is(true));
+        assertThat(bucket.tryAcquire(), is(true));
+        assertThat(bucket.tryAcquire(), is(false));
+    }
+
+    @Test
+    public void testReserveReturnsWait() {
+        final TokenBucket bucket = new TokenBucket(10, 1, clock::get);
+        assertThat(bucket.reserve(0), is(0L));
+        assertThat(bucket.reserve(TimeUnit.MILLISECONDS.toNanos(250)), is(TimeUnit.MILLISECONDS.toNanos(100)));
+        assertThat(bucket.reserve(TimeUnit.MILLISECONDS.toNanos(250)), is(TimeUnit.MILLISECONDS.toNanos(200)));
+        assertThat(bucket.reserve(TimeUnit.MILLISECONDS.toNanos(250)), is(-1L));
+
+        // Giving a reservation back makes its slot available again...
+        bucket.cancel();
+        assertThat(bucket.reserve(TimeUnit.MILLISECONDS.toNanos(250)), is(TimeUnit.MILLISECONDS.toNanos(200)));
+    }
+
+    @Test
+    public void testSetRateKeepsLevel() {
+        final TokenBucket bucket = new TokenBucket(10, 1, clock::get);
+        bucket.tryAcquire();
+
+        bucket.setRate(100, 5);
+        assertThat(bucket.getPermitsPerSecond(), is(100.0));
+        assertThat(bucket.getBurst(), is(5));
+        assertThat(bucket.tryAcquire(), is(false));
+
+        advance(10);
+        assertThat(bucket.tryAcquire(), is(true));
+    }
+
+    @Test(timeout = 5000)
+    public void testTimedAndBlockingAcquire() throws Exception {
+        final TokenBucket bucket = new TokenBucket(50, 1);
+        bucket.acquire();
+
+        assertThat(bucket.tryAcquire(1, TimeUnit.MILLISECONDS), is(false));
+
+        final long start = System.nanoTime();
+        assertThat(bucket.tryAcquire(1, TimeUnit.SECONDS), is(true));
+        bucket.acquire();
+        assertThat(System.nanoTime() - start, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(30))));
+    }
+
+    @Test(timeout = 5000)
+    public void testInterruptedAcquireGivesPermitBack() {
+        final TokenBucket bucket = new TokenBucket(1, 1, clock::get);
+        bucket.tryAcquire();
+
+        Thread.currentThread().interrupt();
+        try {
+            bucket.acquire();
+        } catch (final InterruptedException e) {
+            // Expected...
+        }
+
+        advance(1000);
+        assertThat(bucket.tryAcquire(), is(true));
+    }
+
+}
@@ -17,14 +17,19 @@ package com.autonomy.aci.client.util;
 import com.autonomy.aci.client.services.AciConstants;
 import com.autonomy.aci.client.transport.AciParameter;
 import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.Deadline;
+import com.autonomy.aci.client.transport.InputStreamActionParameter;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
@@ -577,4 +582,117 @@ public class ActionParametersTest {
         images.forEach(image -> assertThat(image, is(instanceOf(InputStream.class))));
     }
 
+    @Test
+    public void testByteBufferParametersNotStringified() {
+        final ActionParameters parameters = new ActionParameters();
+        parameters.add("document", ByteBuffer.wrap(new byte[3]));
+
+        assertThat(parameters.get("document"), is(instanceOf(ByteBuffer.class)));
+        assertThat(parameters.iterator().next().requiresPostRequest(), is(true));
+    }
+
+    @Test
+    public void testGetIsCaseInsensitive() {
+        final ActionParameters parameters = new ActionParameters("Query");
+        parameters.add("Text", "cat");
+
+        assertThat(parameters.get("text"), is(equalTo("cat")));
+        assertThat(parameters.get("TEXT"), is(equalTo("cat")));
+        assertThat(parameters.get(null), is(nullValue()));
+
+        parameters.put("tExT", "dog");
+        assertThat(parameters.size(), is(2));
+        assertThat(parameters.get("Text"), is(equalTo("dog")));
+
+        parameters.remove("TEXT");
+        assertThat(parameters.get("text"), is(nullValue()));
+    }
+
+    @Test
+    public void testParametersOfDifferentTypesWithTheSameName() {
+        final InputStreamActionParameter file = new InputStreamActionParameter("File", new ByteArrayInputStream(new byte[0]));
+        final ActionParameters parameters = new ActionParameters(new AciParameter("File", "name"), file);
+
+        // They aren't equal, so both are held, and get() returns the first...
+        assertThat(parameters.size(), is(2));
+        assertThat(parameters.get("file"), is(equalTo("name")));
+
+        parameters.remove("file");
+        assertThat(parameters.size(), is(1));
+        assertThat(parameters.get("file"), is(sameInstance(file.getValue())));
+
+        parameters.remove(file);
+        assertThat(parameters.isEmpty(), is(true));
+        assertThat(parameters.get("file"), is(nullValue()));
+    }
+
+    @Test
+    public void testIteratorRemoveUpdatesTheIndex() {
+        final ActionParameters parameters = new ActionParameters("Query");
+        parameters.add("Text", "cat");
+        parameters.add("MaxResults", 10);
+
+        for (final Iterator<ActionParameter<?>> iterator = parameters.iterator(); iterator.hasNext(); ) {
+            if ("Text".equals(iterator.next().getName())) {
+                iterator.remove();
+            }
+        }
+
+        assertThat(parameters.get("Text"), is(nullValue()));
+        assertThat(parameters.contains("Text"), is(false));
+        assertThat(parameters.get("MaxResults"), is(equalTo("10")));
+
+        parameters.add("Text", "dog");
+        assertThat(parameters.get("Text"), is(equalTo("dog")));
+    }
+
+    @Test
+    public void testPutKeepsInsertionOrder() {
+        final ActionParameters parameters = new ActionParameters("Query");
+        parameters.add("Text", "cat");
+        parameters.add("MaxResults", 10);
+        parameters.put(new AciParameter("TEXT", "dog"));
+
+        final ActionParameter<?>[] array = parameters.toArray();
+        assertThat(array[0].getName(), is(equalTo(AciConstants.PARAM_ACTION)));
+        assertThat(array[1].getName(), is(equalTo("MaxResults")));
+        assertThat(array[2].getName(), is(equalTo("TEXT")));
+        assertThat(parameters.get("text"), is(equalTo("dog")));
+    }
+
+    @Test
+    public void testManyParameters() {
+        final ActionParameters parameters = new ActionParameters("Query");
+        for (int ii = 0; ii < 1000; ii++) {
+            parameters.put("Parameter" + ii, ii);
+        }
+
+        assertThat(parameters.size(), is(1001));
+        for (int ii = 0; ii < 1000; ii++) {
+            assertThat(parameters.get("PARAMETER" + ii), is(equalTo(String.valueOf(ii))));
+        }
+
+        parameters.retainAll(Collections.singleton(new AciParameter("parameter500", "")));
+        assertThat(parameters.size(), is(1));
+        assertThat(parameters.get("Parameter500"), is(equalTo("500")));
+        assertThat(parameters.get("Parameter501"), is(nullValue()));
+    }
+
+    @Test
+    public void testDeadline() {
+        final Deadline deadline = Deadline.after(1, TimeUnit.SECONDS);
+        final ActionParameters parameters = new ActionParameters("Query");
+        assertThat(parameters.getDeadline(), is(nullValue()));
+
+        parameters.setDeadline(deadline);
+        assertThat(parameters.getDeadline(), is(sameInstance(deadline)));
+
+        // The deadline isn't a parameter...
+        assertThat(parameters, is(equalTo(new ActionParameters("Query"))));
+        assertThat(parameters.size(), is(1));
+
+        // ...but is kept when copying...
+        assertThat(new ActionParameters(parameters).getDeadline(), is(sameInstance(deadline)));
+    }
+
 }
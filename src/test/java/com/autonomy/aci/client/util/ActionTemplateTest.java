@@ -0,0 +1,144 @@
+/*
+ * Copyright 2006-2018 Open Text.
+ *
+ * Licensed under the MIT License (the "License"); you may not use this file
+ * except in compliance with the License.
+ *
+ * The only warranties for products and services of Open Text and its affiliates
+ * and licensors ("Open Text") are as may be set forth in the express warranty
+ * statements accompanying such products and services. Nothing herein should be
+ * construed as constituting an additional warranty. Open Text shall not be
+ * liable for technical or editorial errors or omissions contained herein. The
+ * information contained herein is subject to change without notice.
+ */
+
+package com.autonomy.aci.client.util;
+
+import com.autonomy.aci.client.services.AciConstants;
+import com.autonomy.aci.client.transport.AciParameter;
+import com.autonomy.aci.client.transport.ActionParameter;
+import com.autonomy.aci.client.transport.CancellationToken;
+import com.autonomy.aci.client.transport.Deadline;
+import com.autonomy.aci.client.transport.InputStreamActionParameter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test class for the <code>com.autonomy.aci.client.util.ActionTemplate</code> class.
+ */
+public class ActionTemplateTest {
+
+    private final ActionTemplate template = new ActionTemplate(
+            new AciParameter("Print", "fields"),
+            new AciParameter(AciConstants.PARAM_ACTION, "Query"),
+            new AciParameter("MaxResults", 10)
+    );
+
+    private static List<String> names(final Iterable<ActionParameter<?>> parameters) {
+        final List<String> names = new ArrayList<>();
+        parameters.forEach(parameter -> names.add(parameter.getName()));
+        return names;
+    }
+
+    @Test
+    public void testActionIsFirst() {
+        assertThat(names(template.getParameters()), contains(AciConstants.PARAM_ACTION, "Print", "MaxResults"));
+        assertThat(template.getAction(), is(equalTo("Query")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testActionIsRequired() {
+        new ActionTemplate(new AciParameter("Text", "cat"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStreamedParametersCannotBeFixed() {
+        new ActionTemplate(new AciParameter(AciConstants.PARAM_ACTION, "DREADD"), new InputStreamActionParameter("File", new ByteArrayInputStream(new byte[0])));
+    }
+
+    @Test
+    public void testBind() {
+        final Set<ActionParameter<?>> bound = template.bind(new AciParameter("Text", "cat"), null, new AciParameter("Start", 11), new AciParameter("text", "dog"));
+
+        assertThat(bound, is(instanceOf(BoundActionParameters.class)));
+        assertThat(((BoundActionParameters) bound).getTemplate(), is(sameInstance(template)));
+        assertThat(bound.size(), is(5));
+        assertThat(names(bound), contains(AciConstants.PARAM_ACTION, "Print", "MaxResults", "Text", "Start"));
+        assertThat(bound.contains(new AciParameter("print", "")), is(true));
+        assertThat(bound.contains(new AciParameter("TEXT", "")), is(true));
+        assertThat(bound.contains(new AciParameter("FieldText", "")), is(false));
+
+        final ActionParameters equivalent = new ActionParameters(bound);
+        assertThat(equivalent.get("Text"), is(equalTo("cat")));
+        assertThat(bound, is(equalTo(equivalent)));
+        assertThat(bound.hashCode(), is(equivalent.hashCode()));
+    }
+
+    @Test
+    public void testBoundParametersCarryDeadlineAndCancellationToken() {
+        final BoundActionParameters bound = (BoundActionParameters) template.bind(new AciParameter("Text", "cat"));
+        assertThat(Deadline.of(bound), is(nullValue()));
+        assertThat(CancellationToken.of(bound), is(nullValue()));
+
+        final Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        final CancellationToken cancellationToken = new CancellationToken();
+        bound.setDeadline(deadline);
+        bound.setCancellationToken(cancellationToken);
+
+        assertThat(Deadline.of(bound), is(sameInstance(deadline)));
+        assertThat(CancellationToken.of(bound), is(sameInstance(cancellationToken)));
+        assertThat(bound, is(equalTo(template.bind(new AciParameter("Text", "cat")))));
+
+        // Copying the parameters keeps them...
+        final ActionParameters copy = new ActionParameters(bound);
+        assertThat(copy.getDeadline(), is(sameInstance(deadline)));
+        assertThat(copy.getCancellationToken(), is(sameInstance(cancellationToken)));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testBoundParametersCannotBeModified() {
+        template.bind(new AciParameter("Text", "cat")).add(new AciParameter("Start", 11));
+    }
+
+    @Test
+    public void testOverridingAFixedParameter() {
+        final Set<ActionParameter<?>> bound = template.bind(new AciParameter("maxresults", 20), new AciParameter("Text", "cat"));
+
+        assertThat(bound, is(instanceOf(ActionParameters.class)));
+        assertThat(((ActionParameters) bound).get("MaxResults"), is(equalTo("20")));
+        assertThat(((ActionParameters) bound).get("Text"), is(equalTo("cat")));
+        assertThat(bound.size(), is(4));
+        assertThat(names(bound).get(0), is(equalTo(AciConstants.PARAM_ACTION)));
+    }
+
+    @Test
+    public void testBindingAStreamedParameter() {
+        final Set<ActionParameter<?>> bound = template.bind(new InputStreamActionParameter("File", new ByteArrayInputStream(new byte[0])));
+
+        assertThat(bound, is(instanceOf(ActionParameters.class)));
+        assertThat(bound.size(), is(4));
+    }
+
+    @Test
+    public void testEncodingsAreCached() {
+        final AtomicInteger calls = new AtomicInteger();
+
+        assertThat(template.getEncodedQuery(parameters -> "query" + calls.incrementAndGet()), is(equalTo("query1")));
+        assertThat(template.getEncodedQuery(parameters -> "query" + calls.incrementAndGet()), is(equalTo("query1")));
+
+        assertThat(template.getEncodedForm(StandardCharsets.UTF_8, (parameters, charset) -> charset.name() + calls.incrementAndGet()), is(equalTo("UTF-82")));
+        assertThat(template.getEncodedForm(StandardCharsets.UTF_8, (parameters, charset) -> charset.name() + calls.incrementAndGet()), is(equalTo("UTF-82")));
+        assertThat(template.getEncodedForm(StandardCharsets.ISO_8859_1, (parameters, charset) -> charset.name() + calls.incrementAndGet()), is(equalTo("ISO-8859-13")));
+    }
+
+}